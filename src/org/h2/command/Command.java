@@ -26,7 +26,7 @@ public abstract class Command implements CommandInterface {
     /**
      * The session.
      */
-    protected final Session session;
+    protected Session session;
 
     /**
      * The last start time.
@@ -47,6 +47,13 @@ public abstract class Command implements CommandInterface {
 
     private boolean canReuse;
 
+    /**
+     * The shared cache this command is returned to when it is closed, or
+     * null.
+     */
+    private PlanCache planCache;
+    private String planKey;
+
     Command(Parser parser, String sql) {
         this.session = parser.getSession();
         this.sql = sql;
@@ -150,7 +157,8 @@ public abstract class Command implements CommandInterface {
         } else if (session.getDatabase().isMultiThreaded()) {
             Database db = session.getDatabase();
             if (db != null) {
-                if (db.getLockMode() == Constants.LOCK_MODE_READ_COMMITTED) {
+                int lockMode = db.getLockMode();
+                if (lockMode == Constants.LOCK_MODE_READ_COMMITTED || lockMode == Constants.LOCK_MODE_ROW) {
                     session.unlockReadLocks();
                 }
             }
@@ -185,29 +193,34 @@ public abstract class Command implements CommandInterface {
                 // wait
             }
         }
-        synchronized (sync) {
-            session.setCurrentCommand(this);
-            try {
-                while (true) {
-                    database.checkPowerOff();
-                    try {
-                        return query(maxrows);
-                    } catch (DbException e) {
-                        start = filterConcurrentUpdate(e, start);
-                    } catch (Throwable e) {
-                        throw DbException.convert(e);
+        try {
+            synchronized (sync) {
+                session.setCurrentCommand(this);
+                try {
+                    while (true) {
+                        database.checkPowerOff();
+                        try {
+                            return query(maxrows);
+                        } catch (DbException e) {
+                            start = filterConcurrentUpdate(e, start);
+                        } catch (Throwable e) {
+                            throw DbException.convert(e);
+                        }
+                    }
+                } catch (DbException e) {
+                    e.addSQL(sql);
+                    database.exceptionThrown(e.getSQLException(), sql);
+                    throw e;
+                } finally {
+                    stop();
+                    if (writing) {
+                        database.afterWriting();
                     }
-                }
-            } catch (DbException e) {
-                e.addSQL(sql);
-                database.exceptionThrown(e.getSQLException(), sql);
-                throw e;
-            } finally {
-                stop();
-                if (writing) {
-                    database.afterWriting();
                 }
             }
+        } finally {
+            //提交时写的日志在释放数据库锁之后才刷到磁盘(group commit)，不阻塞其他session
+            session.flushCommit();
         }
     }
 
@@ -226,50 +239,57 @@ public abstract class Command implements CommandInterface {
                 // wait
             }
         }
-        synchronized (sync) {
-            int rollback = session.getUndoLogPos(); //记下日志位置，以便失败时回退
-            session.setCurrentCommand(this);
-            try {
-                while (true) {
+        try {
+            synchronized (sync) {
+                int rollback = session.getUndoLogPos(); //记下日志位置，以便失败时回退
+                session.setCurrentCommand(this);
+                try {
+                    while (true) {
+                        database.checkPowerOff();
+                        try {
+                            return update();
+                        } catch (DbException e) {
+                            start = filterConcurrentUpdate(e, start);
+                            //重试前先撤销这条语句已经做过的修改，否则已删除的旧行不会再被加回来
+                            session.rollbackTo(rollback, false);
+                        } catch (Throwable e) {
+                            throw DbException.convert(e);
+                        }
+                    }
+                } catch (DbException e) {
+                    e = e.addSQL(sql);
+                    SQLException s = e.getSQLException();
+                    database.exceptionThrown(s, sql);
                     database.checkPowerOff();
-                    try {
-                        return update();
-                    } catch (DbException e) {
-                        start = filterConcurrentUpdate(e, start);
-                    } catch (Throwable e) {
-                        throw DbException.convert(e);
+                    if (s.getErrorCode() == ErrorCode.DEADLOCK_1) {
+                        session.rollback();
+                    } else if (s.getErrorCode() == ErrorCode.OUT_OF_MEMORY) {
+                        // there is a serious problem:
+                        // the transaction may be applied partially
+                        // in this case we need to panic:
+                        // close the database
+                        callStop = false;
+                        database.shutdownImmediately();
+                        throw e;
+                    } else {
+                        session.rollbackTo(rollback, false);
                     }
-                }
-            } catch (DbException e) {
-                e = e.addSQL(sql);
-                SQLException s = e.getSQLException();
-                database.exceptionThrown(s, sql);
-                database.checkPowerOff();
-                if (s.getErrorCode() == ErrorCode.DEADLOCK_1) {
-                    session.rollback();
-                } else if (s.getErrorCode() == ErrorCode.OUT_OF_MEMORY) {
-                    // there is a serious problem:
-                    // the transaction may be applied partially
-                    // in this case we need to panic:
-                    // close the database
-                    callStop = false;
-                    database.shutdownImmediately();
                     throw e;
-                } else {
-                    session.rollbackTo(rollback, false);
-                }
-                throw e;
-            } finally {
-                try {
-                    if (callStop) {
-                        stop();
-                    }
                 } finally {
-                    if (writing) {
-                        database.afterWriting();
+                    try {
+                        if (callStop) {
+                            stop();
+                        }
+                    } finally {
+                        if (writing) {
+                            database.afterWriting();
+                        }
                     }
                 }
             }
+        } finally {
+            //提交时写的日志在释放数据库锁之后才刷到磁盘(group commit)，不阻塞其他session
+            session.flushCommit();
         }
     }
 
@@ -302,6 +322,12 @@ public abstract class Command implements CommandInterface {
     }
 
     public void close() { //命令关闭后才可重用
+        if (planCache != null && !canReuse) {
+            canReuse = true;
+            //放回共享缓存后其他session就可以用了，所以这里不能再访问任何字段
+            planCache.put(planKey, this);
+            return;
+        }
         canReuse = true;
     }
 
@@ -326,6 +352,27 @@ public abstract class Command implements CommandInterface {
         return canReuse;
     }
 
+    /**
+     * Put this command into the given shared cache when it is closed.
+     *
+     * @param planCache the cache
+     * @param planKey the key of this command in the cache
+     */
+    void setPlanCache(PlanCache planCache, String planKey) {
+        this.planCache = planCache;
+        this.planKey = planKey;
+    }
+
+    /**
+     * Change the session of this command, so that it can be used by
+     * another session.
+     *
+     * @param session the new session
+     */
+    void setSession(Session session) {
+        this.session = session;
+    }
+
     /**
      * The command is now re-used, therefore reset the canReuse flag, and the
      * parameter values.
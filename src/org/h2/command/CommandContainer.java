@@ -8,6 +8,7 @@ package org.h2.command;
 
 import java.util.ArrayList;
 import org.h2.api.DatabaseEventListener;
+import org.h2.engine.Session;
 import org.h2.expression.Parameter;
 import org.h2.expression.ParameterInterface;
 import org.h2.result.ResultInterface;
@@ -30,6 +31,16 @@ class CommandContainer extends Command {
         this.prepared = prepared;
     }
 
+    void setSession(Session session) {
+        super.setSession(session);
+        prepared.setSession(session);
+    }
+
+    public void close() {
+        prepared.close();
+        super.close();
+    }
+
     public ArrayList<? extends ParameterInterface> getParameters() {
         return prepared.getParameters();
     }
@@ -46,6 +57,7 @@ class CommandContainer extends Command {
     private void recompileIfRequired() {
         if (prepared.needRecompile()) {
             // TODO test with 'always recompile'
+            prepared.close();
             prepared.setModificationMetaId(0);
             String sql = prepared.getSQL();
             ArrayList<Parameter> oldParams = prepared.getParameters();
@@ -120,6 +120,7 @@ import org.h2.schema.Schema;
 import org.h2.schema.Sequence;
 import org.h2.table.Column;
 import org.h2.table.FunctionTable;
+import org.h2.table.Histogram;
 import org.h2.table.IndexColumn;
 import org.h2.table.RangeTable;
 import org.h2.table.Table;
@@ -183,6 +184,7 @@ public class Parser {
     private ArrayList<String> expectedList;
     private boolean rightsChecked;
     private boolean recompileAlways;
+    private boolean shareable;
     private ArrayList<Parameter> indexedParameterList;
     private final boolean identifiersToUpper;
 
@@ -279,6 +281,7 @@ public class Parser {
         currentPrepared = null;
         createView = null;
         recompileAlways = false;
+        shareable = true;
         indexedParameterList = null;
         read();
         return parsePrepared();
@@ -1122,6 +1125,7 @@ public class Parser {
             }
         }
         alias = readFromAlias(alias);
+        checkShareable(table);
         return new TableFilter(session, table, alias, rightsChecked, currentSelect);
     }
 
@@ -3875,6 +3879,19 @@ public class Parser {
             int value = getPositiveInt();
             column.setSelectivity(value);
         }
+        if (readIf("HISTOGRAM")) {
+            read("(");
+            long distinct = readLong();
+            ArrayList<Value> bounds = New.arrayList();
+            while (readIf(",")) {
+                Value v = readExpression().optimize(session).getValue(session);
+                bounds.add(column.convert(v));
+            }
+            read(")");
+            if (bounds.size() > 1) {
+                column.setHistogram(new Histogram(bounds.toArray(new Value[bounds.size()]), distinct));
+            }
+        }
         String comment = readCommentIf();
         if (comment != null) {
             column.setComment(comment);
@@ -4294,6 +4311,7 @@ public class Parser {
         tf.setColumns(columns);
         tf.doneWithParameters();
         Table table = new FunctionTable(mainSchema, session, tf, tf);
+        shareable = false;
         TableFilter filter = new TableFilter(session, table, null, rightsChecked, currentSelect);
         return filter;
     }
@@ -5071,11 +5089,11 @@ public class Parser {
     private Table readTableOrView(String tableName) {
         // same algorithm than readSequence
         if (schemaName != null) {
-            return getSchema().getTableOrView(session, tableName);
+            return checkShareable(getSchema().getTableOrView(session, tableName));
         }
         Table table = database.getSchema(session.getCurrentSchemaName()).findTableOrView(session, tableName);
         if (table != null) {
-            return table;
+            return checkShareable(table);
         }
         String[] schemaNames = session.getSchemaSearchPath();
         if (schemaNames != null) {
@@ -5083,13 +5101,42 @@ public class Parser {
                 Schema s = database.getSchema(name);
                 table = s.findTableOrView(session, tableName);
                 if (table != null) {
-                    return table;
+                    return checkShareable(table);
                 }
             }
         }
         throw DbException.get(ErrorCode.TABLE_OR_VIEW_NOT_FOUND_1, tableName);
     }
 
+    /**
+     * Views, table functions and temporary tables are bound to the session
+     * that uses them, so that statements that read them can not be used by
+     * other sessions.
+     *
+     * @param table the table
+     * @return the table
+     */
+    private Table checkShareable(Table table) {
+        if (table instanceof RangeTable) {
+            // also used for DUAL
+            return table;
+        }
+        if (!Table.TABLE.equals(table.getTableType()) || table.isTemporary()) {
+            shareable = false;
+        }
+        return table;
+    }
+
+    /**
+     * Check if the last parsed statement can be used by other sessions as
+     * well. This is the case if it only reads regular, non-temporary tables.
+     *
+     * @return true if it can
+     */
+    boolean isShareable() {
+        return shareable && !recompileAlways;
+    }
+
     private FunctionAlias findFunctionAlias(String schema, String aliasName) {
         FunctionAlias functionAlias = database.getSchema(schema).findFunction(aliasName);
         if (functionAlias != null) {
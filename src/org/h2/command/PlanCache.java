@@ -0,0 +1,119 @@
+/*
+ * Copyright 2004-2013 H2 Group. Multiple-Licensed under the H2 License,
+ * Version 1.0, and under the Eclipse Public License, Version 1.0
+ * (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.command;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import org.h2.engine.Session;
+import org.h2.util.New;
+import org.h2.util.StatementBuilder;
+
+/**
+ * A cache of parsed and optimized statements that is shared by all sessions
+ * of a database. When a session closes a statement, it is put into this cache,
+ * and the next session that prepares the same SQL statement takes it from the
+ * cache instead of parsing and optimizing it again. A statement is only used
+ * by one session at a time; the session of the statement is changed when it
+ * is taken from the cache, and the parameter values are reset.
+ * <p>
+ * Only statements that read regular, non-temporary tables are shared. Table
+ * names are resolved and access rights are checked when parsing, so the key
+ * contains the user name and the schema search path of the session as well.
+ * Statements that are out of date because the database meta data was changed
+ * are re-compiled when they are executed, as usual.
+ */
+public class PlanCache {
+
+    private final LinkedHashMap<String, ArrayList<Command>> map =
+            new LinkedHashMap<String, ArrayList<Command>>(16, 0.75f, true);
+    private final int maxSize;
+    private int size;
+
+    public PlanCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get a statement for the given session. An idle statement is taken from
+     * the cache if there is one; otherwise the statement is parsed and
+     * prepared.
+     *
+     * @param session the session
+     * @param sql the SQL statement
+     * @return the command
+     */
+    public Command prepare(Session session, String sql) {
+        String key = getKey(session, sql);
+        Command command = null;
+        synchronized (this) {
+            ArrayList<Command> list = map.get(key);
+            if (list != null) {
+                command = list.remove(list.size() - 1);
+                size--;
+                if (list.isEmpty()) {
+                    map.remove(key);
+                }
+            }
+        }
+        if (command != null) {
+            command.setSession(session);
+            command.reuse();
+            return command;
+        }
+        Parser parser = new Parser(session);
+        command = parser.prepareCommand(sql);
+        if (command.isCacheable() && parser.isShareable()) {
+            command.setPlanCache(this, key);
+        }
+        return command;
+    }
+
+    /**
+     * Add a closed statement to the cache. If the cache is full, the least
+     * recently used statements are removed.
+     *
+     * @param key the key
+     * @param command the command
+     */
+    synchronized void put(String key, Command command) {
+        ArrayList<Command> list = map.get(key);
+        if (list == null) {
+            list = New.arrayList();
+            map.put(key, list);
+        }
+        list.add(command);
+        size++;
+        Iterator<ArrayList<Command>> it = map.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            ArrayList<Command> old = it.next();
+            size -= old.size();
+            it.remove();
+        }
+    }
+
+    /**
+     * Remove all statements.
+     */
+    public synchronized void clear() {
+        map.clear();
+        size = 0;
+    }
+
+    private static String getKey(Session session, String sql) {
+        StatementBuilder buff = new StatementBuilder(session.getUser().getName());
+        buff.append('/').append(session.getCurrentSchemaName());
+        String[] searchPath = session.getSchemaSearchPath();
+        if (searchPath != null) {
+            for (String s : searchPath) {
+                buff.append(',').append(s);
+            }
+        }
+        return buff.append('/').append(sql).toString();
+    }
+
+}
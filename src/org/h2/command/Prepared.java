@@ -304,6 +304,15 @@ public abstract class Prepared {
         this.session = currentSession;
     }
 
+    /**
+     * Release the resources that are kept between executions of this
+     * statement (for example the copies of a query that are used by parallel
+     * worker threads). The statement can still be executed afterwards.
+     */
+    public void close() {
+        // nothing to do by default
+    }
+
     /**
      * Print information about the statement executed if info trace level is
      * enabled.
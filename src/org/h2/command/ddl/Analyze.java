@@ -8,14 +8,19 @@ package org.h2.command.ddl;
 
 import org.h2.command.CommandInterface;
 import org.h2.command.Prepared;
+import org.h2.engine.Constants;
 import org.h2.engine.Database;
 import org.h2.engine.Right;
 import org.h2.engine.Session;
+import org.h2.index.Index;
 import org.h2.result.ResultInterface;
 import org.h2.table.Column;
+import org.h2.table.Histogram;
 import org.h2.table.Table;
 import org.h2.util.StatementBuilder;
 import org.h2.value.Value;
+import org.h2.value.ValueArray;
+import org.h2.value.ValueNull;
 
 /**
  * This class represents the statement
@@ -48,7 +53,7 @@ public class Analyze extends DefineCommand {
      *
      * @param session the session
      * @param table the table
-     * @param sample the number of sample rows
+     * @param sample the number of rows to sample randomly, or 0 for all rows
      * @param manual whether the command was called by the user
      */
     public static void analyzeTable(Session session, Table table, int sample, boolean manual) {
@@ -91,17 +96,45 @@ public class Analyze extends DefineCommand {
                 buff.append("SELECTIVITY(").append(col.getSQL()).append(')');
             }
         }
+        // histograms are only useful for the columns of an index
+        boolean[] histogram = new boolean[columns.length];
+        for (Index index : table.getIndexes()) {
+            if (index.getIndexType().isScan()) {
+                continue;
+            }
+            for (Column col : index.getColumns()) {
+                int type = col.getType();
+                if (type != Value.BLOB && type != Value.CLOB) {
+                    histogram[col.getColumnId()] = true;
+                }
+            }
+        }
+        for (Column col : columns) {
+            if (histogram[col.getColumnId()]) {
+                buff.append(", HISTOGRAM(").append(col.getSQL()).append(')');
+            }
+        }
+        buff.append(", COUNT(*)");
         buff.append(" FROM ").append(table.getSQL());
-        if (sample > 0) {
-            buff.append(" LIMIT 1 SAMPLE_SIZE ").append(sample);
+        long rowCount = table.getRowCountApproximation();
+        if (sample > 0 && rowCount > sample) {
+            //随机抽样，每一行被选中的概率相同(不是只读前面的sample行)，
+            //这样表的前后两部分数据分布不同时统计信息也是准确的
+            buff.append(" WHERE RAND() < ").append(String.valueOf((double) sample / rowCount));
         }
-        String sql = buff.toString(); //如: SELECT SELECTIVITY(ID), SELECTIVITY(NAME), SELECTIVITY(B) FROM PUBLIC.REGULARTABLETEST LIMIT 1 SAMPLE_SIZE 10000
+        String sql = buff.toString(); //如: SELECT SELECTIVITY(ID), SELECTIVITY(NAME), SELECTIVITY(B) FROM PUBLIC.REGULARTABLETEST WHERE RAND() < 0.01
         Prepared command = session.prepare(sql);
         ResultInterface result = command.query(0);
         result.next();
-        for (int j = 0; j < columns.length; j++) {
-            int selectivity = result.currentRow()[j].getInt();
+        Value[] row = result.currentRow();
+        for (int j = 0, k = columns.length; j < columns.length; j++) {
+            int selectivity = row[j].getInt();
             columns[j].setSelectivity(selectivity);
+            Histogram h = null;
+            if (histogram[j]) {
+                h = createHistogram(session, table, columns[j], row[k++], rowCount);
+            }
+            columns[j].setHistogram(h);
         }
         if (manual) {
             db.update(session, table);
@@ -118,6 +151,35 @@ public class Analyze extends DefineCommand {
         }
     }
 
+    private static Histogram createHistogram(Session session, Table table, Column column, Value v,
+            long rowCount) {
+        if (v == ValueNull.INSTANCE) {
+            return null;
+        }
+        //HISTOGRAM聚合函数返回排好序的(值, 行数)数组，
+        //不同的值太多时是随机抽取的值，并且包含(抽样范围内的)最小值和最大值，行数为0
+        Value[] list = ((ValueArray) v).getList();
+        Value[] values = new Value[list.length + 2];
+        long[] counts = new long[list.length + 2];
+        for (int i = 0; i < list.length; i++) {
+            Value[] pair = ((ValueArray) list[i]).getList();
+            values[i + 1] = pair[0];
+            counts[i + 1] = pair[1].getLong();
+        }
+        // the sample may not contain the smallest and largest value; if an
+        // index can return them, the histogram covers the whole range
+        if (table.getIndexForColumn(column) != null) {
+            Prepared command = session.prepare("SELECT MIN(" + column.getSQL() + "), MAX(" + column.getSQL()
+                    + ") FROM " + table.getSQL());
+            ResultInterface result = command.query(0);
+            result.next();
+            Value[] row = result.currentRow();
+            values[0] = row[0];
+            values[values.length - 1] = row[1];
+        }
+        return Histogram.create(values, counts, rowCount, Constants.HISTOGRAM_BUCKETS);
+    }
+
     public void setTop(int top) {
         this.sampleRows = top;
     }
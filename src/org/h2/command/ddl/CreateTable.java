@@ -175,7 +175,9 @@ public class CreateTable extends SchemaCommand {
                     session.setUndoLogEnabled(false);
                     Insert insert = null;
                     insert = new Insert(session);
-                    insert.setSortedInsertMode(sortedInsertMode);
+                    // MVStore tables append the rows in bulk in sorted insert
+                    // mode, as long as the row keys are ascending
+                    insert.setSortedInsertMode(sortedInsertMode || table.isMVStore());
                     insert.setQuery(asQuery);
                     insert.setTable(table);
                     insert.setInsertFromSelect(true);
@@ -65,6 +65,13 @@ public class Insert extends Prepared implements ResultTarget {
         this.query = query;
     }
 
+    public void setSession(Session currentSession) {
+        super.setSession(currentSession);
+        if (query != null) {
+            query.setSession(currentSession);
+        }
+    }
+
     /**
      * Add a row to this merge statement.
      *
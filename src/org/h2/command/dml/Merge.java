@@ -67,6 +67,16 @@ public class Merge extends Prepared {
         this.query = query;
     }
 
+    public void setSession(Session currentSession) {
+        super.setSession(currentSession);
+        if (query != null) {
+            query.setSession(currentSession);
+        }
+        if (update != null) {
+            update.setSession(currentSession);
+        }
+    }
+
     /**
      * Add a row to this merge statement.
      *
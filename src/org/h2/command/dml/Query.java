@@ -10,7 +10,9 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import org.h2.command.Prepared;
 import org.h2.constant.ErrorCode;
+import org.h2.engine.Constants;
 import org.h2.engine.Database;
+import org.h2.engine.DbObject;
 import org.h2.engine.Session;
 import org.h2.expression.Alias;
 import org.h2.expression.Expression;
@@ -20,11 +22,14 @@ import org.h2.expression.Parameter;
 import org.h2.expression.ValueExpression;
 import org.h2.message.DbException;
 import org.h2.result.LocalResult;
+import org.h2.result.ResultCache;
 import org.h2.result.ResultTarget;
 import org.h2.result.SortOrder;
 import org.h2.table.ColumnResolver;
+import org.h2.table.MetaTable;
 import org.h2.table.Table;
 import org.h2.table.TableFilter;
+import org.h2.table.TableView;
 import org.h2.util.New;
 import org.h2.value.Value;
 import org.h2.value.ValueInt;
@@ -68,6 +73,13 @@ public abstract class Query extends Prepared {
     private Value[] lastParameters;
     private boolean cacheableChecked;
 
+    /**
+     * The key of the result in the database wide result cache, or null if the
+     * result can not be shared with other sessions.
+     */
+    private String resultCacheKey;
+    private boolean resultCacheChecked;
+
     Query(Session session) {
         super(session);
     }
@@ -232,6 +244,15 @@ public abstract class Query extends Prepared {
         return true;
     }
 
+    public void setSession(Session currentSession) {
+        if (currentSession != session) {
+            // the last result may contain uncommitted changes of the old
+            // session, and may still be read by it
+            lastResult = null;
+        }
+        super.setSession(currentSession);
+    }
+
     /**
      * Disable caching of result sets.
      */
@@ -296,7 +317,8 @@ public abstract class Query extends Prepared {
             return queryWithoutCache(limit, target);
         }
         Value[] params = getParameterValues();
-        long now = session.getDatabase().getModificationDataId();
+        Database db = session.getDatabase();
+        long now = db.getModificationDataId();
         if (isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR)) {
             if (lastResult != null && !lastResult.isClosed() && limit == lastLimit) {
                 if (sameResultAsLast(session, params, lastParameters, lastEvaluated)) {
@@ -308,15 +330,88 @@ public abstract class Query extends Prepared {
                 }
             }
         }
+        //其他会话算出的同样的结果
+        ResultCache cache = target == null ? getResultCache() : null;
+        long metaId = db.getModificationMetaId();
+        if (cache != null) {
+            LocalResult r = cache.get(session, resultCacheKey, params, limit, metaId, getMaxDataModificationId());
+            if (r != null) {
+                r.reset();
+                return r;
+            }
+        }
         lastParameters = params;
         closeLastResult();
         LocalResult r = queryWithoutCache(limit, target);
         lastResult = r;
         this.lastEvaluated = now;
         lastLimit = limit;
+        if (cache != null && r != null) {
+            cache.put(resultCacheKey, params, limit, metaId, now, r);
+        }
         return r;
     }
 
+    /**
+     * Get the database wide result cache, if the result of this query may be
+     * shared with other sessions. This is not the case if the session has
+     * uncommitted changes, because other sessions must not see them, if
+     * sessions don't see the same data (MVCC, LOCK_MODE 0), or if the query
+     * reads a meta table, directly or through a view, because the rows of
+     * meta tables depend on the user and the session.
+     *
+     * @return the cache, or null
+     */
+    private ResultCache getResultCache() {
+        Database db = session.getDatabase();
+        ResultCache cache = db.getResultCache();
+        if (cache == null || db.isMultiVersion() || db.getLockMode() == Constants.LOCK_MODE_OFF
+                || session.hasPendingTransaction()) {
+            return null;
+        }
+        if (!resultCacheChecked) {
+            // FOR UPDATE queries are not deterministic
+            if (isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR)
+                    && isEverything(ExpressionVisitor.INDEPENDENT_VISITOR)
+                    && getMaxDataModificationId() != Long.MAX_VALUE
+                    && !readsSessionDependentTable(this, New.<TableView>hashSet())) {
+                // the plan contains the qualified table names
+                resultCacheKey = getPlanSQL();
+            }
+            resultCacheChecked = true;
+        }
+        return resultCacheKey == null ? null : cache;
+    }
+
+    private static boolean readsSessionDependentTable(Query query, HashSet<TableView> views) {
+        HashSet<DbObject> dependencies = New.hashSet();
+        query.isEverything(ExpressionVisitor.getDependenciesVisitor(dependencies));
+        for (DbObject obj : dependencies) {
+            if (!(obj instanceof Table)) {
+                continue;
+            }
+            Table table = (Table) obj;
+            if (table.isTemporary()) {
+                // local temporary tables of different sessions may have the same name
+                return true;
+            } else if (table instanceof MetaTable) {
+                // meta tables only return the rows the user has rights for,
+                // and some of them show the state of the current session
+                return true;
+            } else if (table instanceof TableView) {
+                //视图要看它的查询读了哪些表
+                TableView view = (TableView) table;
+                if (views.add(view)) {
+                    Query viewQuery = view.getViewQuery();
+                    if (viewQuery == null || readsSessionDependentTable(viewQuery, views)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
     private void closeLastResult() {
         if (lastResult != null) {
             lastResult.close();
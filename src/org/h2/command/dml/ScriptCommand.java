@@ -367,7 +367,7 @@ public class ScriptCommand extends ScriptBase { //生成各种Create SQL，此
     }
 
     private int generateInsertValues(int count, Table table) throws IOException {
-        PlanItem plan = table.getBestPlanItem(session, null, null);
+        PlanItem plan = table.getBestPlanItem(session, null, null, null);
         Index index = plan.getIndex();
         Cursor cursor = index.find(session, null, null);
         Column[] columns = table.getColumns();
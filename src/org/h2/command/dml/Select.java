@@ -10,13 +10,20 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import org.h2.api.Trigger;
 import org.h2.command.CommandInterface;
+import org.h2.command.Prepared;
 import org.h2.constant.ErrorCode;
 import org.h2.constant.SysProperties;
 import org.h2.engine.Constants;
 import org.h2.engine.Database;
 import org.h2.engine.Session;
+import org.h2.expression.Aggregate;
 import org.h2.expression.Comparison;
 import org.h2.expression.ConditionAndOr;
 import org.h2.expression.Expression;
@@ -62,6 +69,17 @@ import org.h2.value.ValueNull;
  */
 //调用顺序 init=>prepare->query
 public class Select extends Query {
+
+    /**
+     * The minimum number of rows of the table to process a query in parallel.
+     */
+    private static final int PARALLEL_MIN_ROWS = 10000;
+
+    /**
+     * The number of rows that are passed to a worker thread at once.
+     */
+    private static final int PARALLEL_BATCH_SIZE = 1024;
+
     private TableFilter topTableFilter;
     private final ArrayList<TableFilter> filters = New.arrayList();
     private final ArrayList<TableFilter> topFilters = New.arrayList();
@@ -85,6 +103,7 @@ public class Select extends Query {
     private boolean sortUsingIndex;
     private SortOrder sort;
     private int currentGroupRowId;
+    private Select[] parallelCopies;
 
     public Select(Session session) {
         super(session);
@@ -328,60 +347,23 @@ public class Select extends Query {
     //看这方法的代码时要时刻想到聚合函数、group by、having都有可能触发它
     private void queryGroup(int columnCount, LocalResult result) {
         ValueHashMap<HashMap<Expression, Object>> groups = ValueHashMap.newInstance();
-        int rowNumber = 0;
-        setCurrentRowNumber(0);
         ValueArray defaultGroup = ValueArray.get(new Value[0]);
-        while (topTableFilter.next()) {
-            setCurrentRowNumber(rowNumber + 1);
-            if (condition == null || Boolean.TRUE.equals(condition.getBooleanValue(session))) {
-                Value key;
-                rowNumber++;
-                //聚合函数的情形
-                if (groupIndex == null) { //如select count(id) from mytable where id>0时groupIndex=null
-                    key = defaultGroup;
-                } else { //group by、having的情形
-                	//按当前行，抽取group by字段列表的值，组合成一个key
-                	//例如group by id,name，那么先按id的字段下标从当前行中取出值，放到keyValues[0]中，
-                	//然后取出name字段的值放到keyValues[1]中。
-                    Value[] keyValues = new Value[groupIndex.length];
-                    // update group
-                    for (int i = 0; i < groupIndex.length; i++) {
-                        int idx = groupIndex[i];
-                        Expression expr = expressions.get(idx);
-                        keyValues[i] = expr.getValue(session);
-                    }
-                    key = ValueArray.get(keyValues);
-                }
-                HashMap<Expression, Object> values = groups.get(key);
-                if (values == null) {
-                    values = new HashMap<Expression, Object>();
-                    groups.put(key, values);
-                }
-                currentGroup = values;
-                currentGroupRowId++;
-                int len = columnCount;
-                //如果是聚合函数的场景，那么select表达式列表部分不能出现字段
-                //如果是group by、having的场景，那么select表达式列表部分只允许出现group by字段
-                for (int i = 0; i < len; i++) {
-                	//当是聚合函数时groupByExpression为null，group by、having的情形groupByExpression不为null
-                	//select id,count(id) from mytable where id>0时是聚合函数，但是加入id字段是错误的，
-                	//从常识理解来看字段和聚合函数放在一起有歧义，不知道该怎么显式结果，
-                	//所以会报错: Column "ID" must be in the GROUP BY list
-                	//如果变成这样select id,count(id) from mytable where id>0 group by id
-                	//那么语义就很明确了：以id分组，然后统计每组的行数。
-                	//这样显示结果时，
-                	//1  2
-                	//2  4
-                	//3  5
-                	//就表示id是1的有两行，id是2的有4行，id是3的有5行
-                    if (groupByExpression == null || !groupByExpression[i]) {
-                        Expression expr = expressions.get(i);
-                        expr.updateAggregate(session);
+        Select[] copies = getParallelCopies();
+        if (copies != null) {
+            queryGroupParallel(copies, groups);
+        } else {
+            Expression cond = startBatchCondition() ? null : condition;
+            int rowNumber = 0;
+            setCurrentRowNumber(0);
+            while (topTableFilter.next()) {
+                setCurrentRowNumber(rowNumber + 1);
+                if (cond == null || Boolean.TRUE.equals(cond.getBooleanValue(session))) {
+                    rowNumber++;
+                    updateGroup(groups, defaultGroup, columnCount);
+                    if (sampleSize > 0 && rowNumber >= sampleSize) {
+                        break;
                     }
                 }
-                if (sampleSize > 0 && rowNumber >= sampleSize) {
-                    break;
-                }
             }
         }
         //只有聚会函数，但是没有记录(可能是表本身没有记录，或没有满足条件的记录)
@@ -416,6 +398,313 @@ public class Select extends Query {
         }
     }
 
+    /**
+     * Add the current row to its group, and update the aggregates of the
+     * group.
+     *
+     * @param groups the groups
+     * @param defaultGroup the key used if there is no GROUP BY
+     * @param columnCount the number of expressions
+     */
+    private void updateGroup(ValueHashMap<HashMap<Expression, Object>> groups, ValueArray defaultGroup,
+            int columnCount) {
+        Value key;
+        //聚合函数的情形
+        if (groupIndex == null) { //如select count(id) from mytable where id>0时groupIndex=null
+            key = defaultGroup;
+        } else { //group by、having的情形
+        	//按当前行，抽取group by字段列表的值，组合成一个key
+        	//例如group by id,name，那么先按id的字段下标从当前行中取出值，放到keyValues[0]中，
+        	//然后取出name字段的值放到keyValues[1]中。
+            Value[] keyValues = new Value[groupIndex.length];
+            // update group
+            for (int i = 0; i < groupIndex.length; i++) {
+                int idx = groupIndex[i];
+                Expression expr = expressions.get(idx);
+                keyValues[i] = expr.getValue(session);
+            }
+            key = ValueArray.get(keyValues);
+        }
+        HashMap<Expression, Object> values = groups.get(key);
+        if (values == null) {
+            values = new HashMap<Expression, Object>();
+            groups.put(key, values);
+        }
+        currentGroup = values;
+        currentGroupRowId++;
+        int len = columnCount;
+        //如果是聚合函数的场景，那么select表达式列表部分不能出现字段
+        //如果是group by、having的场景，那么select表达式列表部分只允许出现group by字段
+        for (int i = 0; i < len; i++) {
+        	//当是聚合函数时groupByExpression为null，group by、having的情形groupByExpression不为null
+        	//select id,count(id) from mytable where id>0时是聚合函数，但是加入id字段是错误的，
+        	//从常识理解来看字段和聚合函数放在一起有歧义，不知道该怎么显式结果，
+        	//所以会报错: Column "ID" must be in the GROUP BY list
+        	//如果变成这样select id,count(id) from mytable where id>0 group by id
+        	//那么语义就很明确了：以id分组，然后统计每组的行数。
+        	//这样显示结果时，
+        	//1  2
+        	//2  4
+        	//3  5
+        	//就表示id是1的有两行，id是2的有4行，id是3的有5行
+            if (groupByExpression == null || !groupByExpression[i]) {
+                Expression expr = expressions.get(i);
+                expr.updateAggregate(session);
+            }
+        }
+    }
+
+    public void setSession(Session currentSession) {
+        if (currentSession != session) {
+            // the copies were prepared for the old session
+            closeParallelCopies();
+        }
+        super.setSession(currentSession);
+    }
+
+    public void close() {
+        closeParallelCopies();
+    }
+
+    /**
+     * Close the sessions of the parallel copies of this query, and forget the
+     * copies.
+     */
+    private void closeParallelCopies() {
+        if (parallelCopies != null) {
+            closeSessions(parallelCopies);
+            parallelCopies = null;
+        }
+    }
+
+    private static void closeSessions(Select[] copies) {
+        for (Select copy : copies) {
+            if (copy != null) {
+                copy.session.close();
+            }
+        }
+    }
+
+    /**
+     * Get the copies of this query that are used by the parallel worker
+     * threads, if the rows of this query can be processed in parallel. This is
+     * possible for large group queries over a single table where all
+     * expressions are either grouped or mergeable aggregates. The rows are
+     * still read by the calling thread (the storage is not thread safe), but
+     * the conditions and aggregates are evaluated by the workers. A session
+     * is not thread safe either, so each copy is prepared in its own system
+     * session. Local temporary tables are not visible in those sessions. The
+     * sessions are closed when the copies are replaced, or when the statement
+     * is closed.
+     *
+     * @return the copies, or null if the query should not run in parallel
+     */
+    private Select[] getParallelCopies() {
+        Database db = session.getDatabase();
+        int workers = Math.min(session.getMaxParallelWorkers(), db.getMaxParallelWorkers());
+        if (workers <= 1 || sampleSize > 0 || isForUpdate || filters.size() != 1 || topFilters.size() != 1) {
+            return null;
+        }
+        Table table = topTableFilter.getTable();
+        if (!Table.TABLE.equals(table.getTableType()) || table.getRowCountApproximation() < PARALLEL_MIN_ROWS) {
+            return null;
+        }
+        if (table.isTemporary() && !table.isGlobalTemporary()) {
+            return null;
+        }
+        if (condition != null && !condition.isEverything(ExpressionVisitor.PARALLEL_VISITOR)) {
+            return null;
+        }
+        for (int i = 0, size = expressions.size(); i < size; i++) {
+            Expression e = expressions.get(i);
+            if (!e.isEverything(ExpressionVisitor.PARALLEL_VISITOR)) {
+                return null;
+            }
+            if (groupByExpression == null || !groupByExpression[i]) {
+                if (!(e instanceof Aggregate) || !((Aggregate) e).isMergeable()) {
+                    return null;
+                }
+            }
+        }
+        if (parallelCopies == null || parallelCopies.length != workers) {
+            closeParallelCopies();
+            // each worker needs its own expressions and table filter, and its
+            // own session to evaluate them
+            String sql = getPlanSQL();
+            Select[] copies = new Select[workers];
+            for (int i = 0; i < workers; i++) {
+                Session s = db.createTempSystemSession();
+                Prepared p = s.prepare(sql, true);
+                if (!isParallelCopy(p)) {
+                    s.close();
+                    closeSessions(copies);
+                    return null;
+                }
+                copies[i] = (Select) p;
+            }
+            parallelCopies = copies;
+        }
+        for (Select copy : parallelCopies) {
+            for (Parameter p : copy.getParameters()) {
+                Parameter original = null;
+                for (int i = 0; parameters != null && i < parameters.size(); i++) {
+                    Parameter o = parameters.get(i);
+                    if (o.getIndex() == p.getIndex()) {
+                        original = o;
+                        break;
+                    }
+                }
+                if (original == null) {
+                    return null;
+                }
+                p.setValue(original.getParamValue());
+            }
+        }
+        return parallelCopies;
+    }
+
+    private boolean isParallelCopy(Prepared p) {
+        if (!(p instanceof Select)) {
+            return false;
+        }
+        Select copy = (Select) p;
+        if (!copy.isGroupQuery || copy.isGroupSortedQuery || copy.isQuickAggregateQuery ||
+                copy.filters.size() != 1 || copy.expressions.size() != expressions.size() ||
+                !Arrays.equals(copy.groupIndex, groupIndex) ||
+                !Arrays.equals(copy.groupByExpression, groupByExpression)) {
+            return false;
+        }
+        for (int i = 0, size = expressions.size(); i < size; i++) {
+            if (!copy.expressions.get(i).getSQL().equals(expressions.get(i).getSQL())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the rows of the table, and pass them to the worker threads in
+     * batches. Afterwards, the groups of all workers are merged. The workers
+     * run in the thread pool of the database.
+     *
+     * @param copies the copies of this query, one for each worker
+     * @param groups the groups
+     */
+    private void queryGroupParallel(Select[] copies, ValueHashMap<HashMap<Expression, Object>> groups) {
+        BlockingQueue<ArrayList<Row>> queue = new ArrayBlockingQueue<ArrayList<Row>>(2 * copies.length);
+        ExecutorService executor = session.getDatabase().getParallelWorkers();
+        SelectGroupWorker[] workers = new SelectGroupWorker[copies.length];
+        ArrayList<Future<Void>> futures = New.arrayList();
+        Throwable error = null;
+        try {
+            for (int i = 0; i < copies.length; i++) {
+                workers[i] = new SelectGroupWorker(copies[i], queue);
+                futures.add(executor.submit(workers[i]));
+            }
+            ArrayList<Row> rows = New.arrayList();
+            while (topTableFilter.next()) {
+                rows.add(topTableFilter.get());
+                if (rows.size() >= PARALLEL_BATCH_SIZE) {
+                    SelectGroupWorker.add(queue, rows);
+                    rows = New.arrayList();
+                }
+            }
+            if (rows.size() > 0) {
+                SelectGroupWorker.add(queue, rows);
+            }
+        } finally {
+            for (int i = 0; i < futures.size(); i++) {
+                SelectGroupWorker.add(queue, SelectGroupWorker.END);
+            }
+            // wait for all workers (even if reading failed), as the copies
+            // are used again by the next query
+            for (Future<Void> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        error = e.getCause();
+                    }
+                } catch (InterruptedException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+        }
+        if (error != null) {
+            throw DbException.convert(error);
+        }
+        for (int j = 0; j < copies.length; j++) {
+            Select copy = copies[j];
+            ValueHashMap<HashMap<Expression, Object>> copyGroups = workers[j].getGroups();
+            for (Value key : copyGroups.keys()) {
+                HashMap<Expression, Object> from = copyGroups.get(key);
+                HashMap<Expression, Object> values = groups.get(key);
+                if (values == null) {
+                    values = new HashMap<Expression, Object>();
+                    groups.put(key, values);
+                }
+                for (int i = 0, size = expressions.size(); i < size; i++) {
+                    if (groupByExpression == null || !groupByExpression[i]) {
+                        Object data = from.get(copy.expressions.get(i));
+                        if (data != null) {
+                            ((Aggregate) expressions.get(i)).mergeAggregate(session, values, data);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a batch of rows to the given groups. This method is called by a
+     * parallel worker thread, on a copy of the query.
+     *
+     * @param rows the rows
+     * @param groups the groups of this worker
+     * @param defaultGroup the key used if there is no GROUP BY
+     */
+    void queryGroupRows(ArrayList<Row> rows, ValueHashMap<HashMap<Expression, Object>> groups,
+            ValueArray defaultGroup) {
+        int columnCount = expressions.size();
+        for (Row row : rows) {
+            topTableFilter.set(row);
+            if (condition == null || Boolean.TRUE.equals(condition.getBooleanValue(session))) {
+                updateGroup(groups, defaultGroup, columnCount);
+            }
+        }
+        topTableFilter.set(null);
+        currentGroup = null;
+    }
+
+    /**
+     * Let the top table filter evaluate the condition for batches of rows, if
+     * this is possible. This is the case for a scan over a single table, if
+     * the condition is deterministic (ROWNUM, sequences and so on are
+     * evaluated row by row).
+     *
+     * @return true if the table filter now evaluates the condition
+     */
+    private boolean startBatchCondition() {
+        if (condition == null || !session.getDatabase().getSettings().batchEvaluation) {
+            return false;
+        }
+        if (isForUpdate || filters.size() != 1 || topFilters.size() != 1 ||
+                topTableFilter.getJoin() != null || topTableFilter.getNestedJoin() != null) {
+            return false;
+        }
+        if (!Table.TABLE.equals(topTableFilter.getTable().getTableType()) ||
+                !topTableFilter.getIndex().getIndexType().isScan()) {
+            return false;
+        }
+        if (!condition.isEverything(ExpressionVisitor.DETERMINISTIC_VISITOR)) {
+            return false;
+        }
+        topTableFilter.setBatchCondition(condition);
+        return true;
+    }
+
     /**
      * Get the index that matches the ORDER BY list, if one exists. This is to
      * avoid running a separate ORDER BY if an index can be used. This is
@@ -561,9 +850,14 @@ public class Select extends Query {
         if (isForUpdateMvcc) {
             forUpdateRows = New.arrayList();
         }
+        Expression cond = condition;
+        // with a LIMIT, reading ahead a batch of rows may be wasted work
+        if ((sort != null && !sortUsingIndex || limitRows <= 0) && startBatchCondition()) {
+            cond = null;
+        }
         while (topTableFilter.next()) {
             setCurrentRowNumber(rowNumber + 1);
-            if (condition == null || Boolean.TRUE.equals(condition.getBooleanValue(session))) {
+            if (cond == null || Boolean.TRUE.equals(cond.getBooleanValue(session))) {
                 Value[] row = new Value[columnCount];
                 for (int i = 0; i < columnCount; i++) {
                     Expression expr = expressions.get(i);
@@ -641,37 +935,42 @@ public class Select extends Query {
         }
         topTableFilter.startQuery(session);
         topTableFilter.reset();
-        boolean exclusive = isForUpdate && !isForUpdateMvcc; //见setForUpdate(boolean)
-        if (isForUpdateMvcc) {
-            if (isGroupQuery) {
-                throw DbException.getUnsupportedException("FOR UPDATE && GROUP");
-            } else if (distinct) {
-                throw DbException.getUnsupportedException("FOR UPDATE && DISTINCT");
-            } else if (isQuickAggregateQuery) {
-                throw DbException.getUnsupportedException("FOR UPDATE && AGGREGATE");
-            } else if (topTableFilter.getJoin() != null) {
-                throw DbException.getUnsupportedException("FOR UPDATE && JOIN");
-            } else if (topTableFilter.getJoin() != null) {
-                throw DbException.getUnsupportedException("FOR UPDATE && JOIN");
-            }
-        }
-        topTableFilter.lock(session, exclusive, exclusive);
-        ResultTarget to = result != null ? result : target;
-        //如果行数限制是0，那么什么也不做
-        if (limitRows != 0) {
-            if (isQuickAggregateQuery) {
-                queryQuick(columnCount, to);
-            } else if (isGroupQuery) {
-                if (isGroupSortedQuery) {
-                    queryGroupSorted(columnCount, to);
+        try {
+            boolean exclusive = isForUpdate && !isForUpdateMvcc; //见setForUpdate(boolean)
+            if (isForUpdateMvcc) {
+                if (isGroupQuery) {
+                    throw DbException.getUnsupportedException("FOR UPDATE && GROUP");
+                } else if (distinct) {
+                    throw DbException.getUnsupportedException("FOR UPDATE && DISTINCT");
+                } else if (isQuickAggregateQuery) {
+                    throw DbException.getUnsupportedException("FOR UPDATE && AGGREGATE");
+                } else if (topTableFilter.getJoin() != null) {
+                    throw DbException.getUnsupportedException("FOR UPDATE && JOIN");
+                } else if (topTableFilter.getJoin() != null) {
+                    throw DbException.getUnsupportedException("FOR UPDATE && JOIN");
+                }
+            }
+            topTableFilter.lock(session, exclusive, exclusive);
+            ResultTarget to = result != null ? result : target;
+            //如果行数限制是0，那么什么也不做
+            if (limitRows != 0) {
+                if (isQuickAggregateQuery) {
+                    queryQuick(columnCount, to);
+                } else if (isGroupQuery) {
+                    if (isGroupSortedQuery) {
+                        queryGroupSorted(columnCount, to);
+                    } else {
+                        queryGroup(columnCount, result);
+                    }
+                } else if (isDistinctQuery) {
+                    queryDistinct(to, limitRows);
                 } else {
-                    queryGroup(columnCount, result);
+                    queryFlat(columnCount, to, limitRows);
                 }
-            } else if (isDistinctQuery) {
-                queryDistinct(to, limitRows);
-            } else {
-                queryFlat(columnCount, to, limitRows);
             }
+        } finally {
+            //连接用的hash表和临时文件在查询结束后就释放
+            topTableFilter.endQuery();
         }
         if (offsetExpr != null) {
             result.setOffset(offsetExpr.getValue(session).getInt());
@@ -1363,6 +1662,9 @@ public class Select extends Query {
             }
             break;
         }
+        case ExpressionVisitor.PARALLEL:
+            // the worker threads would read the tables concurrently
+            return false;
         default:
         }
         ExpressionVisitor v2 = visitor.incrementQueryLevel(1);
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2004-2013 H2 Group. Multiple-Licensed under the H2 License,
+ * Version 1.0, and under the Eclipse Public License, Version 1.0
+ * (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.command.dml;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import org.h2.expression.Expression;
+import org.h2.message.DbException;
+import org.h2.result.Row;
+import org.h2.util.New;
+import org.h2.util.ValueHashMap;
+import org.h2.value.Value;
+import org.h2.value.ValueArray;
+
+/**
+ * A worker of a group query that is processed in parallel. The worker takes
+ * batches of rows from the queue, and adds them to its own groups using its
+ * own copy of the query, until it gets the END marker. The copy was prepared
+ * in a separate session, so that the workers don't share one. The worker runs
+ * in the thread pool of the database.
+ */
+class SelectGroupWorker implements Callable<Void> {
+
+    /**
+     * The marker that tells a worker there are no more rows.
+     */
+    static final ArrayList<Row> END = New.arrayList();
+
+    private final Select select;
+    private final BlockingQueue<ArrayList<Row>> queue;
+    private final ValueHashMap<HashMap<Expression, Object>> groups = ValueHashMap.newInstance();
+
+    SelectGroupWorker(Select select, BlockingQueue<ArrayList<Row>> queue) {
+        this.select = select;
+        this.queue = queue;
+    }
+
+    /**
+     * Add a batch of rows to the queue, waiting if the workers are busy.
+     *
+     * @param queue the queue
+     * @param rows the rows
+     */
+    static void add(BlockingQueue<ArrayList<Row>> queue, ArrayList<Row> rows) {
+        try {
+            queue.put(rows);
+        } catch (InterruptedException e) {
+            throw DbException.convert(e);
+        }
+    }
+
+    public Void call() throws Exception {
+        ValueArray defaultGroup = ValueArray.get(new Value[0]);
+        Throwable error = null;
+        while (true) {
+            ArrayList<Row> rows = queue.take();
+            if (rows == END) {
+                break;
+            }
+            if (error != null) {
+                // keep taking rows, so that the reading thread is not blocked
+                continue;
+            }
+            try {
+                select.queryGroupRows(rows, groups, defaultGroup);
+            } catch (Throwable e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw DbException.convert(error);
+        }
+        return null;
+    }
+
+    ValueHashMap<HashMap<Expression, Object>> getGroups() {
+        return groups;
+    }
+
+}
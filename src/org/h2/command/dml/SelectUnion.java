@@ -97,6 +97,22 @@ public class SelectUnion extends Query {
         this.sqlStatement = sql;
     }
 
+    @Override
+    public void setSession(Session currentSession) {
+        super.setSession(currentSession);
+        left.setSession(currentSession);
+        if (right != null) {
+            right.setSession(currentSession);
+        }
+    }
+
+    public void close() {
+        left.close();
+        if (right != null) {
+            right.close();
+        }
+    }
+
     public void setOrder(ArrayList<SelectOrderBy> order) {
         orderList = order;
     }
@@ -58,6 +58,7 @@ public class Set extends Prepared {
         case SetTypes.TRACE_LEVEL_SYSTEM_OUT:
         case SetTypes.TRACE_LEVEL_FILE:
         case SetTypes.THROTTLE:
+        case SetTypes.MAX_PARALLEL_WORKERS:
         case SetTypes.SCHEMA:
         case SetTypes.SCHEMA_SEARCH_PATH:
             return true;
@@ -290,6 +291,22 @@ public class Set extends Prepared {
             database.setMaxOperationMemory(value);
             break;
         }
+        case SetTypes.MAX_PARALLEL_WORKERS: {
+            if (getIntValue() < 0) {
+                throw DbException.getInvalidValueException("MAX_PARALLEL_WORKERS", getIntValue());
+            }
+            session.setMaxParallelWorkers(getIntValue());
+            break;
+        }
+        case SetTypes.RESULT_CACHE_SIZE: {
+            if (getIntValue() < 0) {
+                throw DbException.getInvalidValueException("RESULT_CACHE_SIZE", getIntValue());
+            }
+            session.getUser().checkAdmin();
+            database.setResultCacheSize(getIntValue());
+            addOrUpdateSetting(name, null, getIntValue());
+            break;
+        }
         case SetTypes.MODE:
             Mode mode = Mode.getInstance(stringValue);
             if (mode == null) {
@@ -204,6 +204,16 @@ public class SetTypes {
      */
     public static final int BINARY_COLLATION = 38;
 
+    /**
+     * The type of a SET MAX_PARALLEL_WORKERS statement.
+     */
+    public static final int MAX_PARALLEL_WORKERS = 39;
+
+    /**
+     * The type of a SET RESULT_CACHE_SIZE statement.
+     */
+    public static final int RESULT_CACHE_SIZE = 40;
+
     private static final ArrayList<String> TYPES = New.arrayList();
 
     private SetTypes() {
@@ -251,6 +261,8 @@ public class SetTypes {
         list.add(QUERY_TIMEOUT, "QUERY_TIMEOUT");
         list.add(REDO_LOG_BINARY, "REDO_LOG_BINARY"); //官方文档没提到
         list.add(BINARY_COLLATION, "BINARY_COLLATION");
+        list.add(MAX_PARALLEL_WORKERS, "MAX_PARALLEL_WORKERS");
+        list.add(RESULT_CACHE_SIZE, "RESULT_CACHE_SIZE");
     }
 
     /**
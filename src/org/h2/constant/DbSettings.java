@@ -49,12 +49,37 @@ public class DbSettings extends SettingsBase {
      */
     public final int analyzeAuto = get("ANALYZE_AUTO", 2000);
 
+    /**
+     * Database setting <code>ANALYZE_BACKGROUND</code> (default: false).<br />
+     * When enabled, the tables that need to be analyzed automatically (see
+     * ANALYZE_AUTO) are analyzed by a background thread, using the sample size
+     * ANALYZE_SAMPLE. The session that changed the table does not have to wait
+     * until ANALYZE is done. Tables that are locked exclusively by another
+     * session are analyzed after the lock is released.
+     */
+    public final boolean analyzeBackground = get("ANALYZE_BACKGROUND", false);
+
+    /**
+     * Database setting <code>ANALYZE_BACKGROUND_DELAY</code> (default: 1000).<br />
+     * The minimum time in milliseconds between analyzing two tables in the
+     * background (see ANALYZE_BACKGROUND).
+     */
+    public final int analyzeBackgroundDelay = get("ANALYZE_BACKGROUND_DELAY", 1000);
+
     /**
      * Database setting <code>ANALYZE_SAMPLE</code> (default: 10000).<br />
      * The default sample size when analyzing a table.
      */
     public final int analyzeSample = get("ANALYZE_SAMPLE", 10000);
 
+    /**
+     * Database setting <code>BATCH_EVALUATION</code> (default: true).<br />
+     * Whether the condition of a query that scans a single table is evaluated
+     * for a batch of rows at once. Comparisons of a column with a constant
+     * then read the values directly from the rows.
+     */
+    public final boolean batchEvaluation = get("BATCH_EVALUATION", true);
+
     /**
      * Database setting <code>DATABASE_TO_UPPER</code> (default: true).<br />
      * Database short names are converted to uppercase for the DATABASE()
@@ -125,6 +150,15 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean functionsInSchema = get("FUNCTIONS_IN_SCHEMA", true);
 
+    /**
+     * Database setting <code>HASH_JOIN</code> (default: true).<br />
+     * Whether the optimizer may use a hash join for a joined table if the
+     * join condition is an equality, and there is no usable index. The joined
+     * table is then read only once per query, instead of once for each row of
+     * the outer table.
+     */
+    public final boolean hashJoin = get("HASH_JOIN", true);
+
     /**
      * Database setting <code>LARGE_RESULT_BUFFER_SIZE</code> (default: 4096).<br />
      * Buffer size for large result sets. Set this value to 0 to disable the
@@ -168,6 +202,23 @@ public class DbSettings extends SettingsBase {
      */
     public int maxQueryTimeout = get("MAX_QUERY_TIMEOUT", 0);
 
+    /**
+     * Database setting <code>MERGE_JOIN</code> (default: true).<br />
+     * Whether the optimizer may use a merge join for a joined table if the
+     * join condition is an equality, and both the outer table and the joined
+     * table are read using an index sorted by the join column.
+     */
+    public final boolean mergeJoin = get("MERGE_JOIN", true);
+
+    /**
+     * Database setting <code>MV_STORE_REDO_LOG</code> (default: false).<br />
+     * Whether commits of the MVStore storage engine are written to a redo log
+     * file and synced, instead of only being written with the next chunk.
+     * Committed transactions are then durable even if the process is killed
+     * before the changed pages are stored.
+     */
+    public final boolean mvStoreRedoLog = get("MV_STORE_REDO_LOG", false);
+
     /**
      * Database setting <code>NESTED_JOINS</code> (default: true).<br />
      * Whether nested joins should be supported.
@@ -250,6 +301,15 @@ public class DbSettings extends SettingsBase {
      */
     public final int pageStoreMaxGrowth = get("PAGE_STORE_MAX_GROWTH", 128 * 1024);
 
+    /**
+     * Database setting <code>PAGE_STORE_INCREMENTAL_CHECKPOINT</code>
+     * (default: false).<br />
+     * Write changed pages in the background and truncate the transaction log
+     * up to the oldest page that was not written yet, instead of writing all
+     * changed pages at once when the transaction log is too large.
+     */
+    public final boolean pageStoreIncrementalCheckpoint = get("PAGE_STORE_INCREMENTAL_CHECKPOINT", false);
+
     /**
      * Database setting <code>PAGE_STORE_INTERNAL_COUNT</code>
      * (default: false).<br />
@@ -257,6 +317,28 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean pageStoreInternalCount = get("PAGE_STORE_INTERNAL_COUNT", false);
 
+    /**
+     * Database setting <code>PAGE_STORE_PREFIX_COMPRESSION</code>
+     * (default: false).<br />
+     * Store the common prefix of the first column of b-tree index pages only
+     * once per page, if the column is a string column, and use the shortest
+     * possible separators in the node pages of non-unique indexes. The file
+     * format version is increased when the first such page is written, so
+     * that older versions refuse to open the database. Databases that use the
+     * new format keep using it.
+     */
+    public final boolean pageStorePrefixCompression = get("PAGE_STORE_PREFIX_COMPRESSION", false);
+
+    /**
+     * Database setting <code>PAGE_STORE_READ_AHEAD</code>
+     * (default: 16).<br />
+     * The maximum number of pages that are read at once when a table or index
+     * is scanned and the next page is not in the cache. Pages that are stored
+     * close to each other in the file are read with one read operation. Use 0
+     * or 1 to disable read-ahead.
+     */
+    public final int pageStoreReadAhead = get("PAGE_STORE_READ_AHEAD", 16);
+
     /**
      * Database setting <code>PAGE_STORE_TRIM</code> (default: true).<br />
      * Trim the database size when closing.
@@ -274,6 +356,16 @@ public class DbSettings extends SettingsBase {
      */
     public final int queryCacheSize = get("QUERY_CACHE_SIZE", 8);
 
+    /**
+     * Database setting <code>SHARED_QUERY_CACHE_SIZE</code> (default: 0).<br />
+     * The size of the statement cache that is shared by all sessions, in
+     * number of cached statements. If set, closed statements are put into
+     * this cache, and other sessions that prepare the same SQL statement
+     * re-use them instead of parsing them again. The per-session query cache
+     * is not used in this case.
+     */
+    public final int sharedQueryCacheSize = get("SHARED_QUERY_CACHE_SIZE", 0);
+
     /**
      * Database setting <code>RECOMPILE_ALWAYS</code> (default: false).<br />
      * Always recompile prepared statements.
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2004-2013 H2 Group. Multiple-Licensed under the H2 License,
+ * Version 1.0, and under the Eclipse Public License, Version 1.0
+ * (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.engine;
+
+import java.lang.ref.WeakReference;
+import java.security.AccessControlException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import org.h2.Driver;
+import org.h2.command.ddl.Analyze;
+import org.h2.message.Trace;
+import org.h2.message.TraceSystem;
+import org.h2.table.Table;
+
+/**
+ * The analyze thread updates the statistics of the tables that were changed
+ * (see ANALYZE_AUTO) in the background, so that the session that changed the
+ * table does not have to wait until ANALYZE is done. Each table is queued
+ * only once, and at most one table is analyzed within the configured delay.
+ */
+public class AnalyzeThread implements Runnable {
+
+    /**
+     * The reference to the database (see WriterThread).
+     */
+    private volatile WeakReference<Database> databaseRef;
+
+    private final LinkedHashSet<Table> tables = new LinkedHashSet<Table>();
+    private final int delay;
+    private final int sampleRows;
+    private Thread thread;
+    private volatile boolean stop;
+
+    private AnalyzeThread(Database database) {
+        this.databaseRef = new WeakReference<Database>(database);
+        this.delay = Math.max(database.getSettings().analyzeBackgroundDelay, 0);
+        this.sampleRows = database.getSettings().analyzeSample;
+    }
+
+    /**
+     * Create a new analyze thread for the given database. If the thread can't
+     * be created, this method returns null.
+     *
+     * @param database the database
+     * @return the analyze thread object or null
+     */
+    public static AnalyzeThread create(Database database) {
+        try {
+            AnalyzeThread analyzer = new AnalyzeThread(database);
+            analyzer.thread = new Thread(analyzer, "H2 Analyze " + database.getShortName());
+            Driver.setThreadContextClassLoader(analyzer.thread);
+            analyzer.thread.setDaemon(true);
+            return analyzer;
+        } catch (AccessControlException e) {
+            // // Google App Engine does not allow threads
+            return null;
+        }
+    }
+
+    /**
+     * Queue a table to be analyzed. The table is not added again if it is
+     * already queued.
+     *
+     * @param table the table
+     */
+    public synchronized void add(Table table) {
+        if (tables.add(table)) {
+            notify();
+        }
+    }
+
+    public void run() {
+        Session session = null;
+        while (!stop) {
+            Table table;
+            synchronized (this) {
+                while (!stop && tables.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+                if (stop) {
+                    break;
+                }
+                Iterator<Table> it = tables.iterator();
+                table = it.next();
+                it.remove();
+            }
+            Database database = databaseRef.get();
+            if (database == null) {
+                break;
+            }
+            int wait = delay;
+            if (table.isLockedExclusively() || database.isSysTableLocked()) {
+                //表正在被其他事务修改(比如大批量导入还未提交)，稍后再试，不能等锁
+                add(table);
+                wait = Constants.MIN_WRITE_DELAY;
+            } else {
+                if (session == null) {
+                    session = database.createTempSystemSession();
+                }
+                // the same as when executing a command
+                Object sync = database.isMultiThreaded() ? (Object) session : (Object) database;
+                try {
+                    synchronized (sync) {
+                        Analyze.analyzeTable(session, table, sampleRows, false);
+                        session.commit(false);
+                    }
+                } catch (Exception e) {
+                    // the table was dropped, or the database is closing
+                    TraceSystem traceSystem = database.getTraceSystem();
+                    if (traceSystem != null) {
+                        traceSystem.getTrace(Trace.DATABASE).debug(e, "analyze " + table.getName());
+                    }
+                }
+            }
+            database = null;
+            // throttle: wait before analyzing the next table
+            synchronized (this) {
+                wait = Math.max(wait, Constants.MIN_WRITE_DELAY);
+                while (!stop && wait > 0) {
+                    // wait 100 ms at a time
+                    int w = Math.min(wait, 100);
+                    try {
+                        wait(w);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                    wait -= w;
+                }
+            }
+        }
+        synchronized (this) {
+            tables.clear();
+        }
+        if (session != null) {
+            try {
+                session.rollback();
+                session.close();
+            } catch (Exception e) {
+                // the database is closing
+            }
+        }
+        databaseRef = null;
+    }
+
+    /**
+     * Stop the thread. This method is called when closing the database.
+     */
+    public void stopThread() {
+        stop = true;
+        synchronized (this) {
+            notify();
+        }
+    }
+
+    /**
+     * Start the thread. This method is called after opening the database.
+     */
+    public void startThread() {
+        thread.start();
+        thread = null;
+    }
+
+}
@@ -99,6 +99,18 @@ public class Constants {
      */
     public static final int LOCK_MODE_READ_COMMITTED = 3;
 
+    /**
+     * The lock mode that means row level locking is used for writes. Insert,
+     * update, and delete only lock the rows they change, so that concurrent
+     * transactions can write to the same table. Reads work like
+     * LOCK_MODE_READ_COMMITTED, but they only wait for exclusive table locks,
+     * not for the transactions that write to the table, so they may see rows
+     * that were changed but not yet committed. In multi-threaded mode, writes
+     * still lock the table, because the indexes can not be changed by
+     * multiple threads at the same time.
+     */
+    public static final int LOCK_MODE_ROW = 4;
+
     /**
      * The lock mode that means table level locking is used for reads and
      * writes.
@@ -144,7 +156,8 @@ public class Constants {
     public static final int CACHE_SIZE_DEFAULT = 16 * 1024;
 
     /**
-     * The default cache type.
+     * The default cache type. The supported types are LRU, TQ and LIRS, each
+     * optionally with the prefix SOFT_ (see CacheLRU.getCache).
      */
     public static final String CACHE_TYPE_DEFAULT = "LRU";
 
@@ -377,6 +390,19 @@ public class Constants {
      */
     public static final int SELECTIVITY_DISTINCT_COUNT = 10000;
 
+    /**
+     * The maximum number of buckets of a column histogram calculated by
+     * ANALYZE.
+     */
+    public static final int HISTOGRAM_BUCKETS = 32;
+
+    /**
+     * The maximum length of a bucket bound of a column histogram. Longer
+     * strings and byte arrays are truncated, because the bounds are stored in
+     * the column definition.
+     */
+    public static final int HISTOGRAM_MAX_BOUND_LENGTH = 100;
+
     /**
      * The default directory name of the server properties file for the H2 Console.
      */
@@ -430,6 +456,11 @@ public class Constants {
      */
     public static final String SUFFIX_MV_FILE = ".mv.db";
 
+    /**
+     * The file name suffix of the redo log of a MVStore file.
+     */
+    public static final String SUFFIX_MV_REDO_LOG_FILE = ".mv.redo.db";
+
     /**
      * The file name suffix of temporary files.
      */
@@ -16,7 +16,13 @@ import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.h2.api.DatabaseEventListener;
+import org.h2.command.PlanCache;
 import org.h2.command.ddl.CreateTableData;
 import org.h2.command.dml.SetTypes;
 import org.h2.constant.DbSettings;
@@ -30,6 +36,7 @@ import org.h2.jdbc.JdbcConnection;
 import org.h2.message.DbException;
 import org.h2.message.Trace;
 import org.h2.message.TraceSystem;
+import org.h2.result.ResultCache;
 import org.h2.result.Row;
 import org.h2.result.SearchRow;
 import org.h2.schema.Schema;
@@ -115,6 +122,8 @@ public class Database implements DataHandler {
     private Index metaIdIndex;
     private FileLock lock;
     private WriterThread writer;
+    private volatile AnalyzeThread analyzer;
+    private ThreadPoolExecutor parallelWorkers;
     private boolean starting;
     private TraceSystem traceSystem;
     private Trace trace;
@@ -141,6 +150,8 @@ public class Database implements DataHandler {
     private boolean deleteFilesOnDisconnect;
     private String lobCompressionAlgorithm;
     private boolean optimizeReuseResults = true;
+    private volatile ResultCache resultCache;
+    private final PlanCache planCache;
     private final String cacheType;
     private final String accessModeData;
     private boolean referentialIntegrity = true;
@@ -178,6 +189,7 @@ public class Database implements DataHandler {
         String name = ci.getName();
         this.dbSettings = ci.getDbSettings();
         this.reconnectCheckDelay = dbSettings.reconnectCheckDelay;
+        this.planCache = dbSettings.sharedQueryCacheSize > 0 ? new PlanCache(dbSettings.sharedQueryCacheSize) : null;
         this.compareMode = CompareMode.getInstance(null, 0, false);
         this.persistent = ci.isPersistent();
         this.filePasswordHash = ci.getFilePasswordHash();
@@ -406,6 +418,7 @@ public class Database implements DataHandler {
             try {
                 powerOffCount = -1;
                 stopWriter();
+                stopAnalyzer();
                 if (pageStore != null) {
                     try {
                         pageStore.close();
@@ -599,6 +612,9 @@ public class Database implements DataHandler {
         roles.put(Constants.PUBLIC_ROLE_NAME, publicRole);
         systemUser.setAdmin(true);
         systemSession = new Session(this, systemUser, ++nextSessionId);
+        if (dbSettings.analyzeBackground) {
+            analyzer = AnalyzeThread.create(this);
+        }
         CreateTableData data = new CreateTableData();
         ArrayList<Column> cols = data.columns;
         Column columnId = new Column("ID", Value.INT);
@@ -1022,6 +1038,35 @@ public class Database implements DataHandler {
         return session;
     }
 
+    /**
+     * Create a session for the system user that is not a user session. Such a
+     * session is used by background threads and parallel query workers, and
+     * does not keep the database open.
+     *
+     * @return the session
+     */
+    public synchronized Session createTempSystemSession() {
+        return new Session(this, systemUser, ++nextSessionId);
+    }
+
+    /**
+     * Queue the table to be analyzed by the analyze thread, if automatically
+     * running ANALYZE in the background is enabled.
+     *
+     * @param table the table
+     * @return true if the table was queued, false if the caller needs to
+     *         analyze the table itself
+     */
+    public boolean analyzeLater(Table table) {
+        AnalyzeThread a = analyzer;
+        if (a == null || (table.isTemporary() && !table.isGlobalTemporary())) {
+            // local temporary tables are only visible in the session
+            return false;
+        }
+        a.add(table);
+        return true;
+    }
+
     /**
      * Remove a session. This method is called after the user has disconnected.
      *
@@ -1032,7 +1077,11 @@ public class Database implements DataHandler {
             if (exclusiveSession == session) {
                 exclusiveSession = null;
             }
-            userSessions.remove(session);
+            if (!userSessions.remove(session) && session != systemSession) {
+                // a temporary system session (for example of a parallel
+                // worker) does not keep the database open
+                return;
+            }
             if (session != systemSession) {
                 trace.info("disconnecting session #{0}", session.getId());
             }
@@ -1115,6 +1164,8 @@ public class Database implements DataHandler {
             }
             closing = true;
         }
+        stopAnalyzer();
+        stopParallelWorkers();
         // remove all session variables
         if (persistent) {
             boolean lobStorageIsUsed = infoSchema.findTableOrView(systemSession, LobStorageBackend.LOB_DATA_TABLE) != null;
@@ -1197,6 +1248,55 @@ public class Database implements DataHandler {
         }
     }
 
+    private void stopAnalyzer() {
+        if (analyzer != null) {
+            analyzer.stopThread();
+            analyzer = null;
+        }
+    }
+
+    private synchronized void stopParallelWorkers() {
+        if (parallelWorkers != null) {
+            parallelWorkers.shutdown();
+            parallelWorkers = null;
+        }
+    }
+
+    /**
+     * Get the thread pool that runs the worker threads of parallel queries.
+     * The pool is shared by all sessions, and has at most one thread per
+     * processor (at least two), so that concurrent parallel queries don't
+     * start more threads than the machine can run. Idle threads are stopped
+     * after a minute.
+     *
+     * @return the thread pool
+     */
+    public synchronized ExecutorService getParallelWorkers() {
+        if (parallelWorkers == null) {
+            int threads = getMaxParallelWorkers();
+            final String name = "H2 Parallel Worker " + getShortName();
+            parallelWorkers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, name);
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            parallelWorkers.allowCoreThreadTimeOut(true);
+        }
+        return parallelWorkers;
+    }
+
+    /**
+     * Get the number of threads of the parallel worker thread pool.
+     *
+     * @return the number of threads
+     */
+    public int getMaxParallelWorkers() {
+        return Math.max(2, Runtime.getRuntime().availableProcessors());
+    }
+
     /**
      * Close all open files and unlock the database.
      *
@@ -1769,18 +1869,45 @@ public class Database implements DataHandler {
     }
 
     /**
-     * Commit the current transaction of the given session.
+     * Commit the current transaction of the given session. The commit record
+     * is written while synchronizing on the database (the lock order is
+     * database, then page store). If the log needs to be flushed, this is
+     * done after the database lock is released (group commit): right away
+     * if the caller does not hold the lock, otherwise when the command of
+     * the session has released it (see Session.flushCommit).
      *
      * @param session the session
      */
-    synchronized void commit(Session session) {
+    void commit(Session session) {
         if (readOnly) {
             return;
         }
-        if (pageStore != null) {
-            pageStore.commit(session);
+        long commitId = 0;
+        synchronized (this) {
+            if (pageStore != null) {
+                commitId = pageStore.commit(session);
+            }
         }
         session.setAllCommitted();
+        if (commitId != 0) {
+            session.setCommitToFlush(commitId);
+            if (!Thread.holdsLock(this)) {
+                session.flushCommit();
+            }
+        }
+    }
+
+    /**
+     * Flush the transaction log up to the given commit record, without
+     * synchronizing on the database.
+     *
+     * @param commitId the number of the commit record
+     */
+    void flushCommit(long commitId) {
+        PageStore store = pageStore;
+        if (store != null) {
+            store.flushCommit(commitId);
+        }
     }
 
     /**
@@ -1793,6 +1920,20 @@ public class Database implements DataHandler {
         pageStore.flushLog();
     }
 
+    /**
+     * Write the pages that were changed before the current log section, if
+     * incremental checkpoints are enabled. This method is called by the
+     * writer thread. The page store checks whether it was closed each time
+     * it takes the database lock.
+     */
+    public void writeBackChangedPages() {
+        PageStore store = pageStore;
+        if (readOnly || store == null) {
+            return;
+        }
+        store.writeBackChangedPages();
+    }
+
     public void setEventListener(DatabaseEventListener eventListener) {
         this.eventListener = eventListener;
     }
@@ -1869,6 +2010,39 @@ public class Database implements DataHandler {
         this.maxMemoryRows = value;
     }
 
+    /**
+     * Set the maximum memory used by the database wide query result cache.
+     *
+     * @param kb the size in KB (0 to disable the cache)
+     */
+    public synchronized void setResultCacheSize(int kb) {
+        if (kb == 0) {
+            resultCache = null;
+        } else if (resultCache == null) {
+            resultCache = new ResultCache(kb * 1024L);
+        } else {
+            resultCache.setMaxMemory(kb * 1024L);
+        }
+    }
+
+    /**
+     * Get the statement cache that is shared by all sessions.
+     *
+     * @return the cache, or null if it is disabled
+     */
+    public PlanCache getPlanCache() {
+        return planCache;
+    }
+
+    /**
+     * Get the database wide query result cache.
+     *
+     * @return the cache, or null if it is disabled
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
     public void setMaxMemoryUndo(int value) {
         this.maxMemoryUndo = value;
     }
@@ -1886,6 +2060,7 @@ public class Database implements DataHandler {
             }
             break;
         case Constants.LOCK_MODE_READ_COMMITTED:
+        case Constants.LOCK_MODE_ROW:
         case Constants.LOCK_MODE_TABLE:
         case Constants.LOCK_MODE_TABLE_GC:
             break;
@@ -2012,6 +2187,9 @@ public class Database implements DataHandler {
         if (writer != null) {
             writer.startThread();
         }
+        if (analyzer != null) {
+            analyzer.startThread();
+        }
     }
 
     public void setMode(Mode mode) {
@@ -2349,7 +2527,7 @@ public class Database implements DataHandler {
     }
 
     public void setLogMode(int log) {
-        if (log < 0 || log > 2) {
+        if (log < 0 || log > PageStore.LOG_MODE_SYNC_COMMIT) {
             throw DbException.getInvalidValueException("LOG", log);
         }
         if (pageStore != null) {
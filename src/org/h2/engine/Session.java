@@ -13,6 +13,7 @@ import java.util.Random;
 import org.h2.command.Command;
 import org.h2.command.CommandInterface;
 import org.h2.command.Parser;
+import org.h2.command.PlanCache;
 import org.h2.command.Prepared;
 import org.h2.command.dml.SetTypes;
 import org.h2.constant.ErrorCode;
@@ -98,7 +99,9 @@ public class Session extends SessionWithState {
     private HashMap<String, Value> variables;
     private HashSet<ResultInterface> temporaryResults;
     private int queryTimeout;
+    private int maxParallelWorkers;
     private boolean commitOrRollbackDisabled;
+    private long commitToFlush;
     private Table waitForLock;
     private int modificationId;
     private int objectId;
@@ -408,6 +411,11 @@ public class Session extends SessionWithState {
             throw DbException.get(ErrorCode.CONNECTION_BROKEN_1, "session closed");
         }
         Command command;
+        PlanCache planCache = database.getPlanCache();
+        if (planCache != null && (localTempTables == null || localTempTables.size() == 0)) {
+            //所有session共享的缓存，有局部临时表时表名可能解析成其他表，所以不用
+            return planCache.prepare(this, sql);
+        }
         //如果允许重用那么不再做SQL解析
         if (queryCacheSize > 0) {
             if (queryCache == null) {
@@ -570,6 +578,15 @@ public class Session extends SessionWithState {
         return undoLog.size();
     }
 
+    /**
+     * Check whether this session has changed data that is not committed yet.
+     *
+     * @return true if there are uncommitted changes
+     */
+    public boolean hasPendingTransaction() {
+        return undoLog.size() > 0 || containsUncommitted();
+    }
+
     public int getId() {
         return id;
     }
@@ -584,6 +601,7 @@ public class Session extends SessionWithState {
                 database.checkPowerOff();
                 cleanTempTables(true);
                 undoLog.clear();
+                flushCommit();
                 database.removeSession(this);
             } finally {
                 closed = true;
@@ -661,7 +679,7 @@ public class Session extends SessionWithState {
         // locks is modified in the loop
         for (int i = 0; i < locks.size(); i++) {
             Table t = locks.get(i);
-            if (!t.isLockedExclusively()) {
+            if (!t.isLockedExclusivelyBy(this)) {
                 synchronized (database) {
                     t.unlock(this);
                     locks.remove(i);
@@ -702,6 +720,10 @@ public class Session extends SessionWithState {
 
     private void cleanTempTables(boolean closeSession) {
         if (localTempTables != null && localTempTables.size() > 0) {
+            if (!closeSession && !hasTempTablesToClean()) {
+                //临时表都是ON COMMIT PRESERVE ROWS的，不需要锁住整个数据库
+                return;
+            }
             synchronized (database) {
                 for (Table table : New.arrayList(localTempTables.values())) {
                     if (closeSession || table.getOnCommitDrop()) {
@@ -722,6 +744,15 @@ public class Session extends SessionWithState {
         }
     }
 
+    private boolean hasTempTablesToClean() {
+        for (Table table : localTempTables.values()) {
+            if (table.getOnCommitDrop() || table.getOnCommitTruncate()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public Random getRandom() {
         if (random == null) {
             random = new Random();
@@ -786,6 +817,29 @@ public class Session extends SessionWithState {
         firstUncommittedPos = Session.LOG_WRITTEN;
     }
 
+    /**
+     * Remember that the transaction log needs to be flushed up to the given
+     * commit record. The log is flushed by flushCommit, after the caller no
+     * longer synchronizes on the database.
+     *
+     * @param commitId the number of the commit record
+     */
+    void setCommitToFlush(long commitId) {
+        commitToFlush = commitId;
+    }
+
+    /**
+     * Flush the transaction log if the last commit of this session still
+     * needs to be flushed. The caller must not synchronize on the database.
+     */
+    public void flushCommit() {
+        long commitId = commitToFlush;
+        if (commitId != 0) {
+            commitToFlush = 0;
+            database.flushCommit(commitId);
+        }
+    }
+
     private boolean containsUncommitted() {
         return firstUncommittedLog != Session.LOG_WRITTEN;
     }
@@ -1205,6 +1259,21 @@ public class Session extends SessionWithState {
         return queryTimeout;
     }
 
+    /**
+     * Set the maximum number of threads that may be used to process the rows
+     * of a single query. 0 and 1 mean the query is processed by the calling
+     * thread only.
+     *
+     * @param maxParallelWorkers the maximum number of worker threads
+     */
+    public void setMaxParallelWorkers(int maxParallelWorkers) {
+        this.maxParallelWorkers = maxParallelWorkers;
+    }
+
+    public int getMaxParallelWorkers() {
+        return maxParallelWorkers;
+    }
+
     public void setWaitForLock(Table table) {
         this.waitForLock = table;
     }
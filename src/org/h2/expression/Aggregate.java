@@ -227,6 +227,41 @@ public class Aggregate extends Expression {
         return new SortOrder(session.getDatabase(), index, null, sortType);
     }
 
+    /**
+     * Check if the data of this aggregate can be calculated over separate
+     * sets of rows, and merged afterwards.
+     *
+     * @return true if it can
+     */
+    public boolean isMergeable() {
+        switch (type) {
+        case GROUP_CONCAT:
+            // the order of the values would change
+        case SELECTIVITY:
+        case HISTOGRAM:
+            return false;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Merge the data of another aggregate (of a copy of this query) into the
+     * given group.
+     *
+     * @param session the session
+     * @param group the group of this query
+     * @param data the aggregate data of the copy
+     */
+    public void mergeAggregate(Session session, HashMap<Expression, Object> group, Object data) {
+        AggregateData d = (AggregateData) group.get(this);
+        if (d == null) {
+            group.put(this, data);
+        } else {
+            d.merge(session.getDatabase(), (AggregateData) data);
+        }
+    }
+
     public void updateAggregate(Session session) {
         // TODO aggregates: check nested MIN(MAX(ID)) and so on
         // if(on != null) {
@@ -9,6 +9,7 @@ package org.h2.expression;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Random;
 import org.h2.engine.Constants;
 import org.h2.engine.Database;
 import org.h2.message.DbException;
@@ -37,6 +38,11 @@ class AggregateData {
     private Value value;
     private double m2, mean;
     private ArrayList<Value> list;
+    private Value[] sample;
+    private long sampleCount;
+    private boolean sampled;
+    private Random random;
+    private Value min, max;
 
     AggregateData(int aggregateType, int dataType) {
         this.aggregateType = aggregateType;
@@ -73,19 +79,7 @@ class AggregateData {
             count++;
             return;
         } else if (aggregateType == Aggregate.HISTOGRAM) {
-            if (distinctValues == null) {
-                distinctValues = ValueHashMap.newInstance();
-            }
-            AggregateData a = distinctValues.get(v);
-            if (a == null) {
-                if (distinctValues.size() < Constants.SELECTIVITY_DISTINCT_COUNT) {
-                    a = new AggregateData(Aggregate.HISTOGRAM, dataType);
-                    distinctValues.put(v, a);
-                }
-            }
-            if (a != null) {
-                a.count++;
-            }
+            addHistogram(database, v);
             return;
         }
         if (v == ValueNull.INSTANCE) {
@@ -175,6 +169,79 @@ class AggregateData {
         }
     }
 
+    /**
+     * Add the data of another aggregate of the same type, which was
+     * calculated over a different set of rows.
+     *
+     * @param database the database
+     * @param other the other aggregate data
+     */
+    void merge(Database database, AggregateData other) {
+        if (other.distinctValues != null) {
+            if (distinctValues == null) {
+                distinctValues = ValueHashMap.newInstance();
+            }
+            for (Value v : other.distinctValues.keys()) {
+                distinctValues.put(v, this);
+            }
+        }
+        long n = count + other.count;
+        switch (aggregateType) {
+        case Aggregate.COUNT:
+        case Aggregate.COUNT_ALL:
+        case Aggregate.AVG:
+        case Aggregate.SUM:
+            if (value == null) {
+                value = other.value;
+            } else if (other.value != null) {
+                value = value.add(other.value.convertTo(value.getType()));
+            }
+            break;
+        case Aggregate.MIN:
+            if (value == null || other.value != null && database.compare(other.value, value) < 0) {
+                value = other.value;
+            }
+            break;
+        case Aggregate.MAX:
+            if (value == null || other.value != null && database.compare(other.value, value) > 0) {
+                value = other.value;
+            }
+            break;
+        case Aggregate.STDDEV_POP:
+        case Aggregate.STDDEV_SAMP:
+        case Aggregate.VAR_POP:
+        case Aggregate.VAR_SAMP:
+            // combine the partial results, see also
+            // http://en.wikipedia.org/wiki/Algorithms_for_calculating_variance
+            if (count == 0) {
+                mean = other.mean;
+                m2 = other.m2;
+            } else if (other.count > 0) {
+                double delta = other.mean - mean;
+                mean += delta * other.count / n;
+                m2 += other.m2 + delta * delta * count * other.count / n;
+            }
+            break;
+        case Aggregate.BOOL_AND:
+            if (value == null) {
+                value = other.value;
+            } else if (other.value != null) {
+                value = ValueBoolean.get(value.getBoolean().booleanValue() && other.value.getBoolean().booleanValue());
+            }
+            break;
+        case Aggregate.BOOL_OR:
+            if (value == null) {
+                value = other.value;
+            } else if (other.value != null) {
+                value = ValueBoolean.get(value.getBoolean().booleanValue() || other.value.getBoolean().booleanValue());
+            }
+            break;
+        default:
+            DbException.throwInternalError("type=" + aggregateType);
+        }
+        count = n;
+    }
+
     ArrayList<Value> getList() {
         return list;
     }
@@ -253,27 +320,118 @@ class AggregateData {
             break;
         }
         case Aggregate.HISTOGRAM:
-            ValueArray[] values = new ValueArray[distinctValues.size()];
+            v = getHistogram(database);
+            break;
+        default:
+            DbException.throwInternalError("type=" + aggregateType);
+        }
+        return v == null ? ValueNull.INSTANCE : v.convertTo(dataType);
+    }
+
+    /**
+     * Add a value to the histogram. The number of rows per value is counted
+     * exactly as long as there are at most SELECTIVITY_DISTINCT_COUNT
+     * distinct values. At the same time, a random sample of the (not NULL)
+     * values is kept (reservoir sampling), which is used if there are more
+     * distinct values, so that columns with many distinct values (for
+     * example unique columns) also get a histogram.
+     */
+    private void addHistogram(Database database, Value v) {
+        if (distinctValues == null) {
+            distinctValues = ValueHashMap.newInstance();
+        }
+        if (!sampled) {
+            AggregateData a = distinctValues.get(v);
+            if (a == null) {
+                if (distinctValues.size() < Constants.SELECTIVITY_DISTINCT_COUNT) {
+                    a = new AggregateData(Aggregate.HISTOGRAM, dataType);
+                    distinctValues.put(v, a);
+                } else {
+                    //不同的值太多了，不再精确计数，只用随机抽样的值
+                    sampled = true;
+                    distinctValues = ValueHashMap.newInstance();
+                }
+            }
+            if (a != null) {
+                a.count++;
+            }
+        }
+        if (v == ValueNull.INSTANCE) {
+            return;
+        }
+        if (min == null || database.compare(v, min) < 0) {
+            min = v;
+        }
+        if (max == null || database.compare(v, max) > 0) {
+            max = v;
+        }
+        if (sample == null) {
+            sample = new Value[Constants.SELECTIVITY_DISTINCT_COUNT];
+            random = new Random();
+        }
+        //第n个值以size/n的概率替换样本中随机的一个值，这样每个值被抽中的概率相同
+        long n = ++sampleCount;
+        if (n <= sample.length) {
+            sample[(int) n - 1] = v;
+        } else {
+            long r = (long) (random.nextDouble() * n);
+            if (r < sample.length) {
+                sample[(int) r] = v;
+            }
+        }
+    }
+
+    /**
+     * Get the histogram data: the sorted distinct values, each with the
+     * number of rows. If there were too many distinct values, the random
+     * sample is used, and the smallest and largest value are included with
+     * a row count of 0.
+     */
+    private Value getHistogram(Database database) {
+        if (distinctValues == null) {
+            //没有任何行
+            return ValueNull.INSTANCE;
+        }
+        ValueArray[] values;
+        if (!sampled) {
+            values = new ValueArray[distinctValues.size()];
             int i = 0;
             for (Value dv : distinctValues.keys()) {
                 AggregateData d = distinctValues.get(dv);
                 values[i] = ValueArray.get(new Value[] {dv, ValueLong.get(d.count)});
                 i++;
             }
-            final CompareMode compareMode = database.getCompareMode();
-            Arrays.sort(values, new Comparator<ValueArray>() {
-                public int compare(ValueArray v1, ValueArray v2) {
-                    Value a1 = v1.getList()[0];
-                    Value a2 = v2.getList()[0];
-                    return a1.compareTo(a2, compareMode);
+        } else {
+            ValueHashMap<AggregateData> counts = ValueHashMap.newInstance();
+            int size = (int) Math.min(sampleCount, sample.length);
+            for (int i = 0; i < size; i++) {
+                AggregateData d = counts.get(sample[i]);
+                if (d == null) {
+                    d = new AggregateData(Aggregate.HISTOGRAM, dataType);
+                    counts.put(sample[i], d);
                 }
-            });
-            v = ValueArray.get(values);
-            break;
-        default:
-            DbException.throwInternalError("type=" + aggregateType);
+                d.count++;
+            }
+            for (Value bound : new Value[] { min, max }) {
+                if (counts.get(bound) == null) {
+                    counts.put(bound, new AggregateData(Aggregate.HISTOGRAM, dataType));
+                }
+            }
+            values = new ValueArray[counts.size()];
+            int i = 0;
+            for (Value dv : counts.keys()) {
+                values[i++] = ValueArray.get(new Value[] {dv, ValueLong.get(counts.get(dv).count)});
+            }
         }
-        return v == null ? ValueNull.INSTANCE : v.convertTo(dataType);
+        final CompareMode compareMode = database.getCompareMode();
+        Arrays.sort(values, new Comparator<ValueArray>() {
+            public int compare(ValueArray v1, ValueArray v2) {
+                Value a1 = v1.getList()[0];
+                Value a2 = v2.getList()[0];
+                return a1.compareTo(a2, compareMode);
+            }
+        });
+        return ValueArray.get(values);
     }
 
     private static Value divide(Value a, long by) {
@@ -12,6 +12,7 @@ import org.h2.engine.Database;
 import org.h2.engine.Session;
 import org.h2.index.IndexCondition;
 import org.h2.message.DbException;
+import org.h2.result.Row;
 import org.h2.table.ColumnResolver;
 import org.h2.table.TableFilter;
 import org.h2.util.New;
@@ -239,6 +240,122 @@ public class Comparison extends Condition {
         return ValueBoolean.get(result);
     }
 
+    /**
+     * Evaluate the comparison for a batch of rows. If a column of the table
+     * is compared with a constant or a parameter, the column values are read
+     * directly from the rows, and INT, LONG and DOUBLE values are compared
+     * without creating value objects.
+     */
+    public void getBooleanValues(Session session, TableFilter filter, Row[] rows, int count, boolean[] match) {
+        int columnId = -1;
+        if (left instanceof ExpressionColumn) {
+            ExpressionColumn c = (ExpressionColumn) left;
+            if (c.getTableFilter() == filter) {
+                columnId = c.getColumn().getColumnId();
+            }
+        }
+        if (columnId < 0 || (compareType & NULL_SAFE) != 0 ||
+                right != null && !right.isConstant() && !(right instanceof Parameter)) {
+            super.getBooleanValues(session, filter, rows, count, match);
+            return;
+        }
+        if (right == null) {
+            boolean isNull = compareType == IS_NULL;
+            for (int i = 0; i < count; i++) {
+                if (match[i]) {
+                    match[i] = (rows[i].getValue(columnId) == ValueNull.INSTANCE) == isNull;
+                }
+            }
+            return;
+        }
+        Value r = right.getValue(session);
+        if (r == ValueNull.INSTANCE) {
+            Arrays.fill(match, 0, count, false);
+            return;
+        }
+        int dataType = Value.getHigherOrder(left.getType(), right.getType());
+        r = r.convertTo(dataType);
+        if (left.getType() == dataType) {
+            switch (dataType) {
+            case Value.INT: {
+                int x = r.getInt();
+                for (int i = 0; i < count; i++) {
+                    if (match[i]) {
+                        Value l = rows[i].getValue(columnId);
+                        if (l == ValueNull.INSTANCE) {
+                            match[i] = false;
+                        } else {
+                            int a = l.getInt();
+                            match[i] = isMatch(a < x ? -1 : a == x ? 0 : 1);
+                        }
+                    }
+                }
+                return;
+            }
+            case Value.LONG: {
+                long x = r.getLong();
+                for (int i = 0; i < count; i++) {
+                    if (match[i]) {
+                        Value l = rows[i].getValue(columnId);
+                        if (l == ValueNull.INSTANCE) {
+                            match[i] = false;
+                        } else {
+                            long a = l.getLong();
+                            match[i] = isMatch(a < x ? -1 : a == x ? 0 : 1);
+                        }
+                    }
+                }
+                return;
+            }
+            case Value.DOUBLE: {
+                double x = r.getDouble();
+                for (int i = 0; i < count; i++) {
+                    if (match[i]) {
+                        Value l = rows[i].getValue(columnId);
+                        if (l == ValueNull.INSTANCE) {
+                            match[i] = false;
+                        } else {
+                            // same as ValueDouble.compareSecure
+                            match[i] = isMatch(Double.compare(l.getDouble(), x));
+                        }
+                    }
+                }
+                return;
+            }
+            default:
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (match[i]) {
+                Value l = rows[i].getValue(columnId);
+                if (l == ValueNull.INSTANCE) {
+                    match[i] = false;
+                } else {
+                    match[i] = compareNotNull(database, l.convertTo(dataType), r, compareType);
+                }
+            }
+        }
+    }
+
+    private boolean isMatch(int comp) {
+        switch (compareType) {
+        case EQUAL:
+            return comp == 0;
+        case NOT_EQUAL:
+            return comp != 0;
+        case BIGGER_EQUAL:
+            return comp >= 0;
+        case BIGGER:
+            return comp > 0;
+        case SMALLER_EQUAL:
+            return comp <= 0;
+        case SMALLER:
+            return comp < 0;
+        default:
+            throw DbException.throwInternalError("type=" + compareType);
+        }
+    }
+
     /**
      * Compare two values, given the values are not NULL.
      *
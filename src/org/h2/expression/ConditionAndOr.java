@@ -9,6 +9,7 @@ package org.h2.expression;
 import org.h2.constant.SysProperties;
 import org.h2.engine.Session;
 import org.h2.message.DbException;
+import org.h2.result.Row;
 import org.h2.table.ColumnResolver;
 import org.h2.table.TableFilter;
 import org.h2.value.Value;
@@ -120,6 +121,31 @@ public class ConditionAndOr extends Condition {
         }
     }
 
+    public void getBooleanValues(Session session, TableFilter filter, Row[] rows, int count, boolean[] match) {
+        switch (andOrType) {
+        case AND:
+            // the right side is only evaluated for the rows that still match
+            left.getBooleanValues(session, filter, rows, count, match);
+            right.getBooleanValues(session, filter, rows, count, match);
+            break;
+        case OR: {
+            boolean[] l = new boolean[count];
+            System.arraycopy(match, 0, l, 0, count);
+            left.getBooleanValues(session, filter, rows, count, l);
+            for (int i = 0; i < count; i++) {
+                match[i] &= !l[i];
+            }
+            right.getBooleanValues(session, filter, rows, count, match);
+            for (int i = 0; i < count; i++) {
+                match[i] |= l[i];
+            }
+            break;
+        }
+        default:
+            throw DbException.throwInternalError("type=" + andOrType);
+        }
+    }
+
     public Expression optimize(Session session) {
         // NULL handling: see wikipedia,
         // http://www-cs-students.stanford.edu/~wlam/compsci/sqlnulls
@@ -12,6 +12,7 @@ import java.sql.SQLException;
 import org.h2.engine.Database;
 import org.h2.engine.Session;
 import org.h2.message.DbException;
+import org.h2.result.Row;
 import org.h2.table.Column;
 import org.h2.table.ColumnResolver;
 import org.h2.table.TableFilter;
@@ -187,6 +188,28 @@ public abstract class Expression {
         return getValue(session).getBoolean();
     }
 
+    /**
+     * Evaluate this condition for a batch of rows of the given table filter.
+     * Only the rows where match is true are evaluated. Afterwards, match is
+     * true only for the rows where the condition is true (false and NULL are
+     * both no match). The default implementation evaluates the condition row
+     * by row.
+     *
+     * @param session the session
+     * @param filter the table filter the rows belong to
+     * @param rows the rows
+     * @param count the number of rows
+     * @param match the rows that match
+     */
+    public void getBooleanValues(Session session, TableFilter filter, Row[] rows, int count, boolean[] match) {
+        for (int i = 0; i < count; i++) {
+            if (match[i]) {
+                filter.set(rows[i]);
+                match[i] = Boolean.TRUE.equals(getBooleanValue(session));
+            }
+        }
+    }
+
     /**
      * Create index conditions if possible and attach them to the table filter.
      *
@@ -21,6 +21,7 @@ import org.h2.table.Column;
 import org.h2.table.ColumnResolver;
 import org.h2.table.Table;
 import org.h2.table.TableFilter;
+import org.h2.value.DataType;
 import org.h2.value.Value;
 import org.h2.value.ValueBoolean;
 
@@ -287,6 +288,13 @@ public class ExpressionColumn extends Expression {
         case ExpressionVisitor.GET_COLUMNS:
             visitor.addColumn(column);
             return true;
+        case ExpressionVisitor.PARALLEL:
+            if (queryLevel > visitor.getQueryLevel()) {
+                // a column of an outer query
+                return false;
+            }
+            // reading a LOB would access the storage
+            return !DataType.isLargeObject(column.getType());
         default:
             throw DbException.throwInternalError("type=" + visitor.getType());
         }
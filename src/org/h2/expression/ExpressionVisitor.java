@@ -16,7 +16,7 @@ import org.h2.table.Table;
  * The visitor pattern is used to iterate through all expressions of a query
  * to optimize a statement.
  */
-//有10种类型
+//有11种类型
 public class ExpressionVisitor {
     /**
      * Is the value independent on unset parameters or on columns of a higher
@@ -96,6 +96,19 @@ public class ExpressionVisitor {
      */
     public static final int GET_COLUMNS = 9;
 
+    /**
+     * Can the expression be evaluated by a parallel worker thread, using a
+     * separately prepared copy of the query? Subqueries, sequences, variables
+     * and user defined functions are not supported, because they access
+     * shared state.
+     */
+    public static final int PARALLEL = 10;
+
+    /**
+     * The visitor singleton for the type PARALLEL.
+     */
+    public static final ExpressionVisitor PARALLEL_VISITOR = new ExpressionVisitor(PARALLEL);
+
     /**
      * The visitor singleton for the type QUERY_COMPARABLE.
      */
@@ -2308,6 +2308,7 @@ public class Function extends Expression implements FunctionCall {
         case ExpressionVisitor.DETERMINISTIC:
         case ExpressionVisitor.QUERY_COMPARABLE:
         case ExpressionVisitor.READONLY:
+        case ExpressionVisitor.PARALLEL:
             return info.deterministic;
         case ExpressionVisitor.EVALUATABLE:
         case ExpressionVisitor.GET_DEPENDENCIES:
@@ -83,6 +83,7 @@ public class JavaAggregate extends Expression {
             // know (no setting for that)
         case ExpressionVisitor.OPTIMIZABLE_MIN_MAX_COUNT_ALL:
             // user defined aggregate functions can not be optimized
+        case ExpressionVisitor.PARALLEL:
             return false;
         case ExpressionVisitor.GET_DEPENDENCIES:
             visitor.addDependency(userAggregate);
@@ -132,6 +132,9 @@ public class JavaFunction extends Expression implements FunctionCall {
         case ExpressionVisitor.GET_DEPENDENCIES:
             visitor.addDependency(functionAlias);
             break;
+        case ExpressionVisitor.PARALLEL:
+            // user defined functions may not be thread safe
+            return false;
         default:
         }
         for (Expression e : args) {
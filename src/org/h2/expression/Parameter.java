@@ -137,6 +137,7 @@ public class Parameter extends Expression implements ParameterInterface {
         case ExpressionVisitor.DETERMINISTIC:
         case ExpressionVisitor.READONLY:
         case ExpressionVisitor.GET_COLUMNS:
+        case ExpressionVisitor.PARALLEL:
             return true;
         case ExpressionVisitor.INDEPENDENT:
             return value != null;
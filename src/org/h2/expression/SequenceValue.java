@@ -79,6 +79,7 @@ public class SequenceValue extends Expression {
         case ExpressionVisitor.READONLY:
         case ExpressionVisitor.INDEPENDENT:
         case ExpressionVisitor.QUERY_COMPARABLE:
+        case ExpressionVisitor.PARALLEL:
             return false;
         case ExpressionVisitor.SET_MAX_DATA_MODIFICATION_ID:
             visitor.addDataModificationId(sequence.getModificationId());
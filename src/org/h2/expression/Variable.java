@@ -78,6 +78,8 @@ public class Variable extends Expression {
         case ExpressionVisitor.GET_DEPENDENCIES:
         case ExpressionVisitor.GET_COLUMNS:
             return true;
+        case ExpressionVisitor.PARALLEL:
+            return false;
         case ExpressionVisitor.DETERMINISTIC:
         	//因为变量本身就是可变的，所以并不确定，
         	//当要判断当前表达式(即变量)是否满足ExpressionVisitor.DETERMINISTIC(确定性)时显然返回false
@@ -124,17 +124,21 @@ public abstract class BaseIndex extends SchemaObjectBase implements Index {
      *
      * @param masks the search mask
      * @param rowCount the number of rows in the index
+     * @param filter the table filter with the index conditions, or null
      * @param sortOrder the sort order
      * @return the estimated cost
      */
-    protected long getCostRangeIndex(int[] masks, long rowCount, SortOrder sortOrder) { //无子类覆盖
+    protected long getCostRangeIndex(int[] masks, long rowCount, TableFilter filter, SortOrder sortOrder) { //无子类覆盖
         rowCount += Constants.COST_ROW_OFFSET;
         long cost = rowCount;
         long rows = rowCount;
         int totalSelectivity = 0;
+        double fraction = 1;
         if (masks == null) {
             return cost;
         }
+        //如果ANALYZE算出了字段的直方图，并且条件中的值是常量，就用直方图来估计匹配的行数
+        Session session = filter == null ? null : filter.getSession();
         for (int i = 0, len = columns.length; i < len; i++) {
             Column column = columns[i];
             int index = column.getColumnId();
@@ -143,6 +147,10 @@ public abstract class BaseIndex extends SchemaObjectBase implements Index {
             //EQUALITY < RANGE < END < START
             //如果索引字段列表的第一个字段在Where中是RANGE、START、END，那么索引字段列表中的其他字段就不需要再计算cost了，
             //如果是EQUALITY，则还可以继续计算cost，rows变量的值会变小，cost也会变小
+            double range = -1;
+            if ((mask & IndexCondition.EQUALITY) == 0 && (mask & IndexCondition.RANGE) != 0) {
+                range = getSelectivity(session, column, false, filter);
+            }
             if ((mask & IndexCondition.EQUALITY) == IndexCondition.EQUALITY) {
             	//索引字段列表中的最后一个在where当中是EQUALITY，确此索引是唯一索引时，cost直接是3
             	//因为如果最后一个索引字段是EQUALITY，说明前面的字段全是EQUALITY，
@@ -152,13 +160,21 @@ public abstract class BaseIndex extends SchemaObjectBase implements Index {
                     cost = 3;
                     break;
                 }
-                totalSelectivity = 100 - ((100 - totalSelectivity) * (100 - column.getSelectivity()) / 100);
+                double f = getSelectivity(session, column, true, filter);
+                if (f >= 0) {
+                    fraction *= f;
+                } else {
+                    totalSelectivity = 100 - ((100 - totalSelectivity) * (100 - column.getSelectivity()) / 100);
+                }
                 long distinctRows = rowCount * totalSelectivity / 100; //totalSelectivity变大时distinctRows变大
                 if (distinctRows <= 0) {
                     distinctRows = 1;
                 }
-                rows = Math.max(rowCount / distinctRows, 1); //distinctRows变大，则rowCount / distinctRows变小，rows也变小
+                rows = Math.max((long) (rowCount / distinctRows * fraction), 1); //distinctRows变大，则rowCount / distinctRows变小，rows也变小
                 cost = 2 + rows; //rows也变小，所以cost也变小
+            } else if (range >= 0) {
+                cost = 2 + (long) (rows * range);
+                break;
             } else if ((mask & IndexCondition.RANGE) == IndexCondition.RANGE) { //见TableFilter.getBestPlanItem中的注释
                 cost = 2 + rows / 4;
                 break;
@@ -208,6 +224,13 @@ public abstract class BaseIndex extends SchemaObjectBase implements Index {
         return cost;
     }
 
+    private static double getSelectivity(Session session, Column column, boolean equality, TableFilter filter) {
+        if (session == null) {
+            return -1;
+        }
+        return IndexCondition.getSelectivity(session, column, equality, filter.getIndexConditions());
+    }
+
     public int compareRows(SearchRow rowData, SearchRow compare) { //只比较索引字段，并不一定是所有字段
         if (rowData == compare) {
             return 0;
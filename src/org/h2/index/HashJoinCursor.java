@@ -0,0 +1,253 @@
+/*
+ * Copyright 2004-2013 H2 Group. Multiple-Licensed under the H2 License,
+ * Version 1.0, and under the Eclipse Public License, Version 1.0
+ * (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.index;
+
+import java.util.ArrayList;
+import org.h2.engine.Database;
+import org.h2.expression.Comparison;
+import org.h2.result.Row;
+import org.h2.result.SearchRow;
+import org.h2.table.Column;
+import org.h2.table.Table;
+import org.h2.table.TableFilter;
+import org.h2.util.New;
+import org.h2.util.ValueHashMap;
+import org.h2.value.CompareMode;
+import org.h2.value.Value;
+import org.h2.value.ValueNull;
+
+/**
+ * The cursor used for a hash join. The first time the cursor is used in a
+ * query, all rows of the table are read once (the build side) and grouped by
+ * the value of the join column. Afterwards, each lookup (the probe side) only
+ * iterates over the rows with a matching value, instead of scanning the whole
+ * table again for each row of the outer table.
+ * <p>
+ * If the build side of a persistent table contains more than MAX_MEMORY_ROWS
+ * rows, the rows are partitioned by join value into a temporary file, and
+ * each lookup only reads the partition of its value (see HashJoinDiskBuffer).
+ */
+public class HashJoinCursor extends JoinCursor {
+
+    private final int columnId;
+    private final int dataType;
+
+    /**
+     * The rows by join value, if the build side fits in memory.
+     */
+    private ValueHashMap<ArrayList<Row>> rows;
+
+    /**
+     * The partitions of the build side, if it does not fit in memory.
+     */
+    private HashJoinDiskBuffer diskBuffer;
+
+    private ArrayList<Row> currentRows;
+    private int index;
+    private Row current;
+
+    private HashJoinCursor(TableFilter filter, IndexCondition condition, int dataType) {
+        super(filter, condition);
+        this.columnId = condition.getColumn().getColumnId();
+        this.dataType = dataType;
+    }
+
+    /**
+     * Create a hash join cursor for the given condition, if possible. A hash
+     * join can only be used for equality conditions on a column of a regular
+     * table, where the values of both sides can be compared using
+     * Value.equals.
+     *
+     * @param filter the table filter
+     * @param condition the index condition
+     * @return the cursor, or null if a hash join can not be used
+     */
+    public static HashJoinCursor get(TableFilter filter, IndexCondition condition) {
+        if (condition.getCompareType() != Comparison.EQUAL) {
+            return null;
+        }
+        Column column = condition.getColumn();
+        if (column.getColumnId() < 0) {
+            return null;
+        }
+        Table table = filter.getTable();
+        if (!Table.TABLE.equals(table.getTableType())) {
+            return null;
+        }
+        Database db = table.getDatabase();
+        if (db.isMultiVersion() && !table.isMVStore()) {
+            // rows of other sessions may be removed before they are re-read
+            return null;
+        }
+        if (!CompareMode.OFF.equals(db.getCompareMode().getName())) {
+            // a collator may consider different strings to be equal
+            return null;
+        }
+        int columnType = column.getType();
+        int expressionType = condition.getExpression().getType();
+        int dataType = Value.getHigherOrder(columnType, expressionType);
+        if (columnType != dataType || expressionType != dataType) {
+            // converting the values could fail or change the result
+            // (except when widening between integer types)
+            if (!isInteger(columnType) || !isInteger(expressionType)) {
+                return null;
+            }
+        }
+        switch (dataType) {
+        case Value.BOOLEAN:
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.TIME:
+        case Value.DATE:
+        case Value.TIMESTAMP:
+        case Value.BYTES:
+        case Value.STRING:
+        case Value.STRING_FIXED:
+        case Value.UUID:
+            break;
+        default:
+            // DECIMAL, DOUBLE and FLOAT values may be equal even if
+            // Value.equals returns false (for example 1.0 and 1.00),
+            // and the case insensitive hash code is locale sensitive
+            return null;
+        }
+        return new HashJoinCursor(filter, condition, dataType);
+    }
+
+    /**
+     * Estimate the additional cost of a lookup if the build side does not fit
+     * in memory, and is partitioned in a temporary file.
+     *
+     * @param db the database
+     * @param table the table of the build side
+     * @param rowCount the estimated number of rows
+     * @return the cost (0 if the build side is kept in memory)
+     */
+    public static double getPartitionCost(Database db, Table table, long rowCount) {
+        int maxMemoryRows = Math.max(1, db.getMaxMemoryRows());
+        if (!db.isPersistent() || !table.isPersistData() || rowCount <= maxMemoryRows) {
+            return 0;
+        }
+        return HashJoinDiskBuffer.getReadRows(rowCount, maxMemoryRows);
+    }
+
+    private static boolean isInteger(int type) {
+        switch (type) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    public void reset() {
+        rows = null;
+        if (diskBuffer != null) {
+            diskBuffer.close();
+            diskBuffer = null;
+        }
+        currentRows = null;
+        current = null;
+    }
+
+    protected void find() {
+        // the first lookup after a reset builds the hash table
+        if (rows == null && diskBuffer == null) {
+            build();
+        }
+        currentRows = null;
+        current = null;
+        index = -1;
+        Value v = condition.getCurrentValue(session);
+        if (v == ValueNull.INSTANCE) {
+            // NULL is never equal to anything
+            return;
+        }
+        v = v.convertTo(dataType);
+        if (diskBuffer != null) {
+            currentRows = diskBuffer.find(v);
+        } else {
+            currentRows = rows.get(v);
+        }
+    }
+
+    private void build() {
+        Database db = session.getDatabase();
+        Table table = tableFilter.getTable();
+        boolean limit = db.isPersistent() && table.isPersistData();
+        int maxMemoryRows = db.getMaxMemoryRows();
+        Index scan = table.getScanIndex(session);
+        rows = ValueHashMap.newInstance();
+        Cursor cursor = scan.find(tableFilter, null, null);
+        int count = 0;
+        while (cursor.next()) {
+            if ((++count & 4095) == 0) {
+                session.checkCanceled();
+            }
+            Row row = cursor.get();
+            Value v = row.getValue(columnId);
+            if (v == ValueNull.INSTANCE) {
+                continue;
+            }
+            v = v.convertTo(dataType);
+            if (diskBuffer != null) {
+                diskBuffer.addRow(row, v);
+                continue;
+            }
+            ArrayList<Row> list = rows.get(v);
+            if (list == null) {
+                list = New.arrayList();
+                rows.put(v, list);
+            }
+            list.add(row);
+            if (limit && count > maxMemoryRows) {
+                // the table does not fit in memory: move the rows to the
+                // partitions, and add the remaining rows there
+                diskBuffer = new HashJoinDiskBuffer(session, table, columnId, dataType,
+                        Math.max(count, table.getRowCountApproximation()));
+                for (Value key : rows.keys()) {
+                    for (Row r : rows.get(key)) {
+                        diskBuffer.addRow(r, key);
+                    }
+                }
+                rows = null;
+            }
+        }
+        if (diskBuffer != null) {
+            diskBuffer.done();
+        }
+    }
+
+    public Row get() {
+        return current;
+    }
+
+    public SearchRow getSearchRow() {
+        return get();
+    }
+
+    public boolean next() {
+        current = null;
+        if (currentRows != null) {
+            if (++index < currentRows.size()) {
+                current = currentRows.get(index);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getPlanSQL() {
+        return "hashJoin";
+    }
+
+}
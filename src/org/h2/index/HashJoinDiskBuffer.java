@@ -0,0 +1,314 @@
+/*
+ * Copyright 2004-2013 H2 Group. Multiple-Licensed under the H2 License,
+ * Version 1.0, and under the Eclipse Public License, Version 1.0
+ * (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.index;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import org.h2.engine.Constants;
+import org.h2.engine.Database;
+import org.h2.engine.Session;
+import org.h2.result.Row;
+import org.h2.store.Data;
+import org.h2.store.FileStore;
+import org.h2.table.Table;
+import org.h2.util.MathUtils;
+import org.h2.util.New;
+import org.h2.util.ValueHashMap;
+import org.h2.value.Value;
+
+/**
+ * This class implements the disk buffer for the build side of a hash join
+ * that does not fit in memory (a partitioned, or grace, hash join). Each row
+ * is written to one of a number of partitions in a temporary file, selected
+ * by the hash code of the join value, so that all rows with the same join
+ * value are in the same partition. A partition has about MAX_MEMORY_ROWS / 64
+ * rows (unless there are very many rows), so that reading it is fast.
+ * <p>
+ * The rows of the probe side are read one at a time by the table filter of
+ * the outer table, so they can't be partitioned as well. Instead, a lookup
+ * reads the partition of the join value into a hash table, and the hash
+ * tables of the most recently used partitions are kept as long as they have
+ * at most MAX_MEMORY_ROWS rows together.
+ */
+class HashJoinDiskBuffer {
+
+    /**
+     * The maximum number of partitions.
+     */
+    private static final int MAX_PARTITIONS = 4096;
+
+    /**
+     * The number of partitions per MAX_MEMORY_ROWS rows.
+     */
+    private static final int PARTITIONS_PER_MEMORY = 64;
+
+    private final Table table;
+    private final int columnId;
+    private final int dataType;
+    private final Database database;
+    private final Data rowBuff;
+    private final int maxBufferSize;
+    private final int maxMemoryRows;
+    private final HashJoinPartition[] partitions;
+
+    /**
+     * The partitions that are in memory, the least recently used first.
+     */
+    private final LinkedHashMap<Integer, HashJoinPartition> loaded =
+            new LinkedHashMap<Integer, HashJoinPartition>(16, 0.75f, true);
+
+    private FileStore file;
+
+    /**
+     * The number of rows that were added but not written yet.
+     */
+    private int bufferedRows;
+
+    /**
+     * The number of rows in the partitions that are in memory.
+     */
+    private int loadedRows;
+
+    /**
+     * A partition of the build side.
+     */
+    static class HashJoinPartition {
+
+        /**
+         * The regions of the temp file that contain the rows of this
+         * partition, as pairs of start and end position.
+         */
+        ArrayList<long[]> runs = New.arrayList();
+
+        /**
+         * The rows that were added but not written yet.
+         */
+        ArrayList<Row> buffer = New.arrayList();
+
+        /**
+         * The number of rows.
+         */
+        int rowCount;
+
+        /**
+         * The rows by join value, if the partition is in memory.
+         */
+        ValueHashMap<ArrayList<Row>> rows;
+    }
+
+    /**
+     * Create a new disk buffer.
+     *
+     * @param session the session
+     * @param table the table of the build side
+     * @param columnId the join column
+     * @param dataType the data type the join values are converted to
+     * @param rowCount the expected number of rows
+     */
+    HashJoinDiskBuffer(Session session, Table table, int columnId, int dataType, long rowCount) {
+        this.table = table;
+        this.columnId = columnId;
+        this.dataType = dataType;
+        database = session.getDatabase();
+        rowBuff = Data.create(database, Constants.DEFAULT_PAGE_SIZE);
+        maxBufferSize = database.getSettings().largeResultBufferSize;
+        maxMemoryRows = Math.max(1, database.getMaxMemoryRows());
+        partitions = new HashJoinPartition[getPartitionCount(rowCount, maxMemoryRows)];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new HashJoinPartition();
+        }
+    }
+
+    private static int getPartitionCount(long rowCount, int maxMemoryRows) {
+        long count = PARTITIONS_PER_MEMORY * rowCount / maxMemoryRows + 1;
+        return MathUtils.nextPowerOf2((int) Math.min(MAX_PARTITIONS, count));
+    }
+
+    /**
+     * Estimate the number of rows a lookup needs to read, on average. The
+     * partition of the join value is read unless it is one of the partitions
+     * that are kept in memory.
+     *
+     * @param rowCount the number of rows of the build side
+     * @param maxMemoryRows the maximum number of rows in memory
+     * @return the number of rows
+     */
+    static double getReadRows(long rowCount, int maxMemoryRows) {
+        double partitionRows = (double) rowCount / getPartitionCount(rowCount, maxMemoryRows);
+        return partitionRows * Math.max(0, 1 - (double) maxMemoryRows / rowCount);
+    }
+
+    private int getPartition(Value v) {
+        // the hash tables use the low bits of the hash code as well, so the
+        // bits are mixed first
+        int h = v.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x45d9f3b;
+        h ^= (h >>> 16);
+        return h & (partitions.length - 1);
+    }
+
+    /**
+     * Add a row. The rows are written to the temporary file when
+     * MAX_MEMORY_ROWS rows were added.
+     *
+     * @param row the row
+     * @param v the join value, converted to the data type of the join
+     */
+    void addRow(Row row, Value v) {
+        HashJoinPartition p = partitions[getPartition(v)];
+        p.buffer.add(row);
+        p.rowCount++;
+        if (++bufferedRows >= maxMemoryRows) {
+            flush();
+        }
+    }
+
+    /**
+     * Write the remaining rows. No more rows can be added after this method
+     * is called.
+     */
+    void done() {
+        flush();
+    }
+
+    private void flush() {
+        if (file == null) {
+            String fileName = database.createTempFile();
+            file = database.openFile(fileName, "rw", false);
+            file.setCheckedWriting(false);
+            file.autoDelete();
+            file.seek(FileStore.HEADER_LENGTH);
+        }
+        for (HashJoinPartition p : partitions) {
+            if (p.buffer.size() > 0) {
+                long start = file.getFilePointer();
+                writeRows(p.buffer);
+                p.runs.add(new long[] { start, file.getFilePointer() });
+                p.buffer.clear();
+            }
+        }
+        bufferedRows = 0;
+    }
+
+    private void writeRows(ArrayList<Row> rows) {
+        Data buff = rowBuff;
+        int columnCount = table.getColumns().length;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        int bufferLen = 0;
+        for (Row row : rows) {
+            buff.reset();
+            buff.writeInt(0);
+            buff.writeVarLong(row.getKey());
+            for (int i = 0; i < columnCount; i++) {
+                Value v = row.getValue(i);
+                buff.checkCapacity(buff.getValueLen(v));
+                buff.writeValue(v);
+            }
+            buff.fillAligned();
+            int len = buff.length();
+            buff.setInt(0, len);
+            if (maxBufferSize > 0) {
+                buffer.write(buff.getBytes(), 0, len);
+                bufferLen += len;
+                if (bufferLen > maxBufferSize) {
+                    byte[] data = buffer.toByteArray();
+                    buffer.reset();
+                    file.write(data, 0, data.length);
+                    bufferLen = 0;
+                }
+            } else {
+                file.write(buff.getBytes(), 0, len);
+            }
+        }
+        if (bufferLen > 0) {
+            byte[] data = buffer.toByteArray();
+            file.write(data, 0, data.length);
+        }
+    }
+
+    /**
+     * Get the rows with the given join value. The partition of the value is
+     * read if it is not in memory.
+     *
+     * @param v the join value, converted to the data type of the join
+     * @return the rows, or null if there are none
+     */
+    ArrayList<Row> find(Value v) {
+        int index = getPartition(v);
+        HashJoinPartition p = loaded.get(index);
+        if (p == null) {
+            p = partitions[index];
+            if (p.rowCount == 0) {
+                return null;
+            }
+            // remove the least recently used partitions, but always keep the
+            // partition that is needed now
+            for (Iterator<HashJoinPartition> it = loaded.values().iterator(); it.hasNext();) {
+                if (loadedRows + p.rowCount <= maxMemoryRows) {
+                    break;
+                }
+                HashJoinPartition old = it.next();
+                old.rows = null;
+                loadedRows -= old.rowCount;
+                it.remove();
+            }
+            readPartition(p);
+            loaded.put(index, p);
+            loadedRows += p.rowCount;
+        }
+        return p.rows.get(v);
+    }
+
+    private void readPartition(HashJoinPartition p) {
+        ValueHashMap<ArrayList<Row>> rows = ValueHashMap.newInstance();
+        int columnCount = table.getColumns().length;
+        for (long[] run : p.runs) {
+            long pos = run[0];
+            file.seek(pos);
+            while (pos < run[1]) {
+                int min = Constants.FILE_BLOCK_SIZE;
+                Data buff = rowBuff;
+                buff.reset();
+                file.readFully(buff.getBytes(), 0, min);
+                int len = buff.readInt();
+                buff.checkCapacity(len);
+                if (len - min > 0) {
+                    file.readFully(buff.getBytes(), min, len - min);
+                }
+                pos += len;
+                Row row = table.getTemplateRow();
+                row.setKey(buff.readVarLong());
+                for (int i = 0; i < columnCount; i++) {
+                    row.setValue(i, buff.readValue());
+                }
+                Value v = row.getValue(columnId).convertTo(dataType);
+                ArrayList<Row> list = rows.get(v);
+                if (list == null) {
+                    list = New.arrayList();
+                    rows.put(v, list);
+                }
+                list.add(row);
+            }
+        }
+        p.rows = rows;
+    }
+
+    /**
+     * Close the buffer and delete the temporary file.
+     */
+    void close() {
+        if (file != null) {
+            file.closeAndDeleteSilently();
+            file = null;
+        }
+        loaded.clear();
+    }
+
+}
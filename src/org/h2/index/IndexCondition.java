@@ -20,10 +20,12 @@ import org.h2.expression.ExpressionVisitor;
 import org.h2.message.DbException;
 import org.h2.result.ResultInterface;
 import org.h2.table.Column;
+import org.h2.table.Histogram;
 import org.h2.table.Table;
 import org.h2.util.StatementBuilder;
 import org.h2.value.CompareMode;
 import org.h2.value.Value;
+import org.h2.value.ValueNull;
 
 /**
  * A index condition object is made for each condition that can potentially use
@@ -315,6 +317,15 @@ public class IndexCondition {
         return column;
     }
 
+    /**
+     * Get the expression the column is compared with.
+     *
+     * @return the expression, or null for IN(..) conditions
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
     /**
      * Check if the expression can be evaluated.
      *
@@ -335,4 +346,122 @@ public class IndexCondition {
         return expressionQuery.isEverything(ExpressionVisitor.EVALUATABLE_VISITOR);
     }
 
+    /**
+     * Estimate the fraction of rows that match the index conditions of the
+     * given column, using the histogram calculated by ANALYZE. Only conditions
+     * with constant values can be estimated; for example conditions with
+     * parameters can not.
+     *
+     * @param session the session
+     * @param column the column
+     * @param equality whether to estimate the equality conditions (including
+     *            IN(..) lists), or the range conditions
+     * @param indexConditions all index conditions
+     * @return the fraction between 0 and 1, or -1 if unknown
+     */
+    public static double getSelectivity(Session session, Column column, boolean equality,
+            ArrayList<IndexCondition> indexConditions) {
+        Histogram histogram = column.getHistogram();
+        if (histogram == null) {
+            return -1;
+        }
+        CompareMode mode = session.getDatabase().getCompareMode();
+        Value min = null, max = null;
+        try {
+            for (IndexCondition condition : indexConditions) {
+                if (condition.column != column) {
+                    continue;
+                }
+                switch (condition.compareType) {
+                case Comparison.EQUAL:
+                case Comparison.EQUAL_NULL_SAFE: {
+                    Value v = condition.getConstantValue(session);
+                    if (equality && v != null) {
+                        return histogram.getEqualFraction(v, mode);
+                    }
+                    break;
+                }
+                case Comparison.IN_LIST: {
+                    if (!equality) {
+                        break;
+                    }
+                    HashSet<Value> values = new HashSet<Value>();
+                    for (Expression e : condition.expressionList) {
+                        if (!e.isConstant()) {
+                            values = null;
+                            break;
+                        }
+                        Value v = e.getValue(session);
+                        if (v != ValueNull.INSTANCE) {
+                            values.add(column.convert(v));
+                        }
+                    }
+                    if (values != null) {
+                        double f = 0;
+                        for (Value v : values) {
+                            double x = histogram.getEqualFraction(v, mode);
+                            if (x < 0) {
+                                return -1;
+                            }
+                            f += x;
+                        }
+                        return Math.min(f, 1);
+                    }
+                    break;
+                }
+                case Comparison.BIGGER_EQUAL:
+                case Comparison.BIGGER: {
+                    if (equality) {
+                        break;
+                    }
+                    Value v = condition.getConstantValue(session);
+                    if (v == null) {
+                        return -1;
+                    } else if (min == null || v.compareTo(min, mode) > 0) {
+                        min = v;
+                    }
+                    break;
+                }
+                case Comparison.SMALLER_EQUAL:
+                case Comparison.SMALLER: {
+                    if (equality) {
+                        break;
+                    }
+                    Value v = condition.getConstantValue(session);
+                    if (v == null) {
+                        return -1;
+                    } else if (max == null || v.compareTo(max, mode) < 0) {
+                        max = v;
+                    }
+                    break;
+                }
+                default:
+                }
+            }
+        } catch (DbException e) {
+            // the value can not be converted to the column type
+            return -1;
+        }
+        if (equality || (min == null && max == null)) {
+            return -1;
+        }
+        //LIKE 'abc%'也会转成>=和<两个条件
+        return histogram.getRangeFraction(min, max, mode);
+    }
+
+    /**
+     * Get the value of the expression converted to the column type, if the
+     * expression is a constant that is not NULL.
+     */
+    private Value getConstantValue(Session session) {
+        if (!expression.isConstant()) {
+            return null;
+        }
+        Value v = expression.getValue(session);
+        if (v == ValueNull.INSTANCE) {
+            return null;
+        }
+        return column.convert(v);
+    }
+
 }
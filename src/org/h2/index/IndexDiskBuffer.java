@@ -0,0 +1,252 @@
+/*
+ * Copyright 2004-2013 H2 Group. Multiple-Licensed under the H2 License,
+ * Version 1.0, and under the Eclipse Public License, Version 1.0
+ * (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.index;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import org.h2.engine.Constants;
+import org.h2.engine.Database;
+import org.h2.engine.Session;
+import org.h2.result.Row;
+import org.h2.result.SearchRow;
+import org.h2.store.Data;
+import org.h2.store.FileStore;
+import org.h2.table.Column;
+import org.h2.util.New;
+import org.h2.value.Value;
+
+/**
+ * This class implements the disk buffer to sort the rows of a new index
+ * (external merge sort). Only the key and the indexed columns of a row are
+ * kept. The rows are returned in the order of the index.
+ */
+public class IndexDiskBuffer {
+
+    private static final int READ_AHEAD = 128;
+
+    private final BaseIndex index;
+    private final Database database;
+    private final Data rowBuff;
+    private final Comparator<SearchRow> rowComparator;
+    private final ArrayList<IndexDiskTape> tapes = New.arrayList();
+    private final int maxBufferSize;
+
+    private FileStore file;
+    private ArrayList<SearchRow> lastRun;
+    private PriorityQueue<IndexDiskTape> queue;
+
+    /**
+     * Represents a virtual disk tape for the merge sort algorithm.
+     * Each virtual disk tape is a region of the temp file, except for the last
+     * run, which is kept in memory.
+     */
+    static class IndexDiskTape {
+
+        /**
+         * The end position of this tape in the file.
+         */
+        long end;
+
+        /**
+         * The current read position.
+         */
+        long pos;
+
+        /**
+         * A list of rows in the buffer.
+         */
+        ArrayList<SearchRow> buffer = New.arrayList();
+
+        /**
+         * The position of the next row in the buffer.
+         */
+        int next;
+
+        SearchRow current() {
+            return buffer.get(next);
+        }
+    }
+
+    public IndexDiskBuffer(Session session, BaseIndex index) {
+        this.index = index;
+        database = session.getDatabase();
+        rowBuff = Data.create(database, Constants.DEFAULT_PAGE_SIZE);
+        maxBufferSize = database.getSettings().largeResultBufferSize;
+        final BaseIndex idx = index;
+        rowComparator = new Comparator<SearchRow>() {
+            public int compare(SearchRow r1, SearchRow r2) {
+                int comp = idx.compareRows(r1, r2);
+                if (comp == 0) {
+                    comp = idx.compareKeys(r1, r2);
+                }
+                return comp;
+            }
+        };
+    }
+
+    /**
+     * Sort the rows and add them as a new run. The list is cleared afterwards.
+     * Only the last run is kept in memory, the previous run is written to a
+     * temporary file.
+     *
+     * @param rows the rows
+     */
+    public void addRows(ArrayList<Row> rows) {
+        if (lastRun != null) {
+            writeRun(lastRun);
+        }
+        ArrayList<SearchRow> run = New.arrayList(rows.size());
+        for (Row r : rows) {
+            run.add(getSearchRow(r));
+        }
+        rows.clear();
+        Collections.sort(run, rowComparator);
+        lastRun = run;
+    }
+
+    private SearchRow getSearchRow(Row row) {
+        SearchRow r = index.table.getTemplateSimpleRow(index.columns.length == 1);
+        r.setKeyAndVersion(row);
+        for (Column c : index.columns) {
+            int idx = c.getColumnId();
+            r.setValue(idx, row.getValue(idx));
+        }
+        return r;
+    }
+
+    private void writeRun(ArrayList<SearchRow> run) {
+        if (file == null) {
+            String fileName = database.createTempFile();
+            file = database.openFile(fileName, "rw", false);
+            file.setCheckedWriting(false);
+            file.autoDelete();
+            file.seek(FileStore.HEADER_LENGTH);
+        }
+        Data buff = rowBuff;
+        IndexDiskTape tape = new IndexDiskTape();
+        tape.pos = file.getFilePointer();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        int bufferLen = 0;
+        for (SearchRow row : run) {
+            buff.reset();
+            buff.writeInt(0);
+            buff.writeVarLong(row.getKey());
+            for (Column c : index.columns) {
+                Value v = row.getValue(c.getColumnId());
+                buff.checkCapacity(buff.getValueLen(v));
+                buff.writeValue(v);
+            }
+            buff.fillAligned();
+            int len = buff.length();
+            buff.setInt(0, len);
+            if (maxBufferSize > 0) {
+                buffer.write(buff.getBytes(), 0, len);
+                bufferLen += len;
+                if (bufferLen > maxBufferSize) {
+                    byte[] data = buffer.toByteArray();
+                    buffer.reset();
+                    file.write(data, 0, data.length);
+                    bufferLen = 0;
+                }
+            } else {
+                file.write(buff.getBytes(), 0, len);
+            }
+        }
+        if (bufferLen > 0) {
+            byte[] data = buffer.toByteArray();
+            file.write(data, 0, data.length);
+        }
+        tape.end = file.getFilePointer();
+        tapes.add(tape);
+    }
+
+    private void readRows(IndexDiskTape tape) {
+        tape.buffer.clear();
+        tape.next = 0;
+        if (tape.pos >= tape.end) {
+            return;
+        }
+        file.seek(tape.pos);
+        for (int j = 0; tape.pos < tape.end && j < READ_AHEAD; j++) {
+            int min = Constants.FILE_BLOCK_SIZE;
+            Data buff = rowBuff;
+            buff.reset();
+            file.readFully(buff.getBytes(), 0, min);
+            int len = buff.readInt();
+            buff.checkCapacity(len);
+            if (len - min > 0) {
+                file.readFully(buff.getBytes(), min, len - min);
+            }
+            tape.pos += len;
+            SearchRow row = index.table.getTemplateSimpleRow(index.columns.length == 1);
+            row.setKey(buff.readVarLong());
+            for (Column c : index.columns) {
+                row.setValue(c.getColumnId(), buff.readValue());
+            }
+            tape.buffer.add(row);
+        }
+    }
+
+    /**
+     * Get the next row in the order of the index. No more rows can be added
+     * after this method is called.
+     *
+     * @return the row, or null if there are no more rows
+     */
+    public SearchRow next() {
+        if (queue == null) {
+            if (lastRun != null) {
+                IndexDiskTape tape = new IndexDiskTape();
+                tape.buffer = lastRun;
+                tapes.add(tape);
+                lastRun = null;
+            }
+            queue = new PriorityQueue<IndexDiskTape>(Math.max(1, tapes.size()),
+                    new Comparator<IndexDiskTape>() {
+                        public int compare(IndexDiskTape a, IndexDiskTape b) {
+                            return rowComparator.compare(a.current(), b.current());
+                        }
+                    });
+            for (IndexDiskTape tape : tapes) {
+                if (tape.buffer.isEmpty()) {
+                    readRows(tape);
+                }
+                if (!tape.buffer.isEmpty()) {
+                    queue.add(tape);
+                }
+            }
+        }
+        IndexDiskTape tape = queue.poll();
+        if (tape == null) {
+            return null;
+        }
+        SearchRow row = tape.current();
+        if (++tape.next >= tape.buffer.size()) {
+            readRows(tape);
+        }
+        if (!tape.buffer.isEmpty()) {
+            queue.add(tape);
+        }
+        return row;
+    }
+
+    /**
+     * Close the buffer and delete the temporary file.
+     */
+    public void close() {
+        if (file != null) {
+            file.closeAndDeleteSilently();
+            file = null;
+        }
+        lastRun = null;
+        tapes.clear();
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2004-2013 H2 Group. Multiple-Licensed under the H2 License,
+ * Version 1.0, and under the Eclipse Public License, Version 1.0
+ * (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.index;
+
+import org.h2.engine.Session;
+import org.h2.message.DbException;
+import org.h2.table.TableFilter;
+
+/**
+ * A cursor that is used instead of the index cursor of a joined table, to
+ * look up the rows that match an equality join condition without doing a
+ * separate index lookup (or table scan) for each row of the outer table.
+ * The join condition and all other conditions are still evaluated by the
+ * table filter.
+ */
+public abstract class JoinCursor implements Cursor {
+
+    /**
+     * The table filter.
+     */
+    protected final TableFilter tableFilter;
+
+    /**
+     * The equality condition used to look up the rows.
+     */
+    protected final IndexCondition condition;
+
+    /**
+     * The session, or null if the cursor was not used yet.
+     */
+    protected Session session;
+
+    JoinCursor(TableFilter filter, IndexCondition condition) {
+        this.tableFilter = filter;
+        this.condition = condition;
+    }
+
+    /**
+     * Get the index condition used to look up the rows.
+     *
+     * @return the condition
+     */
+    public IndexCondition getCondition() {
+        return condition;
+    }
+
+    /**
+     * Look up the rows that match the current value of the join expression.
+     *
+     * @param s the session
+     */
+    public void find(Session s) {
+        if (session != s) {
+            reset();
+            session = s;
+        }
+        find();
+    }
+
+    /**
+     * Look up the rows that match the current value of the join expression,
+     * using the current session.
+     */
+    protected abstract void find();
+
+    /**
+     * Forget all state that was kept from previous lookups. This method is
+     * called when a query is started.
+     */
+    public abstract void reset();
+
+    /**
+     * Get the name of the join algorithm, as used in the query plan.
+     *
+     * @return the name
+     */
+    public abstract String getPlanSQL();
+
+    public boolean previous() {
+        throw DbException.throwInternalError();
+    }
+
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2004-2013 H2 Group. Multiple-Licensed under the H2 License,
+ * Version 1.0, and under the Eclipse Public License, Version 1.0
+ * (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.index;
+
+import java.util.ArrayList;
+import org.h2.expression.Comparison;
+import org.h2.mvstore.db.MVPrimaryIndex;
+import org.h2.result.Row;
+import org.h2.result.SearchRow;
+import org.h2.result.SortOrder;
+import org.h2.table.Column;
+import org.h2.table.IndexColumn;
+import org.h2.table.Table;
+import org.h2.table.TableFilter;
+import org.h2.util.New;
+import org.h2.value.Value;
+import org.h2.value.ValueNull;
+
+/**
+ * The cursor used for a merge join. If the rows of the outer table are read in
+ * the order of the join column, the values to look up are ascending, and the
+ * sorted index of this table can be read in one pass instead of doing one
+ * index lookup for each row of the outer table. The rows of the last value are
+ * buffered, so that duplicate values of the outer table don't need to read
+ * the index again.
+ * <p>
+ * If a value is smaller than the previous one, or if there are more than
+ * MAX_MEMORY_ROWS rows with the same value, a regular index lookup is used
+ * for this value.
+ */
+public class MergeJoinCursor extends JoinCursor {
+
+    /**
+     * If more than this number of rows need to be skipped to reach the next
+     * value, a new index lookup is made.
+     */
+    private static final int MAX_SKIP = 64;
+
+    private final Index index;
+    private final Table table;
+    private final int columnId;
+
+    /**
+     * The cursor that reads the index in one pass.
+     */
+    private Cursor cursor;
+
+    /**
+     * The row that was read from the cursor but not processed yet.
+     */
+    private Row lookahead;
+
+    /**
+     * Whether the cursor reached the end of the index.
+     */
+    private boolean end;
+
+    /**
+     * The last looked up value, or null.
+     */
+    private Value groupValue;
+
+    /**
+     * The rows with the last looked up value, or null if there are too many.
+     */
+    private ArrayList<Row> group;
+
+    /**
+     * The cursor used for a regular index lookup, or null.
+     */
+    private Cursor lookup;
+
+    private boolean empty;
+    private int pos;
+    private Row current;
+
+    private MergeJoinCursor(TableFilter filter, IndexCondition condition, Index index) {
+        super(filter, condition);
+        this.index = index;
+        this.table = filter.getTable();
+        this.columnId = condition.getColumn().getColumnId();
+    }
+
+    /**
+     * Create a merge join cursor for the given condition and index, if
+     * possible. The index needs to be sorted in ascending order by the
+     * column of the condition, and the expression needs to be of the same
+     * data type as the column.
+     *
+     * @param filter the table filter
+     * @param condition the index condition
+     * @param index the index that is used for this table
+     * @return the cursor, or null if a merge join can not be used
+     */
+    public static MergeJoinCursor get(TableFilter filter, IndexCondition condition, Index index) {
+        if (condition.getCompareType() != Comparison.EQUAL) {
+            return null;
+        }
+        if (!Table.TABLE.equals(filter.getTable().getTableType())) {
+            return null;
+        }
+        IndexType type = index.getIndexType();
+        if (type.isScan() || type.isHash()) {
+            return null;
+        }
+        Column column = condition.getColumn();
+        if (column.getColumnId() < 0 || !isSortedBy(index, column)) {
+            return null;
+        }
+        if (column.getType() != condition.getExpression().getType()) {
+            return null;
+        }
+        return new MergeJoinCursor(filter, condition, index);
+    }
+
+    /**
+     * Check if the rows are read in ascending order of the given column when
+     * iterating over the index.
+     *
+     * @param index the index
+     * @param column the column
+     * @return true if they are
+     */
+    public static boolean isSortedBy(Index index, Column column) {
+        if (index instanceof PageDataIndex) {
+            // sorted by key, which may be the primary key column
+            return ((PageDataIndex) index).getMainIndexColumn() == column.getColumnId();
+        } else if (index instanceof MVPrimaryIndex) {
+            return ((MVPrimaryIndex) index).getMainIndexColumn() == column.getColumnId();
+        }
+        IndexType type = index.getIndexType();
+        if (type.isScan() || type.isHash()) {
+            return false;
+        }
+        IndexColumn[] cols = index.getIndexColumns();
+        if (cols == null || cols.length == 0) {
+            return false;
+        }
+        return cols[0].column == column && (cols[0].sortType & SortOrder.DESCENDING) == 0;
+    }
+
+    public void reset() {
+        cursor = null;
+        lookahead = null;
+        end = false;
+        groupValue = null;
+        group = null;
+        lookup = null;
+        current = null;
+    }
+
+    protected void find() {
+        lookup = null;
+        current = null;
+        pos = -1;
+        empty = false;
+        Value v = condition.getCurrentValue(session);
+        if (v == ValueNull.INSTANCE) {
+            // NULL is never equal to anything
+            empty = true;
+            return;
+        }
+        if (groupValue != null) {
+            int comp = table.compareTypeSave(v, groupValue);
+            if (comp == 0) {
+                if (group == null) {
+                    lookup = index.find(tableFilter, getSearchRow(v), getSearchRow(v));
+                }
+                return;
+            } else if (comp < 0) {
+                // not sorted
+                lookup = index.find(tableFilter, getSearchRow(v), getSearchRow(v));
+                return;
+            }
+        }
+        readGroup(v);
+        if (group == null) {
+            lookup = index.find(tableFilter, getSearchRow(v), getSearchRow(v));
+        }
+    }
+
+    /**
+     * Skip all rows with a smaller value, and read the rows with the given
+     * value.
+     *
+     * @param v the value
+     */
+    private void readGroup(Value v) {
+        int maxMemoryRows = session.getDatabase().getMaxMemoryRows();
+        groupValue = v;
+        group = New.arrayList();
+        int skipped = 0;
+        while (true) {
+            if (lookahead == null) {
+                if (cursor == null) {
+                    if (end) {
+                        break;
+                    }
+                    cursor = index.find(tableFilter, getSearchRow(v), null);
+                }
+                if (!cursor.next()) {
+                    cursor = null;
+                    end = true;
+                    break;
+                }
+                lookahead = cursor.get();
+            }
+            Value x = lookahead.getValue(columnId);
+            if (x == ValueNull.INSTANCE) {
+                lookahead = null;
+                continue;
+            }
+            int comp = table.compareTypeSave(x, v);
+            if (comp > 0) {
+                break;
+            }
+            Row row = lookahead;
+            lookahead = null;
+            if (comp < 0) {
+                if (++skipped > MAX_SKIP) {
+                    // the gap is large: look up the value instead
+                    cursor = null;
+                    end = false;
+                    skipped = 0;
+                }
+                continue;
+            }
+            if (group != null) {
+                group.add(row);
+                if (group.size() > maxMemoryRows) {
+                    group = null;
+                }
+            }
+        }
+    }
+
+    private SearchRow getSearchRow(Value v) {
+        SearchRow row = table.getTemplateRow();
+        row.setValue(columnId, v);
+        return row;
+    }
+
+    public Row get() {
+        if (current == null && lookup != null) {
+            current = lookup.get();
+        }
+        return current;
+    }
+
+    public SearchRow getSearchRow() {
+        return get();
+    }
+
+    public boolean next() {
+        current = null;
+        if (empty) {
+            return false;
+        }
+        if (lookup != null) {
+            return lookup.next();
+        }
+        if (group != null && ++pos < group.size()) {
+            current = group.get(pos);
+            return true;
+        }
+        return false;
+    }
+
+    public String getPlanSQL() {
+        return "mergeJoin";
+    }
+
+}
@@ -65,6 +65,12 @@ public abstract class PageBtree extends Page {
      */
     protected boolean onlyPosition;
 
+    /**
+     * The common prefix of the first indexed column of all rows that is
+     * stored only once in the page, or null (leaf pages only).
+     */
+    protected String prefix;
+
     /**
      * Whether the data page is up-to-date.
      */
@@ -186,7 +192,7 @@ public abstract class PageBtree extends Page {
     SearchRow getRow(int at) {
         SearchRow row = rows[at];
         if (row == null) {
-            row = index.readRow(data, offsets[at], onlyPosition, true);
+            row = index.readRow(data, offsets[at], onlyPosition, true, prefix);
             memoryChange();
             rows[at] = row;
         } else if (!index.hasData(row)) {
@@ -280,7 +286,7 @@ public abstract class PageBtree extends Page {
         for (int i = 0; i < entryCount; i++) {
             SearchRow row = rows[i];
             if (row == null) {
-                row = index.readRow(data, offsets[i], onlyPosition, false);
+                row = index.readRow(data, offsets[i], onlyPosition, false, prefix);
                 rows[i] = row;
             }
         }
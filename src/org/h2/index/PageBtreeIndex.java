@@ -6,6 +6,7 @@
  */
 package org.h2.index;
 
+import java.util.ArrayList;
 import org.h2.constant.ErrorCode;
 import org.h2.constant.SysProperties;
 import org.h2.engine.Constants;
@@ -20,9 +21,13 @@ import org.h2.store.PageStore;
 import org.h2.table.Column;
 import org.h2.table.IndexColumn;
 import org.h2.table.RegularTable;
+import org.h2.table.TableFilter;
 import org.h2.util.MathUtils;
+import org.h2.util.New;
 import org.h2.value.Value;
 import org.h2.value.ValueNull;
+import org.h2.value.ValueString;
+import org.h2.value.ValueStringIgnoreCase;
 
 /**
  * This is the most common type of index, a b tree index.
@@ -35,6 +40,8 @@ public class PageBtreeIndex extends PageIndex {
     private final PageStore store;
     private final RegularTable tableData;
     private final boolean needRebuild;
+    private final boolean prefixCompression;
+    private final boolean separatorTruncated;
     private long rowCount;
     private int memoryPerPage;
     private int memoryCount;
@@ -75,6 +82,12 @@ public class PageBtreeIndex extends PageIndex {
             trace.debug("opened {0} rows: {1}", getName() , rowCount);
         }
         memoryPerPage = (Constants.MEMORY_PAGE_BTREE + store.getPageSize()) >> 2;
+        int firstType = columns[0].column.getType();
+        prefixCompression = store.isPrefixCompression() &&
+                (firstType == Value.STRING || firstType == Value.STRING_IGNORECASE);
+        //恢复时表的字段类型未知(都是INT)，已经写入的page中可能有截断的分隔key
+        separatorTruncated = store.isPrefixCompression() && !indexType.isUnique() &&
+                (prefixCompression || store.isRecoveryRunning());
         //System.out.println(getPlanSQL());
         //System.out.println(getCreateSQL());
     }
@@ -136,9 +149,9 @@ public class PageBtreeIndex extends PageIndex {
             page2.setParentPageId(rootPageId);
             PageBtreeNode newRoot = PageBtreeNode.create(this, rootPageId, PageBtree.ROOT);
             store.logUndo(newRoot, null);
-            newRoot.init(page1, pivot, page2);
             store.update(page1);
             store.update(page2);
+            newRoot.init(page1, pivot, page2);
 			store.update(newRoot);
 			root = newRoot; //这行代码没用
 
@@ -158,6 +171,122 @@ public class PageBtreeIndex extends PageIndex {
 		//		System.out.println("---------------------");
     }
 
+    /**
+     * Add all rows of the buffer to this index. If the index is empty, the
+     * pages are built from the bottom up: the rows are appended to a leaf
+     * until it is full, and full pages are appended to the node of the next
+     * level, so that all pages are written in order and fully packed. The old
+     * (empty) root page is replaced by the new root.
+     *
+     * @param session the session
+     * @param buffer the buffer that returns the rows in index order
+     */
+    public void addRows(Session session, IndexDiskBuffer buffer) {
+        if (rowCount != 0) {
+            for (SearchRow row = buffer.next(); row != null; row = buffer.next()) {
+                try {
+                    addRow(row);
+                } finally {
+                    store.incrementChangeCount();
+                }
+            }
+            return;
+        }
+        //每一层正在填充的page，第0层是叶子，还有这个page的最后一行
+        ArrayList<PageBtree> pages = New.arrayList();
+        ArrayList<SearchRow> lastRows = New.arrayList();
+        boolean unique = indexType.isUnique();
+        long count = 0;
+        try {
+            SearchRow last = null;
+            for (SearchRow row = buffer.next(); row != null; row = buffer.next()) {
+                if (unique && last != null && compareRows(last, row) == 0) {
+                    if (!containsNullAndAllowMultipleNull(row)) {
+                        throw getDuplicateKeyException();
+                    }
+                }
+                PageBtreeLeaf leaf = pages.isEmpty() ? null : (PageBtreeLeaf) pages.get(0);
+                if (leaf == null || !leaf.appendRow(row)) {
+                    if (leaf == null) {
+                        pages.add(null);
+                        lastRows.add(null);
+                    } else {
+                        addPage(pages, lastRows, 0);
+                    }
+                    int parentPageId = pages.size() > 1 ? pages.get(1).getPos() : PageBtree.ROOT;
+                    leaf = PageBtreeLeaf.create(this, store.allocatePage(), parentPageId);
+                    leaf.appendRow(row);
+                    pages.set(0, leaf);
+                }
+                lastRows.set(0, row);
+                last = row;
+                count++;
+                store.incrementChangeCount();
+            }
+            if (pages.isEmpty()) {
+                return;
+            }
+            for (int level = 0; level < pages.size() - 1; level++) {
+                addPage(pages, lastRows, level);
+            }
+        } catch (DbException e) {
+            //所有已经建好的page都在还没加到上一层的那些page下面
+            for (PageBtree p : pages) {
+                if (p != null) {
+                    p.freeRecursive();
+                }
+            }
+            throw e;
+        }
+        PageBtree root = pages.get(pages.size() - 1);
+        int pos = root.getPos();
+        store.removeRecord(rootPageId);
+        root.setPageId(rootPageId);
+        root.setParentPageId(PageBtree.ROOT);
+        store.update(root);
+        store.free(pos);
+        rowCount = count;
+        invalidateRowCount();
+        store.incrementChangeCount();
+    }
+
+    /**
+     * Add the page of the given level to the page of the next level. If that
+     * page is full, it is added to the level above itself, and a new page is
+     * started.
+     *
+     * @param pages the page of each level that is currently filled
+     * @param lastRows the last row of each of these pages
+     * @param level the level
+     */
+    private void addPage(ArrayList<PageBtree> pages, ArrayList<SearchRow> lastRows, int level) {
+        PageBtree page = pages.get(level);
+        int parentLevel = level + 1;
+        PageBtreeNode parent = null;
+        if (parentLevel < pages.size()) {
+            parent = (PageBtreeNode) pages.get(parentLevel);
+            if (!parent.appendChild(lastRows.get(parentLevel), page)) {
+                addPage(pages, lastRows, parentLevel);
+                parent = null;
+            }
+        } else {
+            pages.add(null);
+            lastRows.add(null);
+        }
+        if (parent == null) {
+            int parentPageId = parentLevel + 1 < pages.size() ? pages.get(parentLevel + 1).getPos() : PageBtree.ROOT;
+            parent = PageBtreeNode.create(this, store.allocatePage(), parentPageId);
+            parent.init(page);
+            pages.set(parentLevel, parent);
+        }
+        lastRows.set(parentLevel, lastRows.get(level));
+        if (page.parentPageId != parent.getPos()) {
+            page.setParentPageId(parent.getPos());
+            store.update(page);
+        }
+        store.update(parent);
+    }
+
     /**
      * Create a search row for this row.
      *
@@ -249,8 +378,8 @@ public class PageBtreeIndex extends PageIndex {
         return cursor;
     }
 
-    public double getCost(Session session, int[] masks, SortOrder sortOrder) {
-        return 10 * getCostRangeIndex(masks, tableData.getRowCount(session), sortOrder);
+    public double getCost(Session session, int[] masks, TableFilter filter, SortOrder sortOrder) {
+        return 10 * getCostRangeIndex(masks, tableData.getRowCount(session), filter, sortOrder);
     }
 
     public boolean needRebuild() {
@@ -364,6 +493,21 @@ public class PageBtreeIndex extends PageIndex {
      * @return the row
      */
     SearchRow readRow(Data data, int offset, boolean onlyPosition, boolean needData) {
+        return readRow(data, offset, onlyPosition, needData, null);
+    }
+
+    /**
+     * Read a row from the data page at the given position. The common prefix
+     * of the first column is added to the stored value.
+     *
+     * @param data the data page
+     * @param offset the offset
+     * @param onlyPosition whether only the position of the row is stored
+     * @param needData whether the row data is required
+     * @param prefix the common prefix of the page, or null
+     * @return the row
+     */
+    SearchRow readRow(Data data, int offset, boolean onlyPosition, boolean needData, String prefix) {
         synchronized (data) {
             data.setPos(offset);
             long key = data.readVarLong();
@@ -381,6 +525,13 @@ public class PageBtreeIndex extends PageIndex {
                 int idx = col.getColumnId();
                 row.setValue(idx, data.readValue());
             }
+            if (prefix != null) {
+                int idx = columns[0].getColumnId();
+                Value v = row.getValue(idx);
+                if (v != ValueNull.INSTANCE) {
+                    row.setValue(idx, getStringValue(v.getType(), prefix + v.getString()));
+                }
+            }
             return row;
         }
     }
@@ -404,12 +555,31 @@ public class PageBtreeIndex extends PageIndex {
      * @param row the row to write
      */
     void writeRow(Data data, int offset, SearchRow row, boolean onlyPosition) {
+        writeRow(data, offset, row, onlyPosition, null);
+    }
+
+    /**
+     * Write a row to the data page at the given offset. Only the part of the
+     * first column after the common prefix is written.
+     *
+     * @param data the data
+     * @param offset the offset
+     * @param row the row to write
+     * @param onlyPosition whether only the position of the row is stored
+     * @param prefix the common prefix of the page, or null
+     */
+    void writeRow(Data data, int offset, SearchRow row, boolean onlyPosition, String prefix) {
         data.setPos(offset);
         data.writeVarLong(row.getKey());
         if (!onlyPosition) {
             for (Column col : columns) {
                 int idx = col.getColumnId();
-                data.writeValue(row.getValue(idx));
+                Value v = row.getValue(idx);
+                if (prefix != null && col == columns[0] && v != ValueNull.INSTANCE) {
+                    data.writeStringValue(v.getType(), v.getString().substring(prefix.length()));
+                } else {
+                    data.writeValue(v);
+                }
             }
         }
     }
@@ -423,16 +593,141 @@ public class PageBtreeIndex extends PageIndex {
      * @return the number of bytes
      */
     int getRowSize(Data dummy, SearchRow row, boolean onlyPosition) {
+        return getRowSize(dummy, row, onlyPosition, null);
+    }
+
+    /**
+     * Get the size of a row if the common prefix of the first column is not
+     * stored with the row.
+     *
+     * @param dummy a dummy data page to calculate the size
+     * @param row the row
+     * @param onlyPosition whether only the position of the row is stored
+     * @param prefix the common prefix of the page, or null
+     * @return the number of bytes
+     */
+    int getRowSize(Data dummy, SearchRow row, boolean onlyPosition, String prefix) {
         int rowsize = Data.getVarLongLen(row.getKey());
         if (!onlyPosition) {
             for (Column col : columns) {
                 Value v = row.getValue(col.getColumnId());
-                rowsize += dummy.getValueLen(v);
+                if (prefix != null && col == columns[0] && v != ValueNull.INSTANCE) {
+                    rowsize += Data.getStringValueLen(v.getType(), v.getString().substring(prefix.length()));
+                } else {
+                    rowsize += dummy.getValueLen(v);
+                }
             }
         }
         return rowsize;
     }
 
+    private static Value getStringValue(int type, String s) {
+        return type == Value.STRING_IGNORECASE ? ValueStringIgnoreCase.get(s) : ValueString.get(s);
+    }
+
+    /**
+     * Get the common prefix of the first column of a leaf page after the row
+     * is added. The prefix can only get shorter. Pages that don't have a
+     * prefix once they contain rows never get one.
+     *
+     * @param prefix the current prefix of the page, or null
+     * @param row the row to add
+     * @param entryCount the number of rows in the page
+     * @return the new prefix, or null
+     */
+    String getPrefix(String prefix, SearchRow row, int entryCount) {
+        if (!prefixCompression || (prefix == null && entryCount > 0)) {
+            return null;
+        }
+        Value v = row.getValue(columns[0].getColumnId());
+        if (v == ValueNull.INSTANCE) {
+            return prefix;
+        }
+        String s = v.getString();
+        if (prefix == null) {
+            if (s.length() == 0) {
+                return null;
+            }
+            store.setPrefixCompressed();
+            return s;
+        }
+        int len = getCommonLength(prefix, s);
+        if (len == 0) {
+            return null;
+        }
+        return len == prefix.length() ? prefix : prefix.substring(0, len);
+    }
+
+    private static int getCommonLength(String a, String b) {
+        int len = Math.min(a.length(), b.length());
+        for (int i = 0; i < len; i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return i;
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Check whether the pivots between leaf pages may be truncated. Such
+     * pivots are not rows of the table, so they can't be stored as a position.
+     * While recovering, the column types are not known, so the existing pages
+     * may contain such pivots, but no new ones are truncated.
+     *
+     * @return true if they may be truncated
+     */
+    boolean isSeparatorTruncated() {
+        return separatorTruncated;
+    }
+
+    /**
+     * Get the shortest row that can be used as the pivot between two leaf
+     * pages: the first column is truncated to the shortest prefix that is
+     * still larger than the last row of the left page and smaller than the
+     * first row of the right page. The pivot of a unique index is never
+     * truncated, because a row equal to the pivot would be a duplicate.
+     *
+     * @param last the last row of the left page
+     * @param first the first row of the right page
+     * @return the pivot
+     */
+    SearchRow getSeparator(SearchRow last, SearchRow first) {
+        if (!prefixCompression || !isSeparatorTruncated()) {
+            return last;
+        }
+        int idx = columns[0].getColumnId();
+        Value a = last.getValue(idx), b = first.getValue(idx);
+        if (a == ValueNull.INSTANCE || b == ValueNull.INSTANCE) {
+            return last;
+        }
+        String s = a.getString(), t = b.getString();
+        int len = getCommonLength(s, t) + 1;
+        // ascending: a prefix of the first row; descending: of the last row
+        SearchRow sep = getSeparator(last, b.getType(), t, len);
+        if (sep == null || compareRows(sep, last) <= 0 || compareRows(sep, first) >= 0) {
+            sep = getSeparator(last, a.getType(), s, len);
+            if (sep == null || compareRows(sep, last) <= 0 || compareRows(sep, first) >= 0) {
+                return last;
+            }
+        }
+        store.setPrefixCompressed();
+        return sep;
+    }
+
+    private SearchRow getSeparator(SearchRow last, int type, String s, int len) {
+        if (len >= s.length()) {
+            return null;
+        }
+        SearchRow sep = table.getTemplateSimpleRow(columns.length == 1);
+        sep.setKey(last.getKey());
+        for (Column c : columns) {
+            int idx = c.getColumnId();
+            sep.setValue(idx, last.getValue(idx));
+        }
+        sep.setValue(columns[0].getColumnId(), getStringValue(type, s.substring(0, len)));
+        return sep;
+    }
+
     public boolean canFindNext() {
         return true;
     }
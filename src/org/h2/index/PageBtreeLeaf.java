@@ -16,6 +16,7 @@ import org.h2.result.SearchRow;
 import org.h2.store.Data;
 import org.h2.store.Page;
 import org.h2.store.PageStore;
+import org.h2.util.StringUtils;
 
 /**
  * A b-tree leaf page that contains index data. Format:
@@ -25,6 +26,7 @@ import org.h2.store.PageStore;
  * <li>parent page id (0 for root): int</li>
  * <li>index id: varInt</li>
  * <li>entry count: short</li>
+ * <li>common prefix of the first column (only if FLAG_PREFIX is set): string</li>
  * <li>list of offsets: short</li>
  * <li>data (key: varLong, value,...)</li>
  * </ul>
@@ -86,6 +88,9 @@ public class PageBtreeLeaf extends PageBtree {
                     "got:" + indexId);
         }
         entryCount = data.readShortInt();
+        if ((type & Page.FLAG_PREFIX) != 0) {
+            prefix = data.readString();
+        }
         offsets = new int[entryCount];
         rows = new SearchRow[entryCount];
         for (int i = 0; i < entryCount; i++) {
@@ -97,18 +102,42 @@ public class PageBtreeLeaf extends PageBtree {
     }
 
     int addRowTry(SearchRow row) {
-        int x = addRow(row, true);
+        int x = addRow(row, true, false);
         memoryChange();
         return x;
     }
 
+    /**
+     * Add a row after the last row of this page. The row must not be smaller
+     * than the last row. The page is never split; if there is not enough space
+     * left, the row is not added.
+     *
+     * @param row the row to add
+     * @return true if the row was added
+     */
+    boolean appendRow(SearchRow row) {
+        if (entryCount > 0) {
+            String p = onlyPosition ? null : index.getPrefix(prefix, row, entryCount);
+            int rowLength = index.getRowSize(data, row, onlyPosition, p);
+            if (getDataStart(p) - rowLength < getStart(p) + OFFSET_LENGTH) {
+                return false;
+            }
+        }
+        //空的page总是能放下一行，太大时只存位置
+        addRow(row, false, true);
+        memoryChange();
+        return true;
+    }
+
     //假设一个块128字节，写索引记录的顺序是从块尾开始，offset从块尾开始
-    private int addRow(SearchRow row, boolean tryOnly) {
-        int rowLength = index.getRowSize(data, row, onlyPosition);
+    private int addRow(SearchRow row, boolean tryOnly, boolean append) {
+        //加入新行后公共前缀可能变短，此时所有行都要按新的前缀重新计算长度
+        String p = onlyPosition ? null : index.getPrefix(prefix, row, entryCount);
+        int rowLength = index.getRowSize(data, row, onlyPosition, p);
         int pageSize = index.getPageStore().getPageSize();
-        int last = entryCount == 0 ? pageSize : offsets[entryCount - 1];
+        int last = getDataStart(p);
         //确保page剩余空间能够保存offset
-        if (last - rowLength < start + OFFSET_LENGTH) {
+        if (last - rowLength < getStart(p) + OFFSET_LENGTH) {
             if (tryOnly && entryCount > 1) {
                 int x = find(row, false, true, true);
                 if (entryCount < 5) {
@@ -125,6 +154,8 @@ public class PageBtreeLeaf extends PageBtree {
             readAllRows();
             writtenData = false;
             onlyPosition = true;
+            start = getStart(null);
+            prefix = null;
             // change the offsets (now storing only positions)
             int o = pageSize;
             for (int i = 0; i < entryCount; i++) {
@@ -136,6 +167,16 @@ public class PageBtreeLeaf extends PageBtree {
             if (SysProperties.CHECK && last - rowLength < start + OFFSET_LENGTH) {
                 throw DbException.throwInternalError();
             }
+        } else if (!StringUtils.equals(p, prefix)) {
+            // change the offsets (the rows are stored without the new prefix)
+            start = getStart(p);
+            prefix = p;
+            int o = pageSize;
+            for (int i = 0; i < entryCount; i++) {
+                o -= index.getRowSize(data, rows[i], false, p);
+                offsets[i] = o;
+            }
+            writtenData = false;
         }
         index.getPageStore().logUndo(this, data);
         if (!optimizeUpdate) {
@@ -146,6 +187,8 @@ public class PageBtreeLeaf extends PageBtree {
         int x;
         if (entryCount == 0) {
             x = 0;
+        } else if (append) {
+            x = entryCount;
         } else {
             x = find(row, false, true, true);
         }
@@ -163,7 +206,7 @@ public class PageBtreeLeaf extends PageBtree {
                 //用来放新的row，这个row的位置就是offset)
                 System.arraycopy(d, dataStart, d, dataStart - rowLength, dataEnd - dataStart + rowLength);
             }
-            index.writeRow(data, offset, row, onlyPosition);
+            index.writeRow(data, offset, row, onlyPosition, prefix);
         }
         //offsets这个数组内的元素是由大到小的，所以在rows中的记录最先的反而写在文件的后面
         offsets = insert(offsets, entryCount, x, offset);
@@ -175,6 +218,39 @@ public class PageBtreeLeaf extends PageBtree {
         return -1;
     }
 
+    /**
+     * Get the start of the data area if all rows are stored with the given
+     * prefix.
+     *
+     * @param p the prefix
+     * @return the offset of the last row, or the page size
+     */
+    private int getDataStart(String p) {
+        if (StringUtils.equals(p, prefix)) {
+            return entryCount == 0 ? index.getPageStore().getPageSize() : offsets[entryCount - 1];
+        }
+        readAllRows();
+        int last = index.getPageStore().getPageSize();
+        for (int i = 0; i < entryCount; i++) {
+            last -= index.getRowSize(data, rows[i], false, p);
+        }
+        return last;
+    }
+
+    /**
+     * Get the end of the header if the given prefix is stored.
+     *
+     * @param p the prefix
+     * @return the start of the data area
+     */
+    private int getStart(String p) {
+        return start - getPrefixLen(prefix) + getPrefixLen(p);
+    }
+
+    private static int getPrefixLen(String p) {
+        return p == null ? 0 : Data.getStringLen(p);
+    }
+
     private void removeRow(int at) {
         if (!optimizeUpdate) {
             readAllRows();
@@ -212,7 +288,7 @@ public class PageBtreeLeaf extends PageBtree {
         int newPageId = index.getPageStore().allocatePage();
         PageBtreeLeaf p2 = PageBtreeLeaf.create(index, newPageId, parentPageId);
         for (int i = splitPoint; i < entryCount;) {
-            p2.addRow(getRow(splitPoint), false);
+            p2.addRow(getRow(splitPoint), false, false);
             removeRow(splitPoint);
         }
         memoryChange();
@@ -270,11 +346,15 @@ public class PageBtreeLeaf extends PageBtree {
 
     private void writeHead() {
         data.reset();
-        data.writeByte((byte) (Page.TYPE_BTREE_LEAF | (onlyPosition ? 0 : Page.FLAG_LAST)));
+        data.writeByte((byte) (Page.TYPE_BTREE_LEAF | (onlyPosition ? 0 : Page.FLAG_LAST) |
+                (prefix != null ? Page.FLAG_PREFIX : 0)));
         data.writeShortInt(0);
         data.writeInt(parentPageId);
         data.writeVarInt(index.getId());
         data.writeShortInt(entryCount); //最开始为0
+        if (prefix != null) {
+            data.writeString(prefix);
+        }
     }
 
     private void writeData() {
@@ -290,7 +370,7 @@ public class PageBtreeLeaf extends PageBtree {
         }
         if (!writtenData || !optimizeUpdate) {
             for (int i = 0; i < entryCount; i++) {
-                index.writeRow(data, offsets[i], rows[i], onlyPosition);
+                index.writeRow(data, offsets[i], rows[i], onlyPosition, prefix);
             }
             writtenData = true;
         }
@@ -362,6 +442,7 @@ public class PageBtreeLeaf extends PageBtree {
         p2.entryCount = entryCount;
         p2.offsets = offsets;
         p2.onlyPosition = onlyPosition;
+        p2.prefix = prefix;
         p2.parentPageId = parentPageId;
         p2.start = start;
         store.update(p2);
@@ -402,6 +483,7 @@ public class PageBtreeLeaf extends PageBtree {
 		s.append(p + "\t" + "parentPageId = " + parentPageId + "\r\n");
 		s.append(p + "\t" + "pageId = " + getPos() + "\r\n");
 		s.append(p + "\t" + "start = " + start + "\r\n");
+		s.append(p + "\t" + "prefix = " + prefix + "\r\n");
 		s.append(p + "\t" + "offsets = " + PageBtreeNode.stringArray2(offsets, entryCount) + "\r\n");
 		s.append(p + "\t" + "entryCount = " + entryCount + "\r\n");
 		s.append(p + "\t" + "rows = " + PageBtreeNode.stringArray(rows, p, entryCount));
@@ -162,11 +162,44 @@ public class PageBtreeNode extends PageBtree {
      * @param row the row smaller than the first row of the child and its children
      */
     private void addChild(int x, int childPageId, SearchRow row) {
+        addChild(x, childPageId, row, null);
+    }
+
+    /**
+     * Add a child after the child at the given position. The pivot between
+     * leaf pages may be truncated. If only the position of the rows is
+     * stored, the pivot is replaced with the last row of the previous child,
+     * because truncated pivots are not rows of the table.
+     *
+     * @param x the position
+     * @param childPageId the child
+     * @param row the pivot, not smaller than the last row of the previous child
+     * @param page the child if the pivot may be truncated or replaced, or null
+     */
+    private void addChild(int x, int childPageId, SearchRow row, PageBtree page) {
+        boolean truncate = page != null && index.isSeparatorTruncated();
+        if (truncate) {
+            if (onlyPosition) {
+                row = getLastRow(index.getPage(childPageIds[x]));
+            } else if (page instanceof PageBtreeLeaf) {
+                row = index.getSeparator(row, page.getRow(0));
+            }
+        }
         int rowLength = index.getRowSize(data, row, onlyPosition);
         int pageSize = index.getPageStore().getPageSize();
         int last = entryCount == 0 ? pageSize : offsets[entryCount - 1];
         if (last - rowLength < start + CHILD_OFFSET_PAIR_LENGTH) {
             readAllRows();
+            if (index.isSeparatorTruncated()) {
+                //只存位置时分隔key要从表中读取，所以要换成左边子节点的最后一行
+                //正在切割的子节点x，原来的分隔key属于切出来的新节点
+                for (int i = 0; i < entryCount; i++) {
+                    rows[i] = getLastRow(i == x && page != null ? page : index.getPage(childPageIds[i]));
+                }
+                if (truncate) {
+                    row = getLastRow(index.getPage(childPageIds[x]));
+                }
+            }
             onlyPosition = true;
             // change the offsets (now storing only positions)
             int o = pageSize;
@@ -201,6 +234,11 @@ public class PageBtreeNode extends PageBtree {
         changeCount = index.getPageStore().getChangeCount();
     }
 
+    private static SearchRow getLastRow(PageBtree page) {
+        PageBtreeLeaf leaf = page.getLastLeaf();
+        return leaf.getRow(leaf.entryCount - 1);
+    }
+
     int addRowTry(SearchRow row) {
         while (true) {
             int x = find(row, false, true, true);
@@ -226,11 +264,14 @@ public class PageBtreeNode extends PageBtree {
             //继续切割最左边的子结点(假设叫P0)，切成两个(假设叫P1，P2)，P1实际上就是P0，只不过是在P0的基础上截取了一部分元素到P2中，
             //P2继续加到当前PageBtreeNode的childPageIds中
             PageBtree page2 = page.split(splitPoint);
-            readAllRows();
-            addChild(x, page2.getPos(), pivot);
+            //addChild可能会读取其他子页面，如果两个子页面还没有登记到缓存中，
+            //就可能被换出再读回来，缓存中会有同一个页面的两个对象
             index.getPageStore().update(page);
             index.getPageStore().update(page2);
             index.getPageStore().update(this);
+            readAllRows();
+            addChild(x, page2.getPos(), pivot, page2);
+            index.getPageStore().update(this);
             
 //            System.out.println("-----------按" + pivot + "切割----------");
 //            System.out.println("-----------Node切割成两个子页面----------");
@@ -312,13 +353,52 @@ public class PageBtreeNode extends PageBtree {
         childPageIds = new int[] { page1.getPos() };
         rows = SearchRow.EMPTY_ARRAY;
         offsets = Utils.EMPTY_INT_ARRAY;
-        addChild(0, page2.getPos(), pivot);
+        addChild(0, page2.getPos(), pivot, page2);
         if (pageStoreInternalCount) {
             rowCount = page1.getRowCount() + page2.getRowCount();
         }
         check();
     }
 
+    /**
+     * Initialize the page with one child. More children can be added using
+     * appendChild.
+     *
+     * @param page the first child page
+     */
+    void init(PageBtree page) {
+        entryCount = 0;
+        childPageIds = new int[] { page.getPos() };
+        rows = SearchRow.EMPTY_ARRAY;
+        offsets = Utils.EMPTY_INT_ARRAY;
+        if (pageStoreInternalCount) {
+            rowCount = page.getRowCount();
+        }
+        written = false;
+        changeCount = index.getPageStore().getChangeCount();
+        check();
+    }
+
+    /**
+     * Add a child after the last child of this page, if there is enough space.
+     * The page is never split.
+     *
+     * @param pivot the largest row of the current last child
+     * @param page the new last child
+     * @return true if the child was added
+     */
+    boolean appendChild(SearchRow pivot, PageBtree page) {
+        if (addChildTry(pivot) != -1) {
+            return false;
+        }
+        int count = rowCount;
+        addChild(entryCount, page.getPos(), pivot, page);
+        if (pageStoreInternalCount) {
+            rowCount = count + page.getRowCount();
+        }
+        return true;
+    }
+
     void find(PageBtreeCursor cursor, SearchRow first, boolean bigger) {
         int i = find(first, bigger, false, false);
         if (i > entryCount) {
@@ -370,7 +450,7 @@ public class PageBtreeNode extends PageBtree {
             }
             if (at == entryCount) {
                 // removing the last child
-                last = getRow(at - 1);
+                last = index.isSeparatorTruncated() ? getLastRow(index.getPage(childPageIds[at - 1])) : getRow(at - 1);
             } else {
                 last = null;
             }
@@ -529,6 +609,8 @@ public class PageBtreeNode extends PageBtree {
             next.nextPage(cursor, getPos());
             return;
         }
+        //顺序扫描到了下一个page，如果它不在cache中，把后面几个page一起读进来
+        index.getPageStore().readAhead(childPageIds, i, entryCount + 1);
         PageBtree page = index.getPage(childPageIds[i]);
         PageBtreeLeaf leaf = page.getFirstLeaf();
         cursor.setCurrent(leaf, 0);
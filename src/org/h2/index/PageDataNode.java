@@ -223,6 +223,8 @@ public class PageDataNode extends PageData {
             PageDataNode next = (PageDataNode) index.getPage(parentPageId, -1);
             return next.getNextPage(key);
         }
+        //顺序扫描到了下一个page，如果它不在cache中，把后面几个page一起读进来
+        index.getPageStore().readAhead(childPageIds, i, entryCount + 1);
         PageData page = index.getPage(childPageIds[i], getPos());
         return page.getFirstLeaf();
     }
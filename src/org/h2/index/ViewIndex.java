@@ -22,6 +22,7 @@ import org.h2.result.SearchRow;
 import org.h2.result.SortOrder;
 import org.h2.table.Column;
 import org.h2.table.IndexColumn;
+import org.h2.table.TableFilter;
 import org.h2.table.TableView;
 import org.h2.util.IntArray;
 import org.h2.util.New;
@@ -115,7 +116,7 @@ public class ViewIndex extends BaseIndex {
     //masks的数组元素是一个view中包含的所有列，如果某一列不是查询条件，那么对应的masks[列id]这个数组元素就是0
     
     //此方法不影响些类的任何字段，只是为了计算cost
-    public synchronized double getCost(Session session, int[] masks, SortOrder sortOrder) {
+    public synchronized double getCost(Session session, int[] masks, TableFilter filter, SortOrder sortOrder) {
         if (recursive) { //对应WITH RECURSIVE开头之类的语句，见my.test.command.ddl.CreateViewTest
             return 1000;
         }
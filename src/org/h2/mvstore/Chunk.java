@@ -8,6 +8,7 @@ package org.h2.mvstore;
 
 import java.nio.ByteBuffer;
 import java.util.HashMap;
+import org.h2.compress.Compressor;
 
 /**
  * A chunk of data, containing one or multiple pages.
@@ -81,6 +82,30 @@ public class Chunk {
      */
     long time;
 
+    /**
+     * The compression algorithm of the pages in this chunk (see Compressor).
+     */
+    int compressor;
+
+    /**
+     * The memory mapped data of this chunk, if the file is read using memory
+     * mapped I/O, or null if not mapped yet.
+     */
+    volatile ByteBuffer mapped;
+
+    /**
+     * The number of threads that currently read a page from the mapped data
+     * (guarded by this chunk).
+     */
+    int mappedReaders;
+
+    /**
+     * Whether the mapping is no longer needed. It is released when the last
+     * reader is done, and the chunk is not mapped again (guarded by this
+     * chunk).
+     */
+    boolean unMapped;
+
     Chunk(int id) {
         this.id = id;
     }
@@ -148,6 +173,8 @@ public class Chunk {
         c.metaRootPos = Long.parseLong(map.get("metaRoot"));
         c.time = Long.parseLong(map.get("time"));
         c.version = Long.parseLong(map.get("version"));
+        String x = map.get("compressor");
+        c.compressor = x == null ? Compressor.NO : Integer.parseInt(x);
         return c;
     }
 
@@ -170,6 +197,7 @@ public class Chunk {
      */
     public String asString() { //此类问共11字段，这里不包含collectPriority字段
         return
+                (compressor == Compressor.NO ? "" : "compressor:" + compressor + ",") +
                 "id:" + id + "," +
                 "length:" + length + "," +
                 "maxLength:" + maxLength + "," +
@@ -39,6 +39,18 @@ public class DataUtils {
      */
     public static final int PAGE_COMPRESSED = 2;
 
+    /**
+     * The bit mask for pages compressed with a high compression ratio
+     * (the Deflate algorithm instead of LZF).
+     */
+    public static final int PAGE_COMPRESSED_HIGH = 2 + 4;
+
+    /**
+     * The bit mask for pages where the common prefix of the (string) keys is
+     * stored only once.
+     */
+    public static final int PAGE_KEY_PREFIX = 8;
+
     /**
      * The maximum length of a variable size int.
      */
@@ -56,6 +56,42 @@ public class FreeSpaceList {
                 "Could not find a free page to allocate");
     }
 
+    /**
+     * Allocate a number of pages, so that the first page is a multiple of the
+     * given alignment. The pages are appended at the end of the file, so that
+     * chunks are written sequentially. Free ranges between chunks are only
+     * re-used once at least half of the file is free, and then only if all
+     * pages fit into a range, so that small gaps are never used.
+     *
+     * @param pages the number of pages
+     * @param align the alignment, in pages
+     * @return the position in pages
+     */
+    public synchronized int allocateAligned(int pages, int align) {
+        int last = freeSpaceList.size() - 1;
+        PageRange end = freeSpaceList.get(last);
+        int free = 0;
+        for (int i = 0; i < last; i++) {
+            free += freeSpaceList.get(i).length;
+        }
+        int used = end.start - FIRST_FREE_PAGE - free;
+        if (free >= used) {
+            for (int i = 0; i < last; i++) {
+                PageRange pr = freeSpaceList.get(i);
+                int start = alignUp(pr.start, align);
+                if (start + pages <= pr.start + pr.length) {
+                    return start;
+                }
+            }
+        }
+        // the range at the end of the file always fits
+        return alignUp(end.start, align);
+    }
+
+    private static int alignUp(int page, int align) {
+        return (page + align - 1) / align * align;
+    }
+
     /**
      * Mark a chunk as used.
      *
@@ -63,7 +99,7 @@ public class FreeSpaceList {
      */
     public synchronized void markUsed(Chunk c) {
         int chunkStart = (int) (c.start / MVStore.BLOCK_SIZE);
-        int required = (int) ((c.start + c.length) / MVStore.BLOCK_SIZE) + 2 - chunkStart;
+        int required = getPageCount(c);
         PageRange found = null;
         int i = 0;
         for (PageRange pr : freeSpaceList) {
@@ -115,7 +151,7 @@ public class FreeSpaceList {
      */
     public synchronized void markFree(Chunk c) {
         int chunkStart = (int) (c.start / MVStore.BLOCK_SIZE);
-        int required = (c.length / MVStore.BLOCK_SIZE) + 1;
+        int required = getPageCount(c);
         PageRange found = null;
         int i = 0;
         for (PageRange pr : freeSpaceList) {
@@ -129,7 +165,7 @@ public class FreeSpaceList {
             throw DataUtils.newIllegalStateException(
                     "Cannot find spot to mark chunk as unused in free list: {0}", c);
         }
-        if (chunkStart + required + 1 == found.start) {
+        if (chunkStart + required == found.start) {
             // if the used-chunk is adjacent to the beginning of a
             // free-space-range
             found.start = chunkStart;
@@ -138,7 +174,7 @@ public class FreeSpaceList {
             // they are now adjacent
             if (i > 0) {
                 PageRange previous = freeSpaceList.get(i - 1);
-                if (previous.start + previous.length + 1 == found.start) {
+                if (previous.start + previous.length == found.start) {
                     previous.length += found.length;
                     freeSpaceList.remove(i);
                 }
@@ -148,11 +184,11 @@ public class FreeSpaceList {
         if (i > 0) {
             // if the used-chunk is adjacent to the end of a free-space-range
             PageRange previous = freeSpaceList.get(i - 1);
-            if (previous.start + previous.length + 1 == chunkStart) {
+            if (previous.start + previous.length == chunkStart) {
                 previous.length += required;
                 // compact: merge the next entry into this one if
                 // they are now adjacent
-                if (previous.start + previous.length + 1 == found.start) {
+                if (previous.start + previous.length == found.start) {
                     previous.length += found.length;
                     freeSpaceList.remove(i);
                 }
@@ -165,6 +201,20 @@ public class FreeSpaceList {
         freeSpaceList.add(i, newRange);
     }
 
+    /**
+     * Get the number of pages a chunk uses, including the page with the file
+     * header after the data. The same number is used when marking the chunk
+     * as used and as free, so that a free range never shrinks when a chunk
+     * next to it is freed.
+     *
+     * @param c the chunk
+     * @return the number of pages
+     */
+    private static int getPageCount(Chunk c) {
+        return (int) ((c.start + c.length) / MVStore.BLOCK_SIZE) + 2
+                - (int) (c.start / MVStore.BLOCK_SIZE);
+    }
+
     public String toString() {
         StringBuilder buff = new StringBuilder();
         boolean first = true;
@@ -18,6 +18,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
 import org.h2.mvstore.type.DataType;
 import org.h2.mvstore.type.ObjectDataType;
+import org.h2.mvstore.type.StringDataType;
 import org.h2.util.New;
 
 /**
@@ -128,7 +129,7 @@ public class MVMap<K, V> extends AbstractMap<K, V>
         }
         int at = p.getKeyCount() / 2;
         long totalCount = p.getTotalCount();
-        Object k = p.getKey(at);
+        Object k = getSplitKey(p, at);
         Page split = p.split(at);
         Object[] keys = { k };
         long[] children = { p.getPos(), split.getPos() };
@@ -140,6 +141,50 @@ public class MVMap<K, V> extends AbstractMap<K, V>
         return p;
     }
 
+    /**
+     * Get the key that is moved to the parent when splitting a page at the
+     * given index.
+     *
+     * @param p the page
+     * @param at the split index
+     * @return the key
+     */
+    private Object getSplitKey(Page p, int at) {
+        Object k = p.getKey(at);
+        if (p.isLeaf()) {
+            k = getSeparator(p.getKey(at - 1), k);
+        }
+        return k;
+    }
+
+    /**
+     * Get a key that separates two keys in a node page: it is larger than the
+     * smaller key, and not larger than the larger key. For string keys, this
+     * is the shortest prefix of the larger key with this property, so that
+     * nodes need less space (suffix truncation). For other key types, it is
+     * the larger key.
+     *
+     * @param smaller the largest key of the left page
+     * @param larger the smallest key of the right page
+     * @return the separator
+     */
+    private Object getSeparator(Object smaller, Object larger) {
+        if (!(keyType instanceof StringDataType)) {
+            return larger;
+        }
+        String a = smaller.toString();
+        String b = larger.toString();
+        int len = 0, max = Math.min(a.length(), b.length());
+        while (len < max && a.charAt(len) == b.charAt(len)) {
+            len++;
+        }
+        //b的前len+1个字符已经比a大了
+        if (len + 1 < b.length()) {
+            return b.substring(0, len + 1);
+        }
+        return larger;
+    }
+
     /**
      * Add or update a key-value pair.
      *
@@ -173,7 +218,7 @@ public class MVMap<K, V> extends AbstractMap<K, V>
         if (c.getMemory() > store.getPageSize() && c.getKeyCount() > 1) { //切割Node或Leaf节点
             // split on the way down
             int at = c.getKeyCount() / 2;
-            Object k = c.getKey(at);
+            Object k = getSplitKey(c, at);
             Page split = c.split(at);
             p.setChild(index, split);
             p.setCounts(index, c);
@@ -187,6 +232,225 @@ public class MVMap<K, V> extends AbstractMap<K, V>
         return result;
     }
 
+    /**
+     * Append a number of entries that are sorted by key. Instead of adding
+     * one entry after the other (which splits the pages in half as they get
+     * full), the leaf pages are filled up to the given percentage of the page
+     * size, and the nodes above are built bottom-up. The new subtree is then
+     * added at the right edge of the existing tree. All keys must be larger
+     * than the last key of the map.
+     *
+     * @param entries the entries, sorted by key (the values may not be null)
+     * @param fillRate how much of the page size to use, in percent (1 - 100)
+     * @return the number of entries added
+     * @throws IllegalArgumentException if the keys are not sorted, or not
+     *             larger than the last key of the map
+     */
+    public long bulkAppend(Iterator<? extends Map.Entry<K, V>> entries, int fillRate) {
+        DataUtils.checkArgument(fillRate > 0 && fillRate <= 100,
+                "Unsupported fill rate: {0}", fillRate);
+        beforeWrite();
+        try {
+            long writeVersion = store.getCurrentVersion();
+            int maxMemory = Math.max(1, store.getPageSize() * fillRate / 100);
+            // the pages of the current level, and the first key of each page
+            ArrayList<Page> pages = New.arrayList();
+            ArrayList<Object> firstKeys = New.arrayList();
+            ArrayList<Object> keys = New.arrayList();
+            ArrayList<Object> values = New.arrayList();
+            int memory = DataUtils.PAGE_MEMORY;
+            Object last = root.getTotalCount() == 0 ? null : lastKey();
+            while (entries.hasNext()) {
+                Map.Entry<K, V> e = entries.next();
+                Object key = e.getKey();
+                Object value = e.getValue();
+                DataUtils.checkArgument(value != null, "The value may not be null");
+                if (last != null && compare(last, key) >= 0) {
+                    throw DataUtils.newIllegalArgumentException(
+                            "The key {0} is not larger than {1}", key, last);
+                }
+                last = key;
+                int m = keyType.getMemory(key) + valueType.getMemory(value);
+                if (keys.size() > 0 && memory + m > maxMemory) {
+                    addLeaf(pages, firstKeys, keys, values, writeVersion);
+                    memory = DataUtils.PAGE_MEMORY;
+                }
+                keys.add(key);
+                values.add(value);
+                memory += m;
+            }
+            if (keys.size() == 0) {
+                return 0;
+            }
+            addLeaf(pages, firstKeys, keys, values, writeVersion);
+            int height = 0;
+            while (pages.size() > 1) {
+                ArrayList<Page> nodes = New.arrayList();
+                ArrayList<Object> nodeKeys = New.arrayList();
+                int start = 0;
+                memory = DataUtils.PAGE_MEMORY + DataUtils.PAGE_MEMORY_CHILD;
+                for (int i = 1; i < pages.size(); i++) {
+                    int m = keyType.getMemory(firstKeys.get(i)) + DataUtils.PAGE_MEMORY_CHILD;
+                    if (memory + m > maxMemory && i - start > 1) {
+                        addNode(nodes, nodeKeys, pages, firstKeys, start, i, writeVersion);
+                        start = i;
+                        memory = DataUtils.PAGE_MEMORY + DataUtils.PAGE_MEMORY_CHILD;
+                    } else {
+                        memory += m;
+                    }
+                }
+                addNode(nodes, nodeKeys, pages, firstKeys, start, pages.size(), writeVersion);
+                pages = nodes;
+                firstKeys = nodeKeys;
+                height++;
+            }
+            Page tree = pages.get(0);
+            Object firstKey = firstKeys.get(0);
+            // the new subtree was built without locking; the root is replaced
+            // while holding the same lock as the concurrent write operations
+            // (see MVMapConcurrent and replace)
+            synchronized (this) {
+                if (root.getTotalCount() == 0) {
+                    root.removeAllRecursive();
+                    newRoot(tree);
+                    return tree.getTotalCount();
+                }
+                if (compare(lastKey(), firstKey) >= 0) {
+                    throw DataUtils.newIllegalArgumentException(
+                            "The key {0} is not larger than {1}", firstKey, lastKey());
+                }
+                Page p = copyOnWrite(root, writeVersion);
+                p = splitRootIfNeeded(p, writeVersion);
+                int rootHeight = getHeight(p);
+                if (rootHeight > height) {
+                    appendRight(p, writeVersion, rootHeight, height, firstKey, tree);
+                } else if (rootHeight == height) {
+                    Object[] k = { firstKey };
+                    long[] children = { p.getPos(), tree.getPos() };
+                    Page[] childrenPages = { p, tree };
+                    long[] counts = { p.getTotalCount(), tree.getTotalCount() };
+                    p = Page.create(this, writeVersion, 1, k, null, children, childrenPages,
+                            counts, p.getTotalCount() + tree.getTotalCount(), 0, 0);
+                } else {
+                    // the new subtree is higher than the existing tree
+                    appendLeft(tree, height, rootHeight, firstKey, p);
+                    p = tree;
+                }
+                newRoot(p);
+                return tree.getTotalCount();
+            }
+        } finally {
+            afterWrite();
+        }
+    }
+
+    private void addLeaf(ArrayList<Page> pages, ArrayList<Object> firstKeys,
+            ArrayList<Object> keys, ArrayList<Object> values, long writeVersion) {
+        int len = keys.size();
+        Page p = Page.create(this, writeVersion, len, keys.toArray(), values.toArray(),
+                null, null, null, len, 0, 0);
+        Object first = keys.get(0);
+        if (!pages.isEmpty()) {
+            Page last = pages.get(pages.size() - 1);
+            first = getSeparator(last.getKey(last.getKeyCount() - 1), first);
+        }
+        pages.add(p);
+        firstKeys.add(first);
+        keys.clear();
+        values.clear();
+    }
+
+    private void addNode(ArrayList<Page> nodes, ArrayList<Object> nodeKeys,
+            ArrayList<Page> pages, ArrayList<Object> firstKeys, int start, int end,
+            long writeVersion) {
+        int len = end - start;
+        Object[] keys = new Object[len - 1];
+        long[] children = new long[len];
+        Page[] childrenPages = new Page[len];
+        long[] counts = new long[len];
+        long totalCount = 0;
+        for (int i = 0; i < len; i++) {
+            Page c = pages.get(start + i);
+            if (i > 0) {
+                keys[i - 1] = firstKeys.get(start + i);
+            }
+            childrenPages[i] = c;
+            counts[i] = c.getTotalCount();
+            totalCount += counts[i];
+        }
+        nodes.add(Page.create(this, writeVersion, len - 1, keys, null,
+                children, childrenPages, counts, totalCount, 0, 0));
+        nodeKeys.add(firstKeys.get(start));
+    }
+
+    private static int getHeight(Page p) {
+        int height = 0;
+        while (!p.isLeaf()) {
+            p = p.getChildPage(0);
+            height++;
+        }
+        return height;
+    }
+
+    /**
+     * Add a subtree as the last child of the right-most page at the given
+     * height.
+     *
+     * @param p the page (already copied)
+     * @param writeVersion the write version
+     * @param height the height of the page
+     * @param treeHeight the height of the subtree
+     * @param key the first key of the subtree
+     * @param tree the subtree
+     */
+    private void appendRight(Page p, long writeVersion, int height, int treeHeight,
+            Object key, Page tree) {
+        int index = p.getKeyCount();
+        Page c = p.getChildPage(index);
+        if (height == treeHeight + 1) {
+            p.setChild(index, tree);
+            p.setCounts(index, tree);
+            p.insertNode(index, key, c);
+            return;
+        }
+        c = copyOnWrite(c, writeVersion);
+        if (c.getMemory() > store.getPageSize() && c.getKeyCount() > 1) {
+            // split on the way down, the new subtree is added to the right part
+            int at = c.getKeyCount() / 2;
+            Object k = getSplitKey(c, at);
+            Page split = c.split(at);
+            p.setChild(index, split);
+            p.setCounts(index, split);
+            p.insertNode(index, k, c);
+            index++;
+            c = split;
+        }
+        p.setChild(index, c);
+        appendRight(c, writeVersion, height - 1, treeHeight, key, tree);
+        p.setCounts(index, c);
+    }
+
+    /**
+     * Add a (lower) tree as the first child of the left-most page of the new
+     * subtree at the given height. The pages of the new subtree are not
+     * shared, so they are not copied.
+     *
+     * @param p the page of the new subtree
+     * @param height the height of the page
+     * @param oldHeight the height of the tree to add
+     * @param key the first key of the new subtree
+     * @param old the tree to add
+     */
+    private void appendLeft(Page p, int height, int oldHeight, Object key, Page old) {
+        if (height == oldHeight + 1) {
+            p.insertNode(0, key, old);
+            return;
+        }
+        Page c = p.getChildPage(0);
+        appendLeft(c, height - 1, oldHeight, key, old);
+        p.setCounts(0, c);
+    }
+
     /**
      * Get the first key, or null if the map is empty.
      *
@@ -557,6 +821,11 @@ public class MVMap<K, V> extends AbstractMap<K, V>
     public V remove(Object key) {
         beforeWrite();
         try {
+            // otherwise the copies of the pages on the path would be dropped,
+            // but the old pages would be registered as removed anyway
+            if (get(key) == null) {
+                return null;
+            }
             long writeVersion = store.getCurrentVersion();
             Page p = copyOnWrite(root, writeVersion);
             @SuppressWarnings("unchecked")
@@ -934,8 +1203,10 @@ public class MVMap<K, V> extends AbstractMap<K, V>
                     "This map is read-only");
         }
         checkConcurrentWrite();
-        writing = true;
+        // the store may be stored now, which waits until writing is done,
+        // so this must be called before the flag is set (see waitUntilWritten)
         store.beforeWrite();
+        writing = true;
     }
 
     /**
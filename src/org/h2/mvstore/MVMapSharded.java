@@ -0,0 +1,549 @@
+/*
+ * Copyright 2004-2013 H2 Group. Multiple-Licensed under the H2 License,
+ * Version 1.0, and under the Eclipse Public License, Version 1.0
+ * (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import org.h2.mvstore.type.DataType;
+import org.h2.mvstore.type.ObjectDataType;
+import org.h2.util.New;
+
+/**
+ * A stored map that is split into a number of independent sub-maps (shards)
+ * within the same store. Each key is stored in the shard that is selected by
+ * the hash code of the serialized key, so that concurrent write operations
+ * on different shards don't need to wait for each other: each shard has its
+ * own root page.
+ * <p>
+ * The shards are regular maps of type MVMapConcurrent, named
+ * "shard.{mapId}.{index}". The number of shards is stored in the metadata of
+ * the map, and can not be changed afterwards. Iterating over the keys merges
+ * the shards in key order. The position of a key in the map (getKey,
+ * getKeyIndex) is calculated from the positions in all shards, with a binary
+ * search within the shards. An old version of the map is opened by opening
+ * the same version of each shard. A sharded map can only be opened with this
+ * builder, and a map that is not sharded can not be opened with it.
+ *
+ * @param <K> the key class
+ * @param <V> the value class
+ */
+public class MVMapSharded<K, V> extends MVMap<K, V> {
+
+    /**
+     * The buffer used to serialize a key to calculate its shard, per thread.
+     */
+    private final ThreadLocal<ByteBuffer> keyBuffer = new ThreadLocal<ByteBuffer>();
+
+    /**
+     * The largest buffer that is kept for the next key.
+     */
+    private static final int MAX_KEY_BUFFER_SIZE = 64 * 1024;
+
+    private int shardCount;
+    private volatile MVMap<K, V>[] shards;
+
+    public MVMapSharded(DataType keyType, DataType valueType, int shardCount) {
+        super(keyType, valueType);
+        this.shardCount = shardCount;
+    }
+
+    protected void init(MVStore store, HashMap<String, String> config) {
+        super.init(store, config);
+        String x = config.get("shards");
+        if (x != null) {
+            // an existing map: the keys are already distributed
+            shardCount = Integer.parseInt(x);
+        }
+    }
+
+    private MVMap<K, V>[] getShards() {
+        MVMap<K, V>[] s = shards;
+        if (s != null) {
+            return s;
+        }
+        synchronized (this) {
+            if (shards == null) {
+                checkOpen();
+                MVMapConcurrent.Builder<K, V> builder = new MVMapConcurrent.Builder<K, V>();
+                builder.keyType(getKeyType()).valueType(getValueType());
+                s = newShardArray(shardCount);
+                for (int i = 0; i < shardCount; i++) {
+                    s[i] = store.openMap("shard." + getId() + "." + i, builder);
+                }
+                shards = s;
+            }
+            return shards;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> MVMap<K, V>[] newShardArray(int len) {
+        return (MVMap<K, V>[]) new MVMap<?, ?>[len];
+    }
+
+    /**
+     * Get the shard of the given key. The hash code of the serialized key is
+     * used, because the hash code of some objects (for example arrays) is not
+     * the same after re-opening the store. The key is serialized into a buffer
+     * that is re-used by the same thread.
+     *
+     * @param key the key
+     * @return the shard
+     */
+    private MVMap<K, V> getShard(Object key) {
+        return getShards()[getShardIndex(key)];
+    }
+
+    private int getShardIndex(Object key) {
+        MVMap<K, V>[] s = getShards();
+        if (s.length == 1) {
+            return 0;
+        }
+        DataType keyType = getKeyType();
+        int size = keyType.getMemory(key) + 64;
+        ByteBuffer buff = keyBuffer.get();
+        if (buff == null || buff.capacity() < size) {
+            buff = ByteBuffer.allocate(Math.max(size, 256));
+        } else {
+            buff.clear();
+        }
+        buff = keyType.write(buff, key);
+        if (buff.capacity() <= MAX_KEY_BUFFER_SIZE) {
+            keyBuffer.set(buff);
+        }
+        byte[] data = buff.array();
+        int hash = 0;
+        for (int i = 0, len = buff.position(); i < len; i++) {
+            hash = 31 * hash + data[i];
+        }
+        // spread the bits, as in HashMap
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return (hash & Integer.MAX_VALUE) % s.length;
+    }
+
+    public V get(Object key) {
+        return getShard(key).get(key);
+    }
+
+    public boolean containsKey(Object key) {
+        return getShard(key).containsKey(key);
+    }
+
+    public V put(K key, V value) {
+        DataUtils.checkArgument(value != null, "The value may not be null");
+        checkReadOnly();
+        return getShard(key).put(key, value);
+    }
+
+    public V remove(Object key) {
+        checkReadOnly();
+        return getShard(key).remove(key);
+    }
+
+    public V putIfAbsent(K key, V value) {
+        checkReadOnly();
+        return getShard(key).putIfAbsent(key, value);
+    }
+
+    public boolean remove(Object key, Object value) {
+        checkReadOnly();
+        return getShard(key).remove(key, value);
+    }
+
+    public boolean replace(K key, V oldValue, V newValue) {
+        checkReadOnly();
+        return getShard(key).replace(key, oldValue, newValue);
+    }
+
+    public V replace(K key, V value) {
+        checkReadOnly();
+        return getShard(key).replace(key, value);
+    }
+
+    /**
+     * Append a number of entries that are sorted by key. The entries are
+     * spread over the shards by hash code; the entries of each shard are still
+     * sorted, so that each shard is then built with a bulk append. All keys
+     * must be larger than the last key of the map. The entries are checked
+     * before any shard is changed.
+     *
+     * @param entries the entries, sorted by key (the values may not be null)
+     * @param fillRate how much of the page size to use, in percent (1 - 100)
+     * @return the number of entries added
+     * @throws IllegalArgumentException if the keys are not sorted, or not
+     *             larger than the last key of the map
+     */
+    @Override
+    public long bulkAppend(Iterator<? extends Map.Entry<K, V>> entries, int fillRate) {
+        DataUtils.checkArgument(fillRate > 0 && fillRate <= 100,
+                "Unsupported fill rate: {0}", fillRate);
+        checkReadOnly();
+        MVMap<K, V>[] s = getShards();
+        ArrayList<ArrayList<Map.Entry<K, V>>> lists = New.arrayList();
+        for (int i = 0; i < s.length; i++) {
+            lists.add(new ArrayList<Map.Entry<K, V>>());
+        }
+        Object last = lastKey();
+        while (entries.hasNext()) {
+            Map.Entry<K, V> e = entries.next();
+            K key = e.getKey();
+            DataUtils.checkArgument(e.getValue() != null, "The value may not be null");
+            if (last != null && compare(last, key) >= 0) {
+                throw DataUtils.newIllegalArgumentException(
+                        "The key {0} is not larger than {1}", key, last);
+            }
+            last = key;
+            lists.get(getShardIndex(key)).add(e);
+        }
+        long count = 0;
+        for (int i = 0; i < s.length; i++) {
+            ArrayList<Map.Entry<K, V>> list = lists.get(i);
+            if (list.size() > 0) {
+                count += s[i].bulkAppend(list.iterator(), fillRate);
+            }
+        }
+        return count;
+    }
+
+    private void checkReadOnly() {
+        if (isReadOnly()) {
+            checkOpen();
+            throw DataUtils.newUnsupportedOperationException(
+                    "This map is read-only");
+        }
+    }
+
+    public void clear() {
+        checkReadOnly();
+        for (MVMap<K, V> s : getShards()) {
+            s.clear();
+        }
+    }
+
+    public void removeMap() {
+        checkOpen();
+        for (MVMap<K, V> s : getShards()) {
+            s.removeMap();
+        }
+        super.removeMap();
+    }
+
+    public void close() {
+        MVMap<K, V>[] s = shards;
+        if (s != null) {
+            for (MVMap<K, V> m : s) {
+                m.close();
+            }
+        }
+        super.close();
+    }
+
+    public void setReadOnly(boolean readOnly) {
+        super.setReadOnly(readOnly);
+        for (MVMap<K, V> s : getShards()) {
+            s.setReadOnly(readOnly);
+        }
+    }
+
+    public long getSize() {
+        checkOpen();
+        long size = 0;
+        for (MVMap<K, V> s : getShards()) {
+            size += s.getSize();
+        }
+        return size;
+    }
+
+    protected K getFirstLast(boolean first) {
+        K result = null;
+        for (MVMap<K, V> s : getShards()) {
+            K k = s.getFirstLast(first);
+            if (k != null && (result == null || (compare(k, result) < 0) == first)) {
+                result = k;
+            }
+        }
+        return result;
+    }
+
+    protected K getMinMax(K key, boolean min, boolean excluding) {
+        K result = null;
+        for (MVMap<K, V> s : getShards()) {
+            K k = s.getMinMax(key, min, excluding);
+            // min: the largest key below the given key, otherwise the
+            // smallest key above
+            if (k != null && (result == null || (compare(k, result) > 0) == min)) {
+                result = k;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the key at the given index. The key is searched in each shard with
+     * a binary search, using the number of smaller keys in all shards.
+     *
+     * @param index the index
+     * @return the key, or null if the index is out of range
+     */
+    public K getKey(long index) {
+        checkOpen();
+        if (index < 0 || index >= size()) {
+            return null;
+        }
+        MVMap<K, V>[] s = getShards();
+        for (MVMap<K, V> m : s) {
+            long low = 0, high = m.getSize() - 1;
+            while (low <= high) {
+                long x = (low + high) >>> 1;
+                K k = m.getKey(x);
+                long pos = countSmaller(s, k);
+                if (pos < index) {
+                    low = x + 1;
+                } else if (pos > index) {
+                    high = x - 1;
+                } else {
+                    return k;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the index of the given key in the map: the number of smaller keys
+     * in all shards.
+     *
+     * @param key the key
+     * @return the index, or (-insertionPoint - 1) if the key was not found
+     */
+    public long getKeyIndex(K key) {
+        checkOpen();
+        long pos = countSmaller(getShards(), key);
+        return getShard(key).containsKey(key) ? pos : -pos - 1;
+    }
+
+    private static <K, V> long countSmaller(MVMap<K, V>[] shards, K key) {
+        long count = 0;
+        for (MVMap<K, V> m : shards) {
+            long x = m.getKeyIndex(key);
+            count += x < 0 ? -x - 1 : x;
+        }
+        return count;
+    }
+
+    /**
+     * Open an old version of the map. The same version of each shard is
+     * opened.
+     *
+     * @param version the version
+     * @return the read-only map
+     */
+    public MVMap<K, V> openVersion(long version) {
+        checkOpen();
+        if (isReadOnly()) {
+            throw DataUtils.newUnsupportedOperationException(
+                    "This map is read-only - need to call the method on the writable map");
+        }
+        DataUtils.checkArgument(version >= getCreateVersion(),
+                "Unknown version {0}; this map was created in version is {1}",
+                version, getCreateVersion());
+        MVMap<K, V>[] s = getShards();
+        MVMap<K, V>[] old = newShardArray(s.length);
+        for (int i = 0; i < s.length; i++) {
+            if (version >= s[i].getCreateVersion()) {
+                old[i] = s[i].openVersion(version);
+            } else {
+                // the shards are created when the map is first used
+                old[i] = s[i].openReadOnly();
+                old[i].root = Page.createEmpty(old[i], -1);
+            }
+        }
+        MVMapSharded<K, V> m = new MVMapSharded<K, V>(getKeyType(), getValueType(), s.length);
+        HashMap<String, String> config = New.hashMap();
+        config.put("id", String.valueOf(getId()));
+        config.put("createVersion", String.valueOf(getCreateVersion()));
+        m.init(store, config);
+        m.shards = old;
+        m.setReadOnly(true);
+        return m;
+    }
+
+    /**
+     * Iterate over the keys of all shards, in ascending order.
+     *
+     * @param from the first key to return
+     * @return the iterator
+     */
+    public Cursor<K> keyIterator(K from) {
+        checkOpen();
+        MVMap<K, V>[] s = getShards();
+        ArrayList<Cursor<K>> list = new ArrayList<Cursor<K>>(s.length);
+        for (MVMap<K, V> m : s) {
+            list.add(m.keyIterator(from));
+        }
+        return new MergedCursor<K>(this, list);
+    }
+
+    public Set<K> keySet() {
+        checkOpen();
+        return new AbstractSet<K>() {
+
+            @Override
+            public Iterator<K> iterator() {
+                return keyIterator(null);
+            }
+
+            @Override
+            public int size() {
+                return MVMapSharded.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return MVMapSharded.this.containsKey(o);
+            }
+
+        };
+    }
+
+    public String getType() {
+        return "sharded";
+    }
+
+    public String asString(String name) {
+        StringBuilder buff = new StringBuilder(super.asString(name));
+        DataUtils.appendMap(buff, "shards", shardCount);
+        return buff.toString();
+    }
+
+    /**
+     * A cursor that merges the cursors of all shards.
+     *
+     * @param <K> the key type
+     */
+    private static class MergedCursor<K> extends Cursor<K> {
+
+        private final ArrayList<Cursor<K>> cursors;
+        private final ArrayList<K> heads;
+
+        MergedCursor(MVMapSharded<K, ?> map, ArrayList<Cursor<K>> cursors) {
+            super(map, map.root, null);
+            this.cursors = cursors;
+            heads = new ArrayList<K>(cursors.size());
+            for (Cursor<K> c : cursors) {
+                heads.add(c.hasNext() ? c.next() : null);
+            }
+        }
+
+        public boolean hasNext() {
+            for (K k : heads) {
+                if (k != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public K next() {
+            int best = -1;
+            K min = null;
+            for (int i = 0, size = heads.size(); i < size; i++) {
+                K k = heads.get(i);
+                if (k != null && (min == null || map.compare(k, min) < 0)) {
+                    min = k;
+                    best = i;
+                }
+            }
+            if (best >= 0) {
+                Cursor<K> c = cursors.get(best);
+                heads.set(best, c.hasNext() ? c.next() : null);
+            }
+            return min;
+        }
+
+        public void skip(long n) {
+            while (n-- > 0 && hasNext()) {
+                next();
+            }
+        }
+
+    }
+
+    /**
+     * A builder for this class.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     */
+    public static class Builder<K, V> implements MapBuilder<MVMapSharded<K, V>, K, V> {
+
+        protected DataType keyType;
+        protected DataType valueType;
+        protected int shards = 16;
+
+        /**
+         * Create a new builder with the default key and value data types.
+         */
+        public Builder() {
+            // ignore
+        }
+
+        /**
+         * Set the key data type.
+         *
+         * @param keyType the key type
+         * @return this
+         */
+        public Builder<K, V> keyType(DataType keyType) {
+            this.keyType = keyType;
+            return this;
+        }
+
+        /**
+         * Set the value data type.
+         *
+         * @param valueType the value type
+         * @return this
+         */
+        public Builder<K, V> valueType(DataType valueType) {
+            this.valueType = valueType;
+            return this;
+        }
+
+        /**
+         * Set the number of shards of a new map. For an existing map, the
+         * number of shards it was created with is used.
+         *
+         * @param shards the number of shards (at least 1)
+         * @return this
+         */
+        public Builder<K, V> shards(int shards) {
+            DataUtils.checkArgument(shards > 0, "The number of shards must be positive");
+            this.shards = shards;
+            return this;
+        }
+
+        @Override
+        public MVMapSharded<K, V> create() {
+            if (keyType == null) {
+                keyType = new ObjectDataType();
+            }
+            if (valueType == null) {
+                valueType = new ObjectDataType();
+            }
+            return new MVMapSharded<K, V>(keyType, valueType, shards);
+        }
+
+    }
+
+}
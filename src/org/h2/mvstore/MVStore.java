@@ -15,19 +15,24 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.h2.compress.CompressDeflate;
 import org.h2.compress.CompressLZF;
 import org.h2.compress.Compressor;
 import org.h2.engine.Constants;
 import org.h2.mvstore.cache.CacheLongKeyLIRS;
+import org.h2.mvstore.cache.CacheOffHeap;
 import org.h2.mvstore.cache.FilePathCache;
 import org.h2.mvstore.type.StringDataType;
 import org.h2.store.fs.FilePath;
 import org.h2.store.fs.FilePathCrypt;
 import org.h2.store.fs.FilePathNio;
+import org.h2.store.fs.FilePathNioMapped;
 import org.h2.util.MathUtils;
 import org.h2.util.New;
 
@@ -82,7 +87,6 @@ TODO:
 - MVStoreTool.shrink to shrink a store (create, copy, rename, delete)
 -- and for MVStore on Windows, auto-detect renamed file
 - ensure data is overwritten eventually if the system doesn't have a timer
-- SSD-friendly write (always in blocks of 4 MB / 1 second?)
 - close the file on out of memory or disk write error (out of disk space or so)
 - implement a sharded map (in one store, multiple stores)
 -- to support concurrent updates and writes, and very large maps
@@ -95,7 +99,7 @@ TODO:
 -- use a transaction log where only the deltas are stored
 - serialization for lists, sets, sets, sorted sets, maps, sorted maps
 - maybe rename 'rollback' to 'revert'
-- support other compression algorithms (deflate, LZ4,...)
+- support other compression algorithms (LZ4,...)
 - only retain the last version, unless explicitly set (setRetainVersion)
 - unit test for the FreeSpaceList; maybe find a simpler implementation
 
@@ -117,8 +121,15 @@ public class MVStore {
      */
     static final int BLOCK_SIZE = 4 * 1024;
 
-    private static final int FORMAT_WRITE = 1;
-    private static final int FORMAT_READ = 1;
+    /**
+     * The file format of files without pages that are compressed with Deflate
+     * (DataUtils.PAGE_COMPRESSED_HIGH) and without pages with a key prefix
+     * (DataUtils.PAGE_KEY_PREFIX). Older versions can open such files.
+     */
+    private static final int FORMAT_BASE = 1;
+
+    private static final int FORMAT_WRITE = 2;
+    private static final int FORMAT_READ = 2;
 
     /**
      * Whether the store is closed.
@@ -142,6 +153,12 @@ public class MVStore {
      */
     private final CacheLongKeyLIRS<Page> cache;
 
+    /**
+     * The second level cache, for the serialized pages. The data is kept
+     * outside of the Java heap. This cache is optional (null if not used).
+     */
+    private final CacheOffHeap offHeapCache;
+
     private int lastChunkId;
 
     /**
@@ -174,16 +191,60 @@ public class MVStore {
 
     private boolean readOnly;
 
+    /**
+     * Whether the chunks are read using memory mapped I/O. This is disabled if
+     * the file system does not support it.
+     */
+    private boolean mapped;
+
+    /**
+     * The number of threads that currently read a page from a memory mapped
+     * chunk.
+     */
+    private final AtomicInteger mappedReaders = new AtomicInteger();
+
     private int lastMapId;
 
     private volatile boolean reuseSpace = true;
     private long retainVersion = -1;
 
-    private final Compressor compressor = new CompressLZF();
+    private final Compressor compressorFast = new CompressLZF();
 
-    private final boolean compress;
+    private final Compressor compressorHigh = new CompressDeflate();
 
-    private long currentVersion;
+    /**
+     * The compression algorithm for new chunks (Compressor.NO, LZF, or
+     * DEFLATE).
+     */
+    private final int compress;
+
+    /**
+     * The compression algorithm for chunks that are written when compacting
+     * the file.
+     */
+    private final int compressCold;
+
+    private volatile boolean compacting;
+
+    /**
+     * The chunks that contain live pages of the meta map, which are moved
+     * within the next store operation (see compactInBackground).
+     */
+    private volatile ArrayList<Chunk> compactMetaChunks;
+
+    /**
+     * The ids of the chunks that are currently being moved by compact. They
+     * are not freed (and their space is not reused) until the compaction is
+     * done, even if all their pages are moved. Access is synchronized on the
+     * store.
+     */
+    private final HashSet<Integer> pinnedChunks = New.hashSet();
+
+    /**
+     * The current version (read by the threads that write to the maps while
+     * the background thread stores).
+     */
+    private volatile long currentVersion;
 
     /**
      * The version of the last stored chunk.
@@ -214,6 +275,8 @@ public class MVStore {
 
     private Thread backgroundThread;
 
+    private Writer backgroundWriter;
+
     /**
      * The version of the current store operation (if any).
      */
@@ -226,6 +289,23 @@ public class MVStore {
      */
     private int writeDelay = 1000;
 
+    /**
+     * The fill rate (in percent) below which the background thread
+     * compacts the file incrementally (0 to disable).
+     */
+    private int autoCompactFillRate;
+
+    /**
+     * When the background thread compacted the file the last time.
+     */
+    private long lastCompactTime;
+
+    /**
+     * The size of the aligned blocks chunks are written in (0 if chunks are
+     * not aligned).
+     */
+    private final int writeBlockSize;
+
     MVStore(HashMap<String, Object> config) {
         String f = (String) config.get("fileName");
         if (f != null && f.indexOf(':') < 0) {
@@ -236,7 +316,12 @@ public class MVStore {
         }
         this.fileName = f;
         this.readOnly = config.containsKey("readOnly");
-        this.compress = config.containsKey("compress");
+        this.mapped = config.containsKey("mapped");
+        compressorHigh.setOptions("level 9");
+        this.compress = getCompressionAlgorithm(config.get("compress"));
+        //compact时要移动的都是旧的chunk里的page，这些page很少再被修改，可以用压缩率更高的算法
+        int cold = getCompressionAlgorithm(config.get("compressCold"));
+        this.compressCold = cold == Compressor.NO ? compress : cold;
         if (fileName != null) {
             Object o = config.get("cacheSize");
             int mb = o == null ? 16 : (Integer) o;
@@ -246,6 +331,9 @@ public class MVStore {
             int stackMoveDistance = maxMemoryBytes / averageMemory * 2 / 100;
             cache = new CacheLongKeyLIRS<Page>(
                     maxMemoryBytes, averageMemory, segmentCount, stackMoveDistance);
+            o = config.get("offHeapCacheSize");
+            mb = o == null ? 0 : (Integer) o;
+            offHeapCache = mb <= 0 ? null : new CacheOffHeap((long) mb * 1024 * 1024, averageMemory);
             filePassword = (char[]) config.get("encrypt");
             o = config.get("writeBufferSize");
             mb = o == null ? 4 : (Integer) o;
@@ -256,12 +344,30 @@ public class MVStore {
             maxUnsavedPages = writeBufferSize / pageSize;
             o = config.get("writeDelay");
             writeDelay = o == null ? 1000 : (Integer) o;
+            o = config.get("autoCompactFillRate");
+            autoCompactFillRate = o == null ? 0 : (Integer) o;
+            o = config.get("writeBlockSize");
+            int kb = o == null ? 0 : (Integer) o;
+            writeBlockSize = kb <= 0 ? 0 : Math.max(BLOCK_SIZE, MathUtils.nextPowerOf2(kb * 1024));
         } else {
             cache = null;
+            offHeapCache = null;
+            writeBlockSize = 0;
             filePassword = null;
         }
     }
 
+    private static int getCompressionAlgorithm(Object o) {
+        if (o == null) {
+            return Compressor.NO;
+        }
+        // the value is a string if the builder was read from a string
+        int algorithm = Integer.parseInt(o.toString());
+        DataUtils.checkArgument(algorithm >= Compressor.NO && algorithm <= Compressor.DEFLATE,
+                "Unsupported compression algorithm {0}", algorithm);
+        return algorithm;
+    }
+
     /**
      * Open a store in exclusive mode. For a file-based store, the parent
      * directory must already exist.
@@ -332,11 +438,13 @@ public class MVStore {
             @SuppressWarnings("unchecked")
             M old = (M) maps.get(id);
             if (old != null) {
+                checkMapType(name, old.getType(), builder.create().getType());
                 return old;
             }
             map = builder.create();
             String config = meta.get("map." + x);
             c = DataUtils.parseMap(config);
+            checkMapType(name, c.get("type"), map.getType());
             c.put("id", x);
             map.init(this, c);
             String r = meta.get("root." + id);
@@ -361,6 +469,25 @@ public class MVStore {
         return map;
     }
 
+    /**
+     * Check that an existing map is opened with the same kind of map. The
+     * entries of a sharded map are stored in separate shard maps, so a sharded
+     * map can't be read as a plain map, and the other way round.
+     *
+     * @param name the map name
+     * @param type the type of the existing map
+     * @param newType the type of the map to open
+     */
+    private static void checkMapType(String name, String type, String newType) {
+        if ("sharded".equals(type) && !"sharded".equals(newType)) {
+            throw DataUtils.newIllegalArgumentException(
+                    "Map {0} is a sharded map; open it with MVMapSharded.Builder", name);
+        } else if ("sharded".equals(newType) && !"sharded".equals(type)) {
+            throw DataUtils.newIllegalArgumentException(
+                    "Map {0} is not a sharded map; it can not be opened with MVMapSharded.Builder", name);
+        }
+    }
+
     /**
      * Get the metadata map. This data is for informational purposes only. The
      * data is subject to change in future versions. The data should not be
@@ -476,6 +603,7 @@ public class MVStore {
             Thread t = new Thread(w, "MVStore writer " + fileName);
             t.setDaemon(true);
             t.start();
+            backgroundWriter = w;
             backgroundThread = t;
         }
     }
@@ -519,7 +647,7 @@ public class MVStore {
                 lastStoreTime = creationTime;
                 fileHeader.put("H", "3");
                 fileHeader.put("blockSize", "" + BLOCK_SIZE);
-                fileHeader.put("format", "" + FORMAT_WRITE);
+                fileHeader.put("format", "" + FORMAT_BASE);
                 fileHeader.put("creationTime", "" + creationTime);
                 writeFileHeader();
             } else {
@@ -683,6 +811,21 @@ public class MVStore {
         if (closed) {
             return;
         }
+        // the background thread must be stopped before the rollback, as it
+        // could store or compact concurrently; can not synchronize on this
+        // yet, because the thread also synchronized on this, which could
+        // result in a deadlock
+        if (backgroundThread != null) {
+            Thread t = backgroundThread;
+            backgroundThread = null;
+            backgroundWriter.stop();
+            backgroundWriter = null;
+            try {
+                t.join();
+            } catch (Exception e) {
+                // ignore
+            }
+        }
         if (!readOnly) {
             if (hasUnsavedChanges()) {
                 rollbackTo(lastCommittedVersion);
@@ -693,21 +836,6 @@ public class MVStore {
         if (file == null) {
             return;
         }
-        // can not synchronize on this yet, because
-        // the thread also synchronized on this, which
-        // could result in a deadlock
-        if (backgroundThread != null) {
-            Thread t = backgroundThread;
-            backgroundThread = null;
-            synchronized (this) {
-                notify();
-            }
-            try {
-                t.join();
-            } catch (Exception e) {
-                // ignore
-            }
-        }
         synchronized (this) {
             try {
                 if (shrinkIfPossible) {
@@ -723,9 +851,15 @@ public class MVStore {
                     m.close();
                 }
                 meta = null;
+                for (Chunk c : chunks.values()) {
+                    unMap(c);
+                }
                 chunks.clear();
                 freeSpaceList.clear();
                 cache.clear();
+                if (offHeapCache != null) {
+                    offHeapCache.close();
+                }
                 maps.clear();
             } catch (Exception e) {
                 throw DataUtils.newIllegalStateException(
@@ -860,8 +994,19 @@ public class MVStore {
         c.length = Integer.MAX_VALUE;
         c.time = time;
         c.version = version;
+        c.compressor = compacting ? compressCold : compress;
+        if (c.compressor == Compressor.DEFLATE) {
+            //旧版本会把用Deflate压缩的page当成LZF压缩的来读，
+            //chunk后面的文件头(以及需要覆盖的开头的文件头)会带上新的格式
+            increaseFormat();
+        }
         chunks.put(c.id, c);
         meta.put("chunk." + c.id, c.asString());
+        ArrayList<Chunk> moveMeta = compactMetaChunks;
+        if (moveMeta != null) {
+            compactMetaChunks = null;
+            moveMetaPages(moveMeta);
+        }
         ArrayList<MVMap<?, ?>> list = New.arrayList(maps.values());
         ArrayList<MVMap<?, ?>> changed = New.arrayList();
         for (MVMap<?, ?> m : list) {
@@ -870,7 +1015,9 @@ public class MVStore {
                 //查看当前的maps中的每个version是否>=上一次调用store方法时的版本
                 if (v >= 0 && m.getVersion() >= lastStoredVersion) {
                     MVMap<?, ?> r = m.openVersion(storeVersion);
-                    r.waitUntilWritten(r.getRoot());
+                    // wait for a write operation on the map itself (the
+                    // read-only copy is never written to)
+                    m.waitUntilWritten(r.getRoot());
                     if (r.getRoot().getPos() == 0) {
                         changed.add(r);
                     }
@@ -915,9 +1062,12 @@ public class MVStore {
             }
         }
 
+        // the meta map may be changed by another thread while storing (see
+        // openMap), so the same root is written, referenced and unlinked
+        Page metaRoot = meta.getRoot();
         // this will modify maxLengthLive, but
         // the correct value is written in the chunk header
-        buff = meta.getRoot().writeUnsavedRecursive(c, buff); //3. 接着写meta
+        buff = metaRoot.writeUnsavedRecursive(c, buff); //3. 接着写meta
 
         int chunkLength = buff.position(); //此时的buff.position()就表示前面3步往buff中写了多少字节
         
@@ -925,6 +1075,10 @@ public class MVStore {
         //如chunkLength<BLOCK_SIZE时，roundUpInt返回BLOCK_SIZE
         //chunkLength>BLOCK_SIZE时，roundUpInt返回的值满足chunkLength<BLOCK_SIZE*x(x是适当的倍数)
         int length = MathUtils.roundUpInt(chunkLength, BLOCK_SIZE) + BLOCK_SIZE;
+        if (writeBlockSize > 0) {
+            //补齐到块大小的整数倍，文件头还是在最后一个block中
+            length = MathUtils.roundUpInt(length, writeBlockSize);
+        }
         if (length > buff.capacity()) {
             buff = DataUtils.ensureCapacity(buff, length - buff.capacity());
         }
@@ -932,22 +1086,40 @@ public class MVStore {
 
         long fileSizeUsed = getFileSizeUsed();
         long filePos = reuseSpace ? allocateChunk(length) : fileSizeUsed;
+        if (writeBlockSize > 0) {
+            filePos = MathUtils.roundUpLong(filePos, writeBlockSize);
+        }
         boolean storeAtEndOfFile = filePos + length >= fileSizeUsed;
 
         // free up the space of unused chunks now
         for (Chunk x : removedChunks) {
+            unMap(x);
             freeSpaceList.markFree(x);
         }
 
         c.start = filePos;
         c.length = chunkLength;
+        if (writeBlockSize > 0) {
+            // the padding belongs to the chunk, so that the space is not
+            // used otherwise and the file is not truncated before the file
+            // header; the length is not a multiple of the block size (as for
+            // other chunks), so that exactly the padded blocks and the header
+            // block are marked as used
+            c.length = length - BLOCK_SIZE - 1;
+        }
         freeSpaceList.markUsed(c);
-        c.metaRootPos = meta.getRoot().getPos();
+        c.metaRootPos = metaRoot.getPos();
         buff.position(0);
         c.writeHeader(buff);
         rootChunkStart = filePos;
         revertTemp(storeVersion);
         
+        if (writeBlockSize > 0) {
+            // clear the padding, so that it is not mistaken for pages
+            buff.position(chunkLength);
+            buff.put(new byte[buff.limit() - BLOCK_SIZE - chunkLength]);
+        }
+
         //前面的length = MathUtils.roundUpInt(chunkLength, BLOCK_SIZE) + BLOCK_SIZE加了LOCK_SIZE
         //就是想在之里的buff最后留一下block，目的是为了写FileHeader
         buff.position(buff.limit() - BLOCK_SIZE);
@@ -976,7 +1148,7 @@ public class MVStore {
                 p.writeEnd();
             }
         }
-        meta.getRoot().writeEnd();
+        metaRoot.writeEnd();
 
         // some pages might have been changed in the meantime (in the newest version)
         unsavedPageCount = Math.max(0, unsavedPageCount - currentUnsavedPageCount);
@@ -990,6 +1162,10 @@ public class MVStore {
         if (c.time + retentionTime > time) {
             return false;
         }
+        if (pinnedChunks.contains(c.id)) {
+            //正在被compact移动，移动完之后才能释放
+            return false;
+        }
         Chunk r = retainChunk;
         if (r != null && c.version > r.version) {
             return false;
@@ -1080,6 +1256,12 @@ public class MVStore {
         if (savedPercent < minPercent) {
             return;
         }
+        if (mappedReaders.get() > 0) {
+            // a reader may still use the mapping of a freed chunk at the end
+            // of the file, and reading a truncated mapping crashes the JVM;
+            // the file is truncated when storing the next time
+            return;
+        }
         try {
             file.truncate(used);
         } catch (IOException e) {
@@ -1103,6 +1285,11 @@ public class MVStore {
     }
 
     private long allocateChunk(long length) {
+        if (writeBlockSize > 0) {
+            // append, unless much of the file is free
+            int pages = (int) (length / BLOCK_SIZE);
+            return ((long) freeSpaceList.allocateAligned(pages, writeBlockSize / BLOCK_SIZE)) * BLOCK_SIZE;
+        }
         return ((long) freeSpaceList.allocatePages(length)) * BLOCK_SIZE;
     }
 
@@ -1144,10 +1331,79 @@ public class MVStore {
      * @return if anything was written
      */
     public boolean compact(int fillRate) {
+        return compact(fillRate, false);
+    }
+
+    /**
+     * Try to reduce the file size.
+     *
+     * @param fillRate the minimum percentage of live entries
+     * @param background whether this is called by the background thread: in
+     *        this case, only the pages of maps that support concurrent writes
+     *        are moved (as other maps may be changed by the application at
+     *        the same time), and uncommitted changes are not committed
+     * @return if anything was written
+     */
+    private boolean compact(int fillRate, boolean background) {
         checkOpen();
+        ArrayList<Chunk> old;
+        ArrayList<ByteBuffer> buffers = New.arrayList();
+        boolean temp;
+        // the chunks are selected and read while holding the store lock,
+        // and pinned until the compaction is done, so that a concurrent
+        // store can not free them and overwrite their space
+        synchronized (this) {
+            old = getChunksToMove(fillRate);
+            if (old == null) {
+                return false;
+            }
+            for (Chunk c : old) {
+                buffers.add(readChunk(c));
+                pinnedChunks.add(c.id);
+            }
+            // moving pages doesn't change the data, so the result is committed
+            // unless the application changed something since the last commit
+            temp = background && hasUncommittedChanges();
+        }
+        try {
+            // the entries are moved without holding the store lock: the
+            // synchronized methods of MVMap (for example replace) may call
+            // store, so the map must not be locked within the store lock
+            boolean changed = false;
+            for (int i = 0; i < old.size(); i++) {
+                changed |= copyLive(old.get(i), buffers.get(i), old, background);
+            }
+            if (!changed) {
+                return false;
+            }
+            synchronized (this) {
+                compacting = true;
+                try {
+                    store(temp);
+                } finally {
+                    compacting = false;
+                }
+            }
+            return true;
+        } finally {
+            synchronized (this) {
+                for (Chunk c : old) {
+                    pinnedChunks.remove(c.id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the chunks that should be moved, if the fill rate is low enough.
+     *
+     * @param fillRate the minimum percentage of live entries
+     * @return the chunks, or null if nothing should be moved
+     */
+    private ArrayList<Chunk> getChunksToMove(int fillRate) {
         if (chunks.size() == 0) {
             // avoid division by 0
-            return false;
+            return null;
         }
         long maxLengthSum = 0, maxLengthLiveSum = 0;
         for (Chunk c : chunks.values()) {
@@ -1160,7 +1416,7 @@ public class MVStore {
         }
         int percentTotal = (int) (100 * maxLengthLiveSum / maxLengthSum);
         if (percentTotal > fillRate) {
-            return false;
+            return null;
         }
 
         // calculate the average max length
@@ -1178,7 +1434,7 @@ public class MVStore {
             }
         }
         if (old.size() == 0) {
-            return false;
+            return null;
         }
 
         // sort the list, so the first entry should be collected first
@@ -1211,30 +1467,55 @@ public class MVStore {
                 it.remove();
             }
         }
-
-        // iterate over all the pages in the old pages
-        for (Chunk c : old) {
-            copyLive(c, old);
-        }
-
-        store();
-        return true;
+        return old;
     }
 
-    private void copyLive(Chunk chunk, ArrayList<Chunk> old) {
+    private ByteBuffer readChunk(Chunk chunk) {
         ByteBuffer buff = ByteBuffer.allocate(chunk.length);
         DataUtils.readFully(file, chunk.start, buff);
         Chunk.fromHeader(buff, chunk.start);
+        return buff;
+    }
+
+    /**
+     * Move the live pages of the given chunk.
+     *
+     * @param chunk the chunk
+     * @param buff the content of the chunk, positioned after the header
+     * @param old the chunks to free up
+     * @param background whether this is called by the background thread (in
+     *        this case, only pages of maps that support concurrent writes are
+     *        moved, and the pages of the meta map are moved within the next
+     *        store operation)
+     * @return true if anything was moved
+     */
+    private boolean copyLive(Chunk chunk, ByteBuffer buff, ArrayList<Chunk> old, boolean background) {
         int chunkLength = chunk.length;
-        markMetaChanged();
+        if (!background) {
+            markMetaChanged();
+        }
+        boolean moved = !background;
         while (buff.position() < chunkLength) {
             int start = buff.position();
             int pageLength = buff.getInt();
+            if (pageLength <= 0) {
+                // the cleared padding of an aligned chunk (see
+                // writeBlockSize), which is counted in the chunk length
+                break;
+            }
             buff.getShort();
             int mapId = DataUtils.readVarInt(buff);
             @SuppressWarnings("unchecked")
             MVMap<Object, Object> map = (MVMap<Object, Object>) getMap(mapId);
-            if (map == null) {
+            if (background && mapId == 0) {
+                //meta map只在store中修改，所以在下一次store时再移动
+                compactMetaChunks = old;
+                markMetaChanged();
+                moved = true;
+                buff.position(start + pageLength);
+                continue;
+            }
+            if (map == null || (background && !(map instanceof MVMapConcurrent))) {
                 buff.position(start + pageLength);
                 continue;
             }
@@ -1254,12 +1535,43 @@ public class MVStore {
                     Chunk c = getChunk(p.getPos());
                     if (old.contains(c)) {
                         log("       move key:" + k + " chunk:" + c.id);
-                        Object value = map.remove(k);
-                        map.put(k, value);
+                        if (background) {
+                            // the application may change the map at the same
+                            // time, so the entry must not be removed
+                            Object value = map.get(k);
+                            if (value != null && map.replace(k, value, value)) {
+                                moved = true;
+                            }
+                        } else {
+                            Object value = map.remove(k);
+                            map.put(k, value);
+                        }
                     }
                 }
             }
         }
+        return moved;
+    }
+
+    /**
+     * Re-write the entries of the meta map that are stored in the given
+     * chunks. This is done within the store operation, because the meta map
+     * is changed there.
+     *
+     * @param old the chunks to free up
+     */
+    private void moveMetaPages(ArrayList<Chunk> old) {
+        ArrayList<String> keys = New.arrayList();
+        for (Cursor<String> it = meta.keyIterator(null); it.hasNext();) {
+            String k = it.next();
+            Page p = meta.getPage(k);
+            if (p != null && p.getPos() > 0 && old.contains(getChunk(p.getPos()))) {
+                keys.add(k);
+            }
+        }
+        for (String k : keys) {
+            meta.put(k, meta.get(k));
+        }
     }
 
     private MVMap<?, ?> getMap(int mapId) {
@@ -1279,21 +1591,133 @@ public class MVStore {
     Page readPage(MVMap<?, ?> map, long pos) {
         Page p = cache.get(pos);
         if (p == null) {
-            Chunk c = getChunk(pos);
-            if (c == null) {
-                throw DataUtils.newIllegalStateException(
-                        "Chunk {0} not found",
-                        DataUtils.getPageChunkId(pos));
+            ByteBuffer buff = offHeapCache == null ? null : offHeapCache.get(pos);
+            if (buff != null) {
+                p = Page.read(buff, map, pos);
+            } else {
+                Chunk c = getChunk(pos);
+                if (c == null) {
+                    throw DataUtils.newIllegalStateException(
+                            "Chunk {0} not found",
+                            DataUtils.getPageChunkId(pos));
+                }
+                buff = mapped ? getMappedPage(c, pos) : null;
+                if (buff != null) {
+                    //直接从映射的内存中读page，不需要系统调用，也不需要分配新的ByteBuffer
+                    try {
+                        p = Page.read(buff, map, pos);
+                    } finally {
+                        releaseMappedPage(c);
+                    }
+                } else {
+                    long filePos = c.start;
+                    filePos += DataUtils.getPageOffset(pos);
+                    fileReadCount++;
+                    buff = Page.readBuffer(file, pos, filePos, fileSize);
+                    p = Page.read(buff, map, pos);
+                    if (offHeapCache != null) {
+                        //前4个字节是page的长度(读page时已检查过)，只缓存page本身的字节，
+                        //压缩过的page缓存的是压缩后的字节
+                        buff.limit(buff.getInt(0));
+                        buff.position(0);
+                        offHeapCache.put(pos, buff);
+                    }
+                }
             }
-            long filePos = c.start;
-            filePos += DataUtils.getPageOffset(pos);
-            fileReadCount++;
-            p = Page.read(file, map, pos, filePos, fileSize);
             cache.put(pos, p, p.getMemory());
         }
         return p;
     }
 
+    /**
+     * Get the data of a page from the memory mapped chunk. The chunk is mapped
+     * when it is first used. If a buffer is returned, releaseMappedPage needs
+     * to be called after the page was read.
+     *
+     * @param c the chunk
+     * @param pos the page position
+     * @return the buffer, positioned at the start of the page, or null if the
+     *         chunk can not be mapped
+     */
+    private ByteBuffer getMappedPage(Chunk c, long pos) {
+        // count the reader first, so that the file is not truncated while
+        // reading (see shrinkFileIfPossible)
+        mappedReaders.incrementAndGet();
+        ByteBuffer m;
+        synchronized (c) {
+            m = c.mapped;
+            if (m == null && !c.unMapped) {
+                if (c.start > fileSize - c.length) {
+                    // the chunk is not written yet
+                    m = null;
+                } else {
+                    try {
+                        m = file.map(FileChannel.MapMode.READ_ONLY, c.start, c.length);
+                    } catch (UnsupportedOperationException e) {
+                        // for example an encrypted file
+                        mapped = false;
+                        m = null;
+                    } catch (IOException e) {
+                        mappedReaders.decrementAndGet();
+                        throw DataUtils.newIllegalStateException(
+                                "Mapping chunk {0} of file {1} failed", c.id, fileName, e);
+                    }
+                    c.mapped = m;
+                }
+            }
+            if (m == null) {
+                mappedReaders.decrementAndGet();
+                return null;
+            }
+            c.mappedReaders++;
+        }
+        ByteBuffer buff = m.duplicate();
+        buff.position(DataUtils.getPageOffset(pos));
+        return buff;
+    }
+
+    /**
+     * A page of a memory mapped chunk was read. If the chunk is no longer
+     * used and this was the last reader, the mapping is released.
+     *
+     * @param c the chunk
+     */
+    private void releaseMappedPage(Chunk c) {
+        ByteBuffer m = null;
+        synchronized (c) {
+            if (--c.mappedReaders == 0 && c.unMapped) {
+                m = c.mapped;
+                c.mapped = null;
+            }
+        }
+        if (m != null) {
+            FilePathNioMapped.unMap(m);
+        }
+        mappedReaders.decrementAndGet();
+    }
+
+    /**
+     * Release the memory mapping of a chunk that is no longer used, without
+     * waiting until it is garbage collected. The space of the chunk may be
+     * overwritten after that. If a page of the chunk is currently read from
+     * the mapped data, the mapping is released by the last reader; releasing
+     * it now would crash the JVM.
+     *
+     * @param c the chunk
+     */
+    private static void unMap(Chunk c) {
+        ByteBuffer m;
+        synchronized (c) {
+            c.unMapped = true;
+            m = c.mapped;
+            if (m == null || c.mappedReaders > 0) {
+                return;
+            }
+            c.mapped = null;
+        }
+        FilePathNioMapped.unMap(m);
+    }
+
     /**
      * Remove a page.
      *
@@ -1313,6 +1737,9 @@ public class MVStore {
         // if the operation is rolled back,
         // but we don't optimize for rollback
         cache.remove(pos);
+        if (offHeapCache != null) {
+            offHeapCache.remove(pos);
+        }
         Chunk c = getChunk(pos);
         long version = currentVersion;
         if (map == meta && currentStoreVersion >= 0) {
@@ -1373,12 +1800,17 @@ public class MVStore {
         return pageSize;
     }
 
-    Compressor getCompressor() {
-        return compressor;
-    }
-
-    boolean getCompress() {
-        return compress;
+    /**
+     * Get the compressor for the given algorithm.
+     *
+     * @param algorithm the algorithm (Compressor.LZF or Compressor.DEFLATE)
+     * @return the compressor
+     */
+    Compressor getCompressor(int algorithm) {
+        if (algorithm != Compressor.DEFLATE) {
+            return compressorFast;
+        }
+        return compressorHigh;
     }
 
     public boolean getReuseSpace() {
@@ -1509,7 +1941,13 @@ public class MVStore {
             return;
         }
         if (unsavedPageCount > maxUnsavedPages && maxUnsavedPages > 0) {
-            store(true);
+            Writer w = backgroundWriter;
+            if (w != null && unsavedPageCount <= 2 * maxUnsavedPages) {
+                //让后台线程去写，只有后台线程跟不上时才在当前线程中写
+                w.wakeUp();
+            } else {
+                store(true);
+            }
         }
     }
 
@@ -1553,6 +1991,9 @@ public class MVStore {
                 m.close();
             }
             meta.clear();
+            for (Chunk c : chunks.values()) {
+                unMap(c);
+            }
             chunks.clear();
             freeSpaceList.clear();
             maps.clear();
@@ -1585,6 +2026,7 @@ public class MVStore {
                 loadFromFile = true;
                 do {
                     last = chunks.remove(lastChunkId);
+                    unMap(last);
                     freeSpaceList.markFree(last);
                     lastChunkId--;
                 } while (last.version > version && chunks.size() > 0);
@@ -1600,6 +2042,10 @@ public class MVStore {
                 DataUtils.writeFully(file,  fileSize, header);
                 fileSize += BLOCK_SIZE;
                 readFileHeader();
+                // the chunks are read again
+                for (Chunk c : chunks.values()) {
+                    unMap(c);
+                }
                 readMeta();
             }
         }
@@ -1692,6 +2138,17 @@ public class MVStore {
         return fileHeader;
     }
 
+    /**
+     * Increase the file format of the file header, so that older versions
+     * refuse to open the file instead of reading pages they don't understand.
+     * This needs to be called (while storing) before such a page is written;
+     * the new header is written after the chunk.
+     */
+    void increaseFormat() {
+        fileHeader.put("format", "" + FORMAT_WRITE);
+        fileHeader.put("formatRead", "" + FORMAT_READ);
+    }
+
     /**
      * Get the file instance in use, if a file is used. The application may read
      * from the file (for example for online backup), but not write to it or
@@ -1747,15 +2204,22 @@ public class MVStore {
     }
 
     /**
-     * Store all unsaved changes, if there are any that are committed.
+     * Store all unsaved changes, if there are any that are committed and
+     * nothing was changed since the last commit, or if the write buffer is
+     * full.
      */
     void storeInBackground() {
         if (closed || unsavedPageCount == 0) {
             return;
         }
-        // could also store when there are many unsaved pages,
-        // but according to a test it doesn't really help
-        if (lastCommittedVersion >= currentVersion) {
+        // the write buffer is full: store even if nothing was committed
+        // (see beforeWrite)
+        if (unsavedPageCount > maxUnsavedPages && maxUnsavedPages > 0) {
+            store(true);
+            return;
+        }
+        // nothing was committed since the last store
+        if (lastStoredVersion >= lastCommittedVersion) {
             return;
         }
         long time = getTime();
@@ -1763,7 +2227,54 @@ public class MVStore {
         if (time <= lastStoreTime + writeDelay) {
             return;
         }
-        store(true);
+        // if a map was changed after the last commit, wait for the next
+        // commit: the chunk would have a newer version than the last
+        // committed version, which then could no longer be rolled back to
+        // (when closing, or when opening after a crash)
+        if (!hasUncommittedChanges()) {
+            store(false);
+        }
+    }
+
+    /**
+     * Check whether any map was changed after the last commit.
+     *
+     * @return true if there are uncommitted changes
+     */
+    private boolean hasUncommittedChanges() {
+        for (MVMap<?, ?> m : maps.values()) {
+            if (!m.isClosed() && m.getVersion() >= lastCommittedVersion) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compact the file a bit if the fill rate is low (see
+     * autoCompactFillRate). At most one (average sized) chunk is moved, and
+     * this is done at most once within the write delay, and only if there
+     * are not many unsaved changes, so that the background thread keeps up
+     * with the application.
+     */
+    void compactInBackground() {
+        int fillRate = autoCompactFillRate;
+        if (closed || fillRate <= 0 || unsavedPageCount > maxUnsavedPages / 2) {
+            return;
+        }
+        long time = getTime();
+        if (time <= lastCompactTime + writeDelay) {
+            return;
+        }
+        lastCompactTime = time;
+        try {
+            compact(fillRate, true);
+        } catch (IllegalStateException e) {
+            // the store was closed concurrently
+            if (!closed) {
+                throw e;
+            }
+        }
     }
 
     public boolean isReadOnly() {
@@ -1781,6 +2292,7 @@ public class MVStore {
 
         private final MVStore store;
         private final int sleep; //sleep的值只是writeDelay的10分之一
+        private volatile boolean stopped;
 
         Writer(MVStore store, int sleep) {
             this.store = store;
@@ -1789,18 +2301,37 @@ public class MVStore {
 
         @Override
         public void run() {
-            while (!store.closed) {
-                synchronized (store) {
+            while (!store.closed && !stopped) {
+                synchronized (this) {
                     try {
-                        store.wait(sleep);
+                        wait(sleep);
                     } catch (InterruptedException e) {
                         // ignore
                     }
                 }
                 store.storeInBackground();
+                store.compactInBackground();
             }
         }
 
+        /**
+         * Wake up the thread, so that changes are stored now. This method does
+         * not wait for the store to be free.
+         */
+        void wakeUp() {
+            synchronized (this) {
+                notify();
+            }
+        }
+
+        /**
+         * Stop the thread after the current operation.
+         */
+        void stop() {
+            stopped = true;
+            wakeUp();
+        }
+
     }
 
     /**
@@ -1857,6 +2388,20 @@ public class MVStore {
             return set("readOnly", 1);
         }
 
+        /**
+         * Read the file using memory mapped I/O. Each chunk is mapped when a
+         * page of it is first read, and the pages are then read directly from
+         * the mapped memory, without a system call and without allocating a
+         * new buffer. This is mainly useful for stores that are mostly read.
+         * If the file system does not support memory mapped files (for example
+         * for encrypted files), the file is read as usual.
+         *
+         * @return this
+         */
+        public Builder mapped() {
+            return set("mapped", 1);
+        }
+
         /**
          * Set the read cache size in MB. The default is 16 MB.
          *
@@ -1867,6 +2412,25 @@ public class MVStore {
             return set("cacheSize", mb);
         }
 
+        /**
+         * Set the size of the off-heap page cache in MB. The default is 0 (no
+         * off-heap cache). Pages read from the file are also kept in this
+         * cache in serialized form (compressed if they were stored
+         * compressed), outside of the Java heap, so that a large cache does
+         * not increase the heap size and the garbage collection pauses. Pages
+         * that were evicted from the read cache are then read from this cache
+         * instead of from the file.
+         * <p>
+         * The maximum direct memory of the JVM (-XX:MaxDirectMemorySize)
+         * needs to be large enough.
+         *
+         * @param mb the cache size in megabytes
+         * @return this
+         */
+        public Builder offHeapCacheSize(int mb) {
+            return set("offHeapCacheSize", mb);
+        }
+
         /**
          * Compress data before writing using the LZF algorithm. This will save
          * about 50% of the disk space, but will slow down read and write
@@ -1879,7 +2443,35 @@ public class MVStore {
          * @return this
          */
         public Builder compressData() {
-            return set("compress", 1);
+            return set("compress", Compressor.LZF);
+        }
+
+        /**
+         * Compress data before writing using the Deflate algorithm. This will
+         * save more disk space than the LZF algorithm, but will slow down read
+         * and write operations a lot more.
+         * <p>
+         * This setting only affects writes; it is not necessary to enable
+         * compression when reading. Once a chunk is compressed this way, the
+         * file format is increased, and older versions can't open the file.
+         *
+         * @return this
+         */
+        public Builder compressHigh() {
+            return set("compress", Compressor.DEFLATE);
+        }
+
+        /**
+         * Compress the data using the Deflate algorithm when it is re-written
+         * by compacting the file. Live pages in old chunks are rarely changed,
+         * so the slower algorithm is only used for data that is mostly read.
+         * New data is compressed as set by compressData (if at all). As for
+         * compressHigh, the file format is increased when this is first done.
+         *
+         * @return this
+         */
+        public Builder compressColdData() {
+            return set("compressCold", Compressor.DEFLATE);
         }
 
         /**
@@ -1920,6 +2512,46 @@ public class MVStore {
             return set("writeDelay", millis);
         }
 
+        /**
+         * Compact the file in the background thread if the fill rate is below
+         * the given percentage (for file-based stores, if the write delay is
+         * larger than 0). The file is compacted incrementally: at most one
+         * chunk is re-written within the write delay, and only when the
+         * application does not write a lot.
+         * <p>
+         * Only the pages of maps that support concurrent writes (see
+         * MVMapConcurrent) are moved by the background thread. Pages of other
+         * maps are only moved when calling compact.
+         * <p>
+         * The default is 0, meaning the file is not compacted automatically.
+         *
+         * @param percent the minimum fill rate
+         * @return this
+         */
+        public Builder autoCompactFillRate(int percent) {
+            return set("autoCompactFillRate", percent);
+        }
+
+        /**
+         * Write chunks in aligned blocks of the given size, which is friendly
+         * to SSDs. Each chunk is padded to a multiple of the block size and
+         * written with one write operation, including the file header at the
+         * end. New chunks are appended to the file. The space of old chunks
+         * is only re-used once at least half of the file is free, and only
+         * if all blocks fit, so that small gaps are never overwritten. The
+         * padding uses more disk space; a larger write delay
+         * or write buffer (more changes per chunk) reduces the overhead.
+         * <p>
+         * The default is 0, meaning chunks are not aligned.
+         *
+         * @param kb the block size in KB, rounded up to a power of 2 (for
+         *        example 1024 for the erase block size of many SSDs)
+         * @return this
+         */
+        public Builder writeBlockSize(int kb) {
+            return set("writeBlockSize", kb);
+        }
+
         /**
          * Open the store.
          *
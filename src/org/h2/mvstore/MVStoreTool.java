@@ -94,16 +94,23 @@ public class MVStoreTool {
                 while (chunkLength > 0) {
                     chunk.position(p);
                     int pageLength = chunk.getInt();
+                    if (pageLength <= 0) {
+                        // the padding of an aligned chunk
+                        break;
+                    }
                     // check value (ignored)
                     chunk.getShort();
                     long mapId = DataUtils.readVarInt(chunk);
                     int len = DataUtils.readVarInt(chunk);
                     int type = chunk.get();
-                    boolean compressed = (type & 2) != 0;
+                    boolean compressed = (type & DataUtils.PAGE_COMPRESSED) != 0;
+                    boolean high = (type & DataUtils.PAGE_COMPRESSED_HIGH) == DataUtils.PAGE_COMPRESSED_HIGH;
                     boolean node = (type & 1) != 0;
+                    boolean prefix = (type & DataUtils.PAGE_KEY_PREFIX) != 0;
                     pw.println("        map " + mapId + " at " + p + " " +
                             (node ? "node" : "leaf") + " " +
-                            (compressed ? "compressed " : "") +
+                            (high ? "compressed (high) " : compressed ? "compressed " : "") +
+                            (prefix ? "prefix " : "") +
                             "len: " + pageLength + " entries: " + len);
                     p += pageLength;
                     chunkLength -= pageLength;
@@ -11,6 +11,7 @@ import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import org.h2.compress.Compressor;
 import org.h2.mvstore.type.DataType;
+import org.h2.mvstore.type.StringDataType;
 
 /**
  * A page (a node or a leaf).
@@ -37,7 +38,14 @@ public class Page {
 
     private final MVMap<?, ?> map;
     private long version;
-    private long pos;
+    private volatile long pos;
+
+    /**
+     * Whether the page was removed while it was not stored yet. If the page
+     * is stored at the same time (by the background thread), the freed space
+     * is registered after the position is set.
+     */
+    private volatile boolean removedInMemory;
 
     /**
      * The total entry count of this page and all children.
@@ -154,29 +162,32 @@ public class Page {
     }
 
     /**
-     * Read a page.
+     * Read the serialized data of a page.
      *
      * @param file the file
-     * @param map the map
      * @param pos the page position
      * @param filePos the position in the file
      * @param fileSize the file size (to avoid reading past EOF)
-     * @return the page
+     * @return the buffer, positioned at the start of the page
      */
-    static Page read(FileChannel file, MVMap<?, ?> map,
-            long pos, long filePos, long fileSize) {
-        ByteBuffer buff;
-        int maxLength = DataUtils.getPageMaxLength(pos);
-        maxLength = (int) Math.min(fileSize - filePos, maxLength);
-        int length = maxLength;
-        if (maxLength == Integer.MAX_VALUE) {
-            buff = ByteBuffer.allocate(128);
-            DataUtils.readFully(file, filePos, buff);
-            maxLength = buff.getInt();
-            //read the first bytes again
-        }
-        buff = ByteBuffer.allocate(length);
+    static ByteBuffer readBuffer(FileChannel file, long pos, long filePos, long fileSize) {
+        int length = DataUtils.getPageMaxLength(pos);
+        length = (int) Math.min(fileSize - filePos, length);
+        ByteBuffer buff = ByteBuffer.allocate(length);
         DataUtils.readFully(file, filePos, buff);
+        return buff;
+    }
+
+    /**
+     * Read a page.
+     *
+     * @param buff the serialized data of the page
+     * @param map the map
+     * @param pos the page position
+     * @return the page
+     */
+    static Page read(ByteBuffer buff, MVMap<?, ?> map, long pos) {
+        int maxLength = Math.min(buff.remaining(), DataUtils.getPageMaxLength(pos));
         Page p = new Page(map, 0);
         p.pos = pos;
         int chunkId = DataUtils.getPageChunkId(pos);
@@ -274,7 +285,7 @@ public class Page {
      * @return a page with the given version
      */
     public Page copy(long version) {
-        map.removePage(pos);
+        removePage();
         Page newPage = create(map, version,
                 keyCount, keys, values, children, childrenPages,
                 counts, totalCount,
@@ -552,7 +563,18 @@ public class Page {
                 }
             }
         }
-        map.removePage(pos);
+        removePage();
+    }
+
+    /**
+     * Remove this page (it is no longer used in the newest version).
+     */
+    private void removePage() {
+        long p = pos;
+        if (p == 0) {
+            removedInMemory = true;
+        }
+        map.removePage(p);
     }
 
     /**
@@ -720,7 +742,11 @@ public class Page {
         boolean node = (type & 1) == DataUtils.PAGE_TYPE_NODE;
         boolean compressed = (type & DataUtils.PAGE_COMPRESSED) != 0;
         if (compressed) {
-            Compressor compressor = map.getStore().getCompressor();
+            // the algorithm is stored in the page, so that pages can be read
+            // before the chunk metadata is known
+            boolean high = (type & DataUtils.PAGE_COMPRESSED_HIGH) == DataUtils.PAGE_COMPRESSED_HIGH;
+            Compressor compressor = map.getStore().getCompressor(
+                    high ? Compressor.DEFLATE : Compressor.LZF);
             int lenAdd = DataUtils.readVarInt(buff);
             int compLen = pageLength + start - buff.position();
             byte[] comp = DataUtils.newBytes(compLen);
@@ -730,9 +756,16 @@ public class Page {
             compressor.expand(comp, 0, compLen, buff.array(), 0, l);
         }
         DataType keyType = map.getKeyType();
-        for (int i = 0; i < len; i++) {
-            Object k = keyType.read(buff);
-            keys[i] = k;
+        if ((type & DataUtils.PAGE_KEY_PREFIX) != 0) {
+            String prefix = StringDataType.INSTANCE.read(buff);
+            for (int i = 0; i < len; i++) {
+                keys[i] = prefix + keyType.read(buff);
+            }
+        } else {
+            for (int i = 0; i < len; i++) {
+                Object k = keyType.read(buff);
+                keys[i] = k;
+            }
         }
         if (node) {
             children = new long[len + 1];
@@ -760,6 +793,30 @@ public class Page {
         memory = calculateMemory();
     }
 
+    /**
+     * Get the common prefix of all keys, if the keys are strings and there are
+     * at least two keys.
+     *
+     * @return the prefix, or null if there is none
+     */
+    private String getKeyPrefix() {
+        if (keyCount < 2 || !(map.getKeyType() instanceof StringDataType)) {
+            return null;
+        }
+        String first = keys[0].toString();
+        int len = first.length();
+        for (int i = 1; i < keyCount && len > 0; i++) {
+            String k = keys[i].toString();
+            int max = Math.min(len, k.length());
+            int j = 0;
+            while (j < max && first.charAt(j) == k.charAt(j)) {
+                j++;
+            }
+            len = j;
+        }
+        return len == 0 ? null : first.substring(0, len);
+    }
+
     /**
      * Store the page and update the position.
      *
@@ -777,11 +834,26 @@ public class Page {
         DataUtils.writeVarInt(buff, len);
         int type = children != null ? DataUtils.PAGE_TYPE_NODE
                 : DataUtils.PAGE_TYPE_LEAF;
-        buff.put((byte) type);
+        String prefix = getKeyPrefix();
+        int typeFlags = type;
+        if (prefix != null) {
+            //旧版本不认识这个标记，会把去掉前缀的key当成完整的key来读
+            map.getStore().increaseFormat();
+            typeFlags |= DataUtils.PAGE_KEY_PREFIX;
+        }
+        buff.put((byte) typeFlags);
         int compressStart = buff.position();
         DataType keyType = map.getKeyType();
-        for (int i = 0; i < len; i++) {
-            buff = keyType.write(buff, keys[i]);
+        if (prefix != null) {
+            buff = StringDataType.INSTANCE.write(buff, prefix);
+            int prefixLen = prefix.length();
+            for (int i = 0; i < len; i++) {
+                buff = keyType.write(buff, keys[i].toString().substring(prefixLen));
+            }
+        } else {
+            for (int i = 0; i < len; i++) {
+                buff = keyType.write(buff, keys[i]);
+            }
         }
         if (type == DataUtils.PAGE_TYPE_NODE) {
             for (int i = 0; i <= len; i++) {
@@ -796,8 +868,8 @@ public class Page {
                 buff = valueType.write(buff, values[i]);
             }
         }
-        if (map.getStore().getCompress()) {
-            Compressor compressor = map.getStore().getCompressor();
+        if (chunk.compressor != Compressor.NO) {
+            Compressor compressor = map.getStore().getCompressor(chunk.compressor);
             int expLen = buff.position() - compressStart;
             byte[] exp = new byte[expLen];
             buff.position(compressStart);
@@ -806,7 +878,9 @@ public class Page {
             int compLen = compressor.compress(exp, exp.length, comp, 0);
             if (compLen + DataUtils.getVarIntLen(compLen - expLen) < expLen) {
                 buff.position(compressStart - 1);
-                buff.put((byte) (type + DataUtils.PAGE_COMPRESSED));
+                int compressType = chunk.compressor == Compressor.DEFLATE ?
+                        DataUtils.PAGE_COMPRESSED_HIGH : DataUtils.PAGE_COMPRESSED;
+                buff.put((byte) (typeFlags + compressType));
                 DataUtils.writeVarInt(buff, expLen - compLen);
                 buff.put(comp, 0, compLen);
             }
@@ -827,6 +901,11 @@ public class Page {
         chunk.maxLengthLive += max;
         chunk.pageCount++;
         chunk.pageCountLive++;
+        if (removedInMemory) {
+            // the page was removed before the position was set, so the
+            // freed space could not be registered then
+            map.removePage(pos);
+        }
         return buff;
     }
 
@@ -866,9 +945,12 @@ public class Page {
                 Page p = childrenPages[i];
                 if (p != null) {
                     p.writeEnd();
-                    childrenPages[i] = null;
                 }
             }
+            // the array may be shared with a copy of this page that is changed
+            // by another thread at the same time (see copy), so it is
+            // replaced instead of cleared
+            childrenPages = new Page[len];
         }
     }
 
@@ -103,7 +103,7 @@ public class CacheLongKeyLIRS<V> {
         long max = Math.max(1, maxMemory / segmentCount);
         for (int i = 0; i < segmentCount; i++) {
             segments[i] = new Segment<V>(
-                    max, averageMemory, stackMoveDistance);
+                    this, max, averageMemory, stackMoveDistance);
         }
     }
 
@@ -173,6 +173,19 @@ public class CacheLongKeyLIRS<V> {
         return averageMemory;
     }
 
+    /**
+     * This method is called when a resident entry is evicted because the cache
+     * is full (the key may stay in the cache as a non-resident entry). It is
+     * not called when an entry is removed or replaced, or when the cache is
+     * cleared. The default implementation does nothing.
+     *
+     * @param key the key
+     * @param value the value that is no longer cached
+     */
+    protected void onEvict(long key, V value) {
+        // nothing to do
+    }
+
     /**
      * Remove an entry. Both resident and non-resident entries can be
      * removed.
@@ -464,6 +477,11 @@ public class CacheLongKeyLIRS<V> {
      */
     private static class Segment<V> {
 
+        /**
+         * The cache this segment belongs to.
+         */
+        private final CacheLongKeyLIRS<V> cache;
+
         /**
          * The number of (hot, cold, and non-resident) entries in the map.
          */
@@ -540,12 +558,14 @@ public class CacheLongKeyLIRS<V> {
         /**
          * Create a new cache.
          *
+         * @param cache the cache this segment belongs to
          * @param maxMemory the maximum memory to use
          * @param averageMemory the average memory usage of an object
          * @param stackMoveDistance the number of other entries to be moved to
          *        the top of the stack before moving an entry to the top
          */
-        Segment(long maxMemory, int averageMemory, int stackMoveDistance) {
+        Segment(CacheLongKeyLIRS<V> cache, long maxMemory, int averageMemory, int stackMoveDistance) {
+            this.cache = cache;
             setMaxMemory(maxMemory);
             setAverageMemory(averageMemory);
             this.stackMoveDistance = stackMoveDistance;
@@ -792,6 +812,7 @@ public class CacheLongKeyLIRS<V> {
                 Entry<V> e = queue.queuePrev;
                 usedMemory -= e.memory;
                 removeFromQueue(e);
+                cache.onEvict(e.key, e.value);
                 e.value = null;
                 e.memory = 0;
                 addToQueue(queue2, e);
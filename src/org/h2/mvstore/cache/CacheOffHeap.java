@@ -0,0 +1,320 @@
+/*
+ * Copyright 2004-2013 H2 Group. Multiple-Licensed under the H2 License,
+ * Version 1.0, and under the Eclipse Public License, Version 1.0
+ * (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.cache;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.h2.mvstore.DataUtils;
+
+/**
+ * A cache for serialized data (for example file content) that keeps the data
+ * outside of the Java heap, in direct byte buffers. Unlike a cache of
+ * deserialized objects, a large cache of this type does not increase the
+ * garbage collection pauses.
+ * <p>
+ * The memory is allocated in slabs of 64 MB when needed, and each slab is
+ * split into blocks of 1 KB. An entry uses as many blocks as needed, and the
+ * blocks of an entry don't need to be adjacent, so that the memory does not
+ * get fragmented. Which entries are kept is decided by a LIRS cache of the
+ * block lists (see CacheLongKeyLIRS), where the memory of an entry is the size
+ * of its blocks.
+ * <p>
+ * This implementation is multi-threading safe. Reading an entry returns a copy
+ * of the data. Closing the cache replaces the slab array; each entry keeps a
+ * reference to the slab array its blocks were allocated from, so that a
+ * concurrent read or write of an entry never sees a released slab.
+ */
+public class CacheOffHeap {
+
+    private static final int BLOCK_SHIFT = 10;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int SLAB_SHIFT = 16;
+    private static final int BLOCKS_PER_SLAB = 1 << SLAB_SHIFT;
+
+    private final long maxMemory;
+    private final int maxBlocks;
+
+    /**
+     * The maximum number of blocks of one entry. Larger entries are not cached.
+     */
+    private final int maxEntryBlocks;
+
+    private final CacheLongKeyLIRS<Slot> index;
+
+    /**
+     * The slabs of the current generation (replaced on close).
+     */
+    private ByteBuffer[] slabs;
+
+    /**
+     * The stack of free blocks.
+     */
+    private int[] freeBlocks = new int[1024];
+    private int freeCount;
+
+    /**
+     * The next block that was never used.
+     */
+    private int nextBlock;
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxMemory the maximum memory to use, in bytes
+     * @param averageMemory the average size of an entry
+     */
+    public CacheOffHeap(long maxMemory, int averageMemory) {
+        DataUtils.checkArgument(
+                maxMemory >= 16 * BLOCK_SIZE && (maxMemory >> BLOCK_SHIFT) <= Integer.MAX_VALUE,
+                "Unsupported off-heap cache size: {0}", maxMemory);
+        this.maxMemory = maxMemory;
+        maxBlocks = (int) (maxMemory >> BLOCK_SHIFT);
+        slabs = new ByteBuffer[(maxBlocks + BLOCKS_PER_SLAB - 1) >>> SLAB_SHIFT];
+        // the LIRS cache may use a bit more than the configured memory (at
+        // least one cold entry per segment), so some blocks are kept in
+        // reserve; if there are no free blocks, the entry is not cached
+        int reserve = maxBlocks / 16;
+        int segmentCount = 16;
+        maxEntryBlocks = Math.max(1, reserve / segmentCount);
+        long indexMemory = (long) (maxBlocks - reserve) << BLOCK_SHIFT;
+        averageMemory = Math.max(averageMemory, BLOCK_SIZE);
+        int stackMoveDistance = (int) Math.min(Integer.MAX_VALUE, indexMemory / averageMemory * 2 / 100);
+        index = new CacheLongKeyLIRS<Slot>(indexMemory, averageMemory, segmentCount, stackMoveDistance) {
+
+            @Override
+            protected void onEvict(long key, Slot value) {
+                free(value);
+            }
+
+        };
+    }
+
+    /**
+     * Get a copy of the data for the given key, if the entry is cached.
+     *
+     * @param key the key
+     * @return a heap buffer with the data (position 0), or null if the entry
+     *         is not cached
+     */
+    public ByteBuffer get(long key) {
+        Slot s = index.get(key);
+        if (s == null) {
+            return null;
+        }
+        byte[] data = new byte[s.length];
+        synchronized (s) {
+            if (s.freed) {
+                // evicted concurrently, the blocks may already be re-used
+                return null;
+            }
+            for (int i = 0, pos = 0; pos < data.length; i++) {
+                int len = Math.min(BLOCK_SIZE, data.length - pos);
+                getBlock(s.slabs, s.blocks[i]).get(data, pos, len);
+                pos += len;
+            }
+        }
+        return ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Add an entry to the cache. The remaining bytes of the buffer are copied;
+     * the position of the buffer is not changed. If there is not enough free
+     * memory, or if the entry is too large, it is not cached.
+     *
+     * @param key the key
+     * @param src the data
+     */
+    public void put(long key, ByteBuffer src) {
+        int length = src.remaining();
+        int count = (length + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+        if (count == 0 || count > maxEntryBlocks) {
+            return;
+        }
+        Slot s = allocate(length, count);
+        if (s == null) {
+            return;
+        }
+        ByteBuffer in = src.duplicate();
+        int end = in.limit();
+        // the data is written while synchronized on the slot, so that a
+        // reader that synchronizes on the slot sees it
+        synchronized (s) {
+            for (int b : s.blocks) {
+                in.limit(Math.min(end, in.position() + BLOCK_SIZE));
+                getBlock(s.slabs, b).put(in);
+            }
+        }
+        Slot old = index.put(key, s, count << BLOCK_SHIFT);
+        if (old != null) {
+            free(old);
+        }
+    }
+
+    /**
+     * Remove an entry.
+     *
+     * @param key the key
+     */
+    public void remove(long key) {
+        Slot old = index.remove(key);
+        if (old != null) {
+            free(old);
+        }
+    }
+
+    /**
+     * Remove all entries. The allocated memory is kept. This method should not
+     * be called concurrently with put.
+     */
+    public void clear() {
+        List<Slot> list = index.values();
+        index.clear();
+        for (Slot s : list) {
+            free(s);
+        }
+    }
+
+    /**
+     * Remove all entries and release the allocated memory. The cache may
+     * still be used afterwards. The slabs are not cleared but replaced: an
+     * entry that is read or added concurrently still uses the old slabs, which
+     * are released when the last such entry is no longer referenced.
+     */
+    public void close() {
+        synchronized (this) {
+            slabs = new ByteBuffer[slabs.length];
+            freeCount = 0;
+            nextBlock = 0;
+        }
+        index.clear();
+    }
+
+    /**
+     * Get the memory used by the cached entries.
+     *
+     * @return the used memory, in bytes
+     */
+    public long getUsedMemory() {
+        return index.getUsedMemory();
+    }
+
+    /**
+     * Get the maximum memory to use.
+     *
+     * @return the maximum memory, in bytes
+     */
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * Get the number of cached entries.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return index.size();
+    }
+
+    private static ByteBuffer getBlock(ByteBuffer[] slabs, int block) {
+        ByteBuffer buff = slabs[block >>> SLAB_SHIFT].duplicate();
+        int pos = (block & (BLOCKS_PER_SLAB - 1)) << BLOCK_SHIFT;
+        buff.limit(pos + BLOCK_SIZE);
+        buff.position(pos);
+        return buff;
+    }
+
+    private synchronized Slot allocate(int length, int count) {
+        int[] blocks = new int[count];
+        for (int i = 0; i < count; i++) {
+            int b;
+            if (freeCount > 0) {
+                b = freeBlocks[--freeCount];
+            } else if (nextBlock < maxBlocks) {
+                b = nextBlock++;
+                int slab = b >>> SLAB_SHIFT;
+                if (slabs[slab] == null) {
+                    int len = Math.min(BLOCKS_PER_SLAB, maxBlocks - (slab << SLAB_SHIFT));
+                    slabs[slab] = ByteBuffer.allocateDirect(len << BLOCK_SHIFT);
+                }
+            } else {
+                for (int j = 0; j < i; j++) {
+                    addFreeBlock(blocks[j]);
+                }
+                return null;
+            }
+            blocks[i] = b;
+        }
+        return new Slot(length, slabs, blocks);
+    }
+
+    /**
+     * Free the blocks of an entry that was evicted, removed, or replaced.
+     *
+     * @param s the slot
+     */
+    void free(Slot s) {
+        synchronized (s) {
+            if (s.freed) {
+                return;
+            }
+            s.freed = true;
+        }
+        synchronized (this) {
+            if (s.slabs != slabs) {
+                // allocated before the cache was closed
+                return;
+            }
+            for (int b : s.blocks) {
+                addFreeBlock(b);
+            }
+        }
+    }
+
+    private void addFreeBlock(int block) {
+        if (freeCount == freeBlocks.length) {
+            int[] f = new int[freeBlocks.length * 2];
+            System.arraycopy(freeBlocks, 0, f, 0, freeCount);
+            freeBlocks = f;
+        }
+        freeBlocks[freeCount++] = block;
+    }
+
+    /**
+     * The blocks of an entry.
+     */
+    static class Slot {
+
+        /**
+         * The length of the data.
+         */
+        final int length;
+
+        /**
+         * The slabs the blocks were allocated from.
+         */
+        final ByteBuffer[] slabs;
+
+        /**
+         * The blocks, in the order of the data.
+         */
+        final int[] blocks;
+
+        /**
+         * Whether the blocks were freed (and may be re-used).
+         */
+        boolean freed;
+
+        Slot(int length, ByteBuffer[] slabs, int[] blocks) {
+            this.length = length;
+            this.slabs = slabs;
+            this.blocks = blocks;
+        }
+
+    }
+
+}
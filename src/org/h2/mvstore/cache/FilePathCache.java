@@ -8,6 +8,7 @@ package org.h2.mvstore.cache;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import org.h2.store.fs.FileBase;
@@ -125,6 +126,11 @@ public class FilePathCache extends FilePathWrapper {
             return base.tryLock(position, size, shared);
         }
 
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            // reading the mapped data bypasses the cache
+            return base.map(mode, position, size);
+        }
+
         public String toString() {
             return "cache:" + base.toString();
         }
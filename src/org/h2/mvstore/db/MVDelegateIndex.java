@@ -16,6 +16,7 @@ import org.h2.result.SearchRow;
 import org.h2.result.SortOrder;
 import org.h2.table.Column;
 import org.h2.table.IndexColumn;
+import org.h2.table.TableFilter;
 
 /**
  * An index that delegates indexing to another index.
@@ -73,8 +74,8 @@ public class MVDelegateIndex extends BaseIndex {
     }
 
     //跟MVSecondaryIndex的一样，因为本身就相当于一个primary key的MVSecondaryIndex
-    public double getCost(Session session, int[] masks, SortOrder sortOrder) {
-        return 10 * getCostRangeIndex(masks, mainIndex.getRowCount(session), sortOrder);
+    public double getCost(Session session, int[] masks, TableFilter filter, SortOrder sortOrder) {
+        return 10 * getCostRangeIndex(masks, mainIndex.getRowCount(session), filter, sortOrder);
     }
 
     public boolean needRebuild() {
@@ -6,9 +6,12 @@
  */
 package org.h2.mvstore.db;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.Map;
 import org.h2.constant.ErrorCode;
 import org.h2.engine.Constants;
 import org.h2.engine.Database;
@@ -25,6 +28,8 @@ import org.h2.result.SearchRow;
 import org.h2.result.SortOrder;
 import org.h2.table.Column;
 import org.h2.table.IndexColumn;
+import org.h2.table.TableFilter;
+import org.h2.util.New;
 import org.h2.value.Value;
 import org.h2.value.ValueArray;
 import org.h2.value.ValueLong;
@@ -46,6 +51,18 @@ public class MVPrimaryIndex extends BaseIndex {
     private long lastKey;
     private int mainIndexColumn = -1;
 
+    /**
+     * Whether sorted insert mode is enabled.
+     */
+    private boolean sortedInsertMode;
+
+    /**
+     * The rows that were added in sorted insert mode, but are not in the map
+     * yet. The rows are sorted by key, and the keys are larger than the keys
+     * in the map.
+     */
+    private final ArrayList<Row> sortedRows = New.arrayList();
+
     public MVPrimaryIndex(Database db, MVTable table, int id, IndexColumn[] columns,
                 IndexType indexType) {
         this.mvTable = table;
@@ -130,6 +147,9 @@ public class MVPrimaryIndex extends BaseIndex {
             }
         }
         
+        if (sortedInsertMode && !session.isUndoLogEnabled() && addSorted(row)) {
+            return;
+        }
         TransactionMap<Value, Value> map = getMap(session);
         Value key = ValueLong.get(row.getKey());
         Value old = map.getLatest(key);
@@ -146,6 +166,52 @@ public class MVPrimaryIndex extends BaseIndex {
         lastKey = Math.max(lastKey, row.getKey());
     }
 
+    /**
+     * Add a row to the list of sorted rows, if the key of the row is larger
+     * than all other keys. Such rows are appended to the map in bulk, without
+     * undo log entries (the undo log is disabled, so the rows don't need to
+     * be rolled back). Otherwise the list is added to the map first.
+     *
+     * @param row the row
+     * @return true if the row was added to the list
+     */
+    private boolean addSorted(Row row) {
+        long key = row.getKey();
+        int size = sortedRows.size();
+        if (size > 0 ? key <= sortedRows.get(size - 1).getKey() :
+                dataMap.map.getSize() > 0 && key <= dataMap.map.lastKey().getLong()) {
+            flushSortedRows();
+            return false;
+        }
+        sortedRows.add(row);
+        lastKey = Math.max(lastKey, key);
+        if (sortedRows.size() >= Constants.DEFAULT_MAX_MEMORY_ROWS) {
+            flushSortedRows();
+        }
+        return true;
+    }
+
+    private void flushSortedRows() {
+        if (sortedRows.size() == 0) {
+            return;
+        }
+        ArrayList<Map.Entry<Value, Value>> list = New.arrayList(sortedRows.size());
+        for (Row r : sortedRows) {
+            list.add(new AbstractMap.SimpleImmutableEntry<Value, Value>(
+                    ValueLong.get(r.getKey()), ValueArray.get(r.getValueList())));
+        }
+        sortedRows.clear();
+        dataMap.bulkAppend(list.iterator(), MVTable.BULK_FILL_RATE);
+    }
+
+    @Override
+    public void setSortedInsertMode(boolean sortedInsertMode) {
+        this.sortedInsertMode = sortedInsertMode;
+        if (!sortedInsertMode) {
+            flushSortedRows();
+        }
+    }
+
     @Override
     public void remove(Session session, Row row) {
         if (mvTable.getContainsLargeObject()) {
@@ -212,7 +278,7 @@ public class MVPrimaryIndex extends BaseIndex {
     }
 
     @Override
-    public double getCost(Session session, int[] masks, SortOrder sortOrder) { //相当于全表扫描，所以代价很大
+    public double getCost(Session session, int[] masks, TableFilter filter, SortOrder sortOrder) { //相当于全表扫描，所以代价很大
         long cost = 10 * (dataMap.map.getSize() + Constants.COST_ROW_OFFSET);
         return cost;
     }
@@ -339,6 +405,8 @@ public class MVPrimaryIndex extends BaseIndex {
         if (session == null) {
             return dataMap;
         }
+        // the rows added in sorted insert mode need to be visible
+        flushSortedRows();
         Transaction t = mvTable.getTransaction(session); //会使用Session中的Transaction对象
         long savepoint = session.getStatementSavepoint();
         return dataMap.getInstance(t, savepoint); //会得到一个dataMap在savepoint时的Map，但是并不会对dataMap进行复制
@@ -6,9 +6,14 @@
  */
 package org.h2.mvstore.db;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import org.h2.constant.ErrorCode;
 import org.h2.engine.Database;
 import org.h2.engine.Session;
@@ -24,6 +29,7 @@ import org.h2.result.SearchRow;
 import org.h2.result.SortOrder;
 import org.h2.table.Column;
 import org.h2.table.IndexColumn;
+import org.h2.table.TableFilter;
 import org.h2.util.New;
 import org.h2.value.Value;
 import org.h2.value.ValueArray;
@@ -35,6 +41,11 @@ import org.h2.value.ValueNull;
  */
 public class MVSecondaryIndex extends BaseIndex {
 
+    /**
+     * The name prefix of the temporary maps that are used to create an index.
+     */
+    static final String TEMP_MAP_PREFIX = "temp.";
+
     /**
      * The multi-value table.
      */
@@ -42,6 +53,7 @@ public class MVSecondaryIndex extends BaseIndex {
 
     private final int keyColumns;
     private String mapName;
+    private final ValueDataType keyType;
     private TransactionMap<Value, Value> dataMap;
 
     public MVSecondaryIndex(Database db, MVTable table, int id, String indexName,
@@ -61,7 +73,7 @@ public class MVSecondaryIndex extends BaseIndex {
         sortTypes[keyColumns - 1] = SortOrder.ASCENDING;
         mapName = getName() + "_" + getId();
         //keyType和valueType与MVPrimaryIndex刚好相反，MVPrimaryIndex的keyType是new ValueDataType(null, null, null)
-        ValueDataType keyType = new ValueDataType(
+        keyType = new ValueDataType(
                 db.getCompareMode(), db, sortTypes);
         ValueDataType valueType = new ValueDataType(null, null, null);
         MVMap.Builder<Value, Value> mapBuilder = new MVMap.Builder<Value, Value>().
@@ -114,6 +126,121 @@ public class MVSecondaryIndex extends BaseIndex {
         map.put(array, ValueLong.get(0)); //值都是0
     }
 
+    /**
+     * Get the name of a temporary map to sort the rows when creating the
+     * index.
+     *
+     * @param i the number of the map
+     * @return the map name
+     */
+    String getBufferName(int i) {
+        return TEMP_MAP_PREFIX + mapName + "." + i;
+    }
+
+    /**
+     * Add the rows to a temporary map, sorted by index key. The temporary maps
+     * are merged into the index afterwards (see addBufferedRows).
+     *
+     * @param rows the rows
+     * @param bufferName the name of the temporary map
+     */
+    void addRowsToBuffer(List<Row> rows, String bufferName) {
+        ArrayList<Map.Entry<Value, Value>> list = New.arrayList(rows.size());
+        for (Value key : getSortedKeys(rows)) {
+            list.add(new AbstractMap.SimpleImmutableEntry<Value, Value>(key, ValueLong.get(0)));
+        }
+        openBuffer(bufferName).bulkAppend(list.iterator(), 100);
+    }
+
+    /**
+     * Add the rows of the temporary maps and the given rows to the (empty)
+     * index. The sorted rows of all sources are merged, so that the pages of
+     * the index are built bottom-up (see MVMap.bulkAppend).
+     *
+     * @param rows the remaining rows (not in a temporary map)
+     * @param bufferNames the names of the temporary maps
+     */
+    void addBufferedRows(List<Row> rows, List<String> bufferNames) {
+        Comparator<Source> comp = new Comparator<Source>() {
+            public int compare(Source a, Source b) {
+                return keyType.compare(a.current, b.current);
+            }
+        };
+        final PriorityQueue<Source> queue = new PriorityQueue<Source>(bufferNames.size() + 1, comp);
+        for (String n : bufferNames) {
+            Source s = new Source(openBuffer(n).keyIterator(null));
+            if (s.next()) {
+                queue.add(s);
+            }
+        }
+        Source s = new Source(getSortedKeys(rows).iterator());
+        if (s.next()) {
+            queue.add(s);
+        }
+        Iterator<Map.Entry<Value, Value>> it = new Iterator<Map.Entry<Value, Value>>() {
+
+            private ValueArray previous;
+
+            public boolean hasNext() {
+                return queue.size() > 0;
+            }
+
+            public Map.Entry<Value, Value> next() {
+                Source s = queue.poll();
+                ValueArray key = (ValueArray) s.current;
+                if (s.next()) {
+                    queue.add(s);
+                }
+                if (indexType.isUnique() && previous != null) {
+                    SearchRow r = getRow(key.getList());
+                    if (compareRows(getRow(previous.getList()), r) == 0 &&
+                            !containsNullAndAllowMultipleNull(r)) {
+                        throw getDuplicateKeyException();
+                    }
+                }
+                previous = key;
+                return new AbstractMap.SimpleImmutableEntry<Value, Value>(key, ValueLong.get(0));
+            }
+
+            public void remove() {
+                throw DbException.getUnsupportedException("remove");
+            }
+
+        };
+        dataMap.bulkAppend(it, MVTable.BULK_FILL_RATE);
+    }
+
+    /**
+     * Remove the temporary maps.
+     *
+     * @param bufferNames the names of the temporary maps
+     */
+    void removeBuffers(List<String> bufferNames) {
+        for (String n : bufferNames) {
+            openBuffer(n).removeMap();
+        }
+    }
+
+    private MVMap<Value, Value> openBuffer(String bufferName) {
+        MVMap.Builder<Value, Value> builder = new MVMap.Builder<Value, Value>().
+                keyType(keyType).
+                valueType(new ValueDataType(null, null, null));
+        return dataMap.map.getStore().openMap(bufferName, builder);
+    }
+
+    private ArrayList<Value> getSortedKeys(List<Row> rows) {
+        ArrayList<Value> keys = New.arrayList(rows.size());
+        for (Row row : rows) {
+            keys.add(getKey(row));
+        }
+        Collections.sort(keys, new Comparator<Value>() {
+            public int compare(Value a, Value b) {
+                return keyType.compare(a, b);
+            }
+        });
+        return keys;
+    }
+
     @Override
     public void remove(Session session, Row row) {
         ValueArray array = getKey(row); //把所有索引列和行key组合成map的key
@@ -176,8 +303,8 @@ public class MVSecondaryIndex extends BaseIndex {
     }
 
     @Override
-    public double getCost(Session session, int[] masks, SortOrder sortOrder) {
-        return 10 * getCostRangeIndex(masks, dataMap.map.getSize(), sortOrder);
+    public double getCost(Session session, int[] masks, TableFilter filter, SortOrder sortOrder) {
+        return 10 * getCostRangeIndex(masks, dataMap.map.getSize(), filter, sortOrder);
     }
 
     @Override
@@ -263,6 +390,37 @@ public class MVSecondaryIndex extends BaseIndex {
         return dataMap.getInstance(t, savepoint);
     }
 
+    /**
+     * A sorted source of index keys, used to create the index.
+     */
+    private static class Source {
+
+        private final Iterator<Value> it;
+
+        /**
+         * The current key.
+         */
+        Value current;
+
+        Source(Iterator<Value> it) {
+            this.it = it;
+        }
+
+        /**
+         * Move to the next key.
+         *
+         * @return false if there are no more keys
+         */
+        boolean next() {
+            if (it.hasNext()) {
+                current = it.next();
+                return true;
+            }
+            return false;
+        }
+
+    }
+
     /**
      * A cursor.
      */
@@ -12,7 +12,6 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Set;
 
-import org.h2.api.DatabaseEventListener;
 import org.h2.command.ddl.Analyze;
 import org.h2.command.ddl.CreateTableData;
 import org.h2.constant.ErrorCode;
@@ -22,7 +21,6 @@ import org.h2.constraint.ConstraintReferential;
 import org.h2.engine.Constants;
 import org.h2.engine.DbObject;
 import org.h2.engine.Session;
-import org.h2.index.Cursor;
 import org.h2.index.Index;
 import org.h2.index.IndexType;
 import org.h2.index.MultiVersionIndex;
@@ -37,7 +35,6 @@ import org.h2.table.IndexColumn;
 import org.h2.table.RegularTable;
 import org.h2.table.Table;
 import org.h2.table.TableBase;
-import org.h2.util.MathUtils;
 import org.h2.util.New;
 import org.h2.value.DataType;
 import org.h2.value.Value;
@@ -47,6 +44,11 @@ import org.h2.value.Value;
  */
 public class MVTable extends TableBase {
 
+    /**
+     * How much of the page size to use (in percent) when adding rows in bulk.
+     */
+    static final int BULK_FILL_RATE = 90;
+
     private final String storeName;
     private final TransactionStore store;
     private MVPrimaryIndex primaryIndex;
@@ -158,7 +160,8 @@ public class MVTable extends TableBase {
                 }
             } else {
                 if (lockExclusive == null) {
-                    if (lockMode == Constants.LOCK_MODE_READ_COMMITTED) {
+                    if (lockMode == Constants.LOCK_MODE_READ_COMMITTED
+                            || lockMode == Constants.LOCK_MODE_ROW) {
                         if (!database.isMultiThreaded() && !database.isMultiVersion()) {
                             // READ_COMMITTED: a read lock is acquired,
                             // but released immediately after the operation
@@ -401,28 +404,10 @@ public class MVTable extends TableBase {
         }
         if (index.needRebuild() && rowCount > 0) {
             try {
-                Index scan = getScanIndex(session);
-                long remaining = scan.getRowCount(session);
-                long total = remaining;
-                Cursor cursor = scan.find(session, null, null);
-                long i = 0;
-                int bufferSize = (int) Math.min(rowCount, Constants.DEFAULT_MAX_MEMORY_ROWS);
-                ArrayList<Row> buffer = New.arrayList(bufferSize);
-                String n = getName() + ":" + index.getName();
-                int t = MathUtils.convertLongToInt(total);
-                while (cursor.next()) {
-                    database.setProgress(DatabaseEventListener.STATE_CREATE_INDEX, n,
-                            MathUtils.convertLongToInt(i++), t);
-                    Row row = cursor.get();
-                    buffer.add(row);
-                    if (buffer.size() >= bufferSize) {
-                        addRowsToIndex(session, buffer, index);
-                    }
-                    remaining--;
-                }
-                addRowsToIndex(session, buffer, index);
-                if (SysProperties.CHECK && remaining != 0) {
-                    DbException.throwInternalError("rowcount remaining=" + remaining + " " + getName());
+                if (index instanceof MVSecondaryIndex) {
+                    rebuildIndexBuffered(session, (MVSecondaryIndex) index);
+                } else {
+                    rebuildIndex(session, index);
                 }
             } catch (DbException e) {
                 getSchema().freeUniqueName(indexName);
@@ -452,6 +437,39 @@ public class MVTable extends TableBase {
         return index;
     }
 
+    private void rebuildIndex(final Session session, final Index index) {
+        ArrayList<Row> last = scanRows(session, index, new RowBatchSink() {
+            public void addRows(ArrayList<Row> rows) {
+                addRowsToIndex(session, rows, index);
+            }
+        });
+        addRowsToIndex(session, last, index);
+    }
+
+    /**
+     * Build a new index from sorted runs: each block of rows is sorted and
+     * stored in a temporary map, and the temporary maps are then merged into
+     * the index, which is built bottom-up.
+     *
+     * @param session the session
+     * @param index the new index
+     */
+    private void rebuildIndexBuffered(Session session, final MVSecondaryIndex index) {
+        final ArrayList<String> bufferNames = New.arrayList();
+        try {
+            ArrayList<Row> last = scanRows(session, index, new RowBatchSink() {
+                public void addRows(ArrayList<Row> rows) {
+                    String bufferName = index.getBufferName(bufferNames.size());
+                    bufferNames.add(bufferName);
+                    index.addRowsToBuffer(rows, bufferName);
+                }
+            });
+            index.addBufferedRows(last, bufferNames);
+        } finally {
+            index.removeBuffers(bufferNames);
+        }
+    }
+
     private int getMainIndexColumn(IndexType indexType, IndexColumn[] cols) {
         if (primaryIndex.getMainIndexColumn() != -1) {
             return -1;
@@ -558,6 +576,9 @@ public class MVTable extends TableBase {
         if (n > 0) {
             nextAnalyze = n;
         }
+        if (database.analyzeLater(this)) {
+            return;
+        }
         int rows = session.getDatabase().getSettings().analyzeSample;
         Analyze.analyzeTable(session, this, rows, false);
     }
@@ -8,6 +8,7 @@ package org.h2.mvstore.db;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.WeakHashMap;
 import org.h2.api.TableEngine;
@@ -16,9 +17,11 @@ import org.h2.constant.ErrorCode;
 import org.h2.engine.Constants;
 import org.h2.engine.Database;
 import org.h2.message.DbException;
+import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 import org.h2.table.TableBase;
 import org.h2.util.New;
+import org.h2.value.Value;
 
 /**
  * A table engine that internally uses the MVStore.
@@ -100,6 +103,7 @@ public class MVTableEngine implements TableEngine {
             if (store != null) {
                 store.openTables.remove(table);
                 if (store.openTables.size() == 0) {
+                    store.getTransactionStore().close();
                     store(store.getStore());
                     store.getStore().close();
                     STORES.remove(storeName);
@@ -149,8 +153,42 @@ public class MVTableEngine implements TableEngine {
         public Store(Database db, MVStore store) {
             this.db = db;
             this.store = store;
+            String redoLogFileName = null;
+            String fileName = store.getFileName();
+            if (fileName != null && db.getSettings().mvStoreRedoLog) {
+                //如"E:/H2/baseDir/mydb.mv.redo.db"
+                redoLogFileName = fileName.substring(0,
+                        fileName.length() - Constants.SUFFIX_MV_FILE.length()) +
+                        Constants.SUFFIX_MV_REDO_LOG_FILE;
+            }
             this.transactionStore = new TransactionStore(store,
-                    new ValueDataType(null, null, null));
+                    new ValueDataType(null, null, null), redoLogFileName);
+            if (!store.isReadOnly()) {
+                removeTemporaryMaps();
+            }
+        }
+
+        /**
+         * Remove the temporary maps that were used to create an index, if the
+         * database was not closed properly while creating the index.
+         */
+        private void removeTemporaryMaps() {
+            String prefix = "name." + MVSecondaryIndex.TEMP_MAP_PREFIX;
+            ArrayList<String> names = New.arrayList();
+            for (Iterator<String> it = store.getMetaMap().keyIterator(prefix); it.hasNext();) {
+                String key = it.next();
+                if (!key.startsWith(prefix)) {
+                    break;
+                }
+                names.add(key.substring("name.".length()));
+            }
+            ValueDataType type = new ValueDataType(null, null, null);
+            for (String n : names) {
+                MVMap.Builder<Value, Value> builder = new MVMap.Builder<Value, Value>().
+                        keyType(type).
+                        valueType(type);
+                store.openMap(n, builder).removeMap();
+            }
         }
 
         public MVStore getStore() {
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2004-2013 H2 Group. Multiple-Licensed under the H2 License,
+ * Version 1.0, and under the Eclipse Public License, Version 1.0
+ * (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.db;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import org.h2.mvstore.DataUtils;
+import org.h2.store.fs.FilePath;
+import org.h2.store.fs.FileUtils;
+
+/**
+ * An append-only log file of records. Each record is written with one write
+ * operation, followed by a sync, so that it is durable when append returns.
+ * <p>
+ * Record format:
+ * 4 bytes: length of the data (even)
+ * 4 bytes: Fletcher-32 checksum of the data
+ * [ data ]
+ * <p>
+ * A record that was only partially written (the process was killed while
+ * writing) has a wrong checksum or is too short, and is ignored when reading
+ * the log, together with everything after it.
+ */
+class RedoLog {
+
+    /**
+     * The suffix of the file the log is written to when it is replaced.
+     */
+    private static final String NEW_SUFFIX = ".new";
+
+    private final String fileName;
+    private FileChannel file;
+    private long size;
+
+    RedoLog(String fileName) {
+        this.fileName = fileName;
+        String newFileName = fileName + NEW_SUFFIX;
+        if (FileUtils.exists(fileName)) {
+            // the new log was not completely written,
+            // the old log is still valid
+            FileUtils.delete(newFileName);
+        } else if (FileUtils.exists(newFileName)) {
+            // the old log was already deleted
+            FileUtils.moveTo(newFileName, fileName);
+        }
+        open();
+    }
+
+    private void open() {
+        try {
+            file = FilePath.get(fileName).open("rw");
+            size = file.size();
+        } catch (IOException e) {
+            throw DataUtils.newIllegalStateException(
+                    "Could not open redo log {0}", fileName, e);
+        }
+    }
+
+    /**
+     * Read all complete records. An incomplete record at the end of the file is
+     * removed.
+     *
+     * @return the list of records
+     */
+    ArrayList<ByteBuffer> readAll() {
+        ArrayList<ByteBuffer> list = new ArrayList<ByteBuffer>();
+        long pos = 0;
+        ByteBuffer head = ByteBuffer.allocate(8);
+        while (pos + 8 <= size) {
+            head.clear();
+            DataUtils.readFully(file, pos, head);
+            int len = head.getInt();
+            int check = head.getInt();
+            if (len < 0 || (len & 1) != 0 || pos + 8 + len > size) {
+                break;
+            }
+            ByteBuffer data = ByteBuffer.allocate(len);
+            DataUtils.readFully(file, pos + 8, data);
+            if (DataUtils.getFletcher32(data.array(), len) != check) {
+                break;
+            }
+            list.add(data);
+            pos += 8 + len;
+        }
+        if (pos < size) {
+            truncate(pos);
+        }
+        return list;
+    }
+
+    /**
+     * Append a record and sync the file.
+     *
+     * @param data the data (from the position to the limit)
+     */
+    void append(ByteBuffer data) {
+        ByteBuffer buff = toRecord(data);
+        DataUtils.writeFully(file, size, buff);
+        sync();
+        size += buff.limit();
+    }
+
+    private static ByteBuffer toRecord(ByteBuffer data) {
+        int len = data.remaining();
+        // the checksum is calculated over an even number of bytes
+        byte[] bytes = new byte[len + (len & 1)];
+        data.get(bytes, 0, len);
+        ByteBuffer buff = ByteBuffer.allocate(8 + bytes.length);
+        buff.putInt(bytes.length);
+        buff.putInt(DataUtils.getFletcher32(bytes, bytes.length));
+        buff.put(bytes);
+        buff.flip();
+        return buff;
+    }
+
+    /**
+     * Remove all records.
+     */
+    void clear() {
+        truncate(0);
+    }
+
+    /**
+     * Replace all records with one record. The new log is written to a
+     * separate file and synced, then the old log is deleted and the new file
+     * is renamed. If the process is killed in between, either the old or the
+     * new log is used when opening the log again.
+     *
+     * @param data the data of the record (from the position to the limit)
+     */
+    void replace(ByteBuffer data) {
+        String newFileName = fileName + NEW_SUFFIX;
+        ByteBuffer buff = toRecord(data);
+        try {
+            FileChannel f = FilePath.get(newFileName).open("rw");
+            try {
+                f.truncate(0);
+                DataUtils.writeFully(f, 0, buff);
+                f.force(false);
+            } finally {
+                f.close();
+            }
+        } catch (IOException e) {
+            throw DataUtils.newIllegalStateException(
+                    "Could not write redo log {0}", newFileName, e);
+        }
+        close();
+        FileUtils.delete(fileName);
+        FileUtils.moveTo(newFileName, fileName);
+        open();
+    }
+
+    private void truncate(long newSize) {
+        try {
+            file.truncate(newSize);
+        } catch (IOException e) {
+            throw DataUtils.newIllegalStateException(
+                    "Could not truncate redo log {0} to size {1}",
+                    fileName, newSize, e);
+        }
+        size = newSize;
+        sync();
+    }
+
+    private void sync() {
+        try {
+            file.force(false);
+        } catch (IOException e) {
+            throw DataUtils.newIllegalStateException(
+                    "Could not sync redo log {0}", fileName, e);
+        }
+    }
+
+    /**
+     * Get the size of the log file.
+     *
+     * @return the size in bytes
+     */
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * Close the file.
+     */
+    void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            throw DataUtils.newIllegalStateException(
+                    "Could not close redo log {0}", fileName, e);
+        }
+    }
+
+}
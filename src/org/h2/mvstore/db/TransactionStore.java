@@ -6,7 +6,9 @@
  */
 package org.h2.mvstore.db;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -20,6 +22,7 @@ import org.h2.mvstore.MVMap.Builder;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.type.DataType;
 import org.h2.mvstore.type.ObjectDataType;
+import org.h2.mvstore.type.StringDataType;
 import org.h2.util.New;
 
 /**
@@ -31,6 +34,12 @@ public class TransactionStore {
 
     private static final int MAX_UNSAVED_PAGES = 4 * 1024;
 
+    /**
+     * The size of the redo log after which the store is written and the log
+     * is cleared.
+     */
+    private static final int MAX_REDO_LOG_SIZE = 4 * 1024 * 1024;
+
     /**
      * The store.
      */
@@ -68,6 +77,27 @@ public class TransactionStore {
 
     private long lastTransactionId;
 
+    /**
+     * The redo log, or null if not used.
+     */
+    private final RedoLog redoLog;
+
+    /**
+     * The data type of the map values in the redo log.
+     */
+    private final ArrayType redoValueType;
+
+    private final StringDataType stringType = new StringDataType();
+
+    /**
+     * The changes of committed transactions that were read from the redo log,
+     * but not applied yet because the map was not opened since. The maps are
+     * identified by name, as the id of a map that was created after the store
+     * was last written is not persisted.
+     * Key: map name, value: list of [ key, value ] (value null means removed).
+     */
+    private final HashMap<String, ArrayList<Object[]>> redoPending = New.hashMap();
+
     /**
      * Create a new transaction store.
      *
@@ -84,6 +114,21 @@ public class TransactionStore {
      * @param keyType the data type for map keys
      */
     public TransactionStore(MVStore store, DataType keyType) {
+        this(store, keyType, null);
+    }
+
+    /**
+     * Create a new transaction store. If a redo log file is used, the changes
+     * of a transaction are written to this file and synced when committing.
+     * The store itself is only written in the background, or when the log
+     * gets too large. Map keys and values are written to the log using the
+     * key type. The redo log is not used for in-memory and read-only stores.
+     *
+     * @param store the store
+     * @param keyType the data type for map keys and values
+     * @param redoLogFileName the file name of the redo log, or null
+     */
+    public TransactionStore(MVStore store, DataType keyType, String redoLogFileName) {
         this.store = store;
         settings = store.openMap("settings");
         openTransactions = store.openMap("openTransactions",
@@ -103,6 +148,12 @@ public class TransactionStore {
                 valueType(valueType);
         // TODO escape other map names, to avoid conflicts
         undoLog = store.openMap("undoLog", builder);
+        redoValueType = oldValueType;
+        if (redoLogFileName != null && store.getFileName() != null && !store.isReadOnly()) {
+            redoLog = new RedoLog(redoLogFileName);
+        } else {
+            redoLog = null;
+        }
         init();
     }
 
@@ -116,6 +167,9 @@ public class TransactionStore {
         if (lastKey != null && lastKey.longValue() > lastTransactionId) {
             throw DataUtils.newIllegalStateException("Last transaction not stored");
         }
+        if (redoLog != null) {
+            readRedoLog();
+        }
         //重新把上次已持久化但是未提交的事务读到内存，并重新构建openTransactionMap
         Cursor<Long> cursor = openTransactions.keyIterator(null);
         while (cursor.hasNext()) {
@@ -135,6 +189,149 @@ public class TransactionStore {
         }
     }
 
+    /**
+     * Read the redo log. The transactions in the log are committed: they are
+     * removed from the open transactions, and their changes are kept until
+     * the map is opened.
+     */
+    private void readRedoLog() {
+        for (ByteBuffer buff : redoLog.readAll()) {
+            // 0 means the record does not belong to a transaction
+            long transactionId = DataUtils.readVarLong(buff) - 1;
+            int mapCount = DataUtils.readVarInt(buff);
+            for (int i = 0; i < mapCount; i++) {
+                String mapName = stringType.read(buff);
+                ArrayList<Object[]> list = redoPending.get(mapName);
+                if (list == null) {
+                    list = New.arrayList();
+                    redoPending.put(mapName, list);
+                }
+                int count = DataUtils.readVarInt(buff);
+                for (int j = 0; j < count; j++) {
+                    Object key = ((Object[]) redoValueType.read(buff))[2];
+                    Object value = buff.get() == 0 ? null : redoValueType.read(buff);
+                    list.add(new Object[] { key, value });
+                }
+            }
+            if (transactionId >= 0) {
+                openTransactions.remove(transactionId);
+                long[] min = { transactionId, 0 };
+                while (true) {
+                    long[] k = undoLog.ceilingKey(min);
+                    if (k == null || k[0] != transactionId) {
+                        break;
+                    }
+                    undoLog.remove(k);
+                }
+                // the transaction id must not be re-used
+                lastTransactionId = Math.max(lastTransactionId, transactionId + 1);
+            }
+        }
+        if (lastTransactionId > lastTransactionIdStored) {
+            lastTransactionIdStored = lastTransactionId;
+            settings.put(LAST_TRANSACTION_ID, "" + lastTransactionIdStored);
+        }
+    }
+
+    /**
+     * Apply the changes from the redo log to the map, if there are any. This
+     * is done when the map is opened, because the data types are only known
+     * then.
+     *
+     * @param map the map
+     */
+    @SuppressWarnings("unchecked")
+    <K> void redo(MVMap<K, Object[]> map) {
+        if (redoLog == null) {
+            return;
+        }
+        // the log must not be cleared while the changes are applied
+        synchronized (redoLog) {
+            ArrayList<Object[]> list = redoPending.remove(map.getName());
+            if (list == null) {
+                return;
+            }
+            for (Object[] e : list) {
+                K key = (K) e[0];
+                Object[] current = map.get(key);
+                if (current != null && openTransactions.containsKey(current[0])) {
+                    // changed later by a transaction that is still open
+                    continue;
+                }
+                if (e[1] == null) {
+                    map.remove(key);
+                } else {
+                    map.put(key, (Object[]) e[1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the store, and clear the redo log. Changes that were read from the
+     * log but are not applied yet are written to the log again. The new log
+     * replaces the old one only when it is complete, because the transactions
+     * of those changes are no longer open in the store.
+     */
+    private void checkpoint() {
+        synchronized (redoLog) {
+            store.store();
+            try {
+                store.getFile().force(true);
+            } catch (IOException e) {
+                throw DataUtils.newIllegalStateException(
+                        "Could not sync file {0}", store.getFileName(), e);
+            }
+            Map<String, String> meta = store.getMetaMap();
+            for (Iterator<String> it = redoPending.keySet().iterator(); it.hasNext();) {
+                if (!meta.containsKey("name." + it.next())) {
+                    // the map was removed
+                    it.remove();
+                }
+            }
+            if (redoPending.size() > 0) {
+                redoLog.replace(writeRedo(0, redoPending));
+            } else {
+                redoLog.clear();
+            }
+        }
+    }
+
+    /**
+     * Serialize a redo log record.
+     *
+     * @param transactionId the transaction id plus one, or 0
+     * @param changes the changes per map (key: map name, value: list of
+     *            [ key, value ])
+     * @return the buffer (ready for reading)
+     */
+    private ByteBuffer writeRedo(long transactionId,
+            Map<String, ArrayList<Object[]>> changes) {
+        ByteBuffer buff = ByteBuffer.allocate(1024);
+        DataUtils.writeVarLong(buff, transactionId);
+        DataUtils.writeVarInt(buff, changes.size());
+        for (Map.Entry<String, ArrayList<Object[]>> e : changes.entrySet()) {
+            buff = DataUtils.ensureCapacity(buff, 5);
+            buff = stringType.write(buff, e.getKey());
+            buff = DataUtils.ensureCapacity(buff, 5);
+            DataUtils.writeVarInt(buff, e.getValue().size());
+            for (Object[] x : e.getValue()) {
+                // the key is written as the last element of an array, so that
+                // the key type is used even if the key is null
+                buff = redoValueType.write(buff, new Object[] { null, null, x[0] });
+                buff = DataUtils.ensureCapacity(buff, 1);
+                if (x[1] == null) {
+                    buff.put((byte) 0);
+                } else {
+                    buff.put((byte) 1);
+                    buff = redoValueType.write(buff, x[1]);
+                }
+            }
+        }
+        buff.flip();
+        return buff;
+    }
+
     /**
      * Get the list of currently open transactions that have pending writes.
      *
@@ -150,9 +347,16 @@ public class TransactionStore {
      * Close the transaction store.
      */
     public synchronized void close() {
+        if (store.isClosed()) {
+            return;
+        }
         // to avoid losing transaction ids
         settings.put(LAST_TRANSACTION_ID, "" + lastTransactionId);
         store.commit();
+        if (redoLog != null) {
+            checkpoint();
+            redoLog.close();
+        }
     }
 
     /**
@@ -241,6 +445,40 @@ public class TransactionStore {
         if (store.isClosed()) {
             return;
         }
+        if (redoLog == null || maxLogId == 0) {
+            commitChanges(t, maxLogId);
+            return;
+        }
+        // the commit record is written first, so that a transaction is only
+        // visible as committed when it is durable; the log must not be cleared
+        // before the transaction is removed from the open transactions
+        synchronized (redoLog) {
+            HashMap<String, ArrayList<Object[]>> changes = New.hashMap();
+            for (long logId = 0; logId < maxLogId; logId++) {
+                Object[] op = undoLog.get(new long[] { t.getId(), logId });
+                MVMap<Object, Object[]> map = getMap((Integer) op[1]);
+                Object key = op[2];
+                Object[] value = map.get(key);
+                if (value != null && value[2] == null) {
+                    value = null;
+                }
+                String mapName = map.getName();
+                ArrayList<Object[]> list = changes.get(mapName);
+                if (list == null) {
+                    list = New.arrayList();
+                    changes.put(mapName, list);
+                }
+                list.add(new Object[] { key, value });
+            }
+            redoLog.append(writeRedo(t.getId() + 1, changes));
+            commitChanges(t, maxLogId);
+            if (redoLog.getSize() > MAX_REDO_LOG_SIZE) {
+                checkpoint();
+            }
+        }
+    }
+
+    private void commitChanges(Transaction t, long maxLogId) {
         for (long logId = 0; logId < maxLogId; logId++) {
             long[] undoKey = new long[] {
                     t.getId(), logId };
@@ -248,10 +486,7 @@ public class TransactionStore {
             int opType = (Integer) op[0];
             if (opType == Transaction.OP_REMOVE) {
                 int mapId = (Integer) op[1];
-                Map<String, String> meta = store.getMetaMap();
-                String m = meta.get("map." + mapId);
-                String mapName = DataUtils.parseMap(m).get("name");
-                MVMap<Object, Object[]> map = store.openMap(mapName);
+                MVMap<Object, Object[]> map = getMap(mapId);
                 Object key = op[2];
                 Object[] value = map.get(key);
                 // possibly the entry was added later on
@@ -294,10 +529,7 @@ public class TransactionStore {
             Object[] op = undoLog.get(new long[] {
                     t.getId(), logId });
             int mapId = ((Integer) op[1]).intValue();
-            Map<String, String> meta = store.getMetaMap();
-            String m = meta.get("map." + mapId);
-            String mapName = DataUtils.parseMap(m).get("name");
-            MVMap<Object, Object[]> map = store.openMap(mapName);
+            MVMap<Object, Object[]> map = getMap(mapId);
             Object key = op[2];
             Object[] oldValue = (Object[]) op[3];
             if (oldValue == null) {
@@ -311,6 +543,13 @@ public class TransactionStore {
         }
     }
 
+    private MVMap<Object, Object[]> getMap(int mapId) {
+        Map<String, String> meta = store.getMetaMap();
+        String m = meta.get("map." + mapId);
+        String mapName = DataUtils.parseMap(m).get("name");
+        return store.openMap(mapName);
+    }
+
     /**
      * A transaction.
      */
@@ -537,6 +776,13 @@ public class TransactionStore {
      */
     public static class TransactionMap<K, V> {
 
+        /**
+         * The transaction id of entries that were added without a transaction
+         * (see bulkAppend). No transaction uses this id, so such entries are
+         * always seen as committed.
+         */
+        private static final Long COMMITTED = -1L;
+
         /**
          * The map used for writing (the latest version).
          * <p>
@@ -569,6 +815,7 @@ public class TransactionStore {
                     .keyType(keyType).valueType(arrayType);
             map = transaction.store.store.openMap(name, builder);
             mapId = map.getId();
+            transaction.store.redo(map);
         }
         
         private TransactionMap(Transaction transaction, MVMap<K, Object[]> map, int mapId) {
@@ -635,6 +882,39 @@ public class TransactionStore {
             return set(key, null);
         }
 
+        /**
+         * Append entries that are sorted by key (see MVMap.bulkAppend). No
+         * undo log entries are written: the entries are visible to all
+         * transactions immediately, as if they were added by a committed
+         * transaction. This is meant to fill a new map (for example a new
+         * index), which is removed if the operation fails.
+         *
+         * @param entries the entries, sorted by key
+         * @param fillRate how much of the page size to use, in percent
+         * @return the number of entries added
+         */
+        public long bulkAppend(final Iterator<? extends Map.Entry<K, V>> entries, int fillRate) {
+            checkOpen();
+            Iterator<Map.Entry<K, Object[]>> it = new Iterator<Map.Entry<K, Object[]>>() {
+
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                public Map.Entry<K, Object[]> next() {
+                    Map.Entry<K, V> e = entries.next();
+                    Object[] value = { COMMITTED, 0L, e.getValue() };
+                    return new AbstractMap.SimpleImmutableEntry<K, Object[]>(e.getKey(), value);
+                }
+
+                public void remove() {
+                    throw DataUtils.newUnsupportedOperationException("remove");
+                }
+
+            };
+            return map.bulkAppend(it, fillRate);
+        }
+
         /**
          * Update the value for the given key.
          * <p>
@@ -8,8 +8,10 @@ package org.h2.mvstore.rtree;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Map;
 import org.h2.mvstore.Cursor;
 import org.h2.mvstore.CursorPos;
+import org.h2.mvstore.DataUtils;
 import org.h2.mvstore.MVMap;
 import org.h2.mvstore.Page;
 import org.h2.mvstore.type.DataType;
@@ -199,6 +201,18 @@ public class MVRTreeMap<V> extends MVMap<SpatialKey, V> {
         return (V) putOrAdd(key, value, false);
     }
 
+    /**
+     * Bulk append is not supported, as the entries of an r-tree are not
+     * sorted.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public long bulkAppend(Iterator<? extends Map.Entry<SpatialKey, V>> entries, int fillRate) {
+        throw DataUtils.newUnsupportedOperationException(
+                "Bulk append is not supported for r-trees");
+    }
+
     /**
      * Add a given key-value pair. The key should not exist (if it exists, the
      * result is undefined).
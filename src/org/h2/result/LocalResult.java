@@ -9,6 +9,7 @@ package org.h2.result;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import org.h2.engine.Constants;
 import org.h2.engine.Database;
 import org.h2.engine.Session;
 import org.h2.expression.Expression;
@@ -137,6 +138,27 @@ public class LocalResult implements ResultInterface, ResultTarget {
         return copy;
     }
 
+    /**
+     * Estimate the memory used by the rows of this result.
+     *
+     * @return the memory in bytes, or -1 if not all rows are kept in memory
+     */
+    public long getMemory() {
+        if (external != null || rows == null || rows.size() < rowCount) {
+            return -1;
+        }
+        long memory = Constants.MEMORY_OBJECT;
+        for (Value[] row : rows) {
+            memory += Constants.MEMORY_OBJECT + row.length * Constants.MEMORY_POINTER;
+            for (Value v : row) {
+                if (v != null) {
+                    memory += v.getMemory();
+                }
+            }
+        }
+        return memory;
+    }
+
     /**
      * Set the sort order.
      *
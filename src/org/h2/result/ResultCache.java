@@ -0,0 +1,207 @@
+/*
+ * Copyright 2004-2013 H2 Group. Multiple-Licensed under the H2 License,
+ * Version 1.0, and under the Eclipse Public License, Version 1.0
+ * (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.result;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import org.h2.engine.Session;
+import org.h2.value.Value;
+
+/**
+ * A database wide cache of query results. The results are kept by the plan
+ * SQL statement of the query, the parameter values, and the row limit, so that
+ * the same query executed by multiple sessions is only evaluated once as long
+ * as the tables it reads are not modified. The least recently used results
+ * are removed if the memory used by all results is larger than the maximum.
+ * <p>
+ * Only results that are completely kept in memory are cached. All results are
+ * removed when the database meta data is changed.
+ */
+public class ResultCache {
+
+    private final LinkedHashMap<Key, Entry> map = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private long maxMemory;
+    private long memory;
+    private long metaId;
+
+    public ResultCache(long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * Get a copy of a cached result if one exists and it is still valid.
+     *
+     * @param session the session of the copy
+     * @param sql the plan SQL statement of the query
+     * @param params the parameter values
+     * @param limit the row limit
+     * @param metaId the current meta data modification id of the database
+     * @param maxDataModificationId the last modification id of the tables that
+     *            are read by the query
+     * @return the copy, or null if no valid result is cached
+     */
+    public synchronized LocalResult get(Session session, String sql, Value[] params, int limit,
+            long metaId, long maxDataModificationId) {
+        if (metaId != this.metaId) {
+            clear(metaId);
+            return null;
+        }
+        Key key = new Key(sql, params, limit);
+        Entry e = map.get(key);
+        if (e == null) {
+            return null;
+        }
+        if (maxDataModificationId > e.evaluated) {
+            //查询用到的表在算出结果后被修改过了
+            remove(key);
+            return null;
+        }
+        return e.result.createShallowCopy(session);
+    }
+
+    /**
+     * Add a result to the cache. The result is not added if it is not
+     * completely kept in memory, if it is too large, or if it contains LOB
+     * values.
+     *
+     * @param sql the plan SQL statement of the query
+     * @param params the parameter values
+     * @param limit the row limit
+     * @param metaId the meta data modification id of the database
+     * @param evaluated the data modification id of the database before the
+     *            query was evaluated
+     * @param result the result
+     */
+    public synchronized void put(String sql, Value[] params, int limit, long metaId, long evaluated,
+            LocalResult result) {
+        if (metaId != this.metaId) {
+            clear(metaId);
+        }
+        for (int i = 0, count = result.getVisibleColumnCount(); i < count; i++) {
+            int type = result.getColumnType(i);
+            if (type == Value.BLOB || type == Value.CLOB) {
+                //LOB可能是会话的临时对象，不能给其他会话用
+                return;
+            }
+        }
+        long m = result.getMemory();
+        if (m < 0 || m > maxMemory / 4) {
+            return;
+        }
+        LocalResult copy = result.createShallowCopy(null);
+        if (copy == null) {
+            return;
+        }
+        Key key = new Key(sql, params, limit);
+        remove(key);
+        map.put(key, new Entry(copy, evaluated, m));
+        memory += m;
+        removeOld();
+    }
+
+    /**
+     * Change the maximum memory used by the cached results.
+     *
+     * @param maxMemory the new maximum in bytes
+     */
+    public synchronized void setMaxMemory(long maxMemory) {
+        this.maxMemory = maxMemory;
+        removeOld();
+    }
+
+    /**
+     * Remove all results.
+     */
+    public synchronized void clear() {
+        clear(metaId);
+    }
+
+    private void clear(long newMetaId) {
+        map.clear();
+        memory = 0;
+        metaId = newMetaId;
+    }
+
+    private void remove(Key key) {
+        Entry e = map.remove(key);
+        if (e != null) {
+            memory -= e.memory;
+        }
+    }
+
+    private void removeOld() {
+        Iterator<Entry> it = map.values().iterator();
+        while (memory > maxMemory && it.hasNext()) {
+            Entry e = it.next();
+            memory -= e.memory;
+            it.remove();
+        }
+    }
+
+    /**
+     * The key of a cached result.
+     */
+    private static class Key {
+
+        private final String sql;
+        private final Value[] params;
+        private final int limit;
+        private final int hash;
+
+        Key(String sql, Value[] params, int limit) {
+            this.sql = sql;
+            this.params = params;
+            this.limit = limit;
+            this.hash = sql.hashCode() * 31 + Arrays.hashCode(params) + limit;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            } else if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            if (hash != other.hash || limit != other.limit || !sql.equals(other.sql)
+                    || params.length != other.params.length) {
+                return false;
+            }
+            for (int i = 0; i < params.length; i++) {
+                Value a = params[i], b = other.params[i];
+                //1和1.0在equals中相等，但结果的类型不同
+                if (a.getType() != b.getType() || !a.equals(b)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+    /**
+     * A cached result.
+     */
+    private static class Entry {
+
+        final LocalResult result;
+        final long evaluated;
+        final long memory;
+
+        Entry(LocalResult result, long evaluated, long memory) {
+            this.result = result;
+            this.evaluated = evaluated;
+            this.memory = memory;
+        }
+
+    }
+
+}
@@ -546,22 +546,10 @@ public class Data {
             writeLong(uuid.getLow());
             break;
         }
-        case Value.STRING: {
-            String s = v.getString();
-            int len = s.length();
-            if (len < 32) {
-                writeByte((byte) (STRING_0_31 + len));
-                writeStringWithoutLength(s, len);
-            } else {
-                writeByte((byte) type);
-                writeString(s);
-            }
-            break;
-        }
+        case Value.STRING:
         case Value.STRING_IGNORECASE:
         case Value.STRING_FIXED:
-            writeByte((byte) type);
-            writeString(v.getString());
+            writeStringValue(type, v.getString());
             break;
         case Value.DOUBLE: {
             double x = v.getDouble();
@@ -856,6 +844,41 @@ public class Data {
         }
     }
 
+    /**
+     * Append a string value of the given type (STRING, STRING_IGNORECASE or
+     * STRING_FIXED). The format is the same as for writeValue, but no value
+     * object is required.
+     *
+     * @param type the value type
+     * @param s the string
+     */
+    public void writeStringValue(int type, String s) {
+        int len = s.length();
+        if (type == Value.STRING && len < 32) {
+            writeByte((byte) (STRING_0_31 + len));
+            writeStringWithoutLength(s, len);
+        } else {
+            writeByte((byte) type);
+            writeString(s);
+        }
+    }
+
+    /**
+     * Calculate the number of bytes required to encode a string value of the
+     * given type.
+     *
+     * @param type the value type
+     * @param s the string
+     * @return the number of bytes required to store this value
+     */
+    public static int getStringValueLen(int type, String s) {
+        int len = s.length();
+        if (type == Value.STRING && len < 32) {
+            return 1 + getStringWithoutLengthLen(s, len);
+        }
+        return 1 + getStringLen(s);
+    }
+
     /**
      * Calculate the number of bytes required to encode the given value.
      *
@@ -926,17 +949,10 @@ public class Data {
             }
             return 1 + getVarIntLen(Integer.reverse(f));
         }
-        case Value.STRING: {
-            String s = v.getString();
-            int len = s.length();
-            if (len < 32) {
-                return 1 + getStringWithoutLengthLen(s, len);
-            }
-            return 1 + getStringLen(s);
-        }
+        case Value.STRING:
         case Value.STRING_IGNORECASE:
         case Value.STRING_FIXED:
-            return 1 + getStringLen(v.getString());
+            return getStringValueLen(v.getType(), v.getString());
         case Value.DECIMAL: {
             BigDecimal x = v.getBigDecimal();
             if (BigDecimal.ZERO.equals(x)) {
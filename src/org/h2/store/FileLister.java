@@ -88,6 +88,8 @@ public class FileLister {
                 ok = true;
             } else if (f.endsWith(Constants.SUFFIX_MV_FILE)) {
                 ok = true;
+            } else if (f.endsWith(Constants.SUFFIX_MV_REDO_LOG_FILE)) {
+                ok = true;
             } else if (all) {
                 if (f.endsWith(Constants.SUFFIX_LOCK_FILE)) {
                     ok = true;
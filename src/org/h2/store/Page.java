@@ -24,6 +24,12 @@ public abstract class Page extends CacheObject {
      */
     public static final int FLAG_LAST = 16;
 
+    /**
+     * The common prefix of the first indexed column is stored only once
+     * (b-tree leaf pages only).
+     */
+    public static final int FLAG_PREFIX = 32;
+
     /**
      * An empty page.
      */
@@ -76,6 +82,13 @@ public abstract class Page extends CacheObject {
      */
     protected int changeCount;
 
+    /**
+     * The log section in which the page was changed the first time since it
+     * was written (only used for incremental checkpoints). The transaction
+     * log can not be truncated beyond this section while the page is changed.
+     */
+    int logSection;
+
     /**
      * Copy the data to a new location, change the parent to point to the new
      * location, and free up the current page.
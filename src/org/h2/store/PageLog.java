@@ -559,9 +559,7 @@ public class PageLog {
         buffer.writeByte((byte) COMMIT);
         buffer.writeVarInt(sessionId);
         write(buffer);
-        if (store.getDatabase().getFlushOnEachCommit()) {
-            flush();
-        }
+        // the page store flushes the log after the commit (group commit)
     }
 
     /**
@@ -9,7 +9,9 @@ package org.h2.store;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.zip.CRC32;
 import org.h2.command.CommandInterface;
@@ -43,6 +45,7 @@ import org.h2.table.RegularTable;
 import org.h2.table.Table;
 import org.h2.util.BitField;
 import org.h2.util.Cache;
+import org.h2.util.CacheLIRS;
 import org.h2.util.CacheLRU;
 import org.h2.util.CacheObject;
 import org.h2.util.CacheWriter;
@@ -118,6 +121,12 @@ public class PageStore implements CacheWriter {
      * is called for each checkpoint. This is the default level.
      */
     public static final int LOG_MODE_SYNC = 2;
+
+    /**
+     * This log mode means FileDescriptor.sync() is called for each checkpoint,
+     * and for each commit as well. Concurrent commits are synced together.
+     */
+    public static final int LOG_MODE_SYNC_COMMIT = 3;
     private static final int PAGE_ID_FREE_LIST_ROOT = 3;
     private static final int PAGE_ID_META_ROOT = 4;
     //MIN_PAGE_COUNT等于6
@@ -125,8 +134,34 @@ public class PageStore implements CacheWriter {
     private static final int MIN_PAGE_COUNT = 6;
     private static final int INCREMENT_KB = 1024;
     private static final int INCREMENT_PERCENT_MIN = 35;
-    private static final int READ_VERSION = 3;
-    private static final int WRITE_VERSION = 3;
+
+    /**
+     * The number of changed pages the writer thread writes while holding the
+     * lock.
+     */
+    private static final int WRITE_BACK_CHANGED_PAGES = 64;
+
+    /**
+     * Pages that are read ahead are read with one read operation if there
+     * are at most this many pages between them.
+     */
+    private static final int READ_AHEAD_GAP = 4;
+
+    /**
+     * The maximum number of bytes of adjacent pages that are written with one
+     * write operation.
+     */
+    private static final int WRITE_GATHER_SIZE = 256 * 1024;
+
+    /**
+     * The read and write version of files that don't contain b-tree pages
+     * with a common key prefix or truncated pivots. Older versions can open
+     * such files.
+     */
+    private static final int BASE_VERSION = 3;
+
+    private static final int READ_VERSION = 4;
+    private static final int WRITE_VERSION = 4;
     private static final int META_TYPE_DATA_INDEX = 0;
     private static final int META_TYPE_BTREE_INDEX = 1;
     private static final int META_TABLE_ID = -1;
@@ -141,10 +176,33 @@ public class PageStore implements CacheWriter {
     private long writeCountBase, writeCount, readCount; //readCount表示读了多少个page
     private int logKey, logFirstTrunkPage, logFirstDataPage;
     private final Cache cache;
+
+    /**
+     * Whether the cache can be read without locking the page store.
+     */
+    private final boolean concurrentCache;
+
+    /**
+     * Whether changed pages are written by the writer thread, and the
+     * transaction log is truncated without writing all changed pages.
+     */
+    private final boolean incrementalCheckpoint;
+
+    /**
+     * The maximum number of pages to read at once in a sequential scan.
+     */
+    private final int readAhead;
     private int freeListPagesPerList;
     private boolean recoveryRunning;
     private boolean ignoreBigLog;
 
+    /**
+     * The read and write version of the file (BASE_VERSION or READ_VERSION).
+     * It is increased when the first b-tree page with a common key prefix or
+     * a truncated pivot is stored.
+     */
+    private volatile int fileVersion;
+
     /**
      * The index to the first free-list page that potentially has free space.
      */
@@ -198,9 +256,40 @@ public class PageStore implements CacheWriter {
     private int changeCount = 1;
 
     private Data emptyPage;
+
+    /**
+     * Whether adjacent pages are collected and written with one write
+     * operation (while writing back changed pages).
+     */
+    private boolean gatherWrites;
+
+    /**
+     * The collected pages, in the order of the page ids.
+     */
+    private byte[] gatherBuffer;
+    private int gatherCount;
+    private int gatherFirstPageId;
     private long logSizeBase;
+
+    /**
+     * The size of the transaction log after the last incremental checkpoint.
+     */
+    private long logSizeCheckpoint;
     private HashMap<String, Integer> statistics;
     private int logMode = LOG_MODE_SYNC;
+
+    /**
+     * The number of commit records written to the transaction log.
+     */
+    private long commitCount;
+
+    /**
+     * The lock for the group commit. The session that flushes the log wakes
+     * up all sessions whose commit record was flushed as well.
+     */
+    private final Object commitSync = new Object();
+    private long commitFlushed;
+    private boolean commitFlushing;
     private boolean lockFile;
     private boolean readMode;
     private int backupLevel;
@@ -222,6 +311,9 @@ public class PageStore implements CacheWriter {
         // trace.setLevel(TraceSystem.DEBUG);
         String cacheType = database.getCacheType();
         this.cache = CacheLRU.getCache(this, cacheType, cacheSizeDefault);
+        concurrentCache = cache instanceof CacheLIRS;
+        incrementalCheckpoint = database.getSettings().pageStoreIncrementalCheckpoint;
+        readAhead = database.getSettings().pageStoreReadAhead;
         systemSession = new Session(database, null, 0);
     }
 
@@ -262,6 +354,7 @@ public class PageStore implements CacheWriter {
         if (pageId >= pageCount) {
             return -1;
         }
+        flushGatheredPages();
         file.seek((long) pageId << pageSizeShift);
         file.readFullyDirect(buffer, 0, pageSize);
         readCount++;
@@ -305,6 +398,7 @@ public class PageStore implements CacheWriter {
         file = database.openFile(fileName, accessMode, false); //这里面会写前面48个字节，见org.h2.store.FileStore.init()
         lockFile();
         recoveryRunning = true;
+        fileVersion = BASE_VERSION;
         writeStaticHeader(); //这里写了一页pageSize大小的数据
         //调用完writeStaticHeader后数据还没同步到硬盘，
         //接下来调用writeVariableHeader时会把上次没同步的同步到硬盘，
@@ -421,8 +515,128 @@ public class PageStore implements CacheWriter {
     private void writeBack() {
         ArrayList<CacheObject> list = cache.getAllChanged();
         Collections.sort(list);
-        for (int i = 0, size = list.size(); i < size; i++) {
-            writeBack(list.get(i));
+        startGatherWrites();
+        try {
+            for (int i = 0, size = list.size(); i < size; i++) {
+                writeBack(list.get(i));
+            }
+        } finally {
+            stopGatherWrites();
+        }
+    }
+
+    /**
+     * Get the changed pages that were changed the first time before the given
+     * log section, oldest first.
+     *
+     * @param logSection the log section
+     * @return the pages
+     */
+    private ArrayList<Page> getChangedPages(int logSection) {
+        ArrayList<Page> list = New.arrayList();
+        for (CacheObject obj : cache.getAllChanged()) {
+            Page p = (Page) obj;
+            if (p.logSection < logSection) {
+                list.add(p);
+            }
+        }
+        //先写最早修改的，这样日志能截断得更多，同一个日志段中的按pageId顺序写
+        Collections.sort(list, new Comparator<Page>() {
+            public int compare(Page a, Page b) {
+                if (a.logSection != b.logSection) {
+                    return a.logSection < b.logSection ? -1 : 1;
+                }
+                return a.compareTo(b);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Write back the pages that were changed before the current log section
+     * (incremental checkpoint). The pages are written in small batches, and
+     * the locks are released after each batch, so that other sessions can
+     * continue in the meantime. Pages that are used by the current operation
+     * are skipped. This method is called by the writer thread.
+     */
+    public void writeBackChangedPages() {
+        ArrayList<Page> list;
+        synchronized (this) {
+            if (!incrementalCheckpoint || file == null || readMode || database.isReadOnly() || backupLevel > 0) {
+                return;
+            }
+            list = getChangedPages(log.getLogSectionId());
+        }
+        for (int i = 0, size = list.size(); i < size; i += WRITE_BACK_CHANGED_PAGES) {
+            // to prevent ABBA locking problems, we need to always take
+            // the Database lock before we take the PageStore lock
+            synchronized (database) {
+                synchronized (this) {
+                    if (file == null) {
+                        return;
+                    }
+                    int logSection = log.getLogSectionId();
+                    boolean flushed = false;
+                    startGatherWrites();
+                    try {
+                        for (int j = i, end = Math.min(size, i + WRITE_BACK_CHANGED_PAGES); j < end; j++) {
+                            Page p = list.get(j);
+                            //可能已经写回了，或者又被修改了
+                            if (p.isChanged() && p.logSection < logSection && p.canRemove()
+                                    && cache.find(p.getPos()) == p) {
+                                if (!flushed) {
+                                    log.flush();
+                                    flushed = true;
+                                }
+                                writeBack(p);
+                            }
+                        }
+                    } finally {
+                        stopGatherWrites();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Switch to a new log section and truncate the transaction log, without
+     * writing all changed pages (incremental checkpoint). Pages that were
+     * changed before the previous log section and were not written by the
+     * writer thread yet are written now. The log is kept from the oldest
+     * section in which one of the remaining changed pages was changed.
+     */
+    private void checkpointIncremental() {
+        trace.debug("checkpointIncremental");
+        if (log == null || readMode || database.isReadOnly() || backupLevel > 0) {
+            return;
+        }
+        database.checkPowerOff();
+        writeIndexRowCounts();
+
+        log.checkpoint();
+        ArrayList<Page> list = getChangedPages(log.getLogSectionId() - 1);
+        if (!list.isEmpty()) {
+            log.flush();
+            startGatherWrites();
+            try {
+                for (Page p : list) {
+                    writeBack(p);
+                }
+            } finally {
+                stopGatherWrites();
+            }
+        }
+
+        int firstSection = getFirstUncommittedSection();
+        for (CacheObject obj : cache.getAllChanged()) {
+            Page p = (Page) obj;
+            if (p.logSection < firstSection) {
+                firstSection = p.logSection;
+            }
+        }
+        if (firstSection > log.getLogFirstSectionId()) {
+            log.removeUntil(firstSection);
         }
     }
 
@@ -474,6 +688,7 @@ public class PageStore implements CacheWriter {
                 freed.set(i);
             }
         }
+        logSizeCheckpoint = log.getSize();
     }
 
     /**
@@ -739,7 +954,18 @@ public class PageStore implements CacheWriter {
      * @param pageId the page id
      * @return the page
      */
-    public synchronized Page getPage(int pageId) {
+    public Page getPage(int pageId) {
+        if (concurrentCache) {
+            //cache中已有的page不用锁住整个PageStore，其他session可以同时读
+            Page p = (Page) cache.get(pageId);
+            if (p != null) {
+                return p;
+            }
+        }
+        return loadPage(pageId);
+    }
+
+    private synchronized Page loadPage(int pageId) {
         Page p = (Page) cache.get(pageId);
         if (p != null) {
             return p;
@@ -747,6 +973,80 @@ public class PageStore implements CacheWriter {
 
         Data data = createData();
         readPage(pageId, data);
+        p = createPage(pageId, data);
+        if (p != null) {
+            cache.put(p);
+        }
+        return p;
+    }
+
+    /**
+     * Read the given pages into the cache, if the first page is not in the
+     * cache yet (read-ahead for sequential scans). At most the configured
+     * number of pages is read. Pages that are stored close to each other in
+     * the file are read with one read operation.
+     *
+     * @param pageIds the page ids, in the order they will be used
+     * @param from the index of the first page id
+     * @param to the index after the last page id
+     */
+    public void readAhead(int[] pageIds, int from, int to) {
+        if (readAhead <= 1 || to - from <= 1) {
+            return;
+        }
+        if (concurrentCache && cache.find(pageIds[from]) != null) {
+            //大多数情况下page已经在cache中，不用锁住整个PageStore
+            return;
+        }
+        readAheadPages(pageIds, from, Math.min(to, from + readAhead));
+    }
+
+    private synchronized void readAheadPages(int[] pageIds, int from, int to) {
+        if (file == null || recoveryRunning || recordPageReads || cache.find(pageIds[from]) != null) {
+            return;
+        }
+        flushGatheredPages();
+        int[] list = new int[to - from];
+        int len = 0;
+        for (int i = from; i < to; i++) {
+            int pageId = pageIds[i];
+            if (pageId >= MIN_PAGE_COUNT && pageId < pageCount && cache.find(pageId) == null) {
+                list[len++] = pageId;
+            }
+        }
+        Arrays.sort(list, 0, len);
+        for (int i = 0; i < len;) {
+            //相邻的或者只隔了几个page的一起读，中间的page读出来后不用
+            int start = i++;
+            while (i < len && list[i] - list[i - 1] <= READ_AHEAD_GAP) {
+                i++;
+            }
+            int first = list[start];
+            int count = list[i - 1] - first + 1;
+            byte[] buff = new byte[count << pageSizeShift];
+            file.seek((long) first << pageSizeShift);
+            file.readFully(buff, 0, buff.length);
+            readCount += count;
+            for (int j = start; j < i; j++) {
+                Data data = createData();
+                System.arraycopy(buff, (list[j] - first) << pageSizeShift, data.getBytes(), 0, pageSize);
+                Page p = createPage(list[j], data);
+                if (p != null) {
+                    cache.put(p);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a page object from the data read from the file.
+     *
+     * @param pageId the page id
+     * @param data the data
+     * @return the page, or null if the page is empty
+     */
+    private Page createPage(int pageId, Data data) {
+        Page p;
         int type = data.readByte();
         if (type == Page.TYPE_EMPTY) {
             return null;
@@ -757,7 +1057,7 @@ public class PageStore implements CacheWriter {
         if (!checksumTest(data.getBytes(), pageId, pageSize)) {
             throw DbException.get(ErrorCode.FILE_CORRUPTED_1, "wrong checksum");
         }
-        switch (type & ~Page.FLAG_LAST) {
+        switch (type & ~(Page.FLAG_LAST | Page.FLAG_PREFIX)) {
         case Page.TYPE_FREE_LIST:
             p = PageFreeList.read(this, data, pageId);
             break;
@@ -841,7 +1141,6 @@ public class PageStore implements CacheWriter {
         default:
             throw DbException.get(ErrorCode.FILE_CORRUPTED_1, "page=" + pageId + " type=" + type);
         }
-        cache.put(p);
         return p;
     }
 
@@ -877,6 +1176,7 @@ public class PageStore implements CacheWriter {
             accessMode = "r";
             file = database.openFile(fileName, accessMode, true);
         }
+        fileVersion = readVersion;
     }
 
     private void readVariableHeader() {
@@ -945,15 +1245,15 @@ public class PageStore implements CacheWriter {
 	    StaticHeader
 	    ---------------------
 	    4       pageSize 默认是2048(2K)
-	    1       WRITE_VERSION 常量3
-	    1       READ_VERSION 常量3
+	    1       WRITE_VERSION 3或4(使用前缀压缩时)
+	    1       READ_VERSION 3或4(使用前缀压缩时)
 	    1994          保留
     */
     private void writeStaticHeader() {
         Data page = Data.create(database, new byte[pageSize - FileStore.HEADER_LENGTH]);
         page.writeInt(pageSize);
-        page.writeByte((byte) WRITE_VERSION);
-        page.writeByte((byte) READ_VERSION);
+        page.writeByte((byte) fileVersion);
+        page.writeByte((byte) fileVersion);
         file.seek(FileStore.HEADER_LENGTH);
         file.write(page.getBytes(), 0, pageSize - FileStore.HEADER_LENGTH);
         writeCount++;
@@ -991,7 +1291,9 @@ public class PageStore implements CacheWriter {
     //如果logMode是LOG_MODE_SYNC，那么每调用一次writeVariableHeader就会把数据同步的硬盘
     private void writeVariableHeader() {
         trace.debug("writeVariableHeader");
-        if (logMode == LOG_MODE_SYNC) {
+        //收集的page要在同步之前写入
+        flushGatheredPages();
+        if (logMode == LOG_MODE_SYNC || logMode == LOG_MODE_SYNC_COMMIT) {
             file.sync();
             //new Error().printStackTrace(); //我加上的,调试什么时候同步数据到硬盘
         }
@@ -1042,6 +1344,7 @@ public class PageStore implements CacheWriter {
     public synchronized void sync() {
         if (file != null) {
             log.flush();
+            flushGatheredPages();
             file.sync();
         }
     }
@@ -1074,12 +1377,22 @@ public class PageStore implements CacheWriter {
         if (!recoveryRunning) { //如果正在recovery过程中，什么都不做
             int pos = page.getPos(); //这个就是pageId
             if (!log.getUndo(pos)) {
+                if (incrementalCheckpoint && page.isChanged() && cache.find(pos) == page) {
+                    //在之前的日志段中修改过但还没有写回，先写回，这样undo日志中是这个日志段开始时的内容，
+                    //之前日志段的日志在log.checkpoint()时已写入
+                    writeBack(page);
+                    old = null;
+                }
                 if (old == null) {
                     old = readPage(pos);
                 }
                 openForWriting();
                 log.addUndo(pos, old);
             }
+            //page的pageId变了时，新位置上的undo日志在当前日志段中
+            if (incrementalCheckpoint && (!page.isChanged() || cache.find(pos) != page)) {
+                page.logSection = log.getLogSectionId();
+            }
         }
     }
 
@@ -1276,7 +1589,7 @@ public class PageStore implements CacheWriter {
         if (trace.isDebugEnabled()) {
             // trace.debug("free " + pageId + " " + undo);
         }
-        cache.remove(pageId);
+        removeFromCache(pageId);
         if (SysProperties.CHECK && !recoveryRunning && undo) {
             // ensure the undo entry is already written
             if (logMode != LOG_MODE_OFF) {
@@ -1348,6 +1661,7 @@ public class PageStore implements CacheWriter {
         if (pos < 0 || pos >= pageCount) {
             throw DbException.get(ErrorCode.FILE_CORRUPTED_1, pos + " of " + pageCount);
         }
+        flushGatheredPages();
         file.seek((long) pos << pageSizeShift);
         file.readFully(page.getBytes(), 0, pageSize);
         readCount++;
@@ -1390,6 +1704,10 @@ public class PageStore implements CacheWriter {
             }
         }
         checksumSet(bytes, pageId);
+        if (gatherWrites) {
+            gatherPage(pageId, bytes);
+            return;
+        }
 		// pageId从0开始计数的
 		//假设pageSize是128，那么pageSizeShift就是7，相当于2的7次方等于128
         //pageId << pageSizeShift相当于pageId * 128
@@ -1401,12 +1719,67 @@ public class PageStore implements CacheWriter {
         writeCount++;
     }
 
+    private void gatherPage(int pageId, byte[] bytes) {
+        if (gatherBuffer == null || gatherBuffer.length < pageSize) {
+            gatherBuffer = new byte[Math.max(WRITE_GATHER_SIZE, pageSize)];
+        }
+        if (gatherCount > 0 && (pageId != gatherFirstPageId + gatherCount
+                || (gatherCount + 1) << pageSizeShift > gatherBuffer.length)) {
+            //和前面的page不相邻，或者buffer满了，先写前面的，这样写的顺序不变
+            flushGatheredPages();
+        }
+        if (gatherCount == 0) {
+            gatherFirstPageId = pageId;
+        }
+        //Page的data之后还可能被修改，所以要复制
+        System.arraycopy(bytes, 0, gatherBuffer, gatherCount << pageSizeShift, pageSize);
+        gatherCount++;
+        writeCount++;
+    }
+
+    /**
+     * Start collecting adjacent pages that are written, so that they can be
+     * written with one write operation.
+     */
+    private void startGatherWrites() {
+        gatherWrites = true;
+    }
+
+    /**
+     * Write the collected pages and stop collecting.
+     */
+    private void stopGatherWrites() {
+        gatherWrites = false;
+        flushGatheredPages();
+    }
+
+    private void flushGatheredPages() {
+        int count = gatherCount;
+        if (count == 0) {
+            return;
+        }
+        gatherCount = 0;
+        file.seek((long) gatherFirstPageId << pageSizeShift);
+        file.write(gatherBuffer, 0, count << pageSizeShift);
+    }
+
     /**
      * Remove a page from the cache.
      *
      * @param pageId the page id
      */
     public synchronized void removeRecord(int pageId) {
+        removeFromCache(pageId);
+    }
+
+    private void removeFromCache(int pageId) {
+        if (incrementalCheckpoint && !recoveryRunning && logMode != LOG_MODE_OFF && !log.getUndo(pageId)) {
+            //在之前的日志段中修改过但还没有写回，先写回，否则之后这个位置的undo日志是从文件中读出的旧内容
+            CacheObject obj = cache.find(pageId);
+            if (obj != null && obj.isChanged()) {
+                writeBack(obj);
+            }
+        }
         cache.remove(pageId);
     }
 
@@ -1499,38 +1872,121 @@ public class PageStore implements CacheWriter {
     }
 
     /**
-     * Mark a committed transaction.
+     * Mark a committed transaction. The caller needs to synchronize on the
+     * database (a checkpoint may be required). The log is not flushed; if
+     * the returned value is not 0, flushCommit needs to be called afterwards,
+     * without synchronizing on the database, so that the commits of other
+     * sessions can be flushed together.
      *
      * @param session the session
+     * @return the number of the commit record if the log needs to be flushed,
+     *         or 0
      */
-    public synchronized void commit(Session session) {
+    public long commit(Session session) {
+        long commitId = logCommit(session);
+        if (database.getFlushOnEachCommit() || logMode == LOG_MODE_SYNC_COMMIT) {
+            return commitId;
+        }
+        return 0;
+    }
+
+    private synchronized long logCommit(Session session) {
         checkOpen();
         openForWriting();
         log.commit(session.getId());
+        long commitId = ++commitCount;
         long size = log.getSize();
+        if (incrementalCheckpoint) {
+            //每个日志段最多是maxLogSize的一半，至少保留最后两个日志段
+            if (size - logSizeCheckpoint > maxLogSize / 2) {
+                checkpointIncremental();
+                logSizeCheckpoint = log.getSize();
+            }
+            return commitId;
+        }
         
         //logSizeBase一开始是0，如果size比maxLogSize大，先看一下checkpoint
         if (size - logSizeBase > maxLogSize) { //maxLogSize通过"SET MAX_LOG_SIZE xxx"设置，默认16M
             int firstSection = log.getLogFirstSectionId();
             checkpoint();
             if (ignoreBigLog) {
-                return;
+                return commitId;
             }
             int newSection = log.getLogSectionId();
             if (newSection - firstSection <= 2) {
                 // one section is always kept, and checkpoint
                 // advances two sections each time it is called
-                return;
+                return commitId;
             }
             long newSize = log.getSize();
             if (newSize < size || size < maxLogSize) {
                 ignoreBigLog = false;
-                return;
+                return commitId;
             }
             ignoreBigLog = true;
             trace.error(null, "Transaction log could not be truncated; size: " + (newSize / 1024 / 1024) + " MB");
             logSizeBase = log.getSize();
         }
+        return commitId;
+    }
+
+    /**
+     * Flush the transaction log up to the given commit record (group commit).
+     * If another session is flushing the log, wait until it is done, as the
+     * commit record may be flushed as well. Otherwise flush all commit records
+     * written so far, sync the file if required, and wake up the waiting
+     * sessions. The page store is not locked while syncing, so that other
+     * sessions can write their commit records in the meantime.
+     *
+     * @param commitId the number of the commit record
+     */
+    public void flushCommit(long commitId) {
+        synchronized (commitSync) {
+            //已经有session在刷新日志，等它完成，它可能已经把当前的commit记录一起刷新了
+            while (commitFlushing && commitFlushed < commitId) {
+                try {
+                    commitSync.wait();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+            if (commitFlushed >= commitId) {
+                return;
+            }
+            commitFlushing = true;
+        }
+        long flushed = 0;
+        try {
+            FileStore f;
+            synchronized (this) {
+                if (file == null) {
+                    return;
+                }
+                log.flush();
+                flushed = commitCount;
+                f = file;
+            }
+            if (logMode == LOG_MODE_SYNC_COMMIT) {
+                try {
+                    f.sync();
+                } catch (DbException e) {
+                    synchronized (this) {
+                        // closing flushes and syncs the log as well
+                        if (file != null) {
+                            throw e;
+                        }
+                    }
+                }
+            }
+        } finally {
+            synchronized (commitSync) {
+                commitFlushing = false;
+                if (flushed > commitFlushed) {
+                    commitFlushed = flushed;
+                }
+                commitSync.notifyAll();
+            }
+        }
     }
 
     /**
@@ -1958,6 +2414,37 @@ public class PageStore implements CacheWriter {
         return recoveryRunning;
     }
 
+    /**
+     * Check whether b-tree pages with a common key prefix and truncated pivots
+     * may be stored in this file. Older versions can't open such files.
+     *
+     * @return true if they may be stored
+     */
+    public boolean isPrefixCompression() {
+        return fileVersion >= READ_VERSION || database.getSettings().pageStorePrefixCompression;
+    }
+
+    /**
+     * Increase the file version, if this was not done yet. This method is
+     * called before the first b-tree page with a common key prefix or a
+     * truncated pivot is stored, so that older versions refuse to open the
+     * file from then on.
+     */
+    public void setPrefixCompressed() {
+        if (fileVersion >= READ_VERSION) {
+            return;
+        }
+        synchronized (this) {
+            if (fileVersion < READ_VERSION) {
+                checkOpen();
+                fileVersion = READ_VERSION;
+                //在写入这样的page之前先同步文件头
+                writeStaticHeader();
+                file.sync();
+            }
+        }
+    }
+
     private void checkOpen() {
         if (file == null) {
             throw DbException.get(ErrorCode.DATABASE_IS_CLOSED);
@@ -9,6 +9,7 @@ package org.h2.store.fs;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.NonWritableChannelException;
@@ -101,6 +102,10 @@ class FileNio extends FileBase {
         return channel.tryLock(position, size, shared);
     }
 
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+        return channel.map(mode, position, size);
+    }
+
     public String toString() {
         return "nio:" + name;
     }
@@ -10,6 +10,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
@@ -32,6 +33,42 @@ public class FilePathNioMapped extends FilePathNio {
         return "nioMapped";
     }
 
+    /**
+     * Release the memory mapping of a buffer now, instead of when the buffer
+     * is garbage collected, using the cleaner of the buffer. The buffer and
+     * its duplicates must not be used afterwards.
+     *
+     * @param buffer the mapped buffer
+     * @return true if the mapping was released
+     */
+    public static boolean unMap(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return false;
+        }
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                Method clearMethod = cleaner.getClass().getMethod("clean");
+                clearMethod.invoke(cleaner);
+            }
+            return true;
+        } catch (Throwable e) {
+            // not accessible since Java 9
+        }
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field f = unsafeClass.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(f.get(null), buffer);
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
 }
 
 /**
@@ -74,24 +111,9 @@ class FileNioMapped extends FileBase {
         // need to dispose old direct buffer, see bug
         // http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4724038
 
-        boolean useSystemGc = true;
-        if (SysProperties.NIO_CLEANER_HACK) {
-            try {
-                Method cleanerMethod = mapped.getClass().getMethod("cleaner");
-                cleanerMethod.setAccessible(true);
-                Object cleaner = cleanerMethod.invoke(mapped);
-                if (cleaner != null) {
-                    Method clearMethod = cleaner.getClass().getMethod("clean");
-                    clearMethod.invoke(cleaner);
-                }
-                useSystemGc = false;
-            } catch (Throwable e) {
-                // useSystemGc is already true
-            } finally {
-                mapped = null;
-            }
-        }
-        if (useSystemGc) {
+        if (SysProperties.NIO_CLEANER_HACK && FilePathNioMapped.unMap(mapped)) {
+            mapped = null;
+        } else {
             WeakReference<MappedByteBuffer> bufferWeakRef = new WeakReference<MappedByteBuffer>(mapped);
             mapped = null;
             long start = System.currentTimeMillis();
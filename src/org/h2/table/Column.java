@@ -82,6 +82,7 @@ public class Column {
     private boolean isComputed;
     private TableFilter computeTableFilter;
     private int selectivity;
+    private Histogram histogram;
     private SingleColumnResolver resolver;
     private String comment;
     private boolean primaryKey;
@@ -441,6 +442,9 @@ public class Column {
         if (selectivity != 0) {
             buff.append(" SELECTIVITY ").append(selectivity);
         }
+        if (histogram != null) {
+            buff.append(' ').append(histogram.getSQL());
+        }
         if (comment != null) {
             buff.append(" COMMENT ").append(StringUtils.quoteStringSQL(comment));
         }
@@ -529,6 +533,24 @@ public class Column {
         this.selectivity = selectivity;
     }
 
+    /**
+     * Get the histogram of the column values, as calculated by ANALYZE.
+     *
+     * @return the histogram, or null if not calculated
+     */
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Set the histogram of the column values.
+     *
+     * @param histogram the histogram, or null
+     */
+    public void setHistogram(Histogram histogram) {
+        this.histogram = histogram;
+    }
+
     /**
      * Add a check constraint expression to this column. An existing check
      * constraint constraint is added using AND.
@@ -719,6 +741,7 @@ public class Column {
         computeTableFilter = source.computeTableFilter;
         isComputed = source.isComputed;
         selectivity = source.selectivity;
+        histogram = source.histogram;
         primaryKey = source.primaryKey;
     }
 
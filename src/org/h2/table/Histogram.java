@@ -0,0 +1,269 @@
+/*
+ * Copyright 2004-2013 H2 Group. Multiple-Licensed under the H2 License,
+ * Version 1.0, and under the Eclipse Public License, Version 1.0
+ * (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.table;
+
+import org.h2.engine.Constants;
+import org.h2.util.StatementBuilder;
+import org.h2.value.CompareMode;
+import org.h2.value.Value;
+import org.h2.value.ValueNull;
+
+/**
+ * An equi-depth histogram of the values of a column, as calculated by ANALYZE.
+ * Each bucket contains about the same number of rows, so that a value that
+ * occurs very often is the bound of multiple buckets. The optimizer uses the
+ * histogram to estimate which fraction of the rows matches an equality
+ * condition, an IN(..) list, or a range condition with constant values.
+ * NULL values are not included.
+ */
+public class Histogram {
+
+    /**
+     * The bucket bounds: the first element is the smallest value, the last
+     * element is the largest value.
+     */
+    private final Value[] bounds;
+
+    /**
+     * The estimated number of distinct values in the table.
+     */
+    private final long distinct;
+
+    /**
+     * The estimated fraction of rows for a value that is not the bound of
+     * multiple buckets.
+     */
+    private final double otherFraction;
+
+    public Histogram(Value[] bounds, long distinct) {
+        this.bounds = bounds;
+        this.distinct = Math.max(distinct, 1);
+        int buckets = bounds.length - 1;
+        //出现次数很多的值会连续成为多个桶的边界，其余的值平分剩下的行
+        double frequentFraction = 0;
+        int frequentCount = 0;
+        for (int i = 0; i < bounds.length;) {
+            int j = i + 1;
+            while (j < bounds.length && bounds[j].equals(bounds[i])) {
+                j++;
+            }
+            if (j - i > 1) {
+                frequentFraction += (double) (j - i - 1) / buckets;
+                frequentCount++;
+            }
+            i = j;
+        }
+        long others = Math.max(this.distinct - frequentCount, 1);
+        otherFraction = Math.max(1 - frequentFraction, 0) / others;
+    }
+
+    /**
+     * Create a histogram from the sorted, distinct values of a sample and the
+     * number of times each value occurs in the sample. A value with a count of
+     * 0 is not part of the sample, but it is a known smallest or largest value
+     * of the column, which is then used as the first or last bound.
+     *
+     * @param values the sorted distinct values (NULL is ignored)
+     * @param counts the number of rows per value
+     * @param rowCount the number of rows in the table
+     * @param buckets the maximum number of buckets
+     * @return the histogram, or null if there are no values, or if a bound is
+     *         too long and can't be truncated
+     */
+    public static Histogram create(Value[] values, long[] counts, long rowCount, int buckets) {
+        long sampleRows = 0;
+        int sampleDistinct = 0, once = 0;
+        Value last = null;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null && values[i] != ValueNull.INSTANCE) {
+                last = values[i];
+                if (counts[i] == 0) {
+                    continue;
+                }
+                sampleRows += counts[i];
+                sampleDistinct++;
+                if (counts[i] == 1) {
+                    once++;
+                }
+            }
+        }
+        if (sampleRows == 0) {
+            return null;
+        }
+        buckets = (int) Math.min(buckets, sampleRows);
+        Value[] bounds = new Value[buckets + 1];
+        long rank = 0;
+        int b = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null || values[i] == ValueNull.INSTANCE) {
+                continue;
+            }
+            if (b == 0) {
+                bounds[b++] = values[i];
+            }
+            rank += counts[i];
+            //第b个桶的上界是排在第ceil(b * sampleRows / buckets)行的值
+            while (b <= buckets && rank * buckets >= b * sampleRows) {
+                bounds[b++] = values[i];
+            }
+        }
+        //最后一个桶延伸到已知的最大值
+        bounds[buckets] = last;
+        for (int i = 0; i < bounds.length; i++) {
+            //边界值会写进字段定义(元数据)中，太长的字符串只保留前面一部分，这不会改变边界的顺序
+            Value v = bounds[i].convertPrecision(Constants.HISTOGRAM_MAX_BOUND_LENGTH, true);
+            if (v.getPrecision() > Constants.HISTOGRAM_MAX_BOUND_LENGTH) {
+                return null;
+            }
+            bounds[i] = v;
+        }
+        long distinct;
+        if (sampleRows >= rowCount) {
+            distinct = sampleDistinct;
+        } else {
+            // estimate the number of distinct values in the table from the
+            // values that occur only once in the sample (Haas and Stokes)
+            double d = sampleRows * (double) sampleDistinct / (sampleRows - once + once * (double) sampleRows / rowCount);
+            distinct = Math.min(Math.max((long) d, sampleDistinct), rowCount);
+        }
+        return new Histogram(bounds, distinct);
+    }
+
+    /**
+     * Estimate the fraction of rows that are equal to the given value.
+     *
+     * @param v the value (of the column type)
+     * @param compareMode the compare mode
+     * @return the fraction between 0 and 1, or -1 if the value is outside of
+     *         the histogram
+     */
+    public double getEqualFraction(Value v, CompareMode compareMode) {
+        int from = countBelow(v, false, compareMode);
+        int to = countBelow(v, true, compareMode);
+        if (to - from > 1) {
+            return (double) (to - from - 1) / (bounds.length - 1);
+        } else if (from == bounds.length || to == 0) {
+            // smaller than the smallest or larger than the largest value:
+            // the rows that were added after ANALYZE, or that were not in the
+            // sample, are unknown
+            return -1;
+        }
+        return otherFraction;
+    }
+
+    /**
+     * Estimate the fraction of rows between the given values.
+     *
+     * @param min the lower bound (of the column type), or null
+     * @param max the upper bound (of the column type), or null
+     * @param compareMode the compare mode
+     * @return the fraction between 0 and 1, or -1 if the range is outside of
+     *         the histogram
+     */
+    public double getRangeFraction(Value min, Value max, CompareMode compareMode) {
+        if ((min != null && countBelow(min, false, compareMode) == bounds.length)
+                || (max != null && countBelow(max, true, compareMode) == 0)) {
+            return -1;
+        }
+        double lower = min == null ? 0 : getFractionBelow(min, false, compareMode);
+        double upper = max == null ? 1 : getFractionBelow(max, true, compareMode);
+        if (upper <= lower) {
+            if (min != null && max != null && min.compareTo(max, compareMode) > 0) {
+                return 0;
+            }
+            //范围落在一个桶内，至少按一个值来估计
+            return Math.min(otherFraction, 1);
+        }
+        return Math.max(upper - lower, otherFraction);
+    }
+
+    /**
+     * Estimate the fraction of rows that are smaller than (or equal to) the
+     * given value.
+     */
+    private double getFractionBelow(Value v, boolean inclusive, CompareMode compareMode) {
+        int buckets = bounds.length - 1;
+        int c = countBelow(v, inclusive, compareMode);
+        if (c == 0) {
+            return 0;
+        } else if (c > buckets) {
+            return 1;
+        }
+        Value a = bounds[c - 1], b = bounds[c];
+        double t;
+        if (inclusive && a.compareTo(v, compareMode) == 0) {
+            t = 0;
+        } else if (!inclusive && b.compareTo(v, compareMode) == 0) {
+            t = 1;
+        } else {
+            t = interpolate(a, v, b);
+        }
+        return (c - 1 + t) / buckets;
+    }
+
+    /**
+     * Get the number of bounds that are smaller than (or equal to) the given
+     * value.
+     */
+    private int countBelow(Value v, boolean inclusive, CompareMode compareMode) {
+        int low = 0, high = bounds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int comp = bounds[mid].compareTo(v, compareMode);
+            if (comp < 0 || (inclusive && comp == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Get the relative position of the value within the bucket. For numbers,
+     * the values are assumed to be evenly distributed; for other data types
+     * the middle of the bucket is used.
+     */
+    private static double interpolate(Value a, Value v, Value b) {
+        switch (v.getType()) {
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+        case Value.LONG:
+        case Value.DECIMAL:
+        case Value.DOUBLE:
+        case Value.FLOAT: {
+            double x = a.getDouble(), y = b.getDouble();
+            if (y <= x) {
+                return 0.5;
+            }
+            return Math.min(Math.max((v.getDouble() - x) / (y - x), 0), 1);
+        }
+        default:
+            return 0.5;
+        }
+    }
+
+    public long getDistinct() {
+        return distinct;
+    }
+
+    /**
+     * Get the SQL snippet of the histogram, as used in the column definition.
+     *
+     * @return the SQL snippet
+     */
+    public String getSQL() {
+        StatementBuilder buff = new StatementBuilder("HISTOGRAM(");
+        buff.append(distinct);
+        for (Value v : bounds) {
+            buff.append(", ").append(v.getSQL());
+        }
+        return buff.append(')').toString();
+    }
+
+}
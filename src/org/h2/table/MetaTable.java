@@ -875,6 +875,7 @@ public class MetaTable extends Table {
             add(rows, "MULTI_THREADED", database.isMultiThreaded() ? "1" : "0");
             add(rows, "MVCC", database.isMultiVersion() ? "TRUE" : "FALSE");
             add(rows, "QUERY_TIMEOUT", "" + session.getQueryTimeout());
+            add(rows, "MAX_PARALLEL_WORKERS", "" + session.getMaxParallelWorkers());
             add(rows, "LOG", "" + database.getLogMode());
             // database settings
             ArrayList<String> settingNames = New.arrayList();
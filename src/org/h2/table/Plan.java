@@ -108,6 +108,7 @@ public class Plan {
         int level = 1;
         for (TableFilter tableFilter : allFilters) {
             PlanItem item = tableFilter.getBestPlanItem(session, level++);
+            tableFilter.addMergeJoin(item, this);
             planItems.put(tableFilter, item);
             cost += cost * item.cost;
             setEvaluatable(tableFilter, true);
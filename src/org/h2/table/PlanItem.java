@@ -6,6 +6,7 @@
  */
 package org.h2.table;
 
+import org.h2.index.JoinCursor;
 import org.h2.index.Index;
 
 /**
@@ -20,6 +21,7 @@ public class PlanItem {
     double cost;
 
     private Index index;
+    private JoinCursor joinCursor;
     private PlanItem joinPlan;
     private PlanItem nestedJoinPlan;
 
@@ -31,6 +33,20 @@ public class PlanItem {
         return index;
     }
 
+    void setJoinCursor(JoinCursor joinCursor) {
+        this.joinCursor = joinCursor;
+    }
+
+    /**
+     * Get the join cursor, if the table is read using a hash join or merge
+     * join instead of an index lookup for each row of the outer table.
+     *
+     * @return the join cursor, or null
+     */
+    public JoinCursor getJoinCursor() {
+        return joinCursor;
+    }
+
     PlanItem getJoinPlan() {
         return joinPlan;
     }
@@ -9,9 +9,9 @@ package org.h2.table;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
-import org.h2.api.DatabaseEventListener;
 import org.h2.command.ddl.Analyze;
 import org.h2.command.ddl.CreateTableData;
 import org.h2.constant.ErrorCode;
@@ -21,9 +21,9 @@ import org.h2.constraint.ConstraintReferential;
 import org.h2.engine.Constants;
 import org.h2.engine.DbObject;
 import org.h2.engine.Session;
-import org.h2.index.Cursor;
 import org.h2.index.HashIndex;
 import org.h2.index.Index;
+import org.h2.index.IndexDiskBuffer;
 import org.h2.index.IndexType;
 import org.h2.index.MultiVersionIndex;
 import org.h2.index.NonUniqueHashIndex;
@@ -37,11 +37,13 @@ import org.h2.message.Trace;
 import org.h2.result.Row;
 import org.h2.result.SortOrder;
 import org.h2.schema.SchemaObject;
-import org.h2.util.MathUtils;
 import org.h2.util.New;
 import org.h2.value.CompareMode;
 import org.h2.value.DataType;
 import org.h2.value.Value;
+import org.h2.value.ValueArray;
+import org.h2.value.ValueInt;
+import org.h2.value.ValueNull;
 
 /**
  * Most tables are an instance of this class. For this table, the data is stored
@@ -54,6 +56,29 @@ public class RegularTable extends TableBase {
     private long rowCount;
     private volatile Session lockExclusive;
     private HashSet<Session> lockShared = New.hashSet();
+
+    /**
+     * The sessions that write to this table using row level locking. They
+     * don't block each other, but they block readers and exclusive locks.
+     */
+    private HashSet<Session> lockWriters = New.hashSet();
+
+    /**
+     * The row level locks: the owner by row key (a Long) and by unique index
+     * entry (a ValueArray of the index id and the values).
+     */
+    private HashMap<Object, Session> rowLocks = New.hashMap();
+
+    /**
+     * The row level locks held by each session.
+     */
+    private HashMap<Session, ArrayList<Object>> sessionRowLocks = New.hashMap();
+
+    /**
+     * The row level lock each waiting session is waiting for.
+     */
+    private HashMap<Session, Object> rowLockWaits = New.hashMap();
+
     private final Trace traceLock;
     private final ArrayList<Index> indexes = New.arrayList();
     private long lastModificationId; //在addRow、commit、removeRow、truncate时改变
@@ -114,6 +139,11 @@ public class RegularTable extends TableBase {
     }
 
     public void addRow(Session session, Row row) {
+        boolean rowLocking = isRowLocking(session);
+        if (rowLocking) {
+            //先锁唯一索引的值，这样其他事务删掉的值在它提交前不会被重新插入，回滚时就不会有重复键
+            lockUniqueValues(session, row);
+        }
         lastModificationId = database.getNextModificationDataId();
         if (database.isMultiVersion()) {
             row.setSessionId(session.getId());
@@ -156,6 +186,10 @@ public class RegularTable extends TableBase {
             }
             throw de;
         }
+        if (rowLocking) {
+            //新行的key在加到scan索引时才确定，这里不会等待
+            setRowLock(session, row.getKey());
+        }
         analyzeIfRequired(session);
     }
 
@@ -254,28 +288,10 @@ public class RegularTable extends TableBase {
         //从ScanIndex中读出原始记录，新建或重建索引
         if (index.needRebuild() && rowCount > 0) {
             try {
-                Index scan = getScanIndex(session);
-                long remaining = scan.getRowCount(session);
-                long total = remaining;
-                Cursor cursor = scan.find(session, null, null);
-                long i = 0;
-                int bufferSize = (int) Math.min(rowCount, Constants.DEFAULT_MAX_MEMORY_ROWS);
-                ArrayList<Row> buffer = New.arrayList(bufferSize);
-                String n = getName() + ":" + index.getName();
-                int t = MathUtils.convertLongToInt(total);
-                while (cursor.next()) {
-                    database.setProgress(DatabaseEventListener.STATE_CREATE_INDEX, n,
-                            MathUtils.convertLongToInt(i++), t);
-                    Row row = cursor.get();
-                    buffer.add(row);
-                    if (buffer.size() >= bufferSize) {
-                        addRowsToIndex(session, buffer, index);
-                    }
-                    remaining--;
-                }
-                addRowsToIndex(session, buffer, index);
-                if (SysProperties.CHECK && remaining != 0) {
-                    DbException.throwInternalError("rowcount remaining=" + remaining + " " + getName());
+                if (index instanceof PageBtreeIndex) {
+                    rebuildIndexBuffered(session, (PageBtreeIndex) index);
+                } else {
+                    rebuildIndex(session, index);
                 }
             } catch (DbException e) {
                 getSchema().freeUniqueName(indexName);
@@ -305,6 +321,39 @@ public class RegularTable extends TableBase {
         return index;
     }
 
+    private void rebuildIndex(final Session session, final Index index) {
+        ArrayList<Row> last = scanRows(session, index, new RowBatchSink() {
+            public void addRows(ArrayList<Row> rows) {
+                addRowsToIndex(session, rows, index);
+            }
+        });
+        addRowsToIndex(session, last, index);
+    }
+
+    /**
+     * Build a new b-tree index using an external merge sort: each block of
+     * rows is sorted and written to a temporary file, and the sorted blocks
+     * are then merged while the index pages are written from the left to the
+     * right.
+     *
+     * @param session the session
+     * @param index the new index
+     */
+    private void rebuildIndexBuffered(Session session, PageBtreeIndex index) {
+        final IndexDiskBuffer sortBuffer = new IndexDiskBuffer(session, index);
+        try {
+            ArrayList<Row> last = scanRows(session, index, new RowBatchSink() {
+                public void addRows(ArrayList<Row> rows) {
+                    sortBuffer.addRows(rows);
+                }
+            });
+            sortBuffer.addRows(last);
+            index.addRows(session, sortBuffer);
+        } finally {
+            sortBuffer.close();
+        }
+    }
+
     private int getMainIndexColumn(IndexType indexType, IndexColumn[] cols) {
         if (mainIndex.getMainIndexColumn() != -1) {
             return -1;
@@ -368,6 +417,13 @@ public class RegularTable extends TableBase {
             } else if (old != newId) {
                 throw DbException.get(ErrorCode.CONCURRENT_UPDATE_1, getName());
             }
+        } else if (isRowLocking(session)) {
+            boolean waited = lockRow(session, Long.valueOf(row.getKey()));
+            if (waited && !isCurrentRow(session, row)) {
+                //等待期间持有锁的事务修改了这一行然后提交或回滚了，读到的旧行已经无效
+                throw DbException.get(ErrorCode.CONCURRENT_UPDATE_1, getName());
+            }
+            lockUniqueValues(session, row);
         }
         lastModificationId = database.getNextModificationDataId();
         int i = indexes.size() - 1;
@@ -413,17 +469,25 @@ public class RegularTable extends TableBase {
         if (nextAnalyze == 0 || nextAnalyze > changesSinceAnalyze++) {
             return;
         }
+        if (isLockedByOther(lockWriters, session)) {
+            // reading the table would have to wait until the other sessions
+            // that write to it are done (possibly while rolling back)
+            return;
+        }
         changesSinceAnalyze = 0;
         int n = 2 * nextAnalyze; //每算完一次就翻倍，比如第一次是2000行算一次，下次是4000，再下次是8000...
         if (n > 0) {
             nextAnalyze = n;
         }
+        if (database.analyzeLater(this)) {
+            return;
+        }
         int rows = session.getDatabase().getSettings().analyzeSample; //抽样是1万行
         Analyze.analyzeTable(session, this, rows, false);
     }
 
     public boolean isLockedExclusivelyBy(Session session) {
-        return lockExclusive == session;
+        return lockExclusive == session || lockWriters.contains(session);
     }
     
     //直到事务commit或rollback时才解琐，见org.h2.engine.Session.unlockAll()
@@ -436,6 +500,7 @@ public class RegularTable extends TableBase {
         if (lockMode == Constants.LOCK_MODE_OFF) { //禁用锁
             return;
         }
+        boolean write = false;
         if (!force && database.isMultiVersion()) { //如果使用了MVCC，并且不是强制的，则 不使用排它琐
             // MVCC: update, delete, and insert use a shared lock.
             // Select doesn't lock except when using FOR UPDATE and
@@ -448,20 +513,27 @@ public class RegularTable extends TableBase {
                     return;
                 }
             }
+        } else if (!force && exclusive && lockMode == Constants.LOCK_MODE_ROW
+                && !database.isMultiThreaded()) {
+            // row level locking: update, delete, and insert only exclude
+            // readers and exclusive locks, the rows are locked when they
+            // are changed
+            exclusive = false;
+            write = true;
         }
         if (lockExclusive == session) {
             return;
         }
         synchronized (database) {
             try {
-                doLock(session, lockMode, exclusive);
+                doLock(session, lockMode, exclusive, write);
             } finally {
                 session.setWaitForLock(null);
             }
         }
     }
-    private void doLock(Session session, int lockMode, boolean exclusive) {
-        traceLock(session, exclusive, "requesting for");
+    private void doLock(Session session, int lockMode, boolean exclusive, boolean write) {
+        traceLock(session, exclusive, write, "requesting for");
         // don't get the current time unless necessary
         long max = 0;
         boolean checkDeadlock = false;
@@ -469,16 +541,28 @@ public class RegularTable extends TableBase {
             if (lockExclusive == session) {
                 return;
             }
-            if (exclusive) {
+            if (write) {
+            	//写操作之间不互斥，只跟其他session的读锁和排它锁互斥
+                if (lockExclusive == null && !isLockedByOther(lockShared, session)) {
+                    if (!lockWriters.contains(session)) {
+                        traceLock(session, exclusive, write, "added for");
+                        if (!lockShared.contains(session)) {
+                            session.addLock(this);
+                        }
+                        lockWriters.add(session);
+                    }
+                    return;
+                }
+            } else if (exclusive) {
                 if (lockExclusive == null) {
-                    if (lockShared.isEmpty()) {
-                        traceLock(session, exclusive, "added for");
+                    if (lockShared.isEmpty() && lockWriters.isEmpty()) {
+                        traceLock(session, exclusive, write, "added for");
                         session.addLock(this);
                         lockExclusive = session;
                         return;
                     //如果前面有一个读锁，并且是相同的session，那么insert之类的操作不须等待
-                    } else if (lockShared.size() == 1 && lockShared.contains(session)) {
-                        traceLock(session, exclusive, "add (upgraded) for ");
+                    } else if (!isLockedByOther(lockShared, session) && !isLockedByOther(lockWriters, session)) {
+                        traceLock(session, exclusive, write, "add (upgraded) for ");
                         lockExclusive = session;
                         return;
                     }
@@ -486,8 +570,10 @@ public class RegularTable extends TableBase {
             } else {
             	//如果lockExclusive不为null，说明前面有一个排它锁，不管当前操作是查询还是更新，都必须等待，
             	//如果lockExclusive为null，那么当前操作可顺利进行
+            	//读锁只跟排它锁互斥，不等其他session的写锁(行级锁)，
+            	//否则两个事务各自先写后读同一个表时会互相等待
                 if (lockExclusive == null) {
-                    if (lockMode == Constants.LOCK_MODE_READ_COMMITTED) {
+                    if (lockMode == Constants.LOCK_MODE_READ_COMMITTED || lockMode == Constants.LOCK_MODE_ROW) {
                         if (!database.isMultiThreaded() && !database.isMultiVersion()) {
                             // READ_COMMITTED: a read lock is acquired,
                             // but released immediately after the operation
@@ -499,56 +585,198 @@ public class RegularTable extends TableBase {
                         }
                     }
                     if (!lockShared.contains(session)) {
-                        traceLock(session, exclusive, "ok");
-                        session.addLock(this);
+                        traceLock(session, exclusive, write, "ok");
+                        if (!lockWriters.contains(session)) {
+                            session.addLock(this);
+                        }
                         lockShared.add(session);
                     }
                     return;
                 }
             }
-            session.setWaitForLock(this);
-            if (checkDeadlock) {
-                ArrayList<Session> sessions = checkDeadlock(session, null, null);
-                if (sessions != null) {
-                    throw DbException.get(ErrorCode.DEADLOCK_1, getDeadlockDetails(sessions));
+            max = waitForLock(session, checkDeadlock, max, exclusive, write);
+            // check for deadlocks from now on
+            checkDeadlock = true;
+        }
+    }
+
+    private static boolean isLockedByOther(HashSet<Session> sessions, Session session) {
+        int size = sessions.size();
+        return size > 1 || size == 1 && !sessions.contains(session);
+    }
+
+    /**
+     * Wait until a lock of this table or one of its rows might be released.
+     *
+     * @param session the waiting session
+     * @param checkDeadlock whether to check for deadlocks
+     * @param max the time when the lock timeout is reached, or 0
+     * @param exclusive whether an exclusive lock is requested
+     * @param write whether a write lock is requested
+     * @return the time when the lock timeout is reached
+     */
+    private long waitForLock(Session session, boolean checkDeadlock, long max, boolean exclusive, boolean write) {
+        session.setWaitForLock(this);
+        if (checkDeadlock) {
+            ArrayList<Session> sessions = checkDeadlock(session, null, null);
+            if (sessions != null) {
+                throw DbException.get(ErrorCode.DEADLOCK_1, getDeadlockDetails(sessions));
+            }
+        }
+        long now = System.currentTimeMillis();
+        if (max == 0) {
+            // try at least one more time
+            max = now + session.getLockTimeout();
+        } else if (now >= max) {
+            traceLock(session, exclusive, write, "timeout after " + session.getLockTimeout());
+            throw DbException.get(ErrorCode.LOCK_TIMEOUT_1, getName());
+        }
+        try {
+            traceLock(session, exclusive, write, "waiting for");
+            if (database.getLockMode() == Constants.LOCK_MODE_TABLE_GC) {
+                for (int i = 0; i < 20; i++) {
+                    long free = Runtime.getRuntime().freeMemory();
+                    System.gc();
+                    long free2 = Runtime.getRuntime().freeMemory();
+                    if (free == free2) {
+                        break;
+                    }
                 }
-            } else {
-                // check for deadlocks from now on
-                checkDeadlock = true;
             }
-            long now = System.currentTimeMillis();
-            if (max == 0) {
-                // try at least one more time
-                max = now + session.getLockTimeout();
-            } else if (now >= max) {
-                traceLock(session, exclusive, "timeout after " + session.getLockTimeout());
-                throw DbException.get(ErrorCode.LOCK_TIMEOUT_1, getName());
+            // don't wait too long so that deadlocks are detected early
+            long sleep = Math.min(Constants.DEADLOCK_CHECK, max - now);
+            if (sleep == 0) {
+                sleep = 1;
             }
+            waitForLock = true;
+            database.wait(sleep);
+        } catch (InterruptedException e) {
+            // ignore
+        }
+        return max;
+    }
+
+    private boolean isRowLocking(Session session) {
+        //多线程模式下索引不能被多个session同时修改，所以写操作仍然锁表
+        return database.getLockMode() == Constants.LOCK_MODE_ROW
+                && !database.isMultiVersion() && !database.isMultiThreaded()
+                && lockExclusive != session;
+    }
+
+    /**
+     * Lock a row or a unique index entry for the given session, and wait if
+     * another session holds the lock. The lock is kept until the transaction
+     * is committed or rolled back.
+     *
+     * @param session the session
+     * @param key the row key or the unique index entry
+     * @return true if the session had to wait
+     */
+    private boolean lockRow(Session session, Object key) {
+        synchronized (database) {
+            Session owner = rowLocks.get(key);
+            if (owner == session) {
+                return false;
+            } else if (owner == null) {
+                setRowLock(session, key);
+                return false;
+            }
+            long max = 0;
+            boolean checkDeadlock = false;
+            rowLockWaits.put(session, key);
             try {
-                traceLock(session, exclusive, "waiting for");
-                if (database.getLockMode() == Constants.LOCK_MODE_TABLE_GC) {
-                    for (int i = 0; i < 20; i++) {
-                        long free = Runtime.getRuntime().freeMemory();
-                        System.gc();
-                        long free2 = Runtime.getRuntime().freeMemory();
-                        if (free == free2) {
-                            break;
-                        }
+                while (true) {
+                    owner = rowLocks.get(key);
+                    if (owner == null) {
+                        setRowLock(session, key);
+                        return true;
                     }
+                    max = waitForLock(session, checkDeadlock, max, false, true);
+                    checkDeadlock = true;
                 }
-                // don't wait too long so that deadlocks are detected early
-                long sleep = Math.min(Constants.DEADLOCK_CHECK, max - now);
-                if (sleep == 0) {
-                    sleep = 1;
+            } finally {
+                rowLockWaits.remove(session);
+                session.setWaitForLock(null);
+            }
+        }
+    }
+
+    private void setRowLock(Session session, Object key) {
+        synchronized (database) {
+            //内存表(ScanIndex)会重用被删除行的key，此时直接换成新的持有者
+            Session old = rowLocks.put(key, session);
+            if (old == session) {
+                return;
+            }
+            ArrayList<Object> list = sessionRowLocks.get(session);
+            if (list == null) {
+                list = New.arrayList();
+                sessionRowLocks.put(session, list);
+            }
+            list.add(key);
+        }
+    }
+
+    /**
+     * Lock the entries of the row in all unique indexes. Entries that contain
+     * NULL are not locked, as they are never duplicates.
+     *
+     * @param session the session
+     * @param row the row
+     */
+    private void lockUniqueValues(Session session, Row row) {
+        for (int i = 1, size = indexes.size(); i < size; i++) {
+            Index index = indexes.get(i);
+            if (!index.getIndexType().isUnique()) {
+                continue;
+            }
+            Column[] cols = index.getColumns();
+            Value[] list = new Value[cols.length + 1];
+            list[0] = ValueInt.get(index.getId());
+            boolean hasNull = false;
+            for (int j = 0; j < cols.length; j++) {
+                Value v = row.getValue(cols[j].getColumnId());
+                if (v == null || v == ValueNull.INSTANCE) {
+                    hasNull = true;
+                    break;
                 }
-                waitForLock = true;
-                database.wait(sleep);
-            } catch (InterruptedException e) {
-                // ignore
+                list[j + 1] = v;
+            }
+            if (!hasNull) {
+                lockRow(session, ValueArray.get(list));
             }
         }
     }
 
+    /**
+     * Check if the row still exists in this table, with the same values.
+     *
+     * @param session the session
+     * @param row the row
+     * @return true if it does
+     */
+    private boolean isCurrentRow(Session session, Row row) {
+        Row current;
+        try {
+            current = scanIndex.getRow(session, row.getKey());
+        } catch (DbException e) {
+            return false;
+        }
+        if (current == row) {
+            return true;
+        }
+        if (current == null || current.isDeleted() || current.getValueList() == null
+                || current.getColumnCount() != row.getColumnCount()) {
+            return false;
+        }
+        for (int i = 0, len = row.getColumnCount(); i < len; i++) {
+            if (!current.getValue(i).equals(row.getValue(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static String getDeadlockDetails(ArrayList<Session> sessions) {
         StringBuilder buff = new StringBuilder();
         for (Session s : sessions) {
@@ -565,8 +793,11 @@ public class RegularTable extends TableBase {
                 }
                 buff.append(t.toString());
                 if (t instanceof RegularTable) {
-                    if (((RegularTable) t).lockExclusive == s) {
+                    RegularTable r = (RegularTable) t;
+                    if (r.lockExclusive == s) {
                         buff.append(" (exclusive)");
+                    } else if (r.lockWriters.contains(s)) {
+                        buff.append(" (row)");
                     } else {
                         buff.append(" (shared)");
                     }
@@ -609,38 +840,53 @@ public class RegularTable extends TableBase {
                 return null;
             }
             visited.add(session);
+            Object key = rowLockWaits.get(session);
+            if (key != null) {
+                // waiting for a row lock: only its owner blocks the session
+                Session owner = rowLocks.get(key);
+                return owner == null ? null : checkDeadlock(owner, session, clash, visited);
+            }
             ArrayList<Session> error = null;
             for (Session s : lockShared) {
-                if (s == session) {
-                    // it doesn't matter if we have locked the object already
-                    continue;
-                }
-                Table t = s.getWaitForLock();
-                if (t != null) {
-                    error = t.checkDeadlock(s, clash, visited);
-                    if (error != null) {
-                        error.add(session);
-                        break;
-                    }
+                error = checkDeadlock(s, session, clash, visited);
+                if (error != null) {
+                    return error;
                 }
             }
-            if (error == null && lockExclusive != null) {
-                Table t = lockExclusive.getWaitForLock();
-                if (t != null) {
-                    error = t.checkDeadlock(lockExclusive, clash, visited);
-                    if (error != null) {
-                        error.add(session);
-                    }
+            for (Session s : lockWriters) {
+                error = checkDeadlock(s, session, clash, visited);
+                if (error != null) {
+                    return error;
                 }
             }
+            if (lockExclusive != null) {
+                error = checkDeadlock(lockExclusive, session, clash, visited);
+            }
             return error;
         }
     }
 
-    private void traceLock(Session session, boolean exclusive, String s) {
+    private static ArrayList<Session> checkDeadlock(Session owner, Session session, Session clash,
+            Set<Session> visited) {
+        if (owner == session) {
+            // it doesn't matter if we have locked the object already
+            return null;
+        }
+        Table t = owner.getWaitForLock();
+        if (t == null) {
+            return null;
+        }
+        ArrayList<Session> error = t.checkDeadlock(owner, clash, visited);
+        if (error != null) {
+            error.add(session);
+        }
+        return error;
+    }
+
+    private void traceLock(Session session, boolean exclusive, boolean write, String s) {
         if (traceLock.isDebugEnabled()) {
             traceLock.debug("{0} {1} {2} {3}", session.getId(),
-                    exclusive ? "exclusive write lock" : "shared read lock", s, getName());
+                    exclusive ? "exclusive write lock" : write ? "row write lock" : "shared read lock", s, getName());
         }
     }
 
@@ -650,13 +896,24 @@ public class RegularTable extends TableBase {
 
     public void unlock(Session s) {
         if (database != null) {
-            traceLock(s, lockExclusive == s, "unlock");
+            traceLock(s, lockExclusive == s, lockWriters.contains(s), "unlock");
             if (lockExclusive == s) {
                 lockExclusive = null;
             }
             if (lockShared.size() > 0) {
                 lockShared.remove(s);
             }
+            if (lockWriters.size() > 0) {
+                lockWriters.remove(s);
+            }
+            ArrayList<Object> list = sessionRowLocks.remove(s);
+            if (list != null) {
+                for (Object key : list) {
+                    if (rowLocks.get(key) == s) {
+                        rowLocks.remove(key);
+                    }
+                }
+            }
             // TODO lock: maybe we need we fifo-queue to make sure nobody
             // starves. check what other databases do
             synchronized (database) {
@@ -10,8 +10,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
+import org.h2.api.DatabaseEventListener;
 import org.h2.command.Prepared;
 import org.h2.constant.ErrorCode;
+import org.h2.constant.SysProperties;
 import org.h2.constraint.Constraint;
 import org.h2.engine.Constants;
 import org.h2.engine.DbObject;
@@ -20,6 +22,7 @@ import org.h2.engine.Session;
 import org.h2.engine.UndoLogRecord;
 import org.h2.expression.Expression;
 import org.h2.expression.ExpressionVisitor;
+import org.h2.index.Cursor;
 import org.h2.index.Index;
 import org.h2.index.IndexType;
 import org.h2.message.DbException;
@@ -34,6 +37,7 @@ import org.h2.schema.Schema;
 import org.h2.schema.SchemaObjectBase;
 import org.h2.schema.Sequence;
 import org.h2.schema.TriggerObject;
+import org.h2.util.MathUtils;
 import org.h2.util.New;
 import org.h2.value.CompareMode;
 import org.h2.value.Value;
@@ -642,19 +646,20 @@ public abstract class Table extends SchemaObjectBase {
      * @param session the session
      * @param masks per-column comparison bit masks, null means 'always false',
      *              see constants in IndexCondition
+     * @param filter the table filter with the index conditions, or null
      * @param sortOrder the sort order
      * @return the plan item
      */
-    public PlanItem getBestPlanItem(Session session, int[] masks, SortOrder sortOrder) {
+    public PlanItem getBestPlanItem(Session session, int[] masks, TableFilter filter, SortOrder sortOrder) {
         PlanItem item = new PlanItem();
         item.setIndex(getScanIndex(session));
-        item.cost = item.getIndex().getCost(session, null, null);
+        item.cost = item.getIndex().getCost(session, null, null, null);
         ArrayList<Index> indexes = getIndexes();
         if (indexes != null && masks != null) {
         	//indexes[0]是ScanIndex，所以可以跳过，从1开始
             for (int i = 1, size = indexes.size(); i < size; i++) {
                 Index index = indexes.get(i);
-                double cost = index.getCost(session, masks, sortOrder);
+                double cost = index.getCost(session, masks, filter, sortOrder);
                 if (cost < item.cost) {
                     item.cost = cost;
                     item.setIndex(index);
@@ -1110,4 +1115,54 @@ public abstract class Table extends SchemaObjectBase {
         return false;
     }
 
+    /**
+     * Read all rows of this table to build a new index. The rows are passed
+     * to the sink in blocks of at most DEFAULT_MAX_MEMORY_ROWS rows, and the
+     * progress is reported to the database event listener.
+     *
+     * @param session the session
+     * @param index the new index
+     * @param sink the sink for each full block of rows
+     * @return the rows of the last block, which were not passed to the sink
+     */
+    protected ArrayList<Row> scanRows(Session session, Index index, RowBatchSink sink) {
+        Index scan = getScanIndex(session);
+        long remaining = scan.getRowCount(session);
+        long total = remaining;
+        Cursor cursor = scan.find(session, null, null);
+        long i = 0;
+        int bufferSize = (int) Math.max(1, Math.min(total, Constants.DEFAULT_MAX_MEMORY_ROWS));
+        ArrayList<Row> buffer = New.arrayList(bufferSize);
+        String n = getName() + ":" + index.getName();
+        int t = MathUtils.convertLongToInt(total);
+        while (cursor.next()) {
+            database.setProgress(DatabaseEventListener.STATE_CREATE_INDEX, n,
+                    MathUtils.convertLongToInt(i++), t);
+            Row row = cursor.get();
+            buffer.add(row);
+            if (buffer.size() >= bufferSize) {
+                sink.addRows(buffer);
+                buffer.clear();
+            }
+            remaining--;
+        }
+        if (SysProperties.CHECK && remaining != 0) {
+            DbException.throwInternalError("rowcount remaining=" + remaining + " " + getName());
+        }
+        return buffer;
+    }
+
+    /**
+     * The target of the rows that are read by scanRows.
+     */
+    public interface RowBatchSink {
+
+        /**
+         * Process a full block of rows. The list is cleared afterwards.
+         *
+         * @param rows the rows
+         */
+        void addRows(ArrayList<Row> rows);
+    }
+
 }
@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import org.h2.command.Parser;
 import org.h2.command.dml.Select;
 import org.h2.constant.SysProperties;
+import org.h2.engine.Constants;
 import org.h2.engine.Right;
 import org.h2.engine.Session;
 import org.h2.engine.UndoLogRecord;
@@ -17,9 +18,14 @@ import org.h2.expression.Comparison;
 import org.h2.expression.ConditionAndOr;
 import org.h2.expression.Expression;
 import org.h2.expression.ExpressionColumn;
+import org.h2.expression.ExpressionVisitor;
+import org.h2.index.Cursor;
+import org.h2.index.HashJoinCursor;
 import org.h2.index.Index;
 import org.h2.index.IndexCondition;
 import org.h2.index.IndexCursor;
+import org.h2.index.JoinCursor;
+import org.h2.index.MergeJoinCursor;
 import org.h2.message.DbException;
 import org.h2.result.Row;
 import org.h2.result.SearchRow;
@@ -40,6 +46,11 @@ public class TableFilter implements ColumnResolver {
 
     private static final int BEFORE_FIRST = 0, FOUND = 1, AFTER_LAST = 2, NULL_ROW = 3;
 
+    /**
+     * The number of rows for which the batch condition is evaluated at once.
+     */
+    private static final int BATCH_SIZE = 1024;
+
     /**
      * Whether this is a direct or indirect (nested) outer join
      */
@@ -64,6 +75,20 @@ public class TableFilter implements ColumnResolver {
      */
     private final IndexCursor cursor;
 
+    /**
+     * The cursor used instead of the index cursor if the table is read using
+     * a hash join or merge join.
+     */
+    private JoinCursor joinCursor;
+
+    /**
+     * The condition that is evaluated for a batch of rows at once, or null.
+     */
+    private Expression batchCondition;
+    private Row[] batchRows;
+    private boolean[] batchMatch;
+    private int batchCount, batchPos;
+
     /**
      * The index conditions used for direct index lookup (start or end).
      */
@@ -177,7 +202,7 @@ public class TableFilter implements ColumnResolver {
         if (indexConditions.size() == 0) {
             item = new PlanItem();
             item.setIndex(table.getScanIndex(s));
-            item.cost = item.getIndex().getCost(s, null, null);
+            item.cost = item.getIndex().getCost(s, null, null, null);
         } else {
             int len = table.getColumns().length;
             int[] masks = new int[len]; //对应表的所有字段，只有其中的索引字段才有值，其他的不设置，默认为0
@@ -208,12 +233,16 @@ public class TableFilter implements ColumnResolver {
             if (select != null) {
                 sortOrder = select.getSortOrder();
             }
-            item = table.getBestPlanItem(s, masks, sortOrder);
+            item = table.getBestPlanItem(s, masks, this, sortOrder);
             // The more index conditions, the earlier the table.
             // This is to ensure joins without indexes run quickly:
             // x (x.a=10); y (x.b=y.b) - see issue 113
             //level越大，item.cost就减去一个越小的值，所以join的cost越大
             item.cost -= item.cost * indexConditions.size() / 100 / level;
+            if ((level > 1 || joinOuter) && item.getIndex().getIndexType().isScan() &&
+                    s.getDatabase().getSettings().hashJoin) {
+                addHashJoin(item);
+            }
         }
         if (nestedJoin != null) {
             setEvaluatable(nestedJoin);
@@ -232,6 +261,92 @@ public class TableFilter implements ColumnResolver {
         return item;
     }
 
+    /**
+     * Use a hash join instead of scanning the table for each row of the outer
+     * table, if there is an equality condition that can be used and the
+     * estimated cost is lower.
+     *
+     * @param item the plan item that uses a table scan
+     */
+    private void addHashJoin(PlanItem item) {
+        if (select != null && !select.isEverything(ExpressionVisitor.INDEPENDENT_VISITOR)) {
+            // a correlated subquery is run once for each row of the outer
+            // query, and the build side would be read each time
+            return;
+        }
+        long rowCount = table.getRowCountApproximation() + Constants.COST_ROW_OFFSET;
+        double partitionCost = HashJoinCursor.getPartitionCost(session.getDatabase(), table, rowCount);
+        for (IndexCondition condition : indexConditions) {
+            if (!condition.isEvaluatable() || condition.isAlwaysFalse()) {
+                continue;
+            }
+            HashJoinCursor h = HashJoinCursor.get(this, condition);
+            if (h == null) {
+                continue;
+            }
+            // the table is read only once, after that each lookup costs
+            // about as much as an equality lookup in a non-unique index
+            long distinctRows = rowCount * condition.getColumn().getSelectivity() / 100;
+            if (distinctRows <= 0) {
+                distinctRows = 1;
+            }
+            double cost = 2 + Math.max(rowCount / distinctRows, 1);
+            // if the table does not fit in memory, a lookup may need to read
+            // a partition of the rows from disk
+            cost += partitionCost;
+            if (cost < item.cost) {
+                item.cost = cost;
+                item.setJoinCursor(h);
+            }
+        }
+    }
+
+    /**
+     * Use a merge join if the rows of an outer table are read in the order of
+     * the join column, and the index of this table is sorted by the join
+     * column as well. The index is then read in one pass instead of doing one
+     * index lookup for each row of the outer table.
+     *
+     * @param item the plan item of this table
+     * @param plan the plan that contains the plan items of the outer tables
+     */
+    void addMergeJoin(PlanItem item, Plan plan) {
+        Index idx = item.getIndex();
+        if (item.getJoinCursor() != null || idx == null || !session.getDatabase().getSettings().mergeJoin) {
+            return;
+        }
+        for (IndexCondition condition : indexConditions) {
+            if (!condition.isEvaluatable() || !MergeJoinCursor.isSortedBy(idx, condition.getColumn())) {
+                continue;
+            }
+            Expression e = condition.getExpression();
+            if (!(e instanceof ExpressionColumn)) {
+                continue;
+            }
+            ExpressionColumn outerColumn = (ExpressionColumn) e;
+            PlanItem outer = plan.getItem(outerColumn.getTableFilter());
+            if (outer == null || outer.getJoinCursor() != null || outer.getIndex() == null ||
+                    !MergeJoinCursor.isSortedBy(outer.getIndex(), outerColumn.getColumn())) {
+                continue;
+            }
+            // both inputs are already sorted, so there is no sort cost: a
+            // merge join reads rows(outer) + rows(inner) rows in total, that
+            // is 1 + rows(inner) / rows(outer) for each row of the outer table
+            long outerRows = Math.max(outerColumn.getTableFilter().getTable().getRowCountApproximation(), 1);
+            long innerRows = Math.max(table.getRowCountApproximation(), 1);
+            double cost = 1 + (double) innerRows / outerRows;
+            if (cost >= item.cost) {
+                continue;
+            }
+            MergeJoinCursor m = MergeJoinCursor.get(this, condition, idx);
+            if (m != null) {
+                item.cost = cost;
+                item.setJoinCursor(m);
+                return;
+            }
+        }
+    }
+
     private void setEvaluatable(TableFilter join) {
         if (session.getDatabase().getSettings().nestedJoins) {
             setEvaluatable(true);
@@ -263,6 +378,7 @@ public class TableFilter implements ColumnResolver {
             return;
         }
         setIndex(item.getIndex());
+        joinCursor = item.getJoinCursor();
         if (nestedJoin != null) {
             if (item.getNestedJoinPlan() != null) {
                 nestedJoin.setPlanItem(item.getNestedJoinPlan());
@@ -328,6 +444,10 @@ public class TableFilter implements ColumnResolver {
     public void startQuery(Session s) {
         this.session = s;
         scanCount = 0;
+        batchCondition = null;
+        if (joinCursor != null) {
+            joinCursor.reset();
+        }
         if (nestedJoin != null) {
             nestedJoin.startQuery(s);
         }
@@ -336,6 +456,22 @@ public class TableFilter implements ColumnResolver {
         }
     }
 
+    /**
+     * End the query. The join cursors release the rows they keep in memory,
+     * and delete their temporary files.
+     */
+    public void endQuery() {
+        if (joinCursor != null) {
+            joinCursor.reset();
+        }
+        if (nestedJoin != null) {
+            nestedJoin.endQuery();
+        }
+        if (join != null) {
+            join.endQuery();
+        }
+    }
+
     /**
      * Reset to the current position.
      */
@@ -348,6 +484,29 @@ public class TableFilter implements ColumnResolver {
         }
         state = BEFORE_FIRST;
         foundOne = false;
+        batchCount = 0;
+        batchPos = 0;
+    }
+
+    /**
+     * Only iterate over the rows where the given condition is true. The rows
+     * are read in batches, and the condition is evaluated for all rows of a
+     * batch at once (see Expression.getBooleanValues). This is only supported
+     * if there are no joins. The condition is reset when the query is started.
+     *
+     * @param condition the condition
+     */
+    public void setBatchCondition(Expression condition) {
+        if (SysProperties.CHECK && (join != null || nestedJoin != null)) {
+            DbException.throwInternalError();
+        }
+        batchCondition = condition;
+        if (batchRows == null) {
+            batchRows = new Row[BATCH_SIZE];
+            batchMatch = new boolean[BATCH_SIZE];
+        }
+        batchCount = 0;
+        batchPos = 0;
     }
 
     /**
@@ -375,11 +534,47 @@ public class TableFilter implements ColumnResolver {
     //TableFilter(SYSTEM_JOIN_xxx).nestedJoin => TableFilter(JoinTest1)
     //TableFilter(SYSTEM_JOIN_xxx).join => TableFilter(JoinTest2)
     public boolean next() {
+        if (batchCondition != null) {
+            return nextBatch();
+        }
+        return nextRow();
+    }
+
+    private boolean nextBatch() {
+        while (true) {
+            while (batchPos < batchCount) {
+                Row row = batchRows[batchPos];
+                boolean match = batchMatch[batchPos];
+                batchRows[batchPos++] = null;
+                if (match) {
+                    current = row;
+                    currentSearchRow = row;
+                    return true;
+                }
+            }
+            batchCount = 0;
+            batchPos = 0;
+            while (batchCount < BATCH_SIZE && nextRow()) {
+                batchRows[batchCount] = get();
+                batchMatch[batchCount++] = true;
+            }
+            if (batchCount == 0) {
+                return false;
+            }
+            batchCondition.getBooleanValues(session, this, batchRows, batchCount, batchMatch);
+        }
+    }
+
+    private boolean nextRow() {
         if (state == AFTER_LAST) {
             return false;
         } else if (state == BEFORE_FIRST) {
-            cursor.find(session, indexConditions);
-            if (!cursor.isAlwaysFalse()) {
+            if (joinCursor != null) {
+                joinCursor.find(session);
+            } else {
+                cursor.find(session, indexConditions);
+            }
+            if (joinCursor != null || !cursor.isAlwaysFalse()) {
                 if (nestedJoin != null) {
                     nestedJoin.reset();
                 }
@@ -399,7 +594,7 @@ public class TableFilter implements ColumnResolver {
             if (state == NULL_ROW) {
                 break;
             }
-            if (cursor.isAlwaysFalse()) {
+            if (joinCursor == null && cursor.isAlwaysFalse()) {
             	//当OPTIMIZE_IS_NULL设为false时，cursor.isAlwaysFalse()是true
                 //对于这样的SELECT rownum, * FROM JoinTest1 LEFT OUTER JOIN JoinTest2 ON name2=null
                 //还是会返回JoinTest1的所有记录，JoinTest2中的全为null
@@ -412,8 +607,9 @@ public class TableFilter implements ColumnResolver {
                 if ((++scanCount & 4095) == 0) {
                     checkTimeout();
                 }
-                if (cursor.next()) {
-                    currentSearchRow = cursor.getSearchRow();
+                Cursor c = joinCursor != null ? joinCursor : cursor;
+                if (c.next()) {
+                    currentSearchRow = c.getSearchRow();
                     current = null;
                     state = FOUND;
                 } else {
@@ -519,7 +715,7 @@ public class TableFilter implements ColumnResolver {
      */
     public Row get() {
         if (current == null && currentSearchRow != null) {
-            current = cursor.get();
+            current = joinCursor != null ? joinCursor.get() : cursor.get();
         }
         return current;
     }
@@ -549,6 +745,15 @@ public class TableFilter implements ColumnResolver {
         return table.getName();
     }
 
+    /**
+     * Get the index conditions of this filter.
+     *
+     * @return the index conditions
+     */
+    public ArrayList<IndexCondition> getIndexConditions() {
+        return indexConditions;
+    }
+
     /**
      * Add an index condition.
      *
@@ -756,7 +961,10 @@ public class TableFilter implements ColumnResolver {
             buff.append('\n');
             StatementBuilder planBuff = new StatementBuilder();
             planBuff.append(index.getPlanSQL());
-            if (indexConditions.size() > 0) {
+            if (joinCursor != null) {
+                planBuff.append(' ').append(joinCursor.getPlanSQL()).append(": ");
+                planBuff.append(joinCursor.getCondition().getSQL());
+            } else if (indexConditions.size() > 0) {
                 planBuff.append(": ");
                 for (IndexCondition condition : indexConditions) {
                     planBuff.appendExceptFirst("\n    AND ");
@@ -965,7 +1173,7 @@ public class TableFilter implements ColumnResolver {
             if (v != null) {
                 return v;
             }
-            current = cursor.get();
+            current = joinCursor != null ? joinCursor.get() : cursor.get();
             if (current == null) {
                 return ValueNull.INSTANCE;
             }
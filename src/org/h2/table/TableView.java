@@ -255,9 +255,9 @@ public class TableView extends Table {
         return createException != null;
     }
 
-    public synchronized PlanItem getBestPlanItem(Session session, int[] masks, SortOrder sortOrder) {
+    public synchronized PlanItem getBestPlanItem(Session session, int[] masks, TableFilter filter, SortOrder sortOrder) {
         PlanItem item = new PlanItem();
-        item.cost = index.getCost(session, masks, sortOrder);
+        item.cost = index.getCost(session, masks, filter, sortOrder);
         IntArray masksArray = new IntArray(masks == null ? Utils.EMPTY_INT_ARRAY : masks);
         SynchronizedVerifier.check(indexCache);
         ViewIndex i2 = indexCache.get(masksArray);
@@ -402,12 +402,21 @@ public class TableView extends Table {
         return querySQL;
     }
 
+    /**
+     * Get the compiled query of this view.
+     *
+     * @return the query, or null if the view is invalid
+     */
+    public Query getViewQuery() {
+        return createException != null ? null : viewQuery;
+    }
+
     public Index getScanIndex(Session session) {
         if (createException != null) {
             String msg = createException.getMessage();
             throw DbException.get(ErrorCode.VIEW_IS_INVALID_2, createException, getSQL(), msg);
         }
-        PlanItem item = getBestPlanItem(session, null, null);
+        PlanItem item = getBestPlanItem(session, null, null, null);
         return item.getIndex();
     }
 
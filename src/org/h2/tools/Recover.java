@@ -510,7 +510,8 @@ public class Recover extends Tool implements DataHandler {
                 return;
             }
             boolean last = (type & Page.FLAG_LAST) != 0;
-            type &= ~Page.FLAG_LAST;
+            boolean prefix = (type & Page.FLAG_PREFIX) != 0;
+            type &= ~(Page.FLAG_LAST | Page.FLAG_PREFIX);
             if (!PageStore.checksumTest(s.getBytes(), (int) page, pageSize)) {
                 writeDataError(writer, "checksum mismatch type: " + type, s.getBytes());
             }
@@ -551,8 +552,9 @@ public class Recover extends Tool implements DataHandler {
                 int parentPageId = s.readInt();
                 setStorage(s.readVarInt());
                 int entries = s.readShortInt();
+                String p = prefix ? s.readString() : null;
                 writer.println("-- page " + page + ": b-tree leaf " + (last ? "(last) " : "") + "parent: " + parentPageId +
-                        " index: " + storageId + " entries: " + entries);
+                        " index: " + storageId + " entries: " + entries + (p != null ? " prefix: " + p : ""));
                 if (trace) {
                     dumpPageBtreeLeaf(writer, s, entries, !last);
                 }
@@ -627,7 +629,7 @@ public class Recover extends Tool implements DataHandler {
                 String typeName = "";
                 int type = data[0];
                 boolean last = (type & Page.FLAG_LAST) != 0;
-                type &= ~Page.FLAG_LAST;
+                type &= ~(Page.FLAG_LAST | Page.FLAG_PREFIX);
                 switch (type) {
                 case Page.TYPE_EMPTY:
                     typeName = "empty";
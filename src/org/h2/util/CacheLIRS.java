@@ -0,0 +1,651 @@
+/*
+ * Copyright 2004-2013 H2 Group. Multiple-Licensed under the H2 License,
+ * Version 1.0, and under the Eclipse Public License, Version 1.0
+ * (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import org.h2.constant.SysProperties;
+import org.h2.engine.Constants;
+import org.h2.message.DbException;
+
+/**
+ * A scan resistant cache implementation based on the LIRS replacement
+ * algorithm, see {@link org.h2.mvstore.cache.CacheLongKeyLIRS}. New entries
+ * are cold; they only become hot if they are referenced again while they are
+ * still on the stack. Entries that are only used once, for example the pages
+ * read by a large table scan, are therefore evicted first, and the hot entries
+ * stay in the cache.
+ * <p>
+ * The cache is split into a number of segments, and each segment is an
+ * individual LIRS cache that is synchronized on its own. Changed entries are
+ * written back before they are evicted, in the same way as in
+ * {@link CacheLRU}.
+ */
+public class CacheLIRS implements Cache {
+
+    static final String TYPE_NAME = "LIRS";
+
+    /**
+     * The number of segments (a power of 2).
+     */
+    private static final int SEGMENT_COUNT = 16;
+
+    private final CacheWriter writer;
+    private final Segment[] segments;
+
+    /**
+     * The maximum memory, in words (4 bytes each).
+     */
+    private int maxMemory;
+
+    CacheLIRS(CacheWriter writer, int maxMemoryKb) {
+        this.writer = writer;
+        segments = new Segment[SEGMENT_COUNT];
+        setMaxMemory(maxMemoryKb);
+        clear();
+    }
+
+    public void clear() {
+        int max = Math.max(1, maxMemory / SEGMENT_COUNT);
+        int len = MathUtils.nextPowerOf2(Math.max(1, max / 64));
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(writer, max, len);
+        }
+    }
+
+    public void put(CacheObject rec) {
+        int pos = rec.getPos();
+        int hash = getHash(pos);
+        getSegment(hash).put(rec, hash);
+    }
+
+    public CacheObject update(int pos, CacheObject rec) {
+        int hash = getHash(pos);
+        return getSegment(hash).update(pos, hash, rec);
+    }
+
+    public boolean remove(int pos) {
+        int hash = getHash(pos);
+        return getSegment(hash).remove(pos, hash);
+    }
+
+    public CacheObject find(int pos) {
+        int hash = getHash(pos);
+        return getSegment(hash).find(pos, hash);
+    }
+
+    public CacheObject get(int pos) {
+        int hash = getHash(pos);
+        return getSegment(hash).get(pos, hash);
+    }
+
+    public ArrayList<CacheObject> getAllChanged() {
+        ArrayList<CacheObject> list = New.arrayList();
+        for (Segment s : segments) {
+            s.addChanged(list);
+        }
+        return list;
+    }
+
+    /**
+     * Set the maximum memory to be used by this cache. Entries are not removed
+     * immediately, but when the next entry is added to a segment, so that
+     * changed entries are only written back by the thread that is allowed to
+     * write.
+     *
+     * @param maxKb the maximum size in KB
+     */
+    public void setMaxMemory(int maxKb) {
+        int newSize = MathUtils.convertLongToInt(maxKb * 1024L / 4);
+        maxMemory = newSize < 0 ? 0 : newSize;
+        int max = Math.max(1, maxMemory / SEGMENT_COUNT);
+        for (Segment s : segments) {
+            if (s != null) {
+                s.setMaxMemory(max);
+            }
+        }
+    }
+
+    public int getMaxMemory() {
+        return (int) (maxMemory * 4L / 1024);
+    }
+
+    public int getMemory() {
+        long memory = 0;
+        for (Segment s : segments) {
+            memory += s.getUsedMemory();
+        }
+        return (int) (memory * 4L / 1024);
+    }
+
+    private Segment getSegment(int hash) {
+        //高4位选segment，低位在segment内部选桶
+        return segments[hash >>> 28];
+    }
+
+    /**
+     * Get the hash code for the given key. The hash code is further enhanced
+     * to spread the values more evenly.
+     *
+     * @param pos the key
+     * @return the hash code
+     */
+    static int getHash(int pos) {
+        int hash = pos;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = (hash >>> 16) ^ hash;
+        return hash;
+    }
+
+    /**
+     * A cache segment. Each segment is an individual LIRS cache.
+     */
+    private static class Segment {
+
+        private final CacheWriter writer;
+
+        /**
+         * The map array. The size is always a power of 2.
+         */
+        private final Entry[] entries;
+
+        /**
+         * The bit mask that is applied to the key hash code to get the index
+         * in the map array.
+         */
+        private final int mask;
+
+        /**
+         * The maximum memory, in words (4 bytes each).
+         */
+        private int maxMemory;
+
+        /**
+         * The memory used by the resident entries, in words.
+         */
+        private int usedMemory;
+
+        /**
+         * The number of resident entries.
+         */
+        private int residentCount;
+
+        private int stackSize;
+        private int queueSize;
+        private int queue2Size;
+
+        /**
+         * The stack of recently referenced entries. This includes all hot
+         * entries, the recently referenced cold entries, and the non-resident
+         * cold entries.
+         */
+        private final Entry stack;
+
+        /**
+         * The queue of resident cold entries.
+         */
+        private final Entry queue;
+
+        /**
+         * The queue of non-resident cold entries.
+         */
+        private final Entry queue2;
+
+        Segment(CacheWriter writer, int maxMemory, int len) {
+            this.writer = writer;
+            this.maxMemory = maxMemory;
+            entries = new Entry[len];
+            mask = len - 1;
+            usedMemory = len * Constants.MEMORY_POINTER;
+            stack = new Entry();
+            stack.stackPrev = stack.stackNext = stack;
+            queue = new Entry();
+            queue.queuePrev = queue.queueNext = queue;
+            queue2 = new Entry();
+            queue2.queuePrev = queue2.queueNext = queue2;
+        }
+
+        synchronized void setMaxMemory(int maxMemory) {
+            this.maxMemory = maxMemory;
+        }
+
+        synchronized int getUsedMemory() {
+            return usedMemory;
+        }
+
+        synchronized CacheObject find(int pos, int hash) {
+            Entry e = findEntry(pos, hash);
+            return e == null ? null : e.value;
+        }
+
+        synchronized CacheObject get(int pos, int hash) {
+            Entry e = findEntry(pos, hash);
+            if (e == null || e.value == null) {
+                return null;
+            }
+            access(e);
+            return e.value;
+        }
+
+        synchronized void put(CacheObject rec, int hash) {
+            int pos = rec.getPos();
+            Entry e = findEntry(pos, hash);
+            if (e != null && e.value != null) {
+                if (SysProperties.CHECK) {
+                    DbException.throwInternalError("try to add a record twice at pos " + pos);
+                }
+                removeEntry(e, hash);
+                e = null;
+            }
+            boolean hot = false;
+            if (e == null) {
+                e = new Entry();
+                e.pos = pos;
+                int index = hash & mask;
+                e.mapNext = entries[index];
+                entries[index] = e;
+            } else {
+                // a non-resident entry: it becomes hot
+                // if it was referenced recently
+                removeFromQueue(e);
+                if (e.stackNext != null) {
+                    removeFromStack(e);
+                    hot = true;
+                }
+            }
+            e.value = rec;
+            e.memory = rec.getMemory();
+            usedMemory += e.memory;
+            residentCount++;
+            addToStack(e);
+            if (usedMemory > maxMemory) {
+                if (hot) {
+                    // the number of hot entries does not change
+                    convertOldestHotToCold();
+                } else if (residentCount > 1) {
+                    // if the cache is full, new entries are cold
+                    addToQueue(queue, e);
+                    pruneStack();
+                }
+                evict(e);
+            }
+        }
+
+        synchronized CacheObject update(int pos, int hash, CacheObject rec) {
+            Entry e = findEntry(pos, hash);
+            if (e == null || e.value == null) {
+                put(rec, hash);
+                return null;
+            }
+            CacheObject old = e.value;
+            if (SysProperties.CHECK) {
+                if (old != rec) {
+                    DbException.throwInternalError("old!=record pos:" + pos + " old:" + old + " new:" + rec);
+                }
+            }
+            access(e);
+            //page的内容可能变了，重新计算占用的内存
+            int memory = rec.getMemory();
+            usedMemory += memory - e.memory;
+            e.memory = memory;
+            return old;
+        }
+
+        synchronized boolean remove(int pos, int hash) {
+            Entry e = findEntry(pos, hash);
+            if (e == null) {
+                return false;
+            }
+            boolean resident = e.value != null;
+            removeEntry(e, hash);
+            return resident;
+        }
+
+        synchronized void addChanged(ArrayList<CacheObject> list) {
+            for (Entry e : entries) {
+                for (; e != null; e = e.mapNext) {
+                    if (e.value != null && e.value.isChanged()) {
+                        list.add(e.value);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Access an entry, moving it to the top of the stack. A cold entry
+         * that is still on the stack becomes hot.
+         *
+         * @param e the resident entry
+         */
+        private void access(Entry e) {
+            if (e.isHot()) {
+                if (e != stack.stackNext) {
+                    boolean wasEnd = e == stack.stackPrev;
+                    removeFromStack(e);
+                    if (wasEnd) {
+                        // the last entry of the stack must be hot
+                        pruneStack();
+                    }
+                    addToStack(e);
+                }
+            } else {
+                removeFromQueue(e);
+                if (e.stackNext != null) {
+                    // resident cold entries become hot if they are on the
+                    // stack, which means a hot entry needs to become cold
+                    removeFromStack(e);
+                    convertOldestHotToCold();
+                } else {
+                    // cold entries that are not on the stack
+                    // move to the front of the queue
+                    addToQueue(queue, e);
+                }
+                addToStack(e);
+                pruneStack();
+            }
+        }
+
+        /**
+         * Remove the oldest cold entries until the memory limit is reached.
+         * Changed entries are written back first; entries that can not be
+         * removed yet are moved to the front of the queue. If not enough cold
+         * entries can be removed, hot entries become cold. The newest cold
+         * entries are always kept, as the current operation may still use
+         * them.
+         *
+         * @param newCold the entry that was just added
+         */
+        private void evict(Entry newCold) {
+            // ensure there are not too many hot entries: at least 1/32 of the
+            // resident entries are cold
+            while ((queueSize << 5) < residentCount) {
+                if (!convertOldestHotToCold()) {
+                    break;
+                }
+            }
+            ArrayList<CacheObject> changed = null;
+            long mem = usedMemory;
+            int rc = residentCount;
+            //被移到队列头部的entry个数，最新的CACHE_MIN_RECORDS个冷的entry不删除
+            int cycled = 0;
+            boolean flushed = false;
+            while (rc > Constants.CACHE_MIN_RECORDS) {
+                if (changed == null) {
+                    if (mem <= maxMemory) {
+                        break;
+                    }
+                } else if (mem * 4 <= maxMemory * 3L) {
+                    break;
+                }
+                Entry e;
+                if (queueSize - cycled > Constants.CACHE_MIN_RECORDS) {
+                    e = queue.queuePrev;
+                } else if (convertOldestHotToCold()) {
+                    e = queue.queueNext;
+                } else if (!flushed) {
+                    writer.flushLog();
+                    flushed = true;
+                    cycled = 0;
+                    continue;
+                } else {
+                    // can't remove any record, because the records can not be removed
+                    writer.getTrace().info("cannot remove records, cache size too small? records:" +
+                            residentCount + " memory:" + usedMemory);
+                    break;
+                }
+                // we are not allowed to remove it if the log is not yet written
+                // (because we need to log before writing the data)
+                // also, can't write it if the record is pinned
+                if (e == newCold || e.writing || !e.value.canRemove()) {
+                    removeFromQueue(e);
+                    addToQueue(queue, e);
+                    cycled++;
+                    continue;
+                }
+                rc--;
+                mem -= e.memory;
+                if (e.value.isChanged()) {
+                    if (changed == null) {
+                        changed = New.arrayList();
+                    }
+                    changed.add(e.value);
+                    e.writing = true;
+                    removeFromQueue(e);
+                    addToQueue(queue, e);
+                    cycled++;
+                } else {
+                    evictEntry(e);
+                }
+            }
+            if (changed != null) {
+                if (!flushed) {
+                    writer.flushLog();
+                }
+                Collections.sort(changed);
+                int max = maxMemory;
+                int size = changed.size();
+                try {
+                    // temporary disable size checking,
+                    // to avoid stack overflow
+                    maxMemory = Integer.MAX_VALUE;
+                    for (int i = 0; i < size; i++) {
+                        writer.writeBack(changed.get(i));
+                    }
+                } finally {
+                    maxMemory = max;
+                }
+                for (int i = 0; i < size; i++) {
+                    CacheObject rec = changed.get(i);
+                    int hash = getHash(rec.getPos());
+                    Entry e = findEntry(rec.getPos(), hash);
+                    if (e == null || e.value != rec) {
+                        // was removed while writing
+                        continue;
+                    }
+                    e.writing = false;
+                    if (e.isHot()) {
+                        // was referenced while writing
+                        removeEntry(e, hash);
+                    } else {
+                        evictEntry(e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * A resident cold entry becomes non-resident. It stays on the stack
+         * (if it is there), so that it becomes hot if it is added again soon.
+         *
+         * @param e the entry
+         */
+        private void evictEntry(Entry e) {
+            usedMemory -= e.memory;
+            residentCount--;
+            removeFromQueue(e);
+            e.value = null;
+            e.memory = 0;
+            addToQueue(queue2, e);
+            // the size of the non-resident cold entries needs to be limited
+            while (queue2Size + queue2Size > stackSize) {
+                Entry old = queue2.queuePrev;
+                removeEntry(old, getHash(old.pos));
+            }
+        }
+
+        private void removeEntry(Entry e, int hash) {
+            int index = hash & mask;
+            Entry x = entries[index];
+            if (x == e) {
+                entries[index] = e.mapNext;
+            } else {
+                while (x.mapNext != e) {
+                    x = x.mapNext;
+                }
+                x.mapNext = e.mapNext;
+            }
+            if (e.value != null) {
+                usedMemory -= e.memory;
+                residentCount--;
+            }
+            if (e.stackNext != null) {
+                removeFromStack(e);
+            }
+            if (e.isHot()) {
+                // when removing a hot entry, the newest cold entry gets hot,
+                // so the number of hot entries does not change
+                Entry c = queue.queueNext;
+                if (c != queue) {
+                    removeFromQueue(c);
+                    if (c.stackNext == null) {
+                        addToStackBottom(c);
+                    }
+                }
+            } else {
+                removeFromQueue(e);
+            }
+            e.value = null;
+            e.mapNext = null;
+            pruneStack();
+        }
+
+        /**
+         * The oldest hot entry becomes cold.
+         *
+         * @return false if there are no hot entries
+         */
+        private boolean convertOldestHotToCold() {
+            // after pruning, the last entry of the stack is hot
+            pruneStack();
+            Entry last = stack.stackPrev;
+            if (last == stack) {
+                return false;
+            }
+            removeFromStack(last);
+            // adding an entry to the queue will make it cold
+            addToQueue(queue, last);
+            pruneStack();
+            return true;
+        }
+
+        /**
+         * Ensure the last entry of the stack is hot.
+         */
+        private void pruneStack() {
+            while (true) {
+                Entry last = stack.stackPrev;
+                if (last == stack || last.isHot()) {
+                    break;
+                }
+                // the cold entry is still in the queue
+                removeFromStack(last);
+            }
+        }
+
+        private Entry findEntry(int pos, int hash) {
+            Entry e = entries[hash & mask];
+            while (e != null && e.pos != pos) {
+                e = e.mapNext;
+            }
+            return e;
+        }
+
+        private void addToStack(Entry e) {
+            e.stackPrev = stack;
+            e.stackNext = stack.stackNext;
+            e.stackNext.stackPrev = e;
+            stack.stackNext = e;
+            stackSize++;
+        }
+
+        private void addToStackBottom(Entry e) {
+            e.stackNext = stack;
+            e.stackPrev = stack.stackPrev;
+            e.stackPrev.stackNext = e;
+            stack.stackPrev = e;
+            stackSize++;
+        }
+
+        private void removeFromStack(Entry e) {
+            e.stackPrev.stackNext = e.stackNext;
+            e.stackNext.stackPrev = e.stackPrev;
+            e.stackPrev = e.stackNext = null;
+            stackSize--;
+        }
+
+        private void addToQueue(Entry q, Entry e) {
+            e.queuePrev = q;
+            e.queueNext = q.queueNext;
+            e.queueNext.queuePrev = e;
+            q.queueNext = e;
+            if (e.value != null) {
+                queueSize++;
+            } else {
+                queue2Size++;
+            }
+        }
+
+        private void removeFromQueue(Entry e) {
+            e.queuePrev.queueNext = e.queueNext;
+            e.queueNext.queuePrev = e.queuePrev;
+            e.queuePrev = e.queueNext = null;
+            if (e.value != null) {
+                queueSize--;
+            } else {
+                queue2Size--;
+            }
+        }
+
+    }
+
+    /**
+     * A cache entry. Hot entries are in the stack only. Cold entries are in
+     * the queue, and may be in the stack. Non-resident cold entries have their
+     * value set to null and are in the non-resident queue, and may be in the
+     * stack.
+     */
+    private static class Entry {
+
+        /**
+         * The key.
+         */
+        int pos;
+
+        /**
+         * The value. Set to null for non-resident cold entries.
+         */
+        CacheObject value;
+
+        /**
+         * The estimated memory used, in words.
+         */
+        int memory;
+
+        /**
+         * Whether the value is being written back before it is evicted.
+         */
+        boolean writing;
+
+        Entry stackNext;
+        Entry stackPrev;
+        Entry queueNext;
+        Entry queuePrev;
+        Entry mapNext;
+
+        /**
+         * Whether this entry is hot. Cold entries are in one of the two queues.
+         *
+         * @return whether the entry is hot
+         */
+        boolean isHot() {
+            return queueNext == null;
+        }
+
+    }
+
+}
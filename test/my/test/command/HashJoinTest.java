@@ -0,0 +1,69 @@
+package my.test.command;
+
+import my.test.TestBase;
+
+public class HashJoinTest extends TestBase {
+	public static void main(String[] args) throws Exception {
+		new HashJoinTest().start();
+	}
+
+	@Override
+	public void init() throws Exception {
+		//prop.setProperty("HASH_JOIN", "false"); //不使用hash join，每一行外表记录都要扫描一次内表
+	}
+
+	@Override
+	public void startInternal() throws Exception {
+		stmt.executeUpdate("DROP TABLE IF EXISTS HashJoinTest1 CASCADE");
+		stmt.executeUpdate("CREATE TABLE IF NOT EXISTS HashJoinTest1(id int primary key, name varchar(500), v int)");
+
+		stmt.executeUpdate("DROP TABLE IF EXISTS HashJoinTest2 CASCADE");
+		stmt.executeUpdate("CREATE TABLE IF NOT EXISTS HashJoinTest2(id2 int primary key, name2 varchar(500), v2 int)");
+
+		stmt.executeUpdate("insert into HashJoinTest1 select x, 'a' || x, mod(x, 10) from system_range(1, 100)");
+		stmt.executeUpdate("insert into HashJoinTest2 select x, 'b' || x, mod(x, 20) from system_range(1, 50)");
+
+		//v和v2字段上都没有索引，行数少的HashJoinTest2作为外表，
+		//内表HashJoinTest1只扫描一次，按v的值放到hash表中(计划中的"hashJoin: V = V2")，
+		//见org.h2.index.HashJoinCursor和org.h2.table.TableFilter.addHashJoin(PlanItem)
+		sql = "EXPLAIN SELECT * FROM HashJoinTest1, HashJoinTest2 WHERE v = v2";
+		executeQuery();
+		sql = "SELECT count(*) FROM HashJoinTest1, HashJoinTest2 WHERE v = v2";
+		executeQuery();
+
+		//外连接也可以用hash join，此时右边的HashJoinTest2是内表，按v2的值放到hash表中，
+		//找不到匹配的行时右边的字段都为null
+		sql = "EXPLAIN SELECT * FROM HashJoinTest1 LEFT OUTER JOIN HashJoinTest2 ON v = v2";
+		executeQuery();
+		sql = "SELECT count(*) FROM HashJoinTest1 LEFT OUTER JOIN HashJoinTest2 ON v = v2";
+		executeQuery();
+
+		//hash表放不下时(超过MAX_MEMORY_ROWS)按v2的hash值把记录分区写到临时文件中，
+		//查找时只读v2所在的分区，见org.h2.index.HashJoinDiskBuffer
+		stmt.executeUpdate("SET MAX_MEMORY_ROWS 20");
+		sql = "EXPLAIN SELECT * FROM HashJoinTest1, HashJoinTest2 WHERE v = v2";
+		executeQuery();
+		sql = "SELECT count(*) FROM HashJoinTest1, HashJoinTest2 WHERE v = v2";
+		executeQuery();
+		sql = "SELECT count(*) FROM HashJoinTest1 LEFT OUTER JOIN HashJoinTest2 ON v = v2";
+		executeQuery();
+		stmt.executeUpdate("SET MAX_MEMORY_ROWS 10000");
+
+		//关联子查询对外表的每一行都要执行一次，每次都要重新建hash表，所以不用hash join
+		sql = "EXPLAIN SELECT id FROM HashJoinTest1 t WHERE EXISTS(SELECT * FROM HashJoinTest1 a, HashJoinTest2 b "
+				+ "WHERE a.v = b.v2 AND b.id2 < t.id)";
+		executeQuery();
+		sql = "SELECT count(*) FROM HashJoinTest1 t WHERE EXISTS(SELECT * FROM HashJoinTest1 a, HashJoinTest2 b "
+				+ "WHERE a.v = b.v2 AND b.id2 < t.id)";
+		executeQuery();
+
+		//HashJoinTest1的v上有索引后，HashJoinTest1变成外表，内表HashJoinTest2仍然按v2做hash join
+		stmt.executeUpdate("CREATE INDEX IF NOT EXISTS HashJoinTest1Index ON HashJoinTest1(v)");
+		sql = "EXPLAIN SELECT * FROM HashJoinTest1, HashJoinTest2 WHERE v = v2";
+		executeQuery();
+		//两边都有可用的索引时不用hash join，内表按索引查找
+		stmt.executeUpdate("CREATE INDEX IF NOT EXISTS HashJoinTest2Index ON HashJoinTest2(v2)");
+		sql = "EXPLAIN SELECT * FROM HashJoinTest1, HashJoinTest2 WHERE v = v2";
+		executeQuery();
+	}
+}
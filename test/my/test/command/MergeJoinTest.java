@@ -0,0 +1,51 @@
+package my.test.command;
+
+import my.test.TestBase;
+
+public class MergeJoinTest extends TestBase {
+	public static void main(String[] args) throws Exception {
+		new MergeJoinTest().start();
+	}
+
+	@Override
+	public void init() throws Exception {
+		//prop.setProperty("MERGE_JOIN", "false"); //每一行外表记录都要在内表的索引中查找一次
+	}
+
+	@Override
+	public void startInternal() throws Exception {
+		stmt.executeUpdate("DROP TABLE IF EXISTS MergeJoinTest1 CASCADE");
+		stmt.executeUpdate("CREATE TABLE IF NOT EXISTS MergeJoinTest1(id int primary key, name varchar(500), v int)");
+		stmt.executeUpdate("CREATE INDEX IF NOT EXISTS MergeJoinTest1Index ON MergeJoinTest1(v)");
+
+		stmt.executeUpdate("DROP TABLE IF EXISTS MergeJoinTest2 CASCADE");
+		stmt.executeUpdate("CREATE TABLE IF NOT EXISTS MergeJoinTest2(id2 int primary key, name2 varchar(500), v2 int)");
+		stmt.executeUpdate("CREATE INDEX IF NOT EXISTS MergeJoinTest2Index ON MergeJoinTest2(v2)");
+
+		stmt.executeUpdate("insert into MergeJoinTest1 select x, 'a' || x, x / 2 from system_range(1, 100)");
+		stmt.executeUpdate("insert into MergeJoinTest2 select x, 'b' || x, x / 3 from system_range(1, 100)");
+
+		//外表按v的顺序读(用的是MergeJoinTest1Index)，内表的MergeJoinTest2Index也是按v2排序的，
+		//所以内表的索引只需从前往后读一次，不用每一行外表记录都查找一次索引，
+		//见org.h2.index.MergeJoinCursor和org.h2.table.TableFilter.addMergeJoin(PlanItem, Plan)
+		sql = "EXPLAIN SELECT * FROM MergeJoinTest1, MergeJoinTest2 WHERE v = v2 AND v > 10";
+		executeQuery();
+		sql = "SELECT count(*) FROM MergeJoinTest1, MergeJoinTest2 WHERE v = v2 AND v > 10";
+		executeQuery();
+
+		//主键也一样，表扫描时是按主键的顺序读的
+		sql = "EXPLAIN SELECT * FROM MergeJoinTest1, MergeJoinTest2 WHERE id = id2";
+		executeQuery();
+		sql = "SELECT count(*) FROM MergeJoinTest1, MergeJoinTest2 WHERE id = id2";
+		executeQuery();
+
+		//外表只有几行时，merge join平均每行外表记录要读(内表行数/外表行数)行，比每行查找一次索引的代价大，不用merge join
+		stmt.executeUpdate("DROP TABLE IF EXISTS MergeJoinTest3 CASCADE");
+		stmt.executeUpdate("CREATE TABLE IF NOT EXISTS MergeJoinTest3(id3 int primary key, name3 varchar(500))");
+		stmt.executeUpdate("insert into MergeJoinTest3 select x * 20, 'c' || x from system_range(1, 3)");
+		sql = "EXPLAIN SELECT * FROM MergeJoinTest3 LEFT OUTER JOIN MergeJoinTest2 ON id3 = id2";
+		executeQuery();
+		sql = "SELECT count(*) FROM MergeJoinTest3 LEFT OUTER JOIN MergeJoinTest2 ON id3 = id2";
+		executeQuery();
+	}
+}
@@ -0,0 +1,98 @@
+package my.test.command;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import my.test.TestBase;
+
+public class ParallelAggregateTest extends TestBase {
+	public static void main(String[] args) throws Exception {
+		new ParallelAggregateTest().start();
+	}
+
+	@Override
+	public void init() throws Exception {
+		//也可以在URL中指定，相当于连接建立后执行SET MAX_PARALLEL_WORKERS 4
+		//prop.setProperty("MAX_PARALLEL_WORKERS", "4");
+	}
+
+	@Override
+	public void startInternal() throws Exception {
+		stmt.executeUpdate("DROP TABLE IF EXISTS ParallelAggregateTest CASCADE");
+		stmt.executeUpdate("CREATE TABLE IF NOT EXISTS ParallelAggregateTest(id int primary key, name varchar(500), v int)");
+		stmt.executeUpdate("insert into ParallelAggregateTest select x, 'a' || mod(x, 10), mod(x, 100) from system_range(1, 100000)");
+
+		//默认是0，只用当前线程
+		stmt.executeUpdate("SET MAX_PARALLEL_WORKERS 4");
+		sql = "select value from information_schema.settings where name = 'MAX_PARALLEL_WORKERS'";
+		executeQuery();
+
+		//表的记录仍由当前线程读取，然后按批交给4个工作线程，
+		//每个工作线程用自己的Select副本计算where条件和聚合函数，最后合并各线程的AggregateData，
+		//见org.h2.command.dml.Select.queryGroupParallel和org.h2.command.dml.SelectGroupWorker
+		sql = "select count(*), sum(v), avg(v), min(name), max(name) from ParallelAggregateTest where v > 10";
+		executeQuery();
+		sql = "select name, count(*), sum(v), stddev_pop(v) from ParallelAggregateTest group by name";
+		executeQuery();
+		sql = "select count(distinct v) from ParallelAggregateTest";
+		executeQuery();
+
+		//以下情况不会并行:
+		//表达式不是聚合函数本身(count(*) + 1)、having、GROUP_CONCAT、子查询、序列、变量、Java函数
+		sql = "select name, count(*) + 1 from ParallelAggregateTest group by name having sum(v) > 10";
+		executeQuery();
+
+		//每个工作线程的Select副本是在单独的系统session中准备的(session不是线程安全的)，
+		//这些session看不到当前session的局部临时表，所以局部临时表也不会并行
+		stmt.executeUpdate("CREATE LOCAL TEMPORARY TABLE IF NOT EXISTS ParallelAggregateTemp AS SELECT * FROM ParallelAggregateTest");
+		sql = "select name, count(*), sum(v) from ParallelAggregateTemp group by name";
+		executeQuery();
+		stmt.executeUpdate("DROP TABLE ParallelAggregateTemp");
+
+		//工作线程来自数据库的线程池，每次查询不再新建线程，
+		//多个连接同时执行并行查询时，线程总数也不超过CPU个数(至少2个)；
+		//语句关闭时工作线程用的系统session也一起关闭
+		final int[] errors = new int[1];
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Connection c = getConnection();
+						c.createStatement().executeUpdate("SET MAX_PARALLEL_WORKERS 4");
+						for (int j = 0; j < 10; j++) {
+							PreparedStatement ps = c.prepareStatement("select name, sum(v) from ParallelAggregateTest group by name");
+							ResultSet r = ps.executeQuery();
+							while (r.next()) {
+								r.getString(1);
+							}
+							ps.close();
+						}
+						c.close();
+					} catch (Exception e) {
+						e.printStackTrace();
+						errors[0]++;
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		int workerThreads = 0;
+		for (Thread t : Thread.getAllStackTraces().keySet()) {
+			if (t.getName().startsWith("H2 Parallel Worker")) {
+				workerThreads++;
+			}
+		}
+		System.out.println("errors: " + errors[0] + ", worker threads: " + workerThreads + ", processors: "
+				+ Runtime.getRuntime().availableProcessors());
+
+		stmt.executeUpdate("SET MAX_PARALLEL_WORKERS 0");
+		sql = "select name, count(*), sum(v), stddev_pop(v) from ParallelAggregateTest group by name";
+		executeQuery();
+	}
+}
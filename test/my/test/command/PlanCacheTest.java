@@ -0,0 +1,83 @@
+package my.test.command;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import my.test.TestBase;
+
+public class PlanCacheTest extends TestBase {
+	public static void main(String[] args) throws Exception {
+		new PlanCacheTest().start();
+	}
+
+	@Override
+	public void init() throws Exception {
+		prop.setProperty("SHARED_QUERY_CACHE_SIZE", "100"); //所有session共享的语句缓存，0表示每个session用自己的缓存
+		prop.setProperty("MVCC", "true"); //其他session看不到未提交的行，也不用等表锁
+	}
+
+	@Override
+	public void startInternal() throws Exception {
+		stmt.executeUpdate("DROP TABLE IF EXISTS PlanCacheTest");
+		stmt.executeUpdate("CREATE TABLE IF NOT EXISTS PlanCacheTest(id int primary key, name varchar(500), v int)");
+		stmt.executeUpdate("insert into PlanCacheTest select x, 'a' || x, x from system_range(1, 100)");
+
+		Connection conn1 = getConnection();
+		Connection conn2 = getConnection();
+
+		//conn1关闭语句后语句放到共享缓存中，conn2不用再解析和优化同样的SQL，只需设置自己的参数
+		sql = "select name, v from PlanCacheTest where id = ?";
+		query(conn1, 10);
+		query(conn2, 20);
+
+		//修改表结构后语句会被重新编译
+		stmt.executeUpdate("ALTER TABLE PlanCacheTest ADD COLUMN v2 int DEFAULT 0");
+		sql = "select * from PlanCacheTest where id = ?";
+		query(conn1, 30);
+		query(conn2, 40);
+
+		//用到局部临时表的语句不放到共享缓存中
+		conn1.createStatement().executeUpdate("CREATE LOCAL TEMPORARY TABLE PlanCacheTemp(id int)");
+		conn1.createStatement().executeUpdate("insert into PlanCacheTemp values(1)");
+		sql = "select count(*) from PlanCacheTemp where id = ?";
+		query(conn1, 1);
+
+		//UNION的左右两个子查询也要切换到当前session，
+		//conn1看得到自己未提交的行，conn2看不到
+		conn1.setAutoCommit(false);
+		conn1.createStatement().executeUpdate("insert into PlanCacheTest values(101, 'uncommitted', 101, 0)");
+		sql = "select name from PlanCacheTest where id = ? union select name from PlanCacheTest where id = 101";
+		query(conn1, 50);
+		query(conn2, 60);
+		conn1.rollback();
+		conn1.setAutoCommit(true);
+
+		//并行查询的工作线程副本是conn1准备的，conn1关闭后conn2要重新准备自己的副本
+		stmt.executeUpdate("insert into PlanCacheTest select x, 'a' || x, mod(x, 10), 0 from system_range(101, 20000)");
+		conn1.createStatement().executeUpdate("SET MAX_PARALLEL_WORKERS 2");
+		conn2.createStatement().executeUpdate("SET MAX_PARALLEL_WORKERS 2");
+		sql = "select v, count(*) from PlanCacheTest where id > ? group by v order by v";
+		query(conn1, 10000);
+		conn1.close();
+		query(conn2, 19990);
+
+		conn2.close();
+	}
+
+	private void query(Connection conn, int id) throws Exception {
+		PreparedStatement ps = conn.prepareStatement(sql);
+		ps.setInt(1, id);
+		ResultSet rs = ps.executeQuery();
+		int count = rs.getMetaData().getColumnCount();
+		StringBuilder buff = new StringBuilder();
+		while (rs.next()) {
+			for (int i = 1; i <= count; i++) {
+				buff.append(rs.getString(i)).append(' ');
+			}
+		}
+		System.out.println(buff);
+		rs.close();
+		ps.close();
+	}
+}
@@ -0,0 +1,81 @@
+package my.test.command;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import my.test.TestBase;
+
+public class ResultCacheTest extends TestBase {
+	public static void main(String[] args) throws Exception {
+		new ResultCacheTest().start();
+	}
+
+	@Override
+	public void init() throws Exception {
+		prop.setProperty("RESULT_CACHE_SIZE", "1024"); //所有session共享的查询结果缓存，单位KB，0表示禁用
+	}
+
+	@Override
+	public void startInternal() throws Exception {
+		stmt.executeUpdate("DROP TABLE IF EXISTS ResultCacheTest");
+		stmt.executeUpdate("CREATE TABLE IF NOT EXISTS ResultCacheTest(id int primary key, name varchar(500), v int)");
+		stmt.executeUpdate("insert into ResultCacheTest select x, 'a' || x, mod(x, 10) from system_range(1, 10000)");
+
+		Connection conn1 = getConnection();
+		Connection conn2 = getConnection();
+
+		//conn1算出的结果放到缓存中，conn2执行同样的SQL和参数时直接用缓存的结果
+		sql = "select v, count(*) from ResultCacheTest where id > ? group by v order by v";
+		query(conn1, 100);
+		query(conn2, 100);
+		//参数不同，不能用缓存的结果
+		query(conn2, 9990);
+
+		//表被修改后缓存的结果失效
+		stmt.executeUpdate("delete from ResultCacheTest where id = 200");
+		query(conn2, 100);
+
+		//未提交的修改只有本事务能看到，所以本事务的结果不放到缓存中
+		conn1.setAutoCommit(false);
+		conn1.createStatement().executeUpdate("delete from ResultCacheTest where id = 300");
+		query(conn1, 100);
+		conn1.rollback();
+		query(conn2, 100);
+
+		//元数据表按用户的权限过滤行，没有权限的用户不能用管理员算出的结果
+		stmt.executeUpdate("DROP USER IF EXISTS ResultCacheTestUser");
+		stmt.executeUpdate("CREATE USER ResultCacheTestUser PASSWORD 'test'");
+		stmt.executeUpdate("CREATE OR REPLACE VIEW ResultCacheTestView AS "
+				+ "select name from information_schema.users");
+		stmt.executeUpdate("GRANT SELECT ON ResultCacheTestView TO ResultCacheTestUser");
+		Connection conn3 = DriverManager.getConnection(url, "ResultCacheTestUser", "test");
+		sql = "select count(*), 0 from information_schema.users where ? = 0";
+		query(conn1, 0); //所有用户
+		query(conn3, 0); //只有自己
+		//通过视图读元数据表也一样
+		sql = "select count(*), 0 from ResultCacheTestView where ? = 0";
+		query(conn1, 0);
+		query(conn3, 0);
+		conn3.close();
+		stmt.executeUpdate("DROP VIEW ResultCacheTestView");
+		stmt.executeUpdate("DROP USER ResultCacheTestUser");
+
+		conn1.close();
+		conn2.close();
+	}
+
+	private void query(Connection conn, int id) throws Exception {
+		PreparedStatement ps = conn.prepareStatement(sql);
+		ps.setInt(1, id);
+		ResultSet rs = ps.executeQuery();
+		StringBuilder buff = new StringBuilder();
+		while (rs.next()) {
+			buff.append(rs.getInt(1)).append('=').append(rs.getInt(2)).append(' ');
+		}
+		System.out.println(buff);
+		rs.close();
+		ps.close();
+	}
+}
@@ -0,0 +1,70 @@
+package my.test.command.ddl;
+
+import my.test.TestBase;
+
+public class AnalyzeTest extends TestBase {
+	public static void main(String[] args) throws Exception {
+		new AnalyzeTest().start();
+	}
+
+	@Override
+	public void startInternal() throws Exception {
+		stmt.executeUpdate("DROP TABLE IF EXISTS AnalyzeTest");
+		stmt.executeUpdate("CREATE TABLE IF NOT EXISTS AnalyzeTest(id int primary key, tenant_id int, created int)");
+		stmt.executeUpdate("CREATE INDEX IF NOT EXISTS AnalyzeTest_tenant ON AnalyzeTest(tenant_id)");
+		stmt.executeUpdate("CREATE INDEX IF NOT EXISTS AnalyzeTest_created ON AnalyzeTest(created)");
+
+		//tenant_id是倾斜的: 一半的行是tenant 1，其余的行分给另外1000个tenant
+		stmt.executeUpdate("insert into AnalyzeTest select x, case when mod(x, 2) = 0 then 1 else mod(x, 1000) + 2 end, x"
+				+ " from system_range(1, 20000)");
+
+		//ANALYZE除了SELECTIVITY之外，还为索引字段算出等高直方图，保存在字段定义中
+		stmt.executeUpdate("ANALYZE");
+		sql = "SELECT SQL FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'ANALYZETEST'";
+		executeQuery();
+
+		//tenant 1的行很多，所以用created字段上的索引
+		sql = "EXPLAIN SELECT * FROM AnalyzeTest WHERE tenant_id = 1 AND created BETWEEN 100 AND 200";
+		executeQuery();
+		//其他tenant的行很少，所以用tenant_id字段上的索引
+		sql = "EXPLAIN SELECT * FROM AnalyzeTest WHERE tenant_id = 500 AND created BETWEEN 100 AND 10000";
+		executeQuery();
+		//IN列表
+		sql = "EXPLAIN SELECT * FROM AnalyzeTest WHERE tenant_id IN(1, 3) AND created < 1000";
+		executeQuery();
+		sql = "EXPLAIN SELECT * FROM AnalyzeTest WHERE tenant_id IN(3, 4) AND created < 1000";
+		executeQuery();
+
+		//直方图的边界值写在字段定义中，很长的字符串只保留前100个字符
+		stmt.executeUpdate("DROP TABLE IF EXISTS AnalyzeTestLong");
+		stmt.executeUpdate("CREATE TABLE IF NOT EXISTS AnalyzeTestLong(id int primary key, name varchar)");
+		stmt.executeUpdate("CREATE INDEX IF NOT EXISTS AnalyzeTestLong_name ON AnalyzeTestLong(name)");
+		stmt.executeUpdate("insert into AnalyzeTestLong select x, space(10000) || x from system_range(1, 1000)");
+		stmt.executeUpdate("ANALYZE");
+		sql = "SELECT LOCATE('HISTOGRAM', SQL) > 0, LENGTH(SQL) < 10000 FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'ANALYZETESTLONG'";
+		executeQuery();
+		sql = "SELECT COUNT(*) FROM AnalyzeTestLong WHERE name > space(10000) || '5'";
+		executeQuery();
+
+		//表比抽样行数大时随机抽样，而不是只读前面的行:
+		//前面的行status都是0，后面的行status都是1，抽样中两种值都有
+		//唯一字段(code)的不同值超过1万个，也有直方图(从随机抽取的值算出边界)，最小值和最大值来自索引
+		stmt.executeUpdate("DROP TABLE IF EXISTS AnalyzeTestSample");
+		stmt.executeUpdate("CREATE TABLE IF NOT EXISTS AnalyzeTestSample(id int primary key, status int, code int)");
+		stmt.executeUpdate("CREATE INDEX IF NOT EXISTS AnalyzeTestSample_status ON AnalyzeTestSample(status)");
+		stmt.executeUpdate("CREATE UNIQUE INDEX IF NOT EXISTS AnalyzeTestSample_code ON AnalyzeTestSample(code)");
+		stmt.executeUpdate("insert into AnalyzeTestSample select x, case when x <= 50000 then 0 else 1 end, x * 3"
+				+ " from system_range(1, 100000)");
+		stmt.executeUpdate("ANALYZE SAMPLE_SIZE 20000");
+		sql = "SELECT SQL FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'ANALYZETESTSAMPLE'";
+		executeQuery();
+		//status = 1的行有一半，估计的行数不是0
+		sql = "EXPLAIN SELECT * FROM AnalyzeTestSample WHERE status = 1";
+		executeQuery();
+		//code的范围条件按直方图估计
+		sql = "EXPLAIN SELECT * FROM AnalyzeTestSample WHERE code BETWEEN 1 AND 300";
+		executeQuery();
+		sql = "EXPLAIN SELECT * FROM AnalyzeTestSample WHERE code > 150000";
+		executeQuery();
+	}
+}
@@ -0,0 +1,39 @@
+package my.test.engine;
+
+import my.test.TestBase;
+
+public class AnalyzeThreadTest extends TestBase {
+	public static void main(String[] args) throws Exception {
+		new AnalyzeThreadTest().start();
+	}
+
+	@Override
+	public void init() throws Exception {
+		prop.setProperty("ANALYZE_AUTO", "1000"); //修改1000行后自动ANALYZE
+		prop.setProperty("ANALYZE_BACKGROUND", "true"); //在后台线程中ANALYZE，修改表的session不用等
+		prop.setProperty("ANALYZE_BACKGROUND_DELAY", "100"); //两次后台ANALYZE之间至少间隔100毫秒
+	}
+
+	@Override
+	public void startInternal() throws Exception {
+		stmt.executeUpdate("DROP TABLE IF EXISTS AnalyzeThreadTest");
+		stmt.executeUpdate("CREATE TABLE IF NOT EXISTS AnalyzeThreadTest(id int primary key, name varchar(500), v int)");
+
+		//大批量导入时，事务提交前表被锁住，后台线程等事务提交后再ANALYZE
+		conn.setAutoCommit(false);
+		stmt.executeUpdate("insert into AnalyzeThreadTest select x, 'a' || x, mod(x, 10) from system_range(1, 5000)");
+		conn.commit();
+		conn.setAutoCommit(true);
+
+		sql = "SELECT COLUMN_NAME, SELECTIVITY FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_NAME = 'ANALYZETHREADTEST'";
+		for (int i = 0; i < 50; i++) {
+			Thread.sleep(100);
+			rs = stmt.executeQuery(sql);
+			rs.next();
+			if (rs.getInt(2) == 100) {
+				break;
+			}
+		}
+		executeQuery();
+	}
+}
@@ -0,0 +1,44 @@
+package my.test.expression;
+
+import my.test.TestBase;
+
+public class BatchEvaluationTest extends TestBase {
+	public static void main(String[] args) throws Exception {
+		new BatchEvaluationTest().start();
+	}
+
+	@Override
+	public void init() throws Exception {
+		//prop.setProperty("BATCH_EVALUATION", "false"); //每一行都调用一次condition.getBooleanValue
+	}
+
+	//测试org.h2.expression.Expression.getBooleanValues
+	//org.h2.expression.Comparison.getBooleanValues
+	//org.h2.expression.ConditionAndOr.getBooleanValues
+	//org.h2.table.TableFilter.setBatchCondition
+	@Override
+	public void startInternal() throws Exception {
+		stmt.executeUpdate("drop table IF EXISTS BatchEvaluationTest");
+		stmt.executeUpdate("create table IF NOT EXISTS BatchEvaluationTest(id int, i int, l bigint, d double, name varchar(500))");
+		stmt.executeUpdate("insert into BatchEvaluationTest select x, case when mod(x, 7) = 0 then null else mod(x, 30) end, "
+				+ "x * 1000, mod(x, 17) / 4.0, 'a' || mod(x, 10) from system_range(1, 10000)");
+
+		//单表扫描时，一次读1024行，然后对这1024行一起计算where条件，
+		//字段与常量比较时直接从行中取值，INT、LONG、DOUBLE用基本类型比较
+		sql = "select count(*) from BatchEvaluationTest where i > 5 and l < 5000000 and d >= 1.5";
+		executeQuery();
+		//OR时右边只对左边不为true的行计算
+		sql = "select count(*) from BatchEvaluationTest where i is null or name = 'a3'";
+		executeQuery();
+		//i + 1 > 5不是字段与常量比较，逐行计算
+		sql = "select i, count(*) from BatchEvaluationTest where i + 1 > 25 group by i";
+		executeQuery();
+
+		//rownum不是确定性的，不能按批计算
+		sql = "select id, rownum from BatchEvaluationTest where rownum < 5 and i > 5";
+		executeQuery();
+		//有LIMIT且不用排序时，按批读会多读很多行，所以也不按批计算
+		sql = "select id from BatchEvaluationTest where i > 5 limit 3";
+		executeQuery();
+	}
+}
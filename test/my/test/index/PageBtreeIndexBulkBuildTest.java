@@ -0,0 +1,65 @@
+package my.test.index;
+
+import java.sql.SQLException;
+
+import my.test.TestBase;
+
+public class PageBtreeIndexBulkBuildTest extends TestBase {
+	public static void main(String[] args) throws Exception {
+		new PageBtreeIndexBulkBuildTest().start();
+	}
+
+	@Override
+	public void init() throws Exception {
+		prop.setProperty("PAGE_SIZE", "1024");
+		url = "jdbc:h2:E:/H2/baseDir/PageBtreeIndexBulkBuildTest";
+	}
+
+	@Override
+	public void startInternal() throws Exception {
+		stmt.executeUpdate("DROP TABLE IF EXISTS PageBtreeIndexBulkBuildTest");
+		stmt.executeUpdate("CREATE TABLE PageBtreeIndexBulkBuildTest(id int, name varchar(500), b boolean)");
+		stmt.executeUpdate("INSERT INTO PageBtreeIndexBulkBuildTest SELECT X, "
+				+ "CASEWHEN(MOD(X, 1000) = 0, NULL, 'Hello ' || MOD(X * 7, 100000)), MOD(X, 2) = 0 FROM SYSTEM_RANGE(1, 100000)");
+
+		//表中已有记录时，每10000行排好序后写到临时文件中，合并时从左到右写满每个page，不需要切割page
+		long start = System.currentTimeMillis();
+		stmt.executeUpdate("CREATE INDEX PageBtreeIndexBulkBuildTestName ON PageBtreeIndexBulkBuildTest(name)");
+		System.out.println("create index: " + (System.currentTimeMillis() - start) + " ms");
+		stmt.executeUpdate("CREATE INDEX PageBtreeIndexBulkBuildTestDesc ON PageBtreeIndexBulkBuildTest(b DESC, id DESC)");
+
+		sql = "select id, name from PageBtreeIndexBulkBuildTest where name between 'Hello 99997' and 'Hello 99999'";
+		executeQuery();
+		sql = "select count(*) from PageBtreeIndexBulkBuildTest where name >= 'Hello 5'";
+		executeQuery();
+		sql = "select count(*) from PageBtreeIndexBulkBuildTest where name is null";
+		executeQuery();
+		sql = "select id from PageBtreeIndexBulkBuildTest where b = true and id < 10";
+		executeQuery();
+		sql = "select min(name), max(name) from PageBtreeIndexBulkBuildTest";
+		executeQuery();
+
+		//建好的索引可以继续增加和删除记录
+		stmt.executeUpdate("insert into PageBtreeIndexBulkBuildTest(id, name, b) values(100001, 'Hello 99998', true)");
+		stmt.executeUpdate("delete from PageBtreeIndexBulkBuildTest where id < 50000");
+		sql = "select id, name from PageBtreeIndexBulkBuildTest where name between 'Hello 99997' and 'Hello 99999'";
+		executeQuery();
+
+		//唯一索引在合并时检查重复的值，失败时已经建好的page都被释放
+		try {
+			stmt.executeUpdate("CREATE UNIQUE INDEX PageBtreeIndexBulkBuildTestUnique ON PageBtreeIndexBulkBuildTest(name)");
+		} catch (SQLException e) {
+			System.out.println(e.getErrorCode());
+		}
+		stmt.executeUpdate("CREATE UNIQUE INDEX PageBtreeIndexBulkBuildTestUnique ON PageBtreeIndexBulkBuildTest(id)");
+
+		//重新打开后索引还在
+		stmt.executeUpdate("SHUTDOWN");
+		conn = getConnection();
+		stmt = conn.createStatement();
+		sql = "select count(*) from PageBtreeIndexBulkBuildTest where name >= 'Hello 5'";
+		executeQuery();
+		sql = "select count(*) from PageBtreeIndexBulkBuildTest where id >= 99990";
+		executeQuery();
+	}
+}
@@ -0,0 +1,102 @@
+package my.test.index;
+
+import java.io.RandomAccessFile;
+import java.sql.PreparedStatement;
+import java.util.Random;
+
+import my.test.TestBase;
+
+public class PageBtreePrefixTest extends TestBase {
+	public static void main(String[] args) throws Exception {
+		new PageBtreePrefixTest().start();
+	}
+
+	@Override
+	public void init() throws Exception {
+		prop.setProperty("PAGE_SIZE", "1024");
+		prop.setProperty("PAGE_STORE_PREFIX_COMPRESSION", "true");
+		url = "jdbc:h2:E:/H2/baseDir/PageBtreePrefixTest";
+	}
+
+	@Override
+	public void startInternal() throws Exception {
+		stmt.executeUpdate("DROP TABLE IF EXISTS PageBtreePrefixTest");
+		stmt.executeUpdate("CREATE TABLE PageBtreePrefixTest(id int primary key, url varchar(500), v int)");
+		stmt.executeUpdate("CREATE INDEX PageBtreePrefixTestUrl ON PageBtreePrefixTest(url)");
+		stmt.executeUpdate("CREATE INDEX PageBtreePrefixTestUrlDesc ON PageBtreePrefixTest(url DESC, v)");
+		stmt.executeUpdate("CREATE UNIQUE INDEX PageBtreePrefixTestUnique ON PageBtreePrefixTest(url, id)");
+
+		//leaf page中url的公共前缀只存一次，node page中的分隔key只取能区分左右两个leaf的最短前缀
+		long start = System.currentTimeMillis();
+		stmt.executeUpdate("INSERT INTO PageBtreePrefixTest SELECT X, CASEWHEN(MOD(X, 1000) = 0, NULL, "
+				+ "'http://www.example.com/customers/' || MOD(X * 7919, 100000)), MOD(X, 10) FROM SYSTEM_RANGE(1, 100000)");
+		System.out.println("insert: " + (System.currentTimeMillis() - start) + " ms");
+
+		sql = "select id, url from PageBtreePrefixTest where url between 'http://www.example.com/customers/99997' "
+				+ "and 'http://www.example.com/customers/99999'";
+		executeQuery();
+		sql = "select count(*) from PageBtreePrefixTest where url >= 'http://www.example.com/customers/5'";
+		executeQuery();
+		sql = "select count(*) from PageBtreePrefixTest where url like 'http://www.example.com/customers/12%'";
+		executeQuery();
+		sql = "select count(*) from PageBtreePrefixTest where url is null";
+		executeQuery();
+		sql = "select url, v from PageBtreePrefixTest where url < 'http://www.example.com/customers/10' order by url desc, v";
+		executeQuery();
+
+		//删除后前缀不变，新加的行可能使前缀变短
+		stmt.executeUpdate("delete from PageBtreePrefixTest where id < 50000");
+		stmt.executeUpdate("insert into PageBtreePrefixTest(id, url, v) values(1, 'http://www.ex', 1), (2, 'zzz', 2)");
+		sql = "select id, url from PageBtreePrefixTest where url < 'http://www.example.com/customers/' or url > 'z'";
+		executeQuery();
+
+		//缓存很小时，切割后的两个子页面要先放到缓存中，然后再读其他子页面，
+		//否则切割的页面可能被换出再读回来，缓存中会有同一个页面的两个对象
+		stmt.executeUpdate("SET CACHE_SIZE 64");
+		stmt.executeUpdate("CREATE TABLE PageBtreePrefixMerge(id int primary key, name varchar)");
+		stmt.executeUpdate("CREATE INDEX PageBtreePrefixMergeName ON PageBtreePrefixMerge(name)");
+		PreparedStatement merge = conn.prepareStatement("MERGE INTO PageBtreePrefixMerge VALUES(?, ?)");
+		PreparedStatement delete = conn.prepareStatement("DELETE FROM PageBtreePrefixMerge WHERE id = ?");
+		Random random = new Random(2);
+		for (int i = 0; i < 20000; i++) {
+			int id = random.nextInt(5000);
+			if (random.nextInt(4) == 0) {
+				delete.setInt(1, id);
+				delete.executeUpdate();
+			} else {
+				StringBuilder buff = new StringBuilder(random.nextBoolean() ? "name prefix " : "other ");
+				for (int j = random.nextInt(300); j > 0; j--) {
+					buff.append('x');
+				}
+				merge.setInt(1, id);
+				merge.setString(2, buff.append(random.nextInt(100000)).toString());
+				merge.executeUpdate();
+			}
+		}
+		rs = stmt.executeQuery("select count(*) from PageBtreePrefixMerge where name > ''");
+		rs.next();
+		int count = rs.getInt(1);
+		rs = stmt.executeQuery("select count(*) from PageBtreePrefixMerge");
+		rs.next();
+		System.out.println("index rows: " + count + " table rows: " + rs.getInt(1));
+		merge.close();
+		delete.close();
+		stmt.executeUpdate("DROP TABLE PageBtreePrefixMerge");
+
+		//重新打开后从page中读出前缀
+		stmt.executeUpdate("SHUTDOWN");
+		conn = getConnection();
+		stmt = conn.createStatement();
+		sql = "select count(*) from PageBtreePrefixTest where url >= 'http://www.example.com/customers/5'";
+		executeQuery();
+		sql = "select min(url), max(url) from PageBtreePrefixTest";
+		executeQuery();
+
+		//写入第一个有公共前缀的page时文件的读写版本从3变成4，旧版本打开时报FILE_VERSION_ERROR而不是FILE_CORRUPTED
+		stmt.executeUpdate("SHUTDOWN");
+		RandomAccessFile file = new RandomAccessFile("E:/H2/baseDir/PageBtreePrefixTest.h2.db", "r");
+		file.seek(48 + 4);
+		System.out.println("write version: " + file.readByte() + " read version: " + file.readByte());
+		file.close();
+	}
+}
@@ -0,0 +1,139 @@
+package my.test.mvstore;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVMapConcurrent;
+import org.h2.mvstore.MVMapSharded;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.Page;
+import org.h2.store.fs.FileUtils;
+
+public class MVMapBulkAppendTest {
+	static String fileName = "E:/H2/baseDir/MVMapBulkAppendTest";
+
+	public static void main(String[] args) throws Exception {
+		FileUtils.delete(fileName);
+		//逐个put时page在中间切分，大约只有一半是满的
+		MVStore store = new MVStore.Builder().fileName(fileName).open();
+		MVMap<Integer, String> map = store.openMap("put");
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 100000; i++) {
+			map.put(i, "Hello World " + i);
+		}
+		store.store();
+		System.out.println("put: " + (System.currentTimeMillis() - start) + " ms, pages: " + getPageCount(map.getRoot()));
+		store.close();
+
+		//bulkAppend从叶子开始往上构建树，每个page填满90%
+		FileUtils.delete(fileName);
+		store = new MVStore.Builder().fileName(fileName).open();
+		map = store.openMap("bulk");
+		start = System.currentTimeMillis();
+		map.bulkAppend(entries(0, 100000), 90);
+		store.store();
+		System.out.println("bulkAppend: " + (System.currentTimeMillis() - start) + " ms, pages: " + getPageCount(map.getRoot()));
+
+		//追加到已有的树的右边，新的子树可能比原来的树矮，也可能比原来的树高
+		map.bulkAppend(entries(100000, 100010), 90);
+		map.bulkAppend(entries(100010, 300000), 90);
+		map.put(300000, "Hello World 300000");
+		map.bulkAppend(entries(300001, 300002), 90);
+		try {
+			map.bulkAppend(entries(5, 6), 90);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+		}
+		check(map, 300002);
+		store.store();
+		store.close();
+
+		store = MVStore.open(fileName);
+		map = store.openMap("bulk");
+		check(map, 300002);
+		store.close();
+
+		concurrent();
+		sharded();
+	}
+
+	//另一个线程同时put比追加的key小的key，两边的修改都不能丢
+	static void concurrent() throws InterruptedException {
+		FileUtils.delete(fileName);
+		MVStore store = new MVStore.Builder().fileName(fileName).open();
+		final MVMap<Integer, String> map = store.openMap("concurrent",
+				new MVMapConcurrent.Builder<Integer, String>());
+		map.put(-1000000, "Hello");
+		Thread t = new Thread() {
+			public void run() {
+				for (int i = -100000; i < 0; i++) {
+					map.put(i, "Hello World " + i);
+				}
+			}
+		};
+		t.start();
+		for (int i = 0; i < 100000; i += 1000) {
+			map.bulkAppend(entries(i, i + 1000), 90);
+		}
+		t.join();
+		int errors = 0;
+		for (int i = -100000; i < 100000; i++) {
+			if (!("Hello World " + i).equals(map.get(i))) {
+				errors++;
+			}
+		}
+		System.out.println("concurrent size: " + map.size() + " errors: " + errors);
+		store.close();
+	}
+
+	//分片的map按key的hash把有序的记录分到各个分片，每个分片再批量追加
+	static void sharded() {
+		FileUtils.delete(fileName);
+		MVStore store = new MVStore.Builder().fileName(fileName).open();
+		MVMap<Integer, String> map = store.openMap("sharded", new MVMapSharded.Builder<Integer, String>());
+		map.bulkAppend(entries(0, 1000), 90);
+		map.bulkAppend(entries(1000, 2000), 90);
+		try {
+			map.bulkAppend(entries(1500, 1600), 90);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+		}
+		store.store();
+		store.close();
+		store = new MVStore.Builder().fileName(fileName).open();
+		map = store.openMap("sharded", new MVMapSharded.Builder<Integer, String>());
+		System.out.println("sharded size: " + map.size() + " " + map.get(1999) + " " + map.getKey(1500));
+		store.close();
+	}
+
+	static Iterator<Map.Entry<Integer, String>> entries(int from, int to) {
+		ArrayList<Map.Entry<Integer, String>> list = new ArrayList<Map.Entry<Integer, String>>();
+		for (int i = from; i < to; i++) {
+			list.add(new AbstractMap.SimpleImmutableEntry<Integer, String>(i, "Hello World " + i));
+		}
+		return list.iterator();
+	}
+
+	static int getPageCount(Page p) {
+		int count = 1;
+		if (!p.isLeaf()) {
+			for (int i = 0; i < p.getChildPageCount(); i++) {
+				count += getPageCount(p.getChildPage(i));
+			}
+		}
+		return count;
+	}
+
+	static void check(MVMap<Integer, String> map, int count) {
+		int errors = 0;
+		for (int i = 0; i < count; i++) {
+			if (!("Hello World " + i).equals(map.get(i)) || map.getKeyIndex(i) != i || map.getKey(i) != i) {
+				errors++;
+			}
+		}
+		System.out.println("size: " + map.size() + " errors: " + errors + " last: " + map.lastKey());
+	}
+}
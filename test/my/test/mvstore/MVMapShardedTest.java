@@ -0,0 +1,110 @@
+package my.test.mvstore;
+
+import java.util.Iterator;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVMapSharded;
+import org.h2.mvstore.MVStore;
+import org.h2.store.fs.FileUtils;
+
+public class MVMapShardedTest {
+	public static void main(String[] args) throws Exception {
+		MVStore store = MVStore.open(null);
+
+		//key按hash分到8个独立的MVMapConcurrent中，并发写不同的分片时不会相互覆盖root
+		MVMapSharded<Integer, String> map = store.openMap("MVMapShardedTest",
+				new MVMapSharded.Builder<Integer, String>().shards(8));
+		System.out.println(map.asString("MVMapShardedTest"));
+
+		for (int i = 0; i < 100; i++) {
+			map.put(i, "Hello" + i);
+		}
+		System.out.println(map.get(10));
+		System.out.println(map.size());
+		map.remove(10);
+		System.out.println(map.containsKey(10));
+
+		//遍历时按key的顺序合并所有分片
+		Iterator<Integer> it = map.keyIterator(95);
+		while (it.hasNext()) {
+			System.out.print(it.next() + " ");
+		}
+		System.out.println();
+		System.out.println(map.firstKey() + " " + map.lastKey());
+		System.out.println(map.ceilingKey(10) + " " + map.floorKey(10) + " " + map.higherKey(50) + " " + map.lowerKey(50));
+
+		//多个线程同时写
+		final MVMapSharded<Integer, String> m = map;
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int start = 1000 + t * 10000;
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = start; i < start + 10000; i++) {
+						m.put(i, "v" + i);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		System.out.println(map.size());
+		int count = 0;
+		Integer last = -1;
+		for (Integer k : map.keySet()) {
+			if (k <= last) {
+				throw new AssertionError(k + " <= " + last);
+			}
+			last = k;
+			count++;
+		}
+		System.out.println(count);
+		store.close();
+
+		//重新打开时使用已保存的分片数
+		String fileName = "E:/H2/baseDir/MVMapShardedTest";
+		FileUtils.delete(fileName);
+		store = MVStore.open(fileName);
+		map = store.openMap("MVMapShardedTest", new MVMapSharded.Builder<Integer, String>().shards(4));
+		for (int i = 0; i < 100; i++) {
+			map.put(i, "Hello" + i);
+		}
+		store.store();
+		store.close();
+
+		store = MVStore.open(fileName);
+		map = store.openMap("MVMapShardedTest", new MVMapSharded.Builder<Integer, String>().shards(16));
+		System.out.println(map.asString("MVMapShardedTest"));
+		System.out.println(map.get(99) + " " + map.size());
+
+		//key的位置是所有分片中比它小的key的个数之和
+		map.remove(50);
+		System.out.println(map.getKey(0) + " " + map.getKey(50) + " " + map.getKey(98) + " " + map.getKey(99));
+		System.out.println(map.getKeyIndex(51) + " " + map.getKeyIndex(50) + " " + map.getKeyIndex(1000));
+		System.out.println(map.keyList().subList(48, 52));
+
+		//打开旧版本时打开每个分片的同一个版本
+		long version = store.getCurrentVersion();
+		store.incrementVersion();
+		map.put(50, "Hello50");
+		map.put(100, "Hello100");
+		MVMap<Integer, String> old = map.openVersion(version);
+		System.out.println(old.size() + " " + old.get(50) + " " + old.get(99) + " " + map.size());
+
+		//分片的map不能当成普通的map打开，普通的map也不能当成分片的map打开
+		try {
+			store.openMap("MVMapShardedTest");
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+		}
+		store.openMap("plain");
+		try {
+			store.openMap("plain", new MVMapSharded.Builder<Integer, String>());
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+		}
+		store.close();
+	}
+}
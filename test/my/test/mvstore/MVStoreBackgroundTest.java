@@ -0,0 +1,126 @@
+package my.test.mvstore;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVMapConcurrent;
+import org.h2.mvstore.MVStore;
+import org.h2.store.fs.FileUtils;
+
+public class MVStoreBackgroundTest {
+	public static void main(String[] args) throws Exception {
+		String fileName = "E:/H2/baseDir/MVStoreBackgroundTest";
+		FileUtils.delete(fileName);
+
+		//后台线程出错时线程会结束，记下来
+		final AtomicInteger errors = new AtomicInteger();
+		Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			public void uncaughtException(Thread t, Throwable e) {
+				e.printStackTrace();
+				errors.incrementAndGet();
+			}
+		});
+
+		//后台线程每20毫秒保存已提交的数据，文件的填充率低于60%时逐步压缩，
+		//压缩和应用线程的修改、store同时进行
+		MVStore store = new MVStore.Builder().fileName(fileName).writeDelay(20).writeBufferSize(1)
+				.autoCompactFillRate(60).open();
+		store.setRetentionTime(0);
+		//后台线程只移动支持并发写的map的page，普通map的page由store移动
+		MVMap<Integer, String> concurrentMap = store.openMap("concurrent",
+				new MVMapConcurrent.Builder<Integer, String>());
+		MVMap<Integer, String> map = store.openMap("data");
+		Map<Integer, String> expected = new HashMap<Integer, String>();
+
+		Random r = new Random(1);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 300000; i++) {
+			int k = r.nextInt(20000);
+			if (r.nextInt(4) == 0) {
+				concurrentMap.remove(k);
+				map.remove(k);
+				expected.remove(k);
+			} else {
+				String v = "Hello World " + i;
+				concurrentMap.put(k, v);
+				map.put(k, v);
+				expected.put(k, v);
+			}
+			if (i % 5000 == 4999) {
+				store.commit(); //不写文件，由后台线程写
+			}
+			if (i % 20000 == 19999) {
+				store.store(); //和后台线程的压缩同时进行，被移动的chunk不能被释放
+			}
+		}
+		store.commit();
+		System.out.println("write: " + (System.currentTimeMillis() - start) + " ms");
+		check(concurrentMap, expected);
+		check(map, expected);
+
+		//后台线程还在工作，提交的修改仍会被保存
+		Thread.sleep(500);
+		System.out.println("unsaved pages: " + store.getUnsavedPageCount());
+		System.out.println("chunks: " + getChunkCount(store));
+		store.close();
+
+		store = MVStore.open(fileName);
+		concurrentMap = store.openMap("concurrent", new MVMapConcurrent.Builder<Integer, String>());
+		map = store.openMap("data");
+		check(concurrentMap, expected);
+		check(map, expected);
+		store.close();
+
+		//关闭时后台线程可能正在保存或压缩，要先停止后台线程，再回滚未提交的修改
+		int closeErrors = 0;
+		for (int n = 0; n < 10; n++) {
+			FileUtils.delete(fileName);
+			store = new MVStore.Builder().fileName(fileName).writeDelay(20).open();
+			concurrentMap = store.openMap("concurrent", new MVMapConcurrent.Builder<Integer, String>());
+			for (int round = 0; round < 10; round++) {
+				for (int i = 0; i < 20000; i++) {
+					concurrentMap.put(i, "Hello " + round);
+				}
+				store.commit();
+				for (int i = 0; i < 20000; i += 2) {
+					concurrentMap.remove(i);
+				}
+				store.commit();
+			}
+			concurrentMap.put(-1, "uncommitted");
+			try {
+				store.close();
+			} catch (IllegalArgumentException e) {
+				e.printStackTrace();
+				closeErrors++;
+			}
+		}
+		System.out.println("close errors: " + closeErrors);
+		System.out.println("errors: " + errors.get());
+	}
+
+	static void check(MVMap<Integer, String> map, Map<Integer, String> expected) {
+		if (map.size() != expected.size()) {
+			throw new AssertionError(map.getName() + " size: " + map.size() + " expected: " + expected.size());
+		}
+		for (Map.Entry<Integer, String> e : expected.entrySet()) {
+			if (!e.getValue().equals(map.get(e.getKey()))) {
+				throw new AssertionError(map.getName() + " key: " + e.getKey() + " value: " + map.get(e.getKey()));
+			}
+		}
+		System.out.println(map.getName() + ": " + map.size());
+	}
+
+	static int getChunkCount(MVStore store) {
+		int count = 0;
+		for (String key : store.getMetaMap().keyList()) {
+			if (key.startsWith("chunk.")) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,70 @@
+package my.test.mvstore;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.store.fs.FileUtils;
+
+public class MVStoreCompressTest {
+	static String fileName = "E:/H2/baseDir/MVStoreCompressTest";
+
+	public static void main(String[] args) {
+		//不压缩、LZF、Deflate三种方式写同样的数据，比较文件大小
+		System.out.println("none:    " + write(new MVStore.Builder()));
+		System.out.println("lzf:     " + write(new MVStore.Builder().compressData()));
+		System.out.println("deflate: " + write(new MVStore.Builder().compressHigh()));
+
+		//重新打开时不需要指定压缩算法，每个page自己记录了用的是哪种算法
+		MVStore store = MVStore.open(fileName);
+		MVMap<Integer, String> map = store.openMap("data");
+		System.out.println(map.get(5000) + " " + map.size());
+		System.out.println(store.getMetaMap().get("chunk.1"));
+		//有用Deflate压缩的chunk时文件格式是2，旧版本打开时报文件格式错误，而不是把page当成LZF压缩的来读
+		System.out.println("format: " + store.getFileHeader().get("format"));
+		store.close();
+		write(new MVStore.Builder().compressData());
+		store = MVStore.open(fileName);
+		System.out.println("format: " + store.getFileHeader().get("format"));
+		store.close();
+
+		//新数据用LZF，compact时移动的旧数据(冷数据)用Deflate
+		FileUtils.delete(fileName);
+		store = new MVStore.Builder().fileName(fileName).compressData().compressColdData().open();
+		store.setRetentionTime(0);
+		map = store.openMap("data");
+		for (int i = 0; i < 10000; i++) {
+			map.put(i, "Hello World " + i);
+			if (i % 1000 == 999) {
+				store.store();
+			}
+		}
+		//只修改最后的一部分数据，前面chunk里的page都是冷数据
+		for (int i = 9000; i < 10000; i++) {
+			map.put(i, "Hello " + i);
+		}
+		store.store();
+		System.out.println(store.compact(100));
+		for (String key : store.getMetaMap().keyList()) {
+			if (key.startsWith("chunk.")) {
+				System.out.println(key + " = " + store.getMetaMap().get(key));
+			}
+		}
+		store.close();
+
+		store = MVStore.open(fileName);
+		map = store.openMap("data");
+		System.out.println(map.get(9999) + " " + map.size());
+		store.close();
+	}
+
+	static long write(MVStore.Builder builder) {
+		FileUtils.delete(fileName);
+		MVStore store = builder.fileName(fileName).open();
+		MVMap<Integer, String> map = store.openMap("data");
+		for (int i = 0; i < 10000; i++) {
+			map.put(i, "Hello World " + i);
+		}
+		store.store();
+		store.close();
+		return FileUtils.size(fileName);
+	}
+}
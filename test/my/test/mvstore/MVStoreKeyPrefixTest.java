@@ -0,0 +1,71 @@
+package my.test.mvstore;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.MVStoreTool;
+import org.h2.mvstore.type.StringDataType;
+import org.h2.store.fs.FileUtils;
+
+public class MVStoreKeyPrefixTest {
+	static String fileName = "E:/H2/baseDir/MVStoreKeyPrefixTest";
+
+	public static void main(String[] args) {
+		FileUtils.delete(fileName);
+		//key是字符串时，page中所有key的公共前缀只存一次，node中的分隔key只取能区分左右两边的最短前缀
+		MVStore store = new MVStore.Builder().fileName(fileName).open();
+		MVMap<String, String> map = store.openMap("test",
+				new MVMap.Builder<String, String>().keyType(StringDataType.INSTANCE).valueType(StringDataType.INSTANCE));
+		for (int i = 0; i < 100000; i++) {
+			map.put(key(i), "v" + i);
+		}
+		store.store();
+		System.out.println("file size: " + FileUtils.size(fileName));
+		store.close();
+
+		store = MVStore.open(fileName);
+		map = store.openMap("test",
+				new MVMap.Builder<String, String>().keyType(StringDataType.INSTANCE).valueType(StringDataType.INSTANCE));
+		check(map);
+		//有带前缀的page时文件格式是2，旧版本打开时报文件格式错误，而不是把去掉前缀的key当成完整的key
+		System.out.println("format: " + store.getFileHeader().get("format") + " formatRead: "
+				+ store.getFileHeader().get("formatRead"));
+		//分隔key不一定是map中的key
+		System.out.println(map.ceilingKey("http://www.example.com/customers/0000100") + ", "
+				+ map.floorKey("http://www.example.com/customers/0000100") + ", " + map.get("http://www.example.com/c"));
+		store.close();
+
+		StringWriter w = new StringWriter();
+		MVStoreTool.dump(fileName, new PrintWriter(w));
+		System.out.println("prefix pages: " + w.toString().contains("prefix"));
+	}
+
+	static String key(int i) {
+		String s = "000000" + (i * 7 % 100000);
+		return "http://www.example.com/customers/" + s.substring(s.length() - 6);
+	}
+
+	static void check(MVMap<String, String> map) {
+		int errors = 0;
+		for (int i = 0; i < 100000; i++) {
+			if (!("v" + i).equals(map.get(key(i)))) {
+				errors++;
+			}
+		}
+		String last = null;
+		int count = 0;
+		for (String k : map.keySet()) {
+			if (last != null && last.compareTo(k) >= 0) {
+				errors++;
+			}
+			if (map.getKeyIndex(k) != count || !k.equals(map.getKey(count))) {
+				errors++;
+			}
+			last = k;
+			count++;
+		}
+		System.out.println("size: " + map.size() + " count: " + count + " errors: " + errors);
+	}
+}
@@ -0,0 +1,123 @@
+package my.test.mvstore;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.store.fs.FileUtils;
+
+public class MVStoreMappedTest {
+	static String fileName = "E:/H2/baseDir/MVStoreMappedTest";
+
+	public static void main(String[] args) {
+		FileUtils.delete(fileName);
+		MVStore store = new MVStore.Builder().fileName(fileName).open();
+		MVMap<Integer, String> map = store.openMap("data");
+		for (int i = 0; i < 200000; i++) {
+			map.put(i, "Hello World " + i);
+		}
+		store.store();
+		store.close();
+
+		//普通方式，每读一个page都要调用FileChannel.read
+		read(new MVStore.Builder().fileName(fileName).cacheSize(1));
+		//内存映射方式，第一次读chunk时映射整个chunk，之后直接从映射的内存中读page
+		read(new MVStore.Builder().fileName(fileName).cacheSize(1).mapped());
+
+		//映射时也可以写，新的chunk在第一次读时映射
+		store = new MVStore.Builder().fileName(fileName).cacheSize(1).mapped().open();
+		map = store.openMap("data");
+		for (int i = 0; i < 200000; i += 2) {
+			map.put(i, "Hello " + i);
+		}
+		store.store();
+		System.out.println(map.get(0) + ", " + map.get(1) + ", " + map.get(199998));
+		store.close();
+
+		//不再使用的chunk被释放时，以及关闭时，解除chunk的映射(之后这块空间可能被覆盖，文件也可能被截短)
+		store = new MVStore.Builder().fileName(fileName).cacheSize(1).mapped().open();
+		store.setRetentionTime(0);
+		map = store.openMap("data");
+		for (int n = 0; n < 5; n++) {
+			for (int i = 0; i < 200000; i += 7) {
+				map.get(i);
+			}
+			for (int i = 0; i < 200000; i++) {
+				map.put(i, "Hello " + n + " " + i);
+			}
+			store.store();
+		}
+		store.compact(100);
+		System.out.println(map.get(0) + ", " + map.get(199999));
+		store.close();
+		store = new MVStore.Builder().fileName(fileName).cacheSize(1).mapped().open();
+		map = store.openMap("data");
+		System.out.println(map.get(0) + ", " + map.get(199999) + ", " + map.size());
+		store.close();
+
+		//其他线程还在从映射的内存中读page时，chunk被释放或store被关闭，
+		//映射要等最后一个读线程读完才解除，否则JVM会崩溃
+		store = new MVStore.Builder().fileName(fileName).cacheSize(1).mapped().open();
+		store.setRetentionTime(0);
+		final MVMap<Integer, String> readMap = store.openMap("data");
+		final int[] errors = new int[1];
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (int n = 0; n < 20; n++) {
+						for (int i = 0; i < 200000; i += 7) {
+							readMap.get(i);
+						}
+					}
+				} catch (IllegalStateException e) {
+					//store已关闭
+				} catch (Exception e) {
+					errors[0]++;
+				}
+			}
+		};
+		reader.start();
+		for (int n = 0; n < 5; n++) {
+			for (int i = 0; i < 200000; i += 3) {
+				readMap.put(i, "Hi " + n + " " + i);
+			}
+			store.store();
+		}
+		store.close();
+		try {
+			reader.join();
+		} catch (InterruptedException e) {
+			//ignore
+		}
+		System.out.println("concurrent read errors: " + errors[0]);
+
+		//加密的文件不支持内存映射，按普通方式读
+		FileUtils.delete(fileName);
+		store = new MVStore.Builder().fileName(fileName).encryptionKey("007".toCharArray()).mapped().open();
+		map = store.openMap("data");
+		map.put(1, "Hello");
+		store.store();
+		store.close();
+		store = new MVStore.Builder().fileName(fileName).encryptionKey("007".toCharArray()).mapped().open();
+		map = store.openMap("data");
+		System.out.println(map.get(1));
+		store.close();
+	}
+
+	static void read(MVStore.Builder builder) {
+		MVStore store = builder.open();
+		MVMap<Integer, String> map = store.openMap("data");
+		for (int n = 0; n < 3; n++) {
+			long start = System.currentTimeMillis();
+			int count = 0;
+			for (int i = 0; i < 200000; i += 7) {
+				if (map.get(i) != null) {
+					count++;
+				}
+			}
+			System.out.println("pass " + n + ": " + count + " reads: " + store.getFileReadCount() + " time: "
+					+ (System.currentTimeMillis() - start) + " ms");
+		}
+		System.out.println(map.get(199999));
+		store.close();
+	}
+}
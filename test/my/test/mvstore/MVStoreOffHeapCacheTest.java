@@ -0,0 +1,82 @@
+package my.test.mvstore;
+
+import java.nio.ByteBuffer;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.cache.CacheOffHeap;
+import org.h2.store.fs.FileUtils;
+
+public class MVStoreOffHeapCacheTest {
+	static String fileName = "E:/H2/baseDir/MVStoreOffHeapCacheTest";
+
+	public static void main(String[] args) throws Exception {
+		FileUtils.delete(fileName);
+		MVStore store = new MVStore.Builder().fileName(fileName).compressData().open();
+		MVMap<Integer, String> map = store.openMap("data");
+		for (int i = 0; i < 200000; i++) {
+			map.put(i, "Hello World " + i);
+		}
+		store.store();
+		store.close();
+
+		//堆内的缓存只有1M，装不下所有的page，第二次遍历时还要读文件
+		read(new MVStore.Builder().fileName(fileName).cacheSize(1));
+		//堆外的缓存有64M，保存的是page序列化(压缩)后的字节，第二次遍历时不用再读文件
+		read(new MVStore.Builder().fileName(fileName).cacheSize(1).offHeapCacheSize(64));
+
+		//其他线程还在读写缓存时关闭缓存，读写的是旧的slab，不会出现NullPointerException，也不会读到别的key的数据
+		final CacheOffHeap cache = new CacheOffHeap(4 * 1024 * 1024, 4096);
+		final int[] errors = new int[1];
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 200000; i++) {
+							long key = i % 2000;
+							ByteBuffer buff = cache.get(key);
+							if (buff == null) {
+								buff = ByteBuffer.allocate(3000);
+								buff.putLong(0, key);
+								cache.put(key, buff);
+							} else if (buff.getLong(0) != key) {
+								errors[0]++;
+							}
+						}
+					} catch (Exception e) {
+						errors[0]++;
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (int n = 0; n < 100; n++) {
+			cache.close();
+			Thread.sleep(5);
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		System.out.println("concurrent close errors: " + errors[0]);
+	}
+
+	static void read(MVStore.Builder builder) {
+		MVStore store = builder.open();
+		MVMap<Integer, String> map = store.openMap("data");
+		for (int n = 0; n < 3; n++) {
+			long start = System.currentTimeMillis();
+			int count = 0;
+			for (int i = 0; i < 200000; i += 7) {
+				if (map.get(i) != null) {
+					count++;
+				}
+			}
+			System.out.println("pass " + n + ": " + count + " reads: " + store.getFileReadCount() + " time: "
+					+ (System.currentTimeMillis() - start) + " ms");
+		}
+		System.out.println(map.get(199999));
+		store.close();
+	}
+}
@@ -0,0 +1,144 @@
+package my.test.mvstore;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVMapConcurrent;
+import org.h2.mvstore.MVStore;
+import org.h2.store.fs.FileUtils;
+
+public class MVStoreWriteBlockTest {
+	static String fileName = "E:/H2/baseDir/MVStoreWriteBlockTest";
+
+	public static void main(String[] args) {
+		FileUtils.delete(fileName);
+		//每个chunk补齐到64K的整数倍，并且从64K的整数倍的位置开始写
+		MVStore store = new MVStore.Builder().fileName(fileName).writeBlockSize(64).open();
+		store.setRetentionTime(0);
+		MVMap<Integer, String> map = store.openMap("data");
+		for (int i = 0; i < 20000; i++) {
+			map.put(i, "Hello World " + i);
+			if (i % 2000 == 1999) {
+				store.store();
+			}
+		}
+		print(store);
+
+		//新chunk追加到文件末尾，文件的一半以上是空闲空间时才重用能放下整个块的旧chunk的空间
+		for (int n = 0; n < 5; n++) {
+			for (int i = 0; i < 20000; i++) {
+				map.put(i, "Hello " + n + " " + i);
+			}
+			store.store();
+		}
+		print(store);
+		store.close();
+
+		store = MVStore.open(fileName);
+		map = store.openMap("data");
+		System.out.println(map.get(0) + ", " + map.get(19999) + ", " + map.size());
+		store.close();
+
+		compact();
+		compactInBackground();
+		storeInBackground();
+	}
+
+	//后台线程保存时，释放旧chunk和分配新chunk的块数要一致，否则分配的位置会超出空闲范围
+	static void storeInBackground() {
+		final int[] errors = new int[1];
+		Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			public void uncaughtException(Thread t, Throwable e) {
+				e.printStackTrace();
+				errors[0]++;
+			}
+		});
+		for (int round = 0; round < 10; round++) {
+			FileUtils.delete(fileName);
+			MVStore store = new MVStore.Builder().fileName(fileName).writeBlockSize(64).writeBufferSize(1).open();
+			store.setRetentionTime(0);
+			MVMap<Integer, String> map = store.openMap("data", new MVMapConcurrent.Builder<Integer, String>());
+			for (int n = 0; n < 20; n++) {
+				for (int i = 0; i < 20000; i++) {
+					map.put(i, "Hello " + n + " " + i);
+				}
+				store.commit();
+			}
+			store.close();
+			store = MVStore.open(fileName);
+			map = store.openMap("data", new MVMapConcurrent.Builder<Integer, String>());
+			if (!"Hello 19 19999".equals(map.get(19999))) {
+				errors[0]++;
+			}
+			store.close();
+		}
+		System.out.println("background store errors: " + errors[0]);
+	}
+
+	//删除一半的key后压缩，chunk末尾补齐的0不能当成page读
+	static void compact() {
+		FileUtils.delete(fileName);
+		MVStore store = new MVStore.Builder().fileName(fileName).writeBlockSize(64).open();
+		store.setRetentionTime(0);
+		MVMap<Integer, String> map = store.openMap("data");
+		for (int i = 0; i < 20000; i++) {
+			map.put(i, "Hello World " + i);
+			if (i % 2000 == 1999) {
+				store.store();
+			}
+		}
+		for (int i = 0; i < 20000; i += 2) {
+			map.remove(i);
+		}
+		store.store();
+		System.out.println("compact: " + store.compact(100));
+		store.close();
+
+		store = MVStore.open(fileName);
+		map = store.openMap("data");
+		System.out.println(map.get(1) + ", " + map.get(19999) + ", " + map.size());
+		store.close();
+	}
+
+	//后台线程压缩补齐过的chunk，不能在补齐的0上死循环
+	static void compactInBackground() {
+		FileUtils.delete(fileName);
+		MVStore store = new MVStore.Builder().fileName(fileName).writeBlockSize(64).writeDelay(20)
+				.autoCompactFillRate(60).open();
+		store.setRetentionTime(0);
+		MVMap<Integer, String> map = store.openMap("data", new MVMapConcurrent.Builder<Integer, String>());
+		for (int n = 0; n < 10; n++) {
+			for (int i = 0; i < 20000; i++) {
+				if (i % 2 == n % 2) {
+					map.remove(i);
+				} else {
+					map.put(i, "Hello " + n + " " + i);
+				}
+			}
+			store.commit();
+		}
+		long start = System.currentTimeMillis();
+		store.close();
+		System.out.println("close: " + (System.currentTimeMillis() - start < 10000));
+
+		store = MVStore.open(fileName);
+		map = store.openMap("data", new MVMapConcurrent.Builder<Integer, String>());
+		System.out.println(map.get(0) + ", " + map.get(19998) + ", " + map.size());
+		store.close();
+	}
+
+	static void print(MVStore store) {
+		int aligned = 0, chunks = 0;
+		for (String key : store.getMetaMap().keyList()) {
+			if (key.startsWith("chunk.")) {
+				String s = store.getMetaMap().get(key);
+				long start = Long.parseLong(s.replaceAll(".*start:([0-9]+).*", "$1"));
+				//最后一个chunk的位置在元数据中还不知道
+				if (start == Long.MAX_VALUE || start % (64 * 1024) == 0) {
+					aligned++;
+				}
+				chunks++;
+			}
+		}
+		System.out.println("chunks: " + chunks + " aligned: " + aligned + " file size: "
+				+ FileUtils.size(fileName) + " writes: " + store.getFileWriteCount());
+	}
+}
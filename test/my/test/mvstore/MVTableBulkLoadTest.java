@@ -0,0 +1,59 @@
+package my.test.mvstore;
+
+import java.sql.SQLException;
+
+import my.test.TestBase;
+
+public class MVTableBulkLoadTest extends TestBase {
+	public static void main(String[] args) throws Exception {
+		new MVTableBulkLoadTest().start();
+	}
+
+	@Override
+	public void init() throws Exception {
+		url = "jdbc:h2:E:/H2/baseDir/MVTableBulkLoadTest";
+	}
+
+	@Override
+	public void startInternal() throws Exception {
+		stmt.executeUpdate("DROP TABLE IF EXISTS MVTableBulkLoadTest, MVTableBulkLoadTest2 CASCADE");
+
+		//CREATE TABLE AS SELECT时行key是递增的，记录会批量追加到MVPrimaryIndex的map中，不需要undo log
+		long start = System.currentTimeMillis();
+		stmt.executeUpdate("CREATE TABLE MVTableBulkLoadTest ENGINE \"org.h2.mvstore.db.MVTableEngine\" "
+				+ "AS SELECT X id, 'Hello ' || MOD(X * 7, 100000) name FROM SYSTEM_RANGE(1, 100000)");
+		System.out.println("create table as select: " + (System.currentTimeMillis() - start) + " ms");
+		sql = "select count(*), min(id), max(id) from MVTableBulkLoadTest";
+		executeQuery();
+
+		//记录数超过10000时，每10000条记录排好序后放到一个临时map中，最后合并所有临时map并自底向上构建索引
+		start = System.currentTimeMillis();
+		stmt.executeUpdate("CREATE INDEX MVTableBulkLoadTestIndex ON MVTableBulkLoadTest(name)");
+		System.out.println("create index: " + (System.currentTimeMillis() - start) + " ms");
+		sql = "select id, name from MVTableBulkLoadTest where name between 'Hello 99997' and 'Hello 99999'";
+		executeQuery();
+		sql = "select count(*) from MVTableBulkLoadTest where name >= 'Hello 5'";
+		executeQuery();
+
+		//唯一索引在合并时检查重复的值
+		stmt.executeUpdate("insert into MVTableBulkLoadTest(id, name) values(100001, 'Hello 5')");
+		try {
+			stmt.executeUpdate("CREATE UNIQUE INDEX MVTableBulkLoadTestUnique ON MVTableBulkLoadTest(name)");
+		} catch (SQLException e) {
+			System.out.println(e.getErrorCode());
+		}
+		stmt.executeUpdate("CREATE UNIQUE INDEX MVTableBulkLoadTestUnique ON MVTableBulkLoadTest(id)");
+
+		//主键不是递增的时候，逐条加入
+		stmt.executeUpdate("CREATE TABLE MVTableBulkLoadTest2(id int primary key, name varchar) "
+				+ "ENGINE \"org.h2.mvstore.db.MVTableEngine\" AS SELECT MOD(X * 7, 1000), 'Hello' FROM SYSTEM_RANGE(1, 1000)");
+		sql = "select count(*), min(id), max(id) from MVTableBulkLoadTest2";
+		executeQuery();
+		try {
+			stmt.executeUpdate("CREATE TABLE MVTableBulkLoadTest3(id int primary key, name varchar) "
+					+ "ENGINE \"org.h2.mvstore.db.MVTableEngine\" AS SELECT MOD(X, 10), 'Hello' FROM SYSTEM_RANGE(1, 20)");
+		} catch (SQLException e) {
+			System.out.println(e.getErrorCode());
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package my.test.mvstore;
+
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.db.TransactionStore;
+import org.h2.mvstore.db.TransactionStore.Transaction;
+import org.h2.mvstore.db.TransactionStore.TransactionMap;
+import org.h2.mvstore.type.ObjectDataType;
+import org.h2.store.fs.FileUtils;
+
+public class TransactionStoreRedoLogTest {
+	static String fileName = "E:/H2/baseDir/TransactionStoreRedoLogTest";
+	static String redoLogFileName = fileName + ".redo";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {
+			crash();
+			return;
+		}
+		FileUtils.delete(fileName);
+		FileUtils.delete(redoLogFileName);
+
+		//在另一个进程中提交事务，然后不写MVStore就直接退出
+		Process p = new ProcessBuilder("java", "-cp", System.getProperty("java.class.path"),
+				TransactionStoreRedoLogTest.class.getName(), "crash").inheritIO().start();
+		p.waitFor();
+
+		//checkpoint时先写一个新的redo log文件，旧的删除后再改名，
+		//如果在删除旧文件后改名前崩溃了，打开时使用新文件
+		FileUtils.moveTo(redoLogFileName, redoLogFileName + ".new");
+
+		//重新打开时从redo log中得到已提交的事务，未提交的事务还是会回滚
+		MVStore s = MVStore.open(fileName);
+		TransactionStore ts = new TransactionStore(s, new ObjectDataType(), redoLogFileName);
+		Transaction tx = ts.begin();
+		TransactionMap<Integer, String> m = tx.openMap("test");
+		System.out.println(m.get(0) + ", " + m.get(1) + ", " + m.get(99) + ", " + m.get(100) + ", " + m.get(101));
+		//redo log超过4M时写MVStore，然后清空redo log(事务100还没有结束，不能再更新key 100)
+		String padding = new String(new char[200]).replace('\0', ' ');
+		for (int i = 0; i < 20000; i++) {
+			m.put(1000 + i, "Hello World " + i + padding);
+			tx.commit();
+			tx = ts.begin();
+			m = tx.openMap("test");
+		}
+		System.out.println("redo log size < 4M: " + (FileUtils.size(redoLogFileName) < 4 * 1024 * 1024));
+		ts.close();
+		s.close();
+		System.out.println("redo log size after close: " + FileUtils.size(redoLogFileName));
+
+		//旧文件还在时，新文件可能没写完，打开时删除新文件
+		FileUtils.createFile(redoLogFileName + ".new");
+		s = MVStore.open(fileName);
+		ts = new TransactionStore(s, new ObjectDataType(), redoLogFileName);
+		System.out.println("new redo log deleted: " + !FileUtils.exists(redoLogFileName + ".new"));
+		tx = ts.begin();
+		m = tx.openMap("test");
+		System.out.println(m.get(1000).trim() + ", " + m.get(20999).trim());
+		ts.close();
+		s.close();
+	}
+
+	static void crash() {
+		MVStore s = new MVStore.Builder().fileName(fileName).writeDelay(Integer.MAX_VALUE).open();
+		TransactionStore ts = new TransactionStore(s, new ObjectDataType(), redoLogFileName);
+		Transaction tx = ts.begin();
+		TransactionMap<Integer, String> m = tx.openMap("test");
+		m.put(0, "Hello");
+		tx.commit();
+		//每个小事务提交时只在redo log中追加一条记录
+		for (int i = 1; i < 100; i++) {
+			tx = ts.begin();
+			m = tx.openMap("test");
+			m.put(i, "Hello " + i);
+			if (i % 10 == 0) {
+				m.remove(i - 1);
+			}
+			tx.commit();
+		}
+		tx = ts.begin();
+		m = tx.openMap("test");
+		m.put(100, "open");
+		//未提交的事务和后来提交的事务都已经写到MVStore中了
+		tx = ts.begin();
+		m = tx.openMap("test");
+		m.put(101, "committed");
+		s.store();
+		tx.commit();
+		System.out.println("redo log size: " + FileUtils.size(redoLogFileName) + ", file size: "
+				+ FileUtils.size(fileName));
+		Runtime.getRuntime().halt(0);
+	}
+}
@@ -0,0 +1,43 @@
+package my.test.store;
+
+import my.test.TestBase;
+
+public class PageStoreGatheredWriteTest extends TestBase {
+	public static void main(String[] args) throws Exception {
+		new PageStoreGatheredWriteTest().start();
+	}
+
+	@Override
+	public void init() throws Exception {
+		prop.setProperty("CACHE_SIZE", "65536"); //64M，修改过的page都在cache中，checkpoint时一起写
+		url = "jdbc:h2:E:/H2/baseDir/PageStoreGatheredWriteTest";
+		//url = "jdbc:h2:nio:E:/H2/baseDir/PageStoreGatheredWriteTest";
+	}
+
+	@Override
+	public void startInternal() throws Exception {
+		stmt.executeUpdate("DROP TABLE IF EXISTS PageStoreGatheredWriteTest");
+		stmt.executeUpdate("CREATE TABLE PageStoreGatheredWriteTest(id int primary key, name varchar(500))");
+		stmt.executeUpdate("CREATE INDEX PageStoreGatheredWriteTestName ON PageStoreGatheredWriteTest(name)");
+		stmt.executeUpdate("CHECKPOINT");
+
+		stmt.executeUpdate("INSERT INTO PageStoreGatheredWriteTest SELECT x, 'name-' || x FROM SYSTEM_RANGE(1, 200000)");
+
+		//按pageId排序后相邻的page用一次写操作写入
+		long start = System.currentTimeMillis();
+		stmt.executeUpdate("CHECKPOINT");
+		System.out.println("checkpoint: " + (System.currentTimeMillis() - start) + " ms");
+
+		sql = "select name, value from information_schema.settings where name like 'info.FILE_WRITE%'";
+		executeQuery();
+
+		//重新打开后数据都还在
+		stmt.executeUpdate("SHUTDOWN IMMEDIATELY");
+		conn = getConnection();
+		stmt = conn.createStatement();
+		sql = "select count(*), sum(id), max(name) from PageStoreGatheredWriteTest";
+		executeQuery();
+		sql = "select count(*) from PageStoreGatheredWriteTest where name like 'name-1999%'";
+		executeQuery();
+	}
+}
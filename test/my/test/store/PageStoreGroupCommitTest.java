@@ -0,0 +1,120 @@
+package my.test.store;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import my.test.TestBase;
+
+public class PageStoreGroupCommitTest extends TestBase {
+	public static void main(String[] args) throws Exception {
+		new PageStoreGroupCommitTest().start();
+	}
+
+	@Override
+	public void init() throws Exception {
+		prop.setProperty("MULTI_THREADED", "true");
+		prop.setProperty("WRITE_DELAY", "0"); //每次提交都刷新日志
+		url = "jdbc:h2:E:/H2/baseDir/PageStoreGroupCommitTest";
+	}
+
+	@Override
+	public void startInternal() throws Exception {
+		final int threadCount = 8;
+		final int rowCount = 200;
+		//MULTI_THREADED模式下写操作对表加排它锁直到提交，所以每个线程用不同的表
+		for (int i = 0; i < threadCount; i++) {
+			stmt.executeUpdate("DROP TABLE IF EXISTS PageStoreGroupCommitTest" + i);
+			stmt.executeUpdate("CREATE TABLE PageStoreGroupCommitTest" + i + "(id int primary key, name varchar(500))");
+		}
+
+		//LOG 3: 每次提交都同步到硬盘，多个session同时提交时只同步一次
+		stmt.executeUpdate("SET LOG 3");
+		final AtomicInteger errors = new AtomicInteger();
+		Thread[] threads = new Thread[threadCount];
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < threadCount; i++) {
+			final int t = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Connection c = getConnection();
+						Statement s = c.createStatement();
+						for (int j = 0; j < rowCount; j++) {
+							int id = t * rowCount + j;
+							s.executeUpdate("insert into PageStoreGroupCommitTest" + t + " values(" + id + ", 'a" + id + "')");
+						}
+						c.close();
+					} catch (Exception e) {
+						e.printStackTrace();
+						errors.incrementAndGet();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		String countSql = "select count(*), sum(id) from (select id from PageStoreGroupCommitTest0";
+		for (int i = 1; i < threadCount; i++) {
+			countSql += " union all select id from PageStoreGroupCommitTest" + i;
+		}
+		countSql += ")";
+		System.out.println("insert: " + (System.currentTimeMillis() - start) + " ms, errors: " + errors.get());
+
+		sql = countSql;
+		executeQuery();
+
+		//已提交的记录在重新打开后都还在
+		stmt.executeUpdate("SHUTDOWN IMMEDIATELY");
+		conn = getConnection();
+		stmt = conn.createStatement();
+		sql = countSql;
+		executeQuery();
+
+		//提交时先持有数据库锁再锁PageStore(与CHECKPOINT的加锁顺序相同)，
+		//同步日志时不持有数据库锁；提交的同时做CHECKPOINT和关闭数据库不会死锁
+		final int[] committed = new int[threadCount];
+		for (int i = 0; i < threadCount; i++) {
+			final int t = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						Connection c = getConnection();
+						Statement s = c.createStatement();
+						for (int j = 0; j < rowCount; j++) {
+							s.executeUpdate("update PageStoreGroupCommitTest" + t + " set name = 'b" + j + "' where id = "
+									+ (t * rowCount + j));
+							committed[t]++;
+						}
+						c.close();
+					} catch (Exception e) {
+						//数据库已关闭
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < 20; i++) {
+			stmt.executeUpdate("CHECKPOINT");
+		}
+		stmt.executeUpdate("SHUTDOWN");
+		for (Thread t : threads) {
+			t.join();
+		}
+		conn = getConnection();
+		stmt = conn.createStatement();
+		int lost = 0;
+		for (int i = 0; i < threadCount; i++) {
+			rs = stmt.executeQuery("select count(*) from PageStoreGroupCommitTest" + i + " where name like 'b%'");
+			rs.next();
+			if (rs.getInt(1) < committed[i]) {
+				lost++;
+			}
+		}
+		System.out.println("tables with lost commits: " + lost);
+	}
+}
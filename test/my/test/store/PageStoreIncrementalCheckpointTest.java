@@ -0,0 +1,54 @@
+package my.test.store;
+
+import java.sql.PreparedStatement;
+
+import my.test.TestBase;
+
+public class PageStoreIncrementalCheckpointTest extends TestBase {
+	public static void main(String[] args) throws Exception {
+		new PageStoreIncrementalCheckpointTest().start();
+	}
+
+	@Override
+	public void init() throws Exception {
+		prop.setProperty("PAGE_STORE_INCREMENTAL_CHECKPOINT", "true");
+		prop.setProperty("CACHE_SIZE", "65536"); //64M，修改过的page都能放在cache中
+		prop.setProperty("WRITE_DELAY", "100");
+		url = "jdbc:h2:E:/H2/baseDir/PageStoreIncrementalCheckpointTest";
+	}
+
+	@Override
+	public void startInternal() throws Exception {
+		stmt.executeUpdate("DROP TABLE IF EXISTS PageStoreIncrementalCheckpointTest");
+		stmt.executeUpdate("CREATE TABLE PageStoreIncrementalCheckpointTest(id int primary key, name varchar(500))");
+		stmt.executeUpdate("CREATE INDEX PageStoreIncrementalCheckpointTestName ON PageStoreIncrementalCheckpointTest(name)");
+
+		//单位是K，日志每增加1M切换一次日志段，修改过的page由writer线程在后台写回，提交时不用一次写回所有page
+		stmt.executeUpdate("SET MAX_LOG_SIZE 2048");
+		PreparedStatement ps = conn.prepareStatement("MERGE INTO PageStoreIncrementalCheckpointTest VALUES(?, ?)");
+		long start = System.currentTimeMillis();
+		long maxCommitTime = 0;
+		for (int i = 0; i < 200000; i++) {
+			long t = System.nanoTime();
+			int id = i % 50000;
+			ps.setInt(1, id);
+			ps.setString(2, "name-" + id + "-" + i);
+			ps.executeUpdate();
+			maxCommitTime = Math.max(maxCommitTime, System.nanoTime() - t);
+		}
+		System.out.println("merge: " + (System.currentTimeMillis() - start) + " ms, max: " + maxCommitTime / 1000000
+				+ " ms");
+
+		sql = "select count(*), sum(id), max(name) from PageStoreIncrementalCheckpointTest";
+		executeQuery();
+
+		//没有写回的page在重新打开时通过日志恢复
+		stmt.executeUpdate("SHUTDOWN IMMEDIATELY");
+		conn = getConnection();
+		stmt = conn.createStatement();
+		sql = "select count(*), sum(id), max(name) from PageStoreIncrementalCheckpointTest";
+		executeQuery();
+		sql = "select count(*) from PageStoreIncrementalCheckpointTest where name like 'name-4999%'";
+		executeQuery();
+	}
+}
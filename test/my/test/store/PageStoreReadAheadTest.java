@@ -0,0 +1,51 @@
+package my.test.store;
+
+import java.sql.PreparedStatement;
+
+import my.test.TestBase;
+
+public class PageStoreReadAheadTest extends TestBase {
+	public static void main(String[] args) throws Exception {
+		new PageStoreReadAheadTest().start();
+	}
+
+	@Override
+	public void init() throws Exception {
+		prop.setProperty("PAGE_STORE_READ_AHEAD", "32"); //顺序扫描时一次最多读32个page
+		prop.setProperty("CACHE_SIZE", "1024"); //1M，表和索引的page放不下，重新扫描时都要从文件中读
+		url = "jdbc:h2:E:/H2/baseDir/PageStoreReadAheadTest";
+	}
+
+	@Override
+	public void startInternal() throws Exception {
+		stmt.executeUpdate("DROP TABLE IF EXISTS PageStoreReadAheadTest");
+		stmt.executeUpdate("CREATE TABLE PageStoreReadAheadTest(id int primary key, name varchar(500))");
+		stmt.executeUpdate("CREATE INDEX PageStoreReadAheadTestName ON PageStoreReadAheadTest(name)");
+
+		conn.setAutoCommit(false);
+		PreparedStatement ps = conn.prepareStatement("INSERT INTO PageStoreReadAheadTest VALUES(?, ?)");
+		for (int i = 0; i < 100000; i++) {
+			ps.setInt(1, i);
+			ps.setString(2, "name-" + i);
+			ps.executeUpdate();
+		}
+		conn.commit();
+		conn.setAutoCommit(true);
+
+		//全表扫描，PageDataLeaf在文件中大多是相邻的
+		long start = System.currentTimeMillis();
+		sql = "select count(*), sum(id), max(name) from PageStoreReadAheadTest";
+		executeQuery();
+		System.out.println("table scan: " + (System.currentTimeMillis() - start) + " ms");
+
+		//按索引的范围扫描
+		start = System.currentTimeMillis();
+		sql = "select count(*) from PageStoreReadAheadTest where name between 'name-2' and 'name-5'";
+		executeQuery();
+		System.out.println("index range scan: " + (System.currentTimeMillis() - start) + " ms");
+
+		//预读的page要和逐个读的page一样
+		sql = "select id, name from PageStoreReadAheadTest where id in(0, 49999, 99999)";
+		executeQuery();
+	}
+}
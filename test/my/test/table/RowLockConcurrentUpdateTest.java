@@ -0,0 +1,95 @@
+package my.test.table;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import my.test.TestBase;
+
+public class RowLockConcurrentUpdateTest extends TestBase {
+	public static void main(String[] args) throws Exception {
+		new RowLockConcurrentUpdateTest().start();
+	}
+
+	@Override
+	public void init() throws Exception {
+		prop.setProperty("LOCK_MODE", "4"); //行级锁
+		prop.setProperty("LOCK_TIMEOUT", "10000");
+		url = "jdbc:h2:E:/H2/baseDir/RowLockConcurrentUpdateTest";
+	}
+
+	@Override
+	public void startInternal() throws Exception {
+		stmt.executeUpdate("DROP TABLE IF EXISTS RowLockConcurrentUpdateTest");
+		stmt.executeUpdate("CREATE TABLE RowLockConcurrentUpdateTest(id int primary key, v int)");
+		stmt.executeUpdate("insert into RowLockConcurrentUpdateTest select x, x from system_range(1, 10)");
+
+		final Connection conn1 = getConnection();
+		Connection conn2 = getConnection();
+		conn2.setAutoCommit(false);
+		Statement stmt2 = conn2.createStatement();
+
+		//第二个事务先锁住id=5这一行，第一个事务删除了前4行的旧记录后要等待id=5这一行，
+		//等待期间第二个事务修改了这一行然后提交，第一个事务的update要先回滚已删除的4行再重试，不能丢掉这4行
+		stmt2.executeUpdate("update RowLockConcurrentUpdateTest set v = v where id = 5");
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					Statement s = conn1.createStatement();
+					System.out.println("updated " + s.executeUpdate("update RowLockConcurrentUpdateTest set v = v + 10"));
+					s.close();
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		t.start();
+		Thread.sleep(500);
+		stmt2.executeUpdate("update RowLockConcurrentUpdateTest set v = v + 10 where id = 5");
+		conn2.commit();
+		t.join();
+
+		//应该是10行，sum是55 + 10 + 100 = 165
+		sql = "select count(*), sum(v) from RowLockConcurrentUpdateTest";
+		executeQuery();
+
+		//两个session同时修改所有行，每次都加10
+		final int loops = 200;
+		final AtomicInteger errors = new AtomicInteger();
+		Thread[] threads = new Thread[2];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						Connection c = getConnection();
+						Statement s = c.createStatement();
+						for (int j = 0; j < loops; j++) {
+							int count = s.executeUpdate("update RowLockConcurrentUpdateTest set v = v + 10");
+							if (count != 10) {
+								System.out.println("updated " + count);
+								errors.incrementAndGet();
+							}
+						}
+						c.close();
+					} catch (Exception e) {
+						e.printStackTrace();
+						errors.incrementAndGet();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		System.out.println("errors: " + errors.get());
+
+		//应该是10行，sum是165 + 2 * 200 * 100 = 40165
+		sql = "select count(*), sum(v) from RowLockConcurrentUpdateTest";
+		executeQuery();
+
+		conn1.close();
+		conn2.close();
+	}
+}
@@ -0,0 +1,107 @@
+package my.test.table;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import my.test.TestBase;
+
+public class RowLockTest extends TestBase {
+	public static void main(String[] args) throws Exception {
+		new RowLockTest().start();
+	}
+
+	@Override
+	public void init() throws Exception {
+		prop.setProperty("LOCK_MODE", "4"); //行级锁，写操作只锁被修改的行
+		//prop.setProperty("LOCK_MODE", "3"); //表级锁，第二个事务要等第一个事务提交后才能写
+		prop.setProperty("LOCK_TIMEOUT", "1000");
+	}
+
+	@Override
+	public void startInternal() throws Exception {
+		stmt.executeUpdate("DROP TABLE IF EXISTS RowLockTest");
+		stmt.executeUpdate("CREATE TABLE IF NOT EXISTS RowLockTest(id int primary key, name varchar(500), v int)");
+		stmt.executeUpdate("insert into RowLockTest select x, 'a' || x, x from system_range(1, 10)");
+
+		final Connection conn1 = getConnection();
+		Connection conn2 = getConnection();
+		conn1.setAutoCommit(false);
+		conn2.setAutoCommit(false);
+		Statement stmt1 = conn1.createStatement();
+		Statement stmt2 = conn2.createStatement();
+
+		//两个事务修改不同的行，互不等待
+		stmt1.executeUpdate("insert into RowLockTest values(11, 'a11', 11)");
+		stmt2.executeUpdate("insert into RowLockTest values(12, 'a12', 12)");
+		stmt1.executeUpdate("update RowLockTest set v = v + 1 where id = 1");
+		stmt2.executeUpdate("update RowLockTest set v = v + 1 where id = 2");
+
+		//修改同一行时要等另一个事务提交或回滚，这里会超时
+		try {
+			stmt2.executeUpdate("update RowLockTest set v = v + 1 where id = 1");
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+		}
+
+		//第一个事务已删除的主键值在它提交前不能被其他事务重新插入
+		stmt1.executeUpdate("delete from RowLockTest where id = 3");
+		try {
+			stmt2.executeUpdate("insert into RowLockTest values(3, 'b3', 3)");
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+		}
+
+		//读操作只等排它锁，不等其他事务的写操作(可能读到未提交的行)，
+		//两个事务都是先写后读时不会互相等待
+		ResultSet rs1 = stmt1.executeQuery("select count(*) from RowLockTest");
+		rs1.next();
+		ResultSet rs2 = stmt2.executeQuery("select count(*) from RowLockTest");
+		rs2.next();
+		System.out.println("conn1: " + rs1.getInt(1) + ", conn2: " + rs2.getInt(1));
+		rs1.close();
+		rs2.close();
+
+		conn1.commit();
+		conn2.commit();
+
+		sql = "select * from RowLockTest";
+		executeQuery();
+
+		//死锁: 两个事务互相等待对方锁住的行
+		stmt1.executeUpdate("update RowLockTest set v = 0 where id = 4");
+		stmt2.executeUpdate("update RowLockTest set v = 0 where id = 5");
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					executeUpdate(conn1, "update RowLockTest set v = 1 where id = 5");
+				} catch (SQLException e) {
+					System.out.println(e.getMessage());
+				}
+			}
+		};
+		t.start();
+		Thread.sleep(200);
+		try {
+			stmt2.executeUpdate("update RowLockTest set v = 1 where id = 4");
+		} catch (SQLException e) {
+			System.out.println(e.getMessage());
+		}
+		conn2.commit();
+		t.join();
+		conn1.commit();
+
+		sql = "select * from RowLockTest where id in(4, 5)";
+		executeQuery();
+
+		conn1.close();
+		conn2.close();
+	}
+
+	static void executeUpdate(Connection conn, String sql) throws SQLException {
+		Statement s = conn.createStatement();
+		s.executeUpdate(sql);
+		s.close();
+	}
+}
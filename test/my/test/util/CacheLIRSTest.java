@@ -0,0 +1,96 @@
+package my.test.util;
+
+import org.h2.message.Trace;
+import org.h2.util.Cache;
+import org.h2.util.CacheLRU;
+import org.h2.util.CacheObject;
+import org.h2.util.CacheWriter;
+
+//CACHE_TYPE有三种: LRU、TQ、LIRS，都可以加“SOFT_”前缀，
+//例如jdbc:h2:E:/H2/baseDir/test;CACHE_TYPE=LIRS
+public class CacheLIRSTest {
+	public static void main(String[] args) {
+		for (String type : new String[] { "LRU", "TQ", "LIRS" }) {
+			scan(type);
+		}
+		writeBack();
+	}
+
+	//经常访问的3000个page，读完一次大表扫描后还有多少在cache中
+	static void scan(String type) {
+		MyWriter writer = new MyWriter();
+		Cache cache = CacheLRU.getCache(writer, type, 4096); //4M，每个对象占1K，能放3500个左右
+		for (int k = 0; k < 3; k++) {
+			for (int i = 0; i < 3000; i++) {
+				get(cache, i);
+			}
+		}
+		for (int i = 100000; i < 140000; i++) {
+			get(cache, i);
+		}
+		int hits = 0;
+		for (int i = 0; i < 3000; i++) {
+			if (cache.find(i) != null) {
+				hits++;
+			}
+		}
+		System.out.println(type + ": hot pages after scan: " + hits + " memory: " + cache.getMemory() + " KB");
+	}
+
+	//被修改过的对象在删除前要先写回，写回之前要先刷新日志
+	static void writeBack() {
+		MyWriter writer = new MyWriter();
+		Cache cache = CacheLRU.getCache(writer, "LIRS", 1024);
+		for (int i = 0; i < 5000; i++) {
+			MyObject o = new MyObject(i);
+			o.setChanged(true);
+			cache.put(o);
+		}
+		System.out.println("changed: " + cache.getAllChanged().size() + " written: " + writer.written + " flushLog: "
+				+ (writer.flushLog > 0) + " lost: " + (5000 - cache.getAllChanged().size() - writer.written));
+		cache.clear();
+		System.out.println("after clear: " + cache.getMemory() + " KB, " + cache.getAllChanged().size());
+	}
+
+	static void get(Cache cache, int pos) {
+		if (cache.get(pos) == null) {
+			cache.put(new MyObject(pos));
+		}
+	}
+
+	static class MyObject extends CacheObject {
+		MyObject(int pos) {
+			setPos(pos);
+		}
+
+		@Override
+		public boolean canRemove() {
+			return true;
+		}
+
+		@Override
+		public int getMemory() {
+			return 256; //1K
+		}
+	}
+
+	static class MyWriter implements CacheWriter {
+		int written, flushLog;
+
+		@Override
+		public void writeBack(CacheObject entry) {
+			entry.setChanged(false);
+			written++;
+		}
+
+		@Override
+		public void flushLog() {
+			flushLog++;
+		}
+
+		@Override
+		public Trace getTrace() {
+			return null;
+		}
+	}
+}